@@ -0,0 +1,100 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.Variation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static com.optimizely.ab.config.ValidProjectConfigV4.EXPERIMENT_BASIC_EXPERIMENT_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.EXPERIMENT_MULTIVARIATE_EXPERIMENT_KEY;
+
+/**
+ * JMH benchmarks for {@link Bucketer#bucket(Experiment, String, ProjectConfig)} alone.
+ * <p>
+ * Bucketing ids are generated up front so that only the hashing and traffic allocation lookup are measured. Run
+ * with the GC profiler ({@code -prof gc}, enabled for the jmh task in the build) to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class BucketerBenchmark {
+
+    private static final int BUCKETING_ID_COUNT = 1024;
+
+    private Bucketer bucketer;
+    private ProjectConfig projectConfig;
+
+    private Experiment basicExperiment;
+    private Experiment multivariateExperiment;
+    private Experiment mutexGroupExperiment;
+
+    private String[] bucketingIds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        bucketer = new Bucketer();
+        projectConfig = validProjectConfigV4();
+
+        basicExperiment = projectConfig.getExperimentKeyMapping().get(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        multivariateExperiment = projectConfig.getExperimentKeyMapping().get(EXPERIMENT_MULTIVARIATE_EXPERIMENT_KEY);
+        mutexGroupExperiment = projectConfig.getExperimentKeyMapping().get("mutex_group_2_experiment_1");
+
+        Random random = new Random(42);
+        bucketingIds = new String[BUCKETING_ID_COUNT];
+        for (int i = 0; i < BUCKETING_ID_COUNT; i++) {
+            bucketingIds[i] = "optimizely_user" + random.nextInt();
+        }
+    }
+
+    private String nextBucketingId() {
+        index = (index + 1) & (BUCKETING_ID_COUNT - 1);
+        return bucketingIds[index];
+    }
+
+    @Benchmark
+    public Variation measureBucketBasicExperiment() {
+        return bucketer.bucket(basicExperiment, nextBucketingId(), projectConfig);
+    }
+
+    @Benchmark
+    public Variation measureBucketMultivariateExperiment() {
+        return bucketer.bucket(multivariateExperiment, nextBucketingId(), projectConfig);
+    }
+
+    @Benchmark
+    public Variation measureBucketMutexGroupExperiment() {
+        return bucketer.bucket(mutexGroupExperiment, nextBucketingId(), projectConfig);
+    }
+}
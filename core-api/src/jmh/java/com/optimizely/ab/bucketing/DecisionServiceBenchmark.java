@@ -0,0 +1,92 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.error.NoOpErrorHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static com.optimizely.ab.config.ValidProjectConfigV4.ATTRIBUTE_HOUSE_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.AUDIENCE_GRYFFINDOR_VALUE;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_MULTI_VARIATE_FEATURE_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_MUTEX_GROUP_FEATURE_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_SINGLE_VARIABLE_STRING_KEY;
+
+/**
+ * JMH benchmarks for feature decisions made by the {@link DecisionService}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DecisionServiceBenchmark {
+
+    private DecisionService decisionService;
+    private ProjectConfig projectConfig;
+    private Random random = new Random();
+
+    private FeatureFlag multiVariateFeature;
+    private FeatureFlag mutexGroupFeature;
+    private FeatureFlag rolloutFeature;
+    private Map<String, ?> gryffindorAttributes;
+
+    @Setup
+    public void setup() {
+        projectConfig = validProjectConfigV4();
+        decisionService = new DecisionService(new Bucketer(), new NoOpErrorHandler(), null);
+
+        multiVariateFeature = projectConfig.getFeatureKeyMapping().get(FEATURE_MULTI_VARIATE_FEATURE_KEY);
+        mutexGroupFeature = projectConfig.getFeatureKeyMapping().get(FEATURE_MUTEX_GROUP_FEATURE_KEY);
+        rolloutFeature = projectConfig.getFeatureKeyMapping().get(FEATURE_SINGLE_VARIABLE_STRING_KEY);
+        gryffindorAttributes = Collections.singletonMap(ATTRIBUTE_HOUSE_KEY, AUDIENCE_GRYFFINDOR_VALUE);
+    }
+
+    @Benchmark
+    public FeatureDecision measureGetVariationForFeatureTest() {
+        return decisionService.getVariationForFeature(multiVariateFeature, "optimizely_user" + random.nextInt(),
+            gryffindorAttributes, projectConfig);
+    }
+
+    @Benchmark
+    public FeatureDecision measureGetVariationForMutexGroupFeature() {
+        return decisionService.getVariationForFeature(mutexGroupFeature, "optimizely_user" + random.nextInt(),
+            Collections.<String, String>emptyMap(), projectConfig);
+    }
+
+    @Benchmark
+    public FeatureDecision measureGetVariationForRolloutFeature() {
+        return decisionService.getVariationForFeature(rolloutFeature, "optimizely_user" + random.nextInt(),
+            Collections.<String, String>emptyMap(), projectConfig);
+    }
+}
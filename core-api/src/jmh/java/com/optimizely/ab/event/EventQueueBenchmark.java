@@ -0,0 +1,107 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the queues buffering the events of the {@link BatchEventProcessor}, with producer threads
+ * offering events while a single consumer thread takes them, as the processor's consumer does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class EventQueueBenchmark {
+
+    private static final Object EVENT = new Object();
+
+    @Param({"ArrayBlockingQueue", "RingBufferQueue-BLOCKING", "RingBufferQueue-SLEEPING"})
+    public String queueType;
+
+    private BlockingQueue<Object> eventQueue;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int capacity = BatchEventProcessor.DEFAULT_QUEUE_CAPACITY;
+        switch (queueType) {
+            case "RingBufferQueue-BLOCKING":
+                eventQueue = new RingBufferQueue<>(capacity, RingBufferQueue.WaitStrategy.BLOCKING);
+                break;
+            case "RingBufferQueue-SLEEPING":
+                eventQueue = new RingBufferQueue<>(capacity, RingBufferQueue.WaitStrategy.SLEEPING);
+                break;
+            default:
+                eventQueue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        consumer = new Thread(() -> {
+            try {
+                while (true) {
+                    eventQueue.take();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        consumer.interrupt();
+        consumer.join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean measureOffer1Thread() {
+        return eventQueue.offer(EVENT);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean measureOffer8Threads() {
+        return eventQueue.offer(EVENT);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean measureOffer32Threads() {
+        return eventQueue.offer(EVENT);
+    }
+}
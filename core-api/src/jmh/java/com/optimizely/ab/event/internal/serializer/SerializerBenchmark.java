@@ -0,0 +1,130 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event.internal.serializer;
+
+import com.optimizely.ab.event.internal.payload.Attribute;
+import com.optimizely.ab.event.internal.payload.Decision;
+import com.optimizely.ab.event.internal.payload.Event;
+import com.optimizely.ab.event.internal.payload.EventBatch;
+import com.optimizely.ab.event.internal.payload.Snapshot;
+import com.optimizely.ab.event.internal.payload.Visitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks comparing the serializers on event batches of impressions, each visitor having attributes and a
+ * snapshot with a decision, as the batches built by the event processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+    @Param({"EventBatch", "Jackson", "Gson", "JsonSimple", "Json"})
+    public String serializerType;
+
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    private Serializer serializer;
+    private EventBatch eventBatch;
+
+    @Setup
+    public void setUp() {
+        switch (serializerType) {
+            case "Jackson":
+                serializer = new JacksonSerializer();
+                break;
+            case "Gson":
+                serializer = new GsonSerializer();
+                break;
+            case "JsonSimple":
+                serializer = new JsonSimpleSerializer();
+                break;
+            case "Json":
+                serializer = new JsonSerializer();
+                break;
+            default:
+                serializer = new EventBatchSerializer(JacksonSerializer::new);
+        }
+
+        List<Visitor> visitors = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            visitors.add(createVisitor(i));
+        }
+        eventBatch = new EventBatch.Builder()
+            .setAccountId("10367498574")
+            .setProjectId("10431130345")
+            .setRevision("241")
+            .setAnonymizeIp(true)
+            .setVisitors(visitors)
+            .build();
+    }
+
+    @Benchmark
+    public byte[] serializeToBytes() {
+        return serializer.serializeToBytes(eventBatch);
+    }
+
+    private static Visitor createVisitor(int index) {
+        List<Attribute> attributes = Arrays.asList(
+            new Attribute.Builder().setEntityId("7723280020").setKey("browser_type").setType("custom").setValue("chrome").build(),
+            new Attribute.Builder().setEntityId("7723340004").setKey("age").setType("custom").setValue(30 + index % 40).build(),
+            new Attribute.Builder().setEntityId("$opt_bot_filtering").setKey("$opt_bot_filtering").setType("custom").setValue(false).build()
+        );
+        Decision decision = new Decision.Builder()
+            .setCampaignId("7719770039")
+            .setExperimentId("7716830082")
+            .setVariationId("7721010009")
+            .setIsCampaignHoldback(false)
+            .build();
+        Event event = new Event.Builder()
+            .setTimestamp(1585087200000L + index)
+            .setUuid(UUID.randomUUID().toString())
+            .setEntityId("7719770039")
+            .setKey("campaign_activated")
+            .setType("campaign_activated")
+            .build();
+        Snapshot snapshot = new Snapshot.Builder()
+            .setDecisions(Collections.singletonList(decision))
+            .setEvents(Collections.singletonList(event))
+            .build();
+        return new Visitor.Builder()
+            .setVisitorId("user-" + index)
+            .setAttributes(attributes)
+            .setSnapshots(Collections.singletonList(snapshot))
+            .build();
+    }
+}
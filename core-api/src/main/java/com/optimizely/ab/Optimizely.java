@@ -17,8 +17,10 @@ package com.optimizely.ab;
 
 import com.optimizely.ab.annotations.VisibleForTesting;
 import com.optimizely.ab.bucketing.Bucketer;
+import com.optimizely.ab.bucketing.DecisionCache;
 import com.optimizely.ab.bucketing.DecisionService;
 import com.optimizely.ab.bucketing.FeatureDecision;
+import com.optimizely.ab.bucketing.UserDecisionContext;
 import com.optimizely.ab.bucketing.UserProfileService;
 import com.optimizely.ab.config.*;
 import com.optimizely.ab.config.parser.ConfigParseException;
@@ -41,8 +43,10 @@ import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static com.optimizely.ab.internal.SafetyUtils.tryClose;
 
@@ -97,6 +101,11 @@ public class Optimizely implements AutoCloseable {
     @Nullable
     private final UserProfileService userProfileService;
 
+    private final boolean bulkFeatureEvaluation;
+
+    @Nullable
+    private final ForkJoinPool featureEvaluationPool;
+
     private Optimizely(@Nonnull EventHandler eventHandler,
                        @Nonnull EventProcessor eventProcessor,
                        @Nonnull ErrorHandler errorHandler,
@@ -104,7 +113,9 @@ public class Optimizely implements AutoCloseable {
                        @Nullable UserProfileService userProfileService,
                        @Nonnull ProjectConfigManager projectConfigManager,
                        @Nullable OptimizelyConfigManager optimizelyConfigManager,
-                       @Nonnull NotificationCenter notificationCenter
+                       @Nonnull NotificationCenter notificationCenter,
+                       boolean bulkFeatureEvaluation,
+                       @Nullable ForkJoinPool featureEvaluationPool
     ) {
         this.eventHandler = eventHandler;
         this.eventProcessor = eventProcessor;
@@ -114,6 +125,8 @@ public class Optimizely implements AutoCloseable {
         this.projectConfigManager = projectConfigManager;
         this.optimizelyConfigManager = optimizelyConfigManager;
         this.notificationCenter = notificationCenter;
+        this.bulkFeatureEvaluation = bulkFeatureEvaluation;
+        this.featureEvaluationPool = featureEvaluationPool;
     }
 
     /**
@@ -140,6 +153,7 @@ public class Optimizely implements AutoCloseable {
         tryClose(eventProcessor);
         tryClose(eventHandler);
         tryClose(projectConfigManager);
+        tryClose(userProfileService);
     }
 
     //======== activate calls ========//
@@ -178,7 +192,7 @@ public class Optimizely implements AutoCloseable {
             return null;
         }
 
-        return activate(projectConfig, experiment, userId, attributes);
+        return activate(projectConfig, experiment, userId, attributes, null);
     }
 
     @Nullable
@@ -191,14 +205,34 @@ public class Optimizely implements AutoCloseable {
     public Variation activate(@Nonnull Experiment experiment,
                               @Nonnull String userId,
                               @Nonnull Map<String, ?> attributes) {
-        return activate(getProjectConfig(), experiment, userId, attributes);
+        return activate(getProjectConfig(), experiment, userId, attributes, null);
+    }
+
+    @Nullable
+    Variation activateForContext(@Nonnull UserDecisionContext userContext,
+                                 @Nonnull String experimentKey) {
+        if (experimentKey == null) {
+            logger.error("The experimentKey parameter must be nonnull.");
+            return null;
+        }
+
+        ProjectConfig projectConfig = userContext.getProjectConfig();
+        Experiment experiment = projectConfig.getExperimentForKey(experimentKey, errorHandler);
+        if (experiment == null) {
+            // if we're unable to retrieve the associated experiment, return null
+            logger.info("Not activating user \"{}\" for experiment \"{}\".", userContext.getUserId(), experimentKey);
+            return null;
+        }
+
+        return activate(projectConfig, experiment, userContext.getUserId(), userContext.getAttributes(), userContext);
     }
 
     @Nullable
     private Variation activate(@Nullable ProjectConfig projectConfig,
                                @Nonnull Experiment experiment,
                                @Nonnull String userId,
-                               @Nonnull Map<String, ?> attributes) {
+                               @Nonnull Map<String, ?> attributes,
+                               @Nullable UserDecisionContext userContext) {
         if (projectConfig == null) {
             logger.error("Optimizely instance is not valid, failing activate call.");
             return null;
@@ -208,9 +242,9 @@ public class Optimizely implements AutoCloseable {
             logger.info("Not activating user \"{}\" for experiment \"{}\".", userId, experiment.getKey());
             return null;
         }
-        Map<String, ?> copiedAttributes = copyAttributes(attributes);
+        Map<String, ?> copiedAttributes = userContext == null ? copyAttributes(attributes) : attributes;
         // bucket the user to the given experiment and dispatch an impression event
-        Variation variation = getVariation(projectConfig, experiment, userId, copiedAttributes);
+        Variation variation = getVariation(projectConfig, experiment, userId, copiedAttributes, userContext);
         if (variation == null) {
             logger.info("Not activating user \"{}\" for experiment \"{}\".", userId, experiment.getKey());
             return null;
@@ -241,6 +275,14 @@ public class Optimizely implements AutoCloseable {
         eventProcessor.process(userEvent);
         logger.info("Activating user \"{}\" in experiment \"{}\".", userId, experiment.getKey());
 
+        sendActivateNotification(userEvent, experiment, userId, filteredAttributes, variation);
+    }
+
+    private void sendActivateNotification(@Nonnull UserEvent userEvent,
+                                          @Nonnull Experiment experiment,
+                                          @Nonnull String userId,
+                                          @Nonnull Map<String, ?> filteredAttributes,
+                                          @Nonnull Variation variation) {
         // Kept For backwards compatibility.
         // This notification is deprecated and the new DecisionNotifications
         // are sent via their respective method calls.
@@ -286,8 +328,26 @@ public class Optimizely implements AutoCloseable {
             return;
         }
 
-        Map<String, ?> copiedAttributes = copyAttributes(attributes);
+        track(projectConfig, eventName, userId, copyAttributes(attributes), eventTags);
+    }
+
+    void trackForContext(@Nonnull UserDecisionContext userContext,
+                         @Nonnull String eventName,
+                         @Nonnull Map<String, ?> eventTags) {
+        if (eventName == null || eventName.trim().isEmpty()) {
+            logger.error("Event Key is null or empty when non-null and non-empty String was expected.");
+            logger.info("Not tracking event for user \"{}\".", userContext.getUserId());
+            return;
+        }
 
+        track(userContext.getProjectConfig(), eventName, userContext.getUserId(), userContext.getAttributes(), eventTags);
+    }
+
+    private void track(@Nonnull ProjectConfig projectConfig,
+                       @Nonnull String eventName,
+                       @Nonnull String userId,
+                       @Nullable Map<String, ?> copiedAttributes,
+                       @Nonnull Map<String, ?> eventTags) {
         EventType eventType = projectConfig.getEventTypeForName(eventName, errorHandler);
         if (eventType == null) {
             // if no matching event type could be found, do not dispatch an event
@@ -359,14 +419,22 @@ public class Optimizely implements AutoCloseable {
             return false;
         }
 
-        return isFeatureEnabled(projectConfig, featureKey, userId, attributes);
+        return isFeatureEnabled(projectConfig, featureKey, userId, attributes, null);
+    }
+
+    @Nonnull
+    Boolean isFeatureEnabledForContext(@Nonnull UserDecisionContext userContext,
+                                       @Nonnull String featureKey) {
+        return isFeatureEnabled(userContext.getProjectConfig(), featureKey, userContext.getUserId(),
+            userContext.getAttributes(), userContext);
     }
 
     @Nonnull
     private Boolean isFeatureEnabled(@Nonnull ProjectConfig projectConfig,
                                      @Nonnull String featureKey,
                                      @Nonnull String userId,
-                                     @Nonnull Map<String, ?> attributes) {
+                                     @Nonnull Map<String, ?> attributes,
+                                     @Nullable UserDecisionContext userContext) {
         if (featureKey == null) {
             logger.warn("The featureKey parameter must be nonnull.");
             return false;
@@ -381,9 +449,9 @@ public class Optimizely implements AutoCloseable {
             return false;
         }
 
-        Map<String, ?> copiedAttributes = copyAttributes(attributes);
+        Map<String, ?> copiedAttributes = userContext == null ? copyAttributes(attributes) : attributes;
         FeatureDecision.DecisionSource decisionSource = FeatureDecision.DecisionSource.ROLLOUT;
-        FeatureDecision featureDecision = decisionService.getVariationForFeature(featureFlag, userId, copiedAttributes, projectConfig);
+        FeatureDecision featureDecision = getVariationForFeature(projectConfig, featureFlag, userId, copiedAttributes, userContext);
         Boolean featureEnabled = false;
         SourceInfo sourceInfo = new RolloutSourceInfo();
 
@@ -462,6 +530,33 @@ public class Optimizely implements AutoCloseable {
         );
     }
 
+    /**
+     * Get the Boolean value of the specified variable in the feature, without boxing or parsing it.
+     *
+     * @param featureKey    The unique key of the feature.
+     * @param variableKey   The unique key of the variable.
+     * @param userId        The ID of the user.
+     * @param attributes    The user's attributes.
+     * @param fallbackValue The value to return if the feature or variable could not be found or the value
+     *                      is not a valid boolean.
+     * @return The Boolean value of the boolean single variable feature.
+     */
+    public boolean getFeatureVariableBoolean(@Nonnull String featureKey,
+                                             @Nonnull String variableKey,
+                                             @Nonnull String userId,
+                                             @Nonnull Map<String, ?> attributes,
+                                             boolean fallbackValue) {
+        FeatureVariableValue variableValue = getFeatureVariableValue(
+            featureKey,
+            variableKey,
+            userId,
+            attributes,
+            FeatureVariable.VariableType.BOOLEAN
+        );
+
+        return variableValue == null ? fallbackValue : variableValue.getBooleanValue(fallbackValue);
+    }
+
     /**
      * Get the Double value of the specified variable in the feature.
      *
@@ -511,6 +606,33 @@ public class Optimizely implements AutoCloseable {
         return variableValue;
     }
 
+    /**
+     * Get the Double value of the specified variable in the feature, without boxing or parsing it.
+     *
+     * @param featureKey    The unique key of the feature.
+     * @param variableKey   The unique key of the variable.
+     * @param userId        The ID of the user.
+     * @param attributes    The user's attributes.
+     * @param fallbackValue The value to return if the feature or variable could not be found or the value
+     *                      is not a valid double.
+     * @return The Double value of the double single variable feature.
+     */
+    public double getFeatureVariableDouble(@Nonnull String featureKey,
+                                           @Nonnull String variableKey,
+                                           @Nonnull String userId,
+                                           @Nonnull Map<String, ?> attributes,
+                                           double fallbackValue) {
+        FeatureVariableValue variableValue = getFeatureVariableValue(
+            featureKey,
+            variableKey,
+            userId,
+            attributes,
+            FeatureVariable.VariableType.DOUBLE
+        );
+
+        return variableValue == null ? fallbackValue : variableValue.getDoubleValue(fallbackValue);
+    }
+
     /**
      * Get the Integer value of the specified variable in the feature.
      *
@@ -561,6 +683,33 @@ public class Optimizely implements AutoCloseable {
         return variableValue;
     }
 
+    /**
+     * Get the Integer value of the specified variable in the feature, without boxing or parsing it.
+     *
+     * @param featureKey    The unique key of the feature.
+     * @param variableKey   The unique key of the variable.
+     * @param userId        The ID of the user.
+     * @param attributes    The user's attributes.
+     * @param fallbackValue The value to return if the feature or variable could not be found or the value
+     *                      is not a valid int.
+     * @return The Integer value of the int single variable feature.
+     */
+    public int getFeatureVariableInteger(@Nonnull String featureKey,
+                                         @Nonnull String variableKey,
+                                         @Nonnull String userId,
+                                         @Nonnull Map<String, ?> attributes,
+                                         int fallbackValue) {
+        FeatureVariableValue variableValue = getFeatureVariableValue(
+            featureKey,
+            variableKey,
+            userId,
+            attributes,
+            FeatureVariable.VariableType.INTEGER
+        );
+
+        return variableValue == null ? fallbackValue : variableValue.getIntValue(fallbackValue);
+    }
+
     /**
      * Get the String value of the specified variable in the feature.
      *
@@ -601,12 +750,124 @@ public class Optimizely implements AutoCloseable {
             FeatureVariable.VariableType.STRING);
     }
 
+    /**
+     * Get the values of all the variables of the feature. The feature is decided for the user once and a single
+     * decision notification is sent for all the variables.
+     *
+     * @param featureKey The unique key of the feature.
+     * @param userId     The ID of the user.
+     * @return {@link OptimizelyFeatureVariables} with the typed values of the feature's variables.
+     * Null if the feature could not be found.
+     */
+    @Nullable
+    public OptimizelyFeatureVariables getAllFeatureVariables(@Nonnull String featureKey,
+                                                             @Nonnull String userId) {
+        return getAllFeatureVariables(featureKey, userId, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Get the values of all the variables of the feature. The feature is decided for the user once and a single
+     * decision notification is sent for all the variables.
+     *
+     * @param featureKey The unique key of the feature.
+     * @param userId     The ID of the user.
+     * @param attributes The user's attributes.
+     * @return {@link OptimizelyFeatureVariables} with the typed values of the feature's variables.
+     * Null if the feature could not be found.
+     */
+    @Nullable
+    public OptimizelyFeatureVariables getAllFeatureVariables(@Nonnull String featureKey,
+                                                             @Nonnull String userId,
+                                                             @Nonnull Map<String, ?> attributes) {
+        if (featureKey == null) {
+            logger.warn("The featureKey parameter must be nonnull.");
+            return null;
+        } else if (userId == null) {
+            logger.warn("The userId parameter must be nonnull.");
+            return null;
+        }
+
+        ProjectConfig projectConfig = getProjectConfig();
+        if (projectConfig == null) {
+            logger.error("Optimizely instance is not valid, failing getAllFeatureVariables call.");
+            return null;
+        }
+
+        return getAllFeatureVariables(projectConfig, featureKey, userId, attributes, null);
+    }
+
+    @Nullable
+    OptimizelyFeatureVariables getAllFeatureVariablesForContext(@Nonnull UserDecisionContext userContext,
+                                                                @Nonnull String featureKey) {
+        if (featureKey == null) {
+            logger.warn("The featureKey parameter must be nonnull.");
+            return null;
+        }
+
+        return getAllFeatureVariables(userContext.getProjectConfig(), featureKey, userContext.getUserId(),
+            userContext.getAttributes(), userContext);
+    }
+
+    @Nullable
+    private OptimizelyFeatureVariables getAllFeatureVariables(@Nonnull ProjectConfig projectConfig,
+                                                              @Nonnull String featureKey,
+                                                              @Nonnull String userId,
+                                                              @Nonnull Map<String, ?> attributes,
+                                                              @Nullable UserDecisionContext userContext) {
+        FeatureFlag featureFlag = projectConfig.getFeatureKeyMapping().get(featureKey);
+        if (featureFlag == null) {
+            logger.info("No feature flag was found for key \"{}\".", featureKey);
+            return null;
+        }
+
+        Map<String, ?> copiedAttributes = userContext == null ? copyAttributes(attributes) : attributes;
+        FeatureDecision featureDecision = getVariationForFeature(projectConfig, featureFlag, userId, copiedAttributes, userContext);
+        boolean featureEnabled = false;
+        if (featureDecision.variation != null) {
+            featureEnabled = featureDecision.variation.getFeatureEnabled();
+            if (!featureEnabled) {
+                logger.info("Feature \"{}\" for variation \"{}\" was not enabled. " +
+                    "The default values are being returned.", featureKey, featureDecision.variation.getKey());
+            }
+        } else {
+            logger.info("User \"{}\" was not bucketed into any variation for feature flag \"{}\". " +
+                "The default values are being returned.", userId, featureKey);
+        }
+
+        Map<String, ?> variableValues = userContext == null ?
+            decisionService.getFeatureVariableValues(featureFlag, featureDecision.variation, projectConfig) :
+            decisionService.getFeatureVariableValues(featureFlag, featureDecision.variation, userContext);
+
+        DecisionNotification decisionNotification = DecisionNotification.newFeatureVariableDecisionNotificationBuilder()
+            .withUserId(userId)
+            .withAttributes(copiedAttributes)
+            .withFeatureKey(featureKey)
+            .withFeatureEnabled(featureEnabled)
+            .withVariableValues(variableValues)
+            .withFeatureDecision(featureDecision)
+            .build();
+
+        notificationCenter.send(decisionNotification);
+
+        return new OptimizelyFeatureVariables(featureKey, featureEnabled, variableValues);
+    }
+
     @VisibleForTesting
     <T> T getFeatureVariableValueForType(@Nonnull String featureKey,
                                           @Nonnull String variableKey,
                                           @Nonnull String userId,
                                           @Nonnull Map<String, ?> attributes,
                                           @Nonnull FeatureVariable.VariableType variableType) {
+        FeatureVariableValue variableValue = getFeatureVariableValue(featureKey, variableKey, userId, attributes, variableType);
+        return variableValue == null ? null : (T) variableValue.getValue();
+    }
+
+    @Nullable
+    private FeatureVariableValue getFeatureVariableValue(@Nonnull String featureKey,
+                                                         @Nonnull String variableKey,
+                                                         @Nonnull String userId,
+                                                         @Nonnull Map<String, ?> attributes,
+                                                         @Nonnull FeatureVariable.VariableType variableType) {
         if (featureKey == null) {
             logger.warn("The featureKey parameter must be nonnull.");
             return null;
@@ -624,6 +885,34 @@ public class Optimizely implements AutoCloseable {
             return null;
         }
 
+        return getFeatureVariableValue(projectConfig, featureKey, variableKey, userId, attributes, variableType, null);
+    }
+
+    @Nullable
+    FeatureVariableValue getFeatureVariableValueForContext(@Nonnull UserDecisionContext userContext,
+                                                           @Nonnull String featureKey,
+                                                           @Nonnull String variableKey,
+                                                           @Nonnull FeatureVariable.VariableType variableType) {
+        if (featureKey == null) {
+            logger.warn("The featureKey parameter must be nonnull.");
+            return null;
+        } else if (variableKey == null) {
+            logger.warn("The variableKey parameter must be nonnull.");
+            return null;
+        }
+
+        return getFeatureVariableValue(userContext.getProjectConfig(), featureKey, variableKey,
+            userContext.getUserId(), userContext.getAttributes(), variableType, userContext);
+    }
+
+    @Nullable
+    private FeatureVariableValue getFeatureVariableValue(@Nonnull ProjectConfig projectConfig,
+                                                         @Nonnull String featureKey,
+                                                         @Nonnull String variableKey,
+                                                         @Nonnull String userId,
+                                                         @Nonnull Map<String, ?> attributes,
+                                                         @Nonnull FeatureVariable.VariableType variableType,
+                                                         @Nullable UserDecisionContext userContext) {
         FeatureFlag featureFlag = projectConfig.getFeatureKeyMapping().get(featureKey);
         if (featureFlag == null) {
             logger.info("No feature flag was found for key \"{}\".", featureKey);
@@ -643,34 +932,35 @@ public class Optimizely implements AutoCloseable {
             return null;
         }
 
-        String variableValue = variable.getDefaultValue();
-        Map<String, ?> copiedAttributes = copyAttributes(attributes);
-        FeatureDecision featureDecision = decisionService.getVariationForFeature(featureFlag, userId, copiedAttributes, projectConfig);
+        FeatureVariableValue variableValue = variable.getTypedDefaultValue();
+        Map<String, ?> copiedAttributes = userContext == null ? copyAttributes(attributes) : attributes;
+        FeatureDecision featureDecision = getVariationForFeature(projectConfig, featureFlag, userId, copiedAttributes, userContext);
         Boolean featureEnabled = false;
         if (featureDecision.variation != null) {
             if (featureDecision.variation.getFeatureEnabled()) {
                 FeatureVariableUsageInstance featureVariableUsageInstance =
                     featureDecision.variation.getVariableIdToFeatureVariableUsageInstanceMap().get(variable.getId());
                 if (featureVariableUsageInstance != null) {
-                    variableValue = featureVariableUsageInstance.getValue();
-                } else {
-                    variableValue = variable.getDefaultValue();
+                    variableValue = featureVariableUsageInstance.getTypedValue(variableType);
                 }
             } else {
                 logger.info("Feature \"{}\" for variation \"{}\" was not enabled. " +
                         "The default value is being returned.",
-                    featureKey, featureDecision.variation.getKey(), variableValue, variableKey
+                    featureKey, featureDecision.variation.getKey(), variableValue.getStringValue(), variableKey
                 );
             }
             featureEnabled = featureDecision.variation.getFeatureEnabled();
         } else {
             logger.info("User \"{}\" was not bucketed into any variation for feature flag \"{}\". " +
                     "The default value \"{}\" for \"{}\" is being returned.",
-                userId, featureKey, variableValue, variableKey
+                userId, featureKey, variableValue.getStringValue(), variableKey
             );
         }
 
-        Object convertedValue = convertStringToType(variableValue, variableType);
+        // values are parsed when the config is built, only invalid values go through the conversion to log the error
+        Object convertedValue = variableValue.isValid() ?
+            variableValue.getValue() :
+            convertStringToType(variableValue.getStringValue(), variableType);
 
         DecisionNotification decisionNotification = DecisionNotification.newFeatureVariableDecisionNotificationBuilder()
             .withUserId(userId)
@@ -686,7 +976,7 @@ public class Optimizely implements AutoCloseable {
 
         notificationCenter.send(decisionNotification);
 
-        return (T) convertedValue;
+        return variableValue;
     }
 
     // Helper method which takes type and variable value and convert it to object to use in Listener DecisionInfo object variable value
@@ -723,6 +1013,12 @@ public class Optimizely implements AutoCloseable {
     /**
      * Get the list of features that are enabled for the user.
      * TODO revisit this method. Calling this as-is can dramatically increase visitor impression counts.
+     * Wrapping the {@link EventProcessor} in a {@link com.optimizely.ab.event.DeduplicatingEventProcessor} drops
+     * the repeated ones.
+     * <p>
+     * With {@link Builder#withBulkFeatureEvaluation(boolean)} the features are decided against a single user context,
+     * optionally in parallel, their impressions are handed to the {@link EventProcessor} together and a single
+     * {@link NotificationCenter.DecisionNotificationType#ENABLED_FEATURES} notification is sent.
      *
      * @param userId     The ID of the user.
      * @param attributes The user's attributes.
@@ -742,15 +1038,100 @@ public class Optimizely implements AutoCloseable {
         }
 
         Map<String, ?> copiedAttributes = copyAttributes(attributes);
+        if (bulkFeatureEvaluation) {
+            return getEnabledFeatures(new UserDecisionContext(userId, copiedAttributes, projectConfig));
+        }
+
         for (FeatureFlag featureFlag : projectConfig.getFeatureFlags()) {
             String featureKey = featureFlag.getKey();
-            if (isFeatureEnabled(projectConfig, featureKey, userId, copiedAttributes))
+            if (isFeatureEnabled(projectConfig, featureKey, userId, copiedAttributes, null))
                 enabledFeaturesList.add(featureKey);
         }
 
         return enabledFeaturesList;
     }
 
+    @Nonnull
+    List<String> getEnabledFeaturesForContext(@Nonnull UserDecisionContext userContext) {
+        if (bulkFeatureEvaluation) {
+            return getEnabledFeatures(userContext);
+        }
+
+        List<String> enabledFeaturesList = new ArrayList<String>();
+        ProjectConfig projectConfig = userContext.getProjectConfig();
+        for (FeatureFlag featureFlag : projectConfig.getFeatureFlags()) {
+            String featureKey = featureFlag.getKey();
+            if (isFeatureEnabled(projectConfig, featureKey, userContext.getUserId(), userContext.getAttributes(), userContext))
+                enabledFeaturesList.add(featureKey);
+        }
+
+        return enabledFeaturesList;
+    }
+
+    /**
+     * Decide all the features for the user at once. The decisions share the user context, so the user profile is
+     * looked up and saved once and the audiences evaluated once, and run on the {@link #featureEvaluationPool} when
+     * one is set.
+     */
+    @Nonnull
+    private List<String> getEnabledFeatures(@Nonnull UserDecisionContext userContext) {
+        ProjectConfig projectConfig = userContext.getProjectConfig();
+        String userId = userContext.getUserId();
+        Map<String, ?> attributes = userContext.getAttributes();
+
+        List<FeatureFlag> featureFlags = projectConfig.getFeatureFlags();
+        List<FeatureDecision> featureDecisions = decisionService.getVariationsForFeatures(featureFlags, userContext,
+            featureEvaluationPool);
+
+        List<String> enabledFeaturesList = new ArrayList<String>();
+        List<UserEvent> impressions = new ArrayList<UserEvent>();
+        List<FeatureDecision> impressionDecisions = new ArrayList<FeatureDecision>();
+        for (int i = 0; i < featureDecisions.size(); i++) {
+            FeatureDecision featureDecision = featureDecisions.get(i);
+            if (featureDecision.variation == null) {
+                continue;
+            }
+
+            if (featureDecision.decisionSource == FeatureDecision.DecisionSource.FEATURE_TEST) {
+                if (featureDecision.experiment.isRunning()) {
+                    impressions.add(UserEventFactory.createImpressionEvent(
+                        projectConfig,
+                        featureDecision.experiment,
+                        featureDecision.variation,
+                        userId,
+                        attributes));
+                    impressionDecisions.add(featureDecision);
+                } else {
+                    logger.info("Experiment has \"Launched\" status so not dispatching event during activation.");
+                }
+            }
+
+            if (featureDecision.variation.getFeatureEnabled()) {
+                enabledFeaturesList.add(featureFlags.get(i).getKey());
+            }
+        }
+
+        if (!impressions.isEmpty()) {
+            eventProcessor.process(impressions);
+            for (int i = 0; i < impressions.size(); i++) {
+                FeatureDecision featureDecision = impressionDecisions.get(i);
+                logger.info("Activating user \"{}\" in experiment \"{}\".", userId, featureDecision.experiment.getKey());
+                sendActivateNotification(impressions.get(i), featureDecision.experiment, userId, attributes, featureDecision.variation);
+            }
+        }
+
+        DecisionNotification decisionNotification = DecisionNotification.newEnabledFeaturesDecisionNotificationBuilder()
+            .withUserId(userId)
+            .withAttributes(attributes)
+            .withEnabledFeatures(enabledFeaturesList)
+            .build();
+
+        notificationCenter.send(decisionNotification);
+
+        logger.info("{} of {} features are enabled for user \"{}\".", enabledFeaturesList.size(), featureFlags.size(), userId);
+        return enabledFeaturesList;
+    }
+
     //======== getVariation calls ========//
 
     @Nullable
@@ -764,17 +1145,29 @@ public class Optimizely implements AutoCloseable {
     public Variation getVariation(@Nonnull Experiment experiment,
                                   @Nonnull String userId,
                                   @Nonnull Map<String, ?> attributes) throws UnknownExperimentException {
-        return getVariation(getProjectConfig(), experiment, userId, attributes);
+        return getVariation(getProjectConfig(), experiment, userId, attributes, null);
     }
 
     @Nullable
     private Variation getVariation(@Nonnull ProjectConfig projectConfig,
                                    @Nonnull Experiment experiment,
                                    @Nonnull String userId,
-                                   @Nonnull Map<String, ?> attributes) throws UnknownExperimentException {
-        Map<String, ?> copiedAttributes = copyAttributes(attributes);
-        Variation variation = decisionService.getVariation(experiment, userId, copiedAttributes, projectConfig);
+                                   @Nonnull Map<String, ?> attributes,
+                                   @Nullable UserDecisionContext userContext) throws UnknownExperimentException {
+        Map<String, ?> copiedAttributes = userContext == null ? copyAttributes(attributes) : attributes;
+        Variation variation = userContext == null ?
+            decisionService.getVariation(experiment, userId, copiedAttributes, projectConfig) :
+            decisionService.getVariation(experiment, userContext);
+
+        sendExperimentDecisionNotification(projectConfig, experiment, userId, copiedAttributes, variation);
+        return variation;
+    }
 
+    private void sendExperimentDecisionNotification(@Nonnull ProjectConfig projectConfig,
+                                                    @Nonnull Experiment experiment,
+                                                    @Nonnull String userId,
+                                                    @Nonnull Map<String, ?> attributes,
+                                                    @Nullable Variation variation) {
         String notificationType = NotificationCenter.DecisionNotificationType.AB_TEST.toString();
 
         if (projectConfig.getExperimentFeatureKeyMapping().get(experiment.getId()) != null) {
@@ -783,15 +1176,13 @@ public class Optimizely implements AutoCloseable {
 
         DecisionNotification decisionNotification = DecisionNotification.newExperimentDecisionNotificationBuilder()
             .withUserId(userId)
-            .withAttributes(copiedAttributes)
+            .withAttributes(attributes)
             .withExperimentKey(experiment.getKey())
             .withVariation(variation)
             .withType(notificationType)
             .build();
 
         notificationCenter.send(decisionNotification);
-
-        return variation;
     }
 
     @Nullable
@@ -826,7 +1217,91 @@ public class Optimizely implements AutoCloseable {
             return null;
         }
 
-        return getVariation(projectConfig, experiment, userId, attributes);
+        return getVariation(projectConfig, experiment, userId, attributes, null);
+    }
+
+    /**
+     * Get the variations of an experiment for many users, such as in a batch job, as
+     * {@link #getVariation(String, String, Map)} does for each of them. The user profiles are looked up and saved in
+     * batches of {@link DecisionService#DEFAULT_BATCH_SIZE} users.
+     *
+     * @param experimentKey   The key of the experiment.
+     * @param usersAttributes The attributes of each user, keyed by user ID.
+     * @return the variation of each user, keyed by user ID in the iteration order of usersAttributes. The variation is
+     * null for users not allocated to the experiment.
+     */
+    @Nonnull
+    public Map<String, Variation> getVariations(@Nonnull String experimentKey,
+                                                @Nonnull Map<String, ? extends Map<String, ?>> usersAttributes) {
+        return getVariations(experimentKey, usersAttributes, DecisionService.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Get the variations of an experiment for many users, such as in a batch job, as
+     * {@link #getVariation(String, String, Map)} does for each of them.
+     *
+     * @param experimentKey   The key of the experiment.
+     * @param usersAttributes The attributes of each user, keyed by user ID.
+     * @param batchSize       The number of users whose profiles are looked up and saved together.
+     * @return the variation of each user, keyed by user ID in the iteration order of usersAttributes. The variation is
+     * null for users not allocated to the experiment.
+     * @see com.optimizely.ab.bucketing.BatchUserProfileService
+     */
+    @Nonnull
+    public Map<String, Variation> getVariations(@Nonnull String experimentKey,
+                                                @Nonnull Map<String, ? extends Map<String, ?>> usersAttributes,
+                                                int batchSize) {
+        if (experimentKey == null || experimentKey.trim().isEmpty()) {
+            logger.error("The experimentKey parameter must be nonnull.");
+            return Collections.emptyMap();
+        }
+
+        ProjectConfig projectConfig = getProjectConfig();
+        if (projectConfig == null) {
+            logger.error("Optimizely instance is not valid, failing getVariations call.");
+            return Collections.emptyMap();
+        }
+
+        Experiment experiment = projectConfig.getExperimentForKey(experimentKey, errorHandler);
+        if (experiment == null) {
+            return Collections.emptyMap();
+        }
+
+        List<UserDecisionContext> userContexts = new ArrayList<UserDecisionContext>(usersAttributes.size());
+        for (Map.Entry<String, ? extends Map<String, ?>> userAttributes : usersAttributes.entrySet()) {
+            if (validateUserId(userAttributes.getKey())) {
+                userContexts.add(new UserDecisionContext(userAttributes.getKey(), userAttributes.getValue(), projectConfig));
+            }
+        }
+
+        List<Variation> variations = decisionService.getVariations(experiment, userContexts, batchSize);
+
+        Map<String, Variation> variationsByUserId = new LinkedHashMap<String, Variation>(userContexts.size() * 2);
+        for (int i = 0; i < userContexts.size(); i++) {
+            UserDecisionContext userContext = userContexts.get(i);
+            sendExperimentDecisionNotification(projectConfig, experiment, userContext.getUserId(),
+                userContext.getAttributes(), variations.get(i));
+            variationsByUserId.put(userContext.getUserId(), variations.get(i));
+        }
+        return variationsByUserId;
+    }
+
+    @Nullable
+    Variation getVariationForContext(@Nonnull UserDecisionContext userContext,
+                                     @Nonnull String experimentKey) {
+        if (experimentKey == null || experimentKey.trim().isEmpty()) {
+            logger.error("The experimentKey parameter must be nonnull.");
+            return null;
+        }
+
+        ProjectConfig projectConfig = userContext.getProjectConfig();
+        Experiment experiment = projectConfig.getExperimentForKey(experimentKey, errorHandler);
+        if (experiment == null) {
+            // if we're unable to retrieve the associated experiment, return null
+            return null;
+        }
+
+        return getVariation(projectConfig, experiment, userContext.getUserId(), userContext.getAttributes(), userContext);
     }
 
     /**
@@ -939,6 +1414,50 @@ public class Optimizely implements AutoCloseable {
         return new OptimizelyConfigService(projectConfig).getConfig();
     }
 
+    /**
+     * Create a context for making several decisions for the same user.
+     *
+     * @param userId     The user ID to be used for bucketing.
+     * @param attributes The user's attributes.
+     * @return {@link OptimizelyUserContext} bound to the current project config, or null if the user ID or
+     * the Optimizely instance is not valid.
+     */
+    @Nullable
+    public OptimizelyUserContext createUserContext(@Nonnull String userId,
+                                                   @Nonnull Map<String, ?> attributes) {
+        if (!validateUserId(userId)) {
+            return null;
+        }
+
+        ProjectConfig projectConfig = getProjectConfig();
+        if (projectConfig == null) {
+            logger.error("Optimizely instance is not valid, failing createUserContext call.");
+            return null;
+        }
+
+        return new OptimizelyUserContext(this, new UserDecisionContext(userId, attributes, projectConfig));
+    }
+
+    @Nullable
+    public OptimizelyUserContext createUserContext(@Nonnull String userId) {
+        return createUserContext(userId, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Helper method which makes a feature decision, memoized in the user's context if there is one.
+     */
+    @Nonnull
+    private FeatureDecision getVariationForFeature(@Nonnull ProjectConfig projectConfig,
+                                                   @Nonnull FeatureFlag featureFlag,
+                                                   @Nonnull String userId,
+                                                   @Nonnull Map<String, ?> copiedAttributes,
+                                                   @Nullable UserDecisionContext userContext) {
+        if (userContext == null) {
+            return decisionService.getVariationForFeature(featureFlag, userId, copiedAttributes, projectConfig);
+        }
+        return decisionService.getVariationForFeature(featureFlag, userContext);
+    }
+
     /**
      * Helper method which makes separate copy of attributesMap variable and returns it
      *
@@ -1043,6 +1562,9 @@ public class Optimizely implements AutoCloseable {
         private OptimizelyConfigManager optimizelyConfigManager;
         private UserProfileService userProfileService;
         private NotificationCenter notificationCenter;
+        private DecisionCache decisionCache;
+        private boolean bulkFeatureEvaluation;
+        private ForkJoinPool featureEvaluationPool;
 
         // For backwards compatibility
         private AtomicProjectConfigManager fallbackConfigManager = new AtomicProjectConfigManager();
@@ -1114,6 +1636,36 @@ public class Optimizely implements AutoCloseable {
             return this;
         }
 
+        /**
+         * DecisionCache used to reuse the decisions made for a user within a short window. It is invalidated when
+         * the {@link ProjectConfigManager} updates the config. It is ignored when a {@link DecisionService} is
+         * configured, which has to be given the cache itself.
+         */
+        public Builder withDecisionCache(DecisionCache decisionCache) {
+            this.decisionCache = decisionCache;
+            return this;
+        }
+
+        /**
+         * Decide all the features of a {@link Optimizely#getEnabledFeatures} call against one user context, hand
+         * their impressions to the {@link EventProcessor} at once and send a single decision notification instead
+         * of one per feature.
+         */
+        public Builder withBulkFeatureEvaluation(boolean bulkFeatureEvaluation) {
+            this.bulkFeatureEvaluation = bulkFeatureEvaluation;
+            return this;
+        }
+
+        /**
+         * Pool used to decide the features of a bulk {@link Optimizely#getEnabledFeatures} call in parallel.
+         * Only used together with {@link #withBulkFeatureEvaluation(boolean)}, features are decided on the calling
+         * thread when it is not set.
+         */
+        public Builder withFeatureEvaluationPool(ForkJoinPool featureEvaluationPool) {
+            this.featureEvaluationPool = featureEvaluationPool;
+            return this;
+        }
+
         // Helper functions for making testing easier
         protected Builder withBucketing(Bucketer bucketer) {
             this.bucketer = bucketer;
@@ -1145,7 +1697,11 @@ public class Optimizely implements AutoCloseable {
             }
 
             if (decisionService == null) {
-                decisionService = new DecisionService(bucketer, errorHandler, userProfileService);
+                decisionService = new DecisionService(bucketer, errorHandler, userProfileService, decisionCache);
+            } else if (decisionCache != null) {
+                // only a DecisionService created here uses the cache, registering it would leave it looking active
+                logger.warn("DecisionCache is ignored with a configured DecisionService");
+                decisionCache = null;
             }
 
             if (projectConfig == null && datafile != null && !datafile.isEmpty()) {
@@ -1177,12 +1733,23 @@ public class Optimizely implements AutoCloseable {
                 notificationCenter = new NotificationCenter();
             }
 
+            if (decisionCache != null) {
+                notificationCenter.addNotificationHandler(UpdateConfigNotification.class, decisionCache);
+                if (projectConfigManager instanceof PollingProjectConfigManager) {
+                    NotificationCenter configNotificationCenter = ((PollingProjectConfigManager) projectConfigManager).getNotificationCenter();
+                    if (configNotificationCenter != null && configNotificationCenter != notificationCenter) {
+                        configNotificationCenter.addNotificationHandler(UpdateConfigNotification.class, decisionCache);
+                    }
+                }
+            }
+
             // For backwards compatibility
             if (eventProcessor == null) {
                 eventProcessor = new ForwardingEventProcessor(eventHandler, notificationCenter);
             }
 
-            return new Optimizely(eventHandler, eventProcessor, errorHandler, decisionService, userProfileService, projectConfigManager, optimizelyConfigManager, notificationCenter);
+            return new Optimizely(eventHandler, eventProcessor, errorHandler, decisionService, userProfileService, projectConfigManager, optimizelyConfigManager, notificationCenter,
+                bulkFeatureEvaluation, featureEvaluationPool);
         }
     }
 }
@@ -0,0 +1,125 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OptimizelyFeatureVariables is the immutable result of {@link Optimizely#getAllFeatureVariables}: the typed
+ * values of every variable of a feature flag, as decided for one user.
+ *
+ * Values are typed according to the variable type declared in the datafile, {@link Boolean}, {@link Integer},
+ * {@link Double} or {@link String}. The typed accessors return null, or the given fallback value, when the variable
+ * does not exist, is of another type or its value could not be parsed.
+ */
+@Immutable
+public final class OptimizelyFeatureVariables {
+
+    private final String featureKey;
+    private final boolean featureEnabled;
+    private final Map<String, ?> variableValues;
+
+    OptimizelyFeatureVariables(@Nonnull String featureKey,
+                               boolean featureEnabled,
+                               @Nonnull Map<String, ?> variableValues) {
+        this.featureKey = featureKey;
+        this.featureEnabled = featureEnabled;
+        this.variableValues = variableValues;
+    }
+
+    @Nonnull
+    public String getFeatureKey() {
+        return featureKey;
+    }
+
+    /**
+     * @return whether the feature is enabled for the user. When it is not, all variables have their default values.
+     */
+    public boolean isFeatureEnabled() {
+        return featureEnabled;
+    }
+
+    @Nonnull
+    public Set<String> getVariableKeys() {
+        return variableValues.keySet();
+    }
+
+    public boolean hasVariable(@Nonnull String variableKey) {
+        return variableValues.containsKey(variableKey);
+    }
+
+    @Nullable
+    public Boolean getBoolean(@Nonnull String variableKey) {
+        return getValue(variableKey, Boolean.class);
+    }
+
+    public boolean getBoolean(@Nonnull String variableKey, boolean fallbackValue) {
+        Object value = variableValues.get(variableKey);
+        return value instanceof Boolean ? (Boolean) value : fallbackValue;
+    }
+
+    @Nullable
+    public Integer getInteger(@Nonnull String variableKey) {
+        return getValue(variableKey, Integer.class);
+    }
+
+    public int getInteger(@Nonnull String variableKey, int fallbackValue) {
+        Object value = variableValues.get(variableKey);
+        return value instanceof Integer ? (Integer) value : fallbackValue;
+    }
+
+    @Nullable
+    public Double getDouble(@Nonnull String variableKey) {
+        return getValue(variableKey, Double.class);
+    }
+
+    public double getDouble(@Nonnull String variableKey, double fallbackValue) {
+        Object value = variableValues.get(variableKey);
+        return value instanceof Double ? (Double) value : fallbackValue;
+    }
+
+    @Nullable
+    public String getString(@Nonnull String variableKey) {
+        return getValue(variableKey, String.class);
+    }
+
+    /**
+     * @return an unmodifiable map from variable key to typed value.
+     */
+    @Nonnull
+    public Map<String, ?> toMap() {
+        return variableValues;
+    }
+
+    @Nullable
+    private <T> T getValue(String variableKey, Class<T> type) {
+        Object value = variableValues.get(variableKey);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "OptimizelyFeatureVariables{" +
+            "featureKey='" + featureKey + '\'' +
+            ", featureEnabled=" + featureEnabled +
+            ", variableValues=" + variableValues +
+            '}';
+    }
+}
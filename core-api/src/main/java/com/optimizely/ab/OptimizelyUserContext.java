@@ -0,0 +1,146 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab;
+
+import com.optimizely.ab.bucketing.UserDecisionContext;
+import com.optimizely.ab.config.FeatureVariable;
+import com.optimizely.ab.config.FeatureVariableValue;
+import com.optimizely.ab.config.Variation;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OptimizelyUserContext makes several decisions for one user against a single {@link com.optimizely.ab.config.ProjectConfig}.
+ *
+ * The user profile lookup, bucketing ID, audience evaluations and feature decisions are computed once per context
+ * and reused by later calls, while impressions, tracking events and notifications are sent exactly as with the
+ * equivalent {@link Optimizely} methods.
+ *
+ * A context is bound to the project config that was current when it was created. Create a new context to pick up
+ * a new datafile, forced variations or user profile changes.
+ */
+@ThreadSafe
+public class OptimizelyUserContext {
+    private final Optimizely optimizely;
+    private final UserDecisionContext userContext;
+
+    OptimizelyUserContext(@Nonnull Optimizely optimizely,
+                          @Nonnull UserDecisionContext userContext) {
+        this.optimizely = optimizely;
+        this.userContext = userContext;
+    }
+
+    public String getUserId() {
+        return userContext.getUserId();
+    }
+
+    public Map<String, ?> getAttributes() {
+        return userContext.getAttributes();
+    }
+
+    @Nullable
+    public Variation activate(@Nonnull String experimentKey) {
+        return optimizely.activateForContext(userContext, experimentKey);
+    }
+
+    @Nullable
+    public Variation getVariation(@Nonnull String experimentKey) {
+        return optimizely.getVariationForContext(userContext, experimentKey);
+    }
+
+    public void track(@Nonnull String eventName) {
+        track(eventName, Collections.<String, String>emptyMap());
+    }
+
+    public void track(@Nonnull String eventName,
+                      @Nonnull Map<String, ?> eventTags) {
+        optimizely.trackForContext(userContext, eventName, eventTags);
+    }
+
+    @Nonnull
+    public Boolean isFeatureEnabled(@Nonnull String featureKey) {
+        return optimizely.isFeatureEnabledForContext(userContext, featureKey);
+    }
+
+    @Nullable
+    public Boolean getFeatureVariableBoolean(@Nonnull String featureKey,
+                                             @Nonnull String variableKey) {
+        return (Boolean) getFeatureVariableValue(featureKey, variableKey, FeatureVariable.VariableType.BOOLEAN);
+    }
+
+    public boolean getFeatureVariableBoolean(@Nonnull String featureKey,
+                                             @Nonnull String variableKey,
+                                             boolean fallbackValue) {
+        FeatureVariableValue variableValue = optimizely.getFeatureVariableValueForContext(userContext, featureKey,
+            variableKey, FeatureVariable.VariableType.BOOLEAN);
+        return variableValue == null ? fallbackValue : variableValue.getBooleanValue(fallbackValue);
+    }
+
+    @Nullable
+    public Double getFeatureVariableDouble(@Nonnull String featureKey,
+                                           @Nonnull String variableKey) {
+        return (Double) getFeatureVariableValue(featureKey, variableKey, FeatureVariable.VariableType.DOUBLE);
+    }
+
+    public double getFeatureVariableDouble(@Nonnull String featureKey,
+                                           @Nonnull String variableKey,
+                                           double fallbackValue) {
+        FeatureVariableValue variableValue = optimizely.getFeatureVariableValueForContext(userContext, featureKey,
+            variableKey, FeatureVariable.VariableType.DOUBLE);
+        return variableValue == null ? fallbackValue : variableValue.getDoubleValue(fallbackValue);
+    }
+
+    @Nullable
+    public Integer getFeatureVariableInteger(@Nonnull String featureKey,
+                                             @Nonnull String variableKey) {
+        return (Integer) getFeatureVariableValue(featureKey, variableKey, FeatureVariable.VariableType.INTEGER);
+    }
+
+    public int getFeatureVariableInteger(@Nonnull String featureKey,
+                                         @Nonnull String variableKey,
+                                         int fallbackValue) {
+        FeatureVariableValue variableValue = optimizely.getFeatureVariableValueForContext(userContext, featureKey,
+            variableKey, FeatureVariable.VariableType.INTEGER);
+        return variableValue == null ? fallbackValue : variableValue.getIntValue(fallbackValue);
+    }
+
+    @Nullable
+    public String getFeatureVariableString(@Nonnull String featureKey,
+                                           @Nonnull String variableKey) {
+        return (String) getFeatureVariableValue(featureKey, variableKey, FeatureVariable.VariableType.STRING);
+    }
+
+    @Nullable
+    public OptimizelyFeatureVariables getAllFeatureVariables(@Nonnull String featureKey) {
+        return optimizely.getAllFeatureVariablesForContext(userContext, featureKey);
+    }
+
+    @Nonnull
+    public List<String> getEnabledFeatures() {
+        return optimizely.getEnabledFeaturesForContext(userContext);
+    }
+
+    @Nullable
+    private Object getFeatureVariableValue(String featureKey, String variableKey, FeatureVariable.VariableType variableType) {
+        FeatureVariableValue variableValue = optimizely.getFeatureVariableValueForContext(userContext, featureKey,
+            variableKey, variableType);
+        return variableValue == null ? null : variableValue.getValue();
+    }
+}
@@ -0,0 +1,57 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Optional interface for a {@link UserProfileService} able to look up and save several user profiles at once, for
+ * instance with a single bulk read or write to a remote store. {@link WriteBehindUserProfileService} uses it to flush
+ * its buffered saves, and {@link DecisionService#getVariations(com.optimizely.ab.config.Experiment, java.util.List, int)}
+ * to look up and save the profiles of each batch of users.
+ */
+public interface BatchUserProfileService extends UserProfileService {
+
+    /**
+     * Save the user profile Maps sent to this method, at most one per user.
+     *
+     * @param userProfiles The Maps representing the users' profiles, see {@link UserProfileService#lookup(String)}.
+     * @throws Exception Can throw an exception if the user profiles were not saved properly.
+     */
+    void saveAll(Collection<Map<String, Object>> userProfiles) throws Exception;
+
+    /**
+     * Fetch the user profile Maps of several user IDs. Services able to fetch several profiles in one request should
+     * override the default implementation, which looks the users up one at a time.
+     *
+     * @param userIds The IDs of the users whose profiles will be retrieved.
+     * @return the Maps representing the profiles found, see {@link UserProfileService#lookup(String)}, keyed by
+     * user ID. Users without a profile are left out.
+     * @throws Exception Passes on whatever exceptions the implementation may throw.
+     */
+    default Map<String, Map<String, Object>> lookupAll(Collection<String> userIds) throws Exception {
+        Map<String, Map<String, Object>> userProfiles = new HashMap<String, Map<String, Object>>();
+        for (String userId : userIds) {
+            Map<String, Object> userProfile = lookup(userId);
+            if (userProfile != null) {
+                userProfiles.put(userId, userProfile);
+            }
+        }
+        return userProfiles;
+    }
+}
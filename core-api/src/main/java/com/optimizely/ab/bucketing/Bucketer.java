@@ -21,7 +21,6 @@ import com.optimizely.ab.bucketing.internal.MurmurHash3;
 import com.optimizely.ab.config.Experiment;
 import com.optimizely.ab.config.Group;
 import com.optimizely.ab.config.ProjectConfig;
-import com.optimizely.ab.config.TrafficAllocation;
 import com.optimizely.ab.config.Variation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +28,6 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
-import java.util.List;
 
 /**
  * Default Optimizely bucketing algorithm that evenly distributes users using the Murmur3 hash of some provided
@@ -53,62 +51,37 @@ public class Bucketer {
     @VisibleForTesting
     static final int MAX_TRAFFIC_VALUE = 10000;
 
-    private String bucketToEntity(int bucketValue, List<TrafficAllocation> trafficAllocations) {
-        int currentEndOfRange;
-        for (TrafficAllocation currAllocation : trafficAllocations) {
-            currentEndOfRange = currAllocation.getEndOfRange();
-            if (bucketValue < currentEndOfRange) {
-                // for mutually exclusive bucketing, de-allocated space is represented by an empty string
-                if (currAllocation.getEntityId().isEmpty()) {
-                    return null;
-                }
-                return currAllocation.getEntityId();
-            }
-        }
-
-        return null;
-    }
-
     private Experiment bucketToExperiment(@Nonnull Group group,
-                                          @Nonnull String bucketingId,
-                                          @Nonnull ProjectConfig projectConfig) {
-        // "salt" the bucket id using the group id
-        String bucketKey = bucketingId + group.getId();
-
-        List<TrafficAllocation> trafficAllocations = group.getTrafficAllocation();
-
-        int hashCode = MurmurHash3.murmurhash3_x86_32(bucketKey, 0, bucketKey.length(), MURMUR_HASH_SEED);
+                                          @Nonnull String bucketingId) {
+        // "salt" the bucket id using the group id, hashed as a second segment rather than a concatenated String.
+        // String.valueOf keeps the "null" key that concatenation used to produce for a null bucketing id.
+        int hashCode = MurmurHash3.murmurhash3_x86_32(String.valueOf(bucketingId), group.getId(), MURMUR_HASH_SEED);
         int bucketValue = generateBucketValue(hashCode);
-        logger.debug("Assigned bucket {} to user with bucketingId \"{}\" during experiment bucketing.", bucketValue, bucketingId);
-
-        String bucketedExperimentId = bucketToEntity(bucketValue, trafficAllocations);
-        if (bucketedExperimentId != null) {
-            return projectConfig.getExperimentIdMapping().get(bucketedExperimentId);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Assigned bucket {} to user with bucketingId \"{}\" during experiment bucketing.", bucketValue, bucketingId);
         }
 
-        // user was not bucketed to an experiment in the group
-        return null;
+        // null if the user was not bucketed to an experiment in the group
+        return group.getTrafficAllocationTable().get(bucketValue);
     }
 
     private Variation bucketToVariation(@Nonnull Experiment experiment,
                                         @Nonnull String bucketingId) {
-        // "salt" the bucket id using the experiment id
-        String experimentId = experiment.getId();
         String experimentKey = experiment.getKey();
-        String combinedBucketId = bucketingId + experimentId;
 
-        List<TrafficAllocation> trafficAllocations = experiment.getTrafficAllocation();
-
-        int hashCode = MurmurHash3.murmurhash3_x86_32(combinedBucketId, 0, combinedBucketId.length(), MURMUR_HASH_SEED);
+        // "salt" the bucket id using the experiment id, hashed as a second segment rather than a concatenated String
+        int hashCode = MurmurHash3.murmurhash3_x86_32(String.valueOf(bucketingId), experiment.getId(), MURMUR_HASH_SEED);
         int bucketValue = generateBucketValue(hashCode);
-        logger.debug("Assigned bucket {} to user with bucketingId \"{}\" when bucketing to a variation.", bucketValue, bucketingId);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Assigned bucket {} to user with bucketingId \"{}\" when bucketing to a variation.", bucketValue, bucketingId);
+        }
 
-        String bucketedVariationId = bucketToEntity(bucketValue, trafficAllocations);
-        if (bucketedVariationId != null) {
-            Variation bucketedVariation = experiment.getVariationIdToVariationMap().get(bucketedVariationId);
-            String variationKey = bucketedVariation.getKey();
-            logger.info("User with bucketingId \"{}\" is in variation \"{}\" of experiment \"{}\".", bucketingId, variationKey,
-                experimentKey);
+        Variation bucketedVariation = experiment.getTrafficAllocationTable().get(bucketValue);
+        if (bucketedVariation != null) {
+            if (logger.isInfoEnabled()) {
+                logger.info("User with bucketingId \"{}\" is in variation \"{}\" of experiment \"{}\".", bucketingId,
+                    bucketedVariation.getKey(), experimentKey);
+            }
 
             return bucketedVariation;
         }
@@ -136,7 +109,7 @@ public class Bucketer {
             Group experimentGroup = projectConfig.getGroupIdMapping().get(groupId);
             // bucket to an experiment only if group entities are to be mutually exclusive
             if (experimentGroup.getPolicy().equals(Group.RANDOM_POLICY)) {
-                Experiment bucketedExperiment = bucketToExperiment(experimentGroup, bucketingId, projectConfig);
+                Experiment bucketedExperiment = bucketToExperiment(experimentGroup, bucketingId);
                 if (bucketedExperiment == null) {
                     logger.info("User with bucketingId \"{}\" is not in any experiment of group {}.", bucketingId, experimentGroup.getId());
                     return null;
@@ -146,13 +119,17 @@ public class Bucketer {
                 // if the experiment a user is bucketed in within a group isn't the same as the experiment provided,
                 // don't perform further bucketing within the experiment
                 if (!bucketedExperiment.getId().equals(experiment.getId())) {
-                    logger.info("User with bucketingId \"{}\" is not in experiment \"{}\" of group {}.", bucketingId, experiment.getKey(),
-                        experimentGroup.getId());
+                    if (logger.isInfoEnabled()) {
+                        logger.info("User with bucketingId \"{}\" is not in experiment \"{}\" of group {}.", bucketingId, experiment.getKey(),
+                            experimentGroup.getId());
+                    }
                     return null;
                 }
 
-                logger.info("User with bucketingId \"{}\" is in experiment \"{}\" of group {}.", bucketingId, experiment.getKey(),
-                    experimentGroup.getId());
+                if (logger.isInfoEnabled()) {
+                    logger.info("User with bucketingId \"{}\" is in experiment \"{}\" of group {}.", bucketingId, experiment.getKey(),
+                        experimentGroup.getId());
+                }
             }
         }
 
@@ -164,6 +141,9 @@ public class Bucketer {
 
     /**
      * Map the given 32-bit hashcode into the range [0, {@link #MAX_TRAFFIC_VALUE}).
+     * <p>
+     * This is {@code floor(MAX_TRAFFIC_VALUE * unsigned(hashCode) / 2^32)} computed in integer arithmetic. The product
+     * is below 2^46, so the result is exactly the one the previous floating point formula produced.
      *
      * @param hashCode the provided hashcode
      * @return a value in the range closed-open range, [0, {@link #MAX_TRAFFIC_VALUE})
@@ -171,8 +151,7 @@ public class Bucketer {
     @VisibleForTesting
     int generateBucketValue(int hashCode) {
         // map the hashCode into the range [0, BucketAlgorithm.MAX_TRAFFIC_VALUE)
-        double ratio = (double) (hashCode & 0xFFFFFFFFL) / Math.pow(2, 32);
-        return (int) Math.floor(MAX_TRAFFIC_VALUE * ratio);
+        return (int) (((hashCode & 0xFFFFFFFFL) * MAX_TRAFFIC_VALUE) >>> 32);
     }
 
 
@@ -0,0 +1,206 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.internal.ExpiringLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.optimizely.ab.internal.SafetyUtils.tryClose;
+
+/**
+ * CachingUserProfileService is a {@link UserProfileService} decorator keeping recently used user profiles in memory,
+ * so that repeated decisions for a user do not each reach the wrapped service.
+ *
+ * The cache is bounded, the least recently used profiles being evicted once it holds maxSize users, and profiles
+ * are looked up again once their time to live has passed. Users without a profile are cached as well unless
+ * negative caching is disabled. Saves are written through to the wrapped service before the cached profile is
+ * replaced.
+ *
+ * Profiles changed in the wrapped service by other processes are seen once the cached profile expires.
+ */
+@ThreadSafe
+public class CachingUserProfileService implements UserProfileService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingUserProfileService.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TIME_TO_LIVE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final CachedProfile NO_PROFILE = new CachedProfile(null);
+
+    private final UserProfileService userProfileService;
+    private final ExpiringLruCache<String, CachedProfile> userProfiles;
+    private final boolean negativeCaching;
+
+    private CachingUserProfileService(UserProfileService userProfileService,
+                                      int maxSize,
+                                      long timeToLiveMs,
+                                      boolean negativeCaching) {
+        this.userProfileService = userProfileService;
+        this.userProfiles = new ExpiringLruCache<>(maxSize, timeToLiveMs);
+        this.negativeCaching = negativeCaching;
+    }
+
+    @Override
+    public Map<String, Object> lookup(String userId) throws Exception {
+        CachedProfile cachedProfile = userProfiles.get(userId);
+        if (cachedProfile != null) {
+            return cachedProfile.userProfile;
+        }
+
+        Map<String, Object> userProfile = userProfileService.lookup(userId);
+        // a save made during the lookup cached a newer profile, which the looked up one must not replace
+        if (userProfile != null) {
+            userProfiles.putIfAbsent(userId, new CachedProfile(userProfile));
+        } else if (negativeCaching) {
+            userProfiles.putIfAbsent(userId, NO_PROFILE);
+        }
+        return userProfile;
+    }
+
+    @Override
+    public void save(Map<String, Object> userProfile) throws Exception {
+        Object userId = userProfile.get(userIdKey);
+        try {
+            userProfileService.save(userProfile);
+        } catch (Exception e) {
+            if (userId instanceof String) {
+                // the wrapped service may hold either profile, look it up again on the next decision
+                userProfiles.remove((String) userId);
+            }
+            throw e;
+        }
+
+        if (userId instanceof String) {
+            userProfiles.put((String) userId, new CachedProfile(userProfile));
+        }
+    }
+
+    /**
+     * Drop the cached profile of a user.
+     */
+    public void invalidate(@Nonnull String userId) {
+        userProfiles.remove(userId);
+    }
+
+    /**
+     * Drop all the cached profiles.
+     */
+    public void invalidateAll() {
+        userProfiles.clear();
+    }
+
+    public long getHitCount() {
+        return userProfiles.getHitCount();
+    }
+
+    public long getMissCount() {
+        return userProfiles.getMissCount();
+    }
+
+    /**
+     * @return the number of profiles evicted because the cache was full or they expired.
+     */
+    public long getEvictionCount() {
+        return userProfiles.getEvictionCount();
+    }
+
+    public int size() {
+        return userProfiles.size();
+    }
+
+    @Override
+    public void close() {
+        tryClose(userProfileService);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private UserProfileService userProfileService;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private long timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+        private boolean negativeCaching = true;
+
+        /**
+         * {@link UserProfileService} the profiles are looked up from and saved to.
+         */
+        public Builder withUserProfileService(@Nonnull UserProfileService userProfileService) {
+            this.userProfileService = userProfileService;
+            return this;
+        }
+
+        /**
+         * MaxSize is the maximum number of users whose profile is cached.
+         */
+        public Builder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * TimeToLive is how long a looked up or saved profile is reused.
+         */
+        public Builder withTimeToLive(long duration, TimeUnit timeUnit) {
+            this.timeToLiveMs = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * NegativeCaching caches the users without a profile, which is the case of every new user.
+         */
+        public Builder withNegativeCaching(boolean negativeCaching) {
+            this.negativeCaching = negativeCaching;
+            return this;
+        }
+
+        public CachingUserProfileService build() {
+            if (userProfileService == null) {
+                throw new IllegalArgumentException("UserProfileService was not configured");
+            }
+
+            if (maxSize <= 0) {
+                logger.warn("Invalid maxSize of {}, Defaulting to {}", maxSize, DEFAULT_MAX_SIZE);
+                maxSize = DEFAULT_MAX_SIZE;
+            }
+
+            if (timeToLiveMs <= 0) {
+                logger.warn("Invalid timeToLive of {}, Defaulting to {}", timeToLiveMs, DEFAULT_TIME_TO_LIVE_MS);
+                timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+            }
+
+            return new CachingUserProfileService(userProfileService, maxSize, timeToLiveMs, negativeCaching);
+        }
+    }
+
+    private static final class CachedProfile {
+        @Nullable
+        private final Map<String, Object> userProfile;
+
+        private CachedProfile(@Nullable Map<String, Object> userProfile) {
+            this.userProfile = userProfile;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.optimizely.ab.internal.SafetyUtils.tryClose;
+
+/**
+ * CoalescingUserProfileService is a {@link UserProfileService} decorator sharing a single call to the wrapped service
+ * between the threads looking up or saving the profile of the same user at the same time, as when the handling of
+ * one request fans out into parallel decisions.
+ *
+ * A lookup made while another lookup of the user is in flight waits for that lookup and returns the same map, so
+ * callers must not modify it. Saves made while a save of the user is in flight are merged, the decisions of later
+ * saves replacing those of earlier ones for the same experiment, and written together once the in-flight save
+ * completes.
+ *
+ * Waiting threads give up after maxWait: a lookup then reaches the wrapped service itself, and a save returns while
+ * its decisions are still written by the thread that merged them.
+ */
+@ThreadSafe
+public class CoalescingUserProfileService implements UserProfileService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingUserProfileService.class);
+
+    public static final long DEFAULT_MAX_WAIT_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private final UserProfileService userProfileService;
+    private final long maxWaitMs;
+
+    private final ConcurrentMap<String, CompletableFuture<Map<String, Object>>> lookups = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InFlightSave> saves = new ConcurrentHashMap<>();
+
+    private final LongAdder coalescedLookupCount = new LongAdder();
+    private final LongAdder coalescedSaveCount = new LongAdder();
+
+    private CoalescingUserProfileService(UserProfileService userProfileService, long maxWaitMs) {
+        this.userProfileService = userProfileService;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, Object> lookup(String userId) throws Exception {
+        CompletableFuture<Map<String, Object>> lookup = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> inFlightLookup = lookups.putIfAbsent(userId, lookup);
+        if (inFlightLookup != null) {
+            coalescedLookupCount.increment();
+            try {
+                return await(inFlightLookup);
+            } catch (TimeoutException e) {
+                logger.debug("Timed out waiting for the user profile lookup of user \"{}\", looking it up again.", userId);
+                return userProfileService.lookup(userId);
+            }
+        }
+
+        try {
+            Map<String, Object> userProfile = userProfileService.lookup(userId);
+            lookup.complete(userProfile);
+            return userProfile;
+        } catch (Exception e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            lookups.remove(userId, lookup);
+        }
+    }
+
+    @Override
+    public void save(Map<String, Object> userProfile) throws Exception {
+        if (!UserProfileUtils.isValidUserProfileMap(userProfile)) {
+            userProfileService.save(userProfile);
+            return;
+        }
+
+        String userId = (String) userProfile.get(userIdKey);
+        while (true) {
+            InFlightSave save = new InFlightSave(userProfile);
+            InFlightSave inFlightSave = saves.putIfAbsent(userId, save);
+            if (inFlightSave == null) {
+                writeSaves(userId, save, userProfile);
+                return;
+            }
+
+            CompletableFuture<Void> mergedSave = inFlightSave.merge(userProfile);
+            if (mergedSave == null) {
+                // the in-flight save completed meanwhile
+                continue;
+            }
+
+            coalescedSaveCount.increment();
+            try {
+                await(mergedSave);
+            } catch (TimeoutException e) {
+                logger.debug("Timed out waiting for the user profile save of user \"{}\".", userId);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Write a user profile, then the profiles merged from the saves made meanwhile until there are none left.
+     */
+    private void writeSaves(String userId, InFlightSave save, Map<String, Object> userProfile) throws Exception {
+        Exception exception = null;
+        Map<String, Object> profileToSave = userProfile;
+        CompletableFuture<Void> mergedSave = null;
+        while (profileToSave != null) {
+            try {
+                userProfileService.save(profileToSave);
+                if (mergedSave != null) {
+                    mergedSave.complete(null);
+                }
+            } catch (Exception e) {
+                if (mergedSave == null) {
+                    exception = e;
+                } else {
+                    mergedSave.completeExceptionally(e);
+                }
+            }
+
+            synchronized (save) {
+                profileToSave = save.pendingProfile;
+                mergedSave = save.pendingSave;
+                save.pendingProfile = null;
+                save.pendingSave = null;
+                save.savingProfile = profileToSave;
+                if (profileToSave == null) {
+                    save.completed = true;
+                    saves.remove(userId, save);
+                }
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * @return the number of lookups that waited for a lookup of the same user instead of reaching the wrapped service.
+     */
+    public long getCoalescedLookupCount() {
+        return coalescedLookupCount.sum();
+    }
+
+    /**
+     * @return the number of saves merged into a later save of the same user.
+     */
+    public long getCoalescedSaveCount() {
+        return coalescedSaveCount.sum();
+    }
+
+    @Override
+    public void close() {
+        tryClose(userProfileService);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private UserProfileService userProfileService;
+        private long maxWaitMs = DEFAULT_MAX_WAIT_MS;
+
+        /**
+         * {@link UserProfileService} the profiles are looked up from and saved to.
+         */
+        public Builder withUserProfileService(@Nonnull UserProfileService userProfileService) {
+            this.userProfileService = userProfileService;
+            return this;
+        }
+
+        /**
+         * MaxWait is how long a lookup or save waits for the in-flight call of the same user.
+         */
+        public Builder withMaxWait(long duration, TimeUnit timeUnit) {
+            this.maxWaitMs = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        public CoalescingUserProfileService build() {
+            if (userProfileService == null) {
+                throw new IllegalArgumentException("UserProfileService was not configured");
+            }
+
+            if (maxWaitMs <= 0) {
+                logger.warn("Invalid maxWait of {}, Defaulting to {}", maxWaitMs, DEFAULT_MAX_WAIT_MS);
+                maxWaitMs = DEFAULT_MAX_WAIT_MS;
+            }
+
+            return new CoalescingUserProfileService(userProfileService, maxWaitMs);
+        }
+    }
+
+    /**
+     * The saves of a user made while a save of that user is written.
+     */
+    private static final class InFlightSave {
+        // the profile being written, whose decisions the pending profile has to keep
+        private Map<String, Object> savingProfile;
+        private Map<String, Object> pendingProfile;
+        private CompletableFuture<Void> pendingSave;
+        private boolean completed;
+
+        private InFlightSave(Map<String, Object> savingProfile) {
+            this.savingProfile = savingProfile;
+        }
+
+        /**
+         * Merge a profile into the pending one, which starts from the decisions of the profile being written.
+         *
+         * @return the future completed once the merged profile is saved, or null if this save already completed.
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        synchronized CompletableFuture<Void> merge(Map<String, Object> userProfile) {
+            if (completed) {
+                return null;
+            }
+
+            Map<String, Map<String, String>> experimentBucketMap =
+                (Map<String, Map<String, String>>) userProfile.get(experimentBucketMapKey);
+            if (pendingProfile == null) {
+                Map<String, Map<String, String>> mergedBucketMap =
+                    new HashMap<>((Map<String, Map<String, String>>) savingProfile.get(experimentBucketMapKey));
+                mergedBucketMap.putAll(experimentBucketMap);
+                pendingProfile = new HashMap<>(userProfile);
+                pendingProfile.put(experimentBucketMapKey, mergedBucketMap);
+                pendingSave = new CompletableFuture<>();
+            } else {
+                ((Map<String, Map<String, String>>) pendingProfile.get(experimentBucketMapKey)).putAll(experimentBucketMap);
+            }
+            return pendingSave;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.FeatureVariable;
+import com.optimizely.ab.config.FeatureVariableUsageInstance;
+import com.optimizely.ab.config.FeatureVariableValue;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.Rollout;
+import com.optimizely.ab.config.Variation;
+import com.optimizely.ab.config.audience.Audience;
+import com.optimizely.ab.config.audience.Condition;
+import com.optimizely.ab.internal.ExperimentUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CompiledProjectConfig is the decision plan of a single {@link ProjectConfig} revision.
+ *
+ * It is built once per revision and flattens every {@link FeatureFlag} into arrays of pre-resolved rules, so that
+ * feature decisions are a straight loop over {@link Experiment} objects instead of walking the experiment ids,
+ * resolving them through the id mappings and re-reading the {@link Rollout} on every call. Each {@link Rule} also
+ * carries the audience condition of its experiment resolved ahead of time, and each {@link FeaturePlan} the typed
+ * values of the feature variables for every variation that can be decided for the feature.
+ *
+ * Plans are keyed by the identity of the {@link FeatureFlag} and {@link Experiment} instances owned by the
+ * {@link ProjectConfig}. Entities that are not part of the compiled config are compiled on demand.
+ */
+@Immutable
+public final class CompiledProjectConfig {
+
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    private final ProjectConfig projectConfig;
+    private final Map<Experiment, Rule> rules;
+    private final Map<FeatureFlag, FeaturePlan> featurePlans;
+
+    public CompiledProjectConfig(@Nonnull ProjectConfig projectConfig) {
+        this.projectConfig = projectConfig;
+
+        Map<Experiment, Rule> rules = new IdentityHashMap<>();
+        for (Experiment experiment : projectConfig.getExperiments()) {
+            rules.put(experiment, new Rule(experiment, projectConfig));
+        }
+        for (Rollout rollout : projectConfig.getRollouts()) {
+            for (Experiment rolloutRule : rollout.getExperiments()) {
+                rules.put(rolloutRule, new Rule(rolloutRule, projectConfig));
+            }
+        }
+        this.rules = Collections.unmodifiableMap(rules);
+
+        Map<FeatureFlag, FeaturePlan> featurePlans = new IdentityHashMap<>();
+        for (FeatureFlag featureFlag : projectConfig.getFeatureFlags()) {
+            featurePlans.put(featureFlag, new FeaturePlan(featureFlag, projectConfig, rules));
+        }
+        this.featurePlans = Collections.unmodifiableMap(featurePlans);
+    }
+
+    /**
+     * @return the {@link ProjectConfig} this plan was compiled from.
+     */
+    @Nonnull
+    public ProjectConfig getProjectConfig() {
+        return projectConfig;
+    }
+
+    /**
+     * Get the compiled {@link Rule} of an {@link Experiment}.
+     *
+     * @param experiment The experiment to look up.
+     * @return the {@link Rule} compiled for the experiment.
+     */
+    @Nonnull
+    public Rule getRule(@Nonnull Experiment experiment) {
+        Rule rule = rules.get(experiment);
+        return rule != null ? rule : new Rule(experiment, projectConfig);
+    }
+
+    /**
+     * Get the compiled {@link FeaturePlan} of a {@link FeatureFlag}.
+     *
+     * @param featureFlag The feature flag to look up.
+     * @return the {@link FeaturePlan} compiled for the feature flag.
+     */
+    @Nonnull
+    public FeaturePlan getFeaturePlan(@Nonnull FeatureFlag featureFlag) {
+        FeaturePlan featurePlan = featurePlans.get(featureFlag);
+        return featurePlan != null ? featurePlan : new FeaturePlan(featureFlag, projectConfig, rules);
+    }
+
+    /**
+     * An {@link Experiment} with its audience condition resolved ahead of time.
+     */
+    @Immutable
+    public static final class Rule {
+        private final Experiment experiment;
+        @Nullable
+        private final Condition audienceCondition;
+        @Nullable
+        private final String audienceName;
+
+        Rule(@Nonnull Experiment experiment, @Nonnull ProjectConfig projectConfig) {
+            this.experiment = experiment;
+            this.audienceCondition = ExperimentUtils.getAudienceCondition(experiment);
+
+            String audienceName = null;
+            if (!experiment.getAudienceIds().isEmpty()) {
+                Audience audience = projectConfig.getAudienceIdMapping().get(experiment.getAudienceIds().get(0));
+                if (audience != null) {
+                    audienceName = audience.getName();
+                }
+            }
+            this.audienceName = audienceName;
+        }
+
+        @Nonnull
+        public Experiment getExperiment() {
+            return experiment;
+        }
+
+        @Nullable
+        public Condition getAudienceCondition() {
+            return audienceCondition;
+        }
+
+        /**
+         * @return the name of the first audience of the rule, used when logging rollout rule targeting.
+         */
+        @Nullable
+        public String getAudienceName() {
+            return audienceName;
+        }
+
+        /**
+         * Determines whether a user satisfies the audience condition of this rule.
+         *
+         * @param projectConfig the current projectConfig
+         * @param attributes    the attributes of the user
+         * @return whether the user meets the criteria for the rule
+         */
+        public boolean isUserInRule(@Nonnull ProjectConfig projectConfig, @Nonnull Map<String, ?> attributes) {
+            return ExperimentUtils.isUserInExperiment(projectConfig, experiment, audienceCondition, attributes);
+        }
+    }
+
+    /**
+     * The flattened decision plan of a {@link FeatureFlag}: the feature test rules in priority order, followed by
+     * the targeted rollout rules and the "everyone else" rollout rule.
+     */
+    @Immutable
+    public static final class FeaturePlan {
+        private final FeatureFlag featureFlag;
+        private final Rule[] featureTestRules;
+        private final boolean usedInRollout;
+        @Nullable
+        private final Rollout rollout;
+        private final Rule[] rolloutRules;
+        @Nullable
+        private final Rule everyoneElseRule;
+        private final Map<String, ?> defaultVariableValues;
+        private final Map<String, Map<String, ?>> variableValuesByVariationId;
+
+        FeaturePlan(@Nonnull FeatureFlag featureFlag,
+                    @Nonnull ProjectConfig projectConfig,
+                    @Nonnull Map<Experiment, Rule> rules) {
+            this.featureFlag = featureFlag;
+
+            List<String> experimentIds = featureFlag.getExperimentIds();
+            List<Rule> featureTestRules = new ArrayList<>(experimentIds.size());
+            for (String experimentId : experimentIds) {
+                Experiment experiment = projectConfig.getExperimentIdMapping().get(experimentId);
+                if (experiment != null) {
+                    featureTestRules.add(resolveRule(experiment, projectConfig, rules));
+                }
+            }
+            this.featureTestRules = featureTestRules.toArray(NO_RULES);
+
+            String rolloutId = featureFlag.getRolloutId();
+            this.usedInRollout = !rolloutId.isEmpty();
+            this.rollout = usedInRollout ? projectConfig.getRolloutIdMapping().get(rolloutId) : null;
+
+            if (rollout == null || rollout.getExperiments().isEmpty()) {
+                this.rolloutRules = NO_RULES;
+                this.everyoneElseRule = null;
+            } else {
+                List<Experiment> rolloutExperiments = rollout.getExperiments();
+                int rolloutRulesLength = rolloutExperiments.size();
+                Rule[] rolloutRules = new Rule[rolloutRulesLength - 1];
+                for (int i = 0; i < rolloutRulesLength - 1; i++) {
+                    rolloutRules[i] = resolveRule(rolloutExperiments.get(i), projectConfig, rules);
+                }
+                this.rolloutRules = rolloutRules;
+                this.everyoneElseRule = resolveRule(rolloutExperiments.get(rolloutRulesLength - 1), projectConfig, rules);
+            }
+
+            this.defaultVariableValues = createVariableValues(featureFlag, null);
+            Map<String, Map<String, ?>> variableValuesByVariationId = new HashMap<>();
+            for (Rule rule : this.featureTestRules) {
+                addVariableValues(featureFlag, rule.getExperiment(), variableValuesByVariationId);
+            }
+            if (rollout != null) {
+                for (Experiment rolloutRule : rollout.getExperiments()) {
+                    addVariableValues(featureFlag, rolloutRule, variableValuesByVariationId);
+                }
+            }
+            this.variableValuesByVariationId = Collections.unmodifiableMap(variableValuesByVariationId);
+        }
+
+        private static void addVariableValues(FeatureFlag featureFlag,
+                                              Experiment experiment,
+                                              Map<String, Map<String, ?>> variableValuesByVariationId) {
+            for (Variation variation : experiment.getVariations()) {
+                if (variation.getFeatureEnabled()) {
+                    variableValuesByVariationId.put(variation.getId(), createVariableValues(featureFlag, variation));
+                }
+            }
+        }
+
+        private static Map<String, ?> createVariableValues(FeatureFlag featureFlag, @Nullable Variation variation) {
+            Map<String, FeatureVariableUsageInstance> usageInstances = variation == null ? null :
+                variation.getVariableIdToFeatureVariableUsageInstanceMap();
+
+            Map<String, Object> variableValues = new LinkedHashMap<>();
+            for (FeatureVariable variable : featureFlag.getVariables()) {
+                FeatureVariableValue value = variable.getTypedDefaultValue();
+                if (usageInstances != null) {
+                    FeatureVariableUsageInstance usageInstance = usageInstances.get(variable.getId());
+                    if (usageInstance != null) {
+                        value = usageInstance.getTypedValue(variable.getType());
+                    }
+                }
+                variableValues.put(variable.getKey(), value.getValue());
+            }
+            return Collections.unmodifiableMap(variableValues);
+        }
+
+        private static Rule resolveRule(Experiment experiment, ProjectConfig projectConfig, Map<Experiment, Rule> rules) {
+            Rule rule = rules.get(experiment);
+            return rule != null ? rule : new Rule(experiment, projectConfig);
+        }
+
+        @Nonnull
+        public FeatureFlag getFeatureFlag() {
+            return featureFlag;
+        }
+
+        /**
+         * @return the rules of the experiments using the feature, in the order they are evaluated.
+         */
+        @Nonnull
+        Rule[] getFeatureTestRules() {
+            return featureTestRules;
+        }
+
+        /**
+         * @return true if the feature flag references a rollout, whether or not it could be resolved.
+         */
+        public boolean isUsedInRollout() {
+            return usedInRollout;
+        }
+
+        /**
+         * @return the {@link Rollout} of the feature, or null if the feature is not used in a rollout or the rollout
+         * is not in the datafile.
+         */
+        @Nullable
+        public Rollout getRollout() {
+            return rollout;
+        }
+
+        /**
+         * @return the targeted rollout rules, in priority order, excluding the "everyone else" rule.
+         */
+        @Nonnull
+        Rule[] getRolloutRules() {
+            return rolloutRules;
+        }
+
+        /**
+         * @return the fall back rollout rule, or null if the feature has no rollout rules.
+         */
+        @Nullable
+        public Rule getEveryoneElseRule() {
+            return everyoneElseRule;
+        }
+
+        /**
+         * Get the typed values of all the variables of the feature, keyed by variable key in datafile order.
+         * Values that cannot be parsed as their declared type are null.
+         *
+         * @param variation The variation decided for the feature, or null if the user was not bucketed.
+         * @return an unmodifiable map of the variation's values, or of the default values when the variation is null
+         * or does not enable the feature.
+         */
+        @Nonnull
+        public Map<String, ?> getVariableValues(@Nullable Variation variation) {
+            if (variation == null || !variation.getFeatureEnabled()) {
+                return defaultVariableValues;
+            }
+
+            Map<String, ?> variableValues = variableValuesByVariationId.get(variation.getId());
+            return variableValues != null ? variableValues : createVariableValues(featureFlag, variation);
+        }
+    }
+}
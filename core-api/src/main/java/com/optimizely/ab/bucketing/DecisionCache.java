@@ -0,0 +1,234 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.internal.ExpiringLruCache;
+import com.optimizely.ab.notification.NotificationHandler;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of the decisions made by the {@link DecisionService}, for users that are decided for the same
+ * experiments and rollouts repeatedly within a short window.
+ * <p>
+ * Decisions are keyed by the user id, the bucketing id, the filtered attributes and the revision of the
+ * {@link ProjectConfig} they were made against. Entries expire after a time to live and the least recently used
+ * entries are evicted once the cache is full.
+ * <p>
+ * Forced variations and whitelisting are checked before the cache, so variations forced with
+ * {@link DecisionService#setForcedVariation(Experiment, String, String)} always take effect. Variations stored by
+ * the {@link UserProfileService} are only looked up on a miss, changes made to a profile outside of the SDK are
+ * seen once the entry expires.
+ * <p>
+ * All entries are dropped when a new config revision is seen or an {@link UpdateConfigNotification} is received.
+ */
+@ThreadSafe
+public class DecisionCache implements NotificationHandler<UpdateConfigNotification> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecisionCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TIME_TO_LIVE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final ExpiringLruCache<Key, Entry> entries;
+
+    private volatile String revision;
+
+    private DecisionCache(int maxSize, long timeToLiveMs) {
+        this.entries = new ExpiringLruCache<>(maxSize, timeToLiveMs);
+    }
+
+    /**
+     * Get the cached decision for the key.
+     *
+     * @return The cached entry or null on a miss. The decision of the entry itself is null for a cached
+     * "not bucketed" decision.
+     */
+    @Nullable
+    Entry get(@Nonnull Key key) {
+        return entries.get(key);
+    }
+
+    void put(@Nonnull Key key, @Nullable Object decision) {
+        if (!key.revision.equals(revision)) {
+            synchronized (this) {
+                if (!key.revision.equals(revision)) {
+                    invalidate();
+                    revision = key.revision;
+                }
+            }
+        }
+
+        // the lookup key can hold the caller's attributes, a copy is stored so later changes to them do not matter
+        entries.put(key.withCopiedAttributes(), new Entry(decision));
+    }
+
+    /**
+     * Drop all the cached decisions.
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    @Override
+    public void handle(UpdateConfigNotification message) {
+        logger.debug("Config updated, invalidating the decision cache.");
+        invalidate();
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private long timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+
+        /**
+         * MaxSize is the maximum number of decisions kept, the least recently used ones are evicted first.
+         */
+        public Builder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * TimeToLive is how long a decision is reused after it was made.
+         */
+        public Builder withTimeToLive(long duration, TimeUnit timeUnit) {
+            this.timeToLiveMs = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        public DecisionCache build() {
+            if (maxSize <= 0) {
+                logger.warn("Invalid maxSize of {}, Defaulting to {}", maxSize, DEFAULT_MAX_SIZE);
+                maxSize = DEFAULT_MAX_SIZE;
+            }
+
+            if (timeToLiveMs <= 0) {
+                logger.warn("Invalid timeToLive of {}, Defaulting to {}", timeToLiveMs, DEFAULT_TIME_TO_LIVE_MS);
+                timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+            }
+
+            return new DecisionCache(maxSize, timeToLiveMs);
+        }
+    }
+
+    /**
+     * A cached decision, which is null when the user was not bucketed.
+     */
+    static final class Entry {
+        private final Object decision;
+
+        private Entry(@Nullable Object decision) {
+            this.decision = decision;
+        }
+
+        @Nullable
+        Object getDecision() {
+            return decision;
+        }
+    }
+
+    /**
+     * Identifies a decision. The rule is the {@link com.optimizely.ab.config.Experiment} or
+     * {@link com.optimizely.ab.config.FeatureFlag} decided, compared by identity since it belongs to the config of
+     * the revision.
+     */
+    static final class Key {
+        private final Object rule;
+        private final String userId;
+        private final String bucketingId;
+        private final Map<String, ?> attributes;
+        private final String revision;
+        private final int hash;
+
+        Key(@Nonnull Object rule,
+            @Nonnull String userId,
+            @Nonnull String bucketingId,
+            @Nonnull Map<String, ?> attributes,
+            @Nonnull ProjectConfig projectConfig) {
+            this(rule, userId, bucketingId, attributes, String.valueOf(projectConfig.getRevision()));
+        }
+
+        private Key(Object rule, String userId, String bucketingId, Map<String, ?> attributes, String revision) {
+            this.rule = rule;
+            this.userId = userId;
+            this.bucketingId = bucketingId;
+            this.attributes = attributes;
+            this.revision = revision;
+
+            int hash = System.identityHashCode(rule);
+            hash = 31 * hash + userId.hashCode();
+            hash = 31 * hash + bucketingId.hashCode();
+            hash = 31 * hash + attributes.hashCode();
+            this.hash = hash;
+        }
+
+        private Key withCopiedAttributes() {
+            return new Key(rule, userId, bucketingId, new HashMap<String, Object>(attributes), revision);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) obj;
+            return hash == key.hash &&
+                rule == key.rule &&
+                userId.equals(key.userId) &&
+                bucketingId.equals(key.bucketingId) &&
+                revision.equals(key.revision) &&
+                attributes.equals(key.attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -17,7 +17,6 @@ package com.optimizely.ab.bucketing;
 
 import com.optimizely.ab.OptimizelyRuntimeException;
 import com.optimizely.ab.config.*;
-import com.optimizely.ab.config.audience.Audience;
 import com.optimizely.ab.error.ErrorHandler;
 import com.optimizely.ab.internal.ExperimentUtils;
 import com.optimizely.ab.internal.ControlAttribute;
@@ -25,9 +24,19 @@ import com.optimizely.ab.internal.ControlAttribute;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,9 +53,17 @@ import javax.annotation.Nullable;
  */
 public class DecisionService {
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     private final Bucketer bucketer;
     private final ErrorHandler errorHandler;
-    private final UserProfileService userProfileService;
+    // map based services are adapted, so lookups and saves go through the typed methods
+    @Nullable
+    private final TypedUserProfileService userProfileService;
+    @Nullable
+    private final BatchUserProfileService batchUserProfileService;
+    @Nullable
+    private final DecisionCache decisionCache;
     private static final Logger logger = LoggerFactory.getLogger(DecisionService.class);
 
     /**
@@ -57,6 +74,12 @@ public class DecisionService {
      */
     private transient ConcurrentHashMap<String, ConcurrentHashMap<String, String>> forcedVariationMapping = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
 
+    /**
+     * The decision plan of the most recently used {@link ProjectConfig}. It is rebuilt whenever a new config
+     * revision is passed in.
+     */
+    private volatile CompiledProjectConfig compiledProjectConfig;
+
 
     /**
      * Initialize a decision service for the Optimizely client.
@@ -68,9 +91,27 @@ public class DecisionService {
     public DecisionService(@Nonnull Bucketer bucketer,
                            @Nonnull ErrorHandler errorHandler,
                            @Nullable UserProfileService userProfileService) {
+        this(bucketer, errorHandler, userProfileService, null);
+    }
+
+    /**
+     * Initialize a decision service for the Optimizely client that reuses recent decisions.
+     *
+     * @param bucketer           Base bucketer to allocate new users to an experiment.
+     * @param errorHandler       The error handler of the Optimizely client.
+     * @param userProfileService UserProfileService implementation for storing user info.
+     * @param decisionCache      DecisionCache holding the recent variation and rollout decisions.
+     */
+    public DecisionService(@Nonnull Bucketer bucketer,
+                           @Nonnull ErrorHandler errorHandler,
+                           @Nullable UserProfileService userProfileService,
+                           @Nullable DecisionCache decisionCache) {
         this.bucketer = bucketer;
         this.errorHandler = errorHandler;
-        this.userProfileService = userProfileService;
+        this.userProfileService = userProfileService == null ? null : UserProfileServiceAdapter.adapt(userProfileService);
+        this.batchUserProfileService = userProfileService instanceof BatchUserProfileService ?
+            (BatchUserProfileService) userProfileService : null;
+        this.decisionCache = decisionCache;
     }
 
     /**
@@ -86,6 +127,75 @@ public class DecisionService {
                                   @Nonnull String userId,
                                   @Nonnull Map<String, ?> filteredAttributes,
                                   @Nonnull ProjectConfig projectConfig) {
+        return getVariation(experiment, userId, filteredAttributes, projectConfig, null);
+    }
+
+    /**
+     * Get a {@link Variation} of an {@link Experiment} for the user of a {@link UserDecisionContext}, reusing the
+     * bucketing id, user profile and audience results already computed for that user.
+     *
+     * @param experiment  The Experiment the user will be bucketed into.
+     * @param userContext The user and the config the decision is made against.
+     * @return The {@link Variation} the user is allocated into.
+     */
+    @Nullable
+    public Variation getVariation(@Nonnull Experiment experiment,
+                                  @Nonnull UserDecisionContext userContext) {
+        userContext.openDecision();
+        try {
+            return getVariation(experiment, userContext.getUserId(), userContext.getAttributes(),
+                userContext.getProjectConfig(), userContext);
+        } finally {
+            closeDecision(userContext);
+        }
+    }
+
+    /**
+     * Get the {@link Variation}s of an {@link Experiment} for many users, such as in a batch job.
+     * The users are decided in batches. When the {@link UserProfileService} is a {@link BatchUserProfileService},
+     * the profiles of each batch are looked up with a single {@link BatchUserProfileService#lookupAll(Collection)}
+     * and the new decisions saved with a single {@link BatchUserProfileService#saveAll(Collection)}.
+     *
+     * @param experiment   The Experiment the users will be bucketed into.
+     * @param userContexts The users and the config the decisions are made against.
+     * @param batchSize    The number of users whose profiles are looked up and saved together.
+     * @return the {@link Variation} of each user, in the order of the user contexts, null for users not allocated.
+     */
+    @Nonnull
+    public List<Variation> getVariations(@Nonnull Experiment experiment,
+                                         @Nonnull List<UserDecisionContext> userContexts,
+                                         int batchSize) {
+        if (batchSize < 1) {
+            logger.warn("Invalid batchSize of {}, Defaulting to {}", batchSize, DEFAULT_BATCH_SIZE);
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+
+        List<Variation> variations = new ArrayList<Variation>(userContexts.size());
+        for (int from = 0; from < userContexts.size(); from += batchSize) {
+            List<UserDecisionContext> batch = userContexts.subList(from, Math.min(userContexts.size(), from + batchSize));
+            lookupUserProfiles(batch);
+
+            // the decisions stay open until the whole batch is decided, so their profiles are saved together
+            for (UserDecisionContext userContext : batch) {
+                userContext.openDecision();
+            }
+            try {
+                for (UserDecisionContext userContext : batch) {
+                    variations.add(getVariation(experiment, userContext));
+                }
+            } finally {
+                closeDecisions(batch);
+            }
+        }
+        return variations;
+    }
+
+    @Nullable
+    private Variation getVariation(@Nonnull Experiment experiment,
+                                   @Nonnull String userId,
+                                   @Nonnull Map<String, ?> filteredAttributes,
+                                   @Nonnull ProjectConfig projectConfig,
+                                   @Nullable UserDecisionContext userContext) {
 
         if (!ExperimentUtils.isExperimentActive(experiment)) {
             return null;
@@ -103,28 +213,39 @@ public class DecisionService {
             return variation;
         }
 
-        // fetch the user profile map from the user profile service
-        UserProfile userProfile = null;
+        if (decisionCache == null) {
+            return getStoredOrBucketedVariation(experiment, userId, filteredAttributes, projectConfig, userContext);
+        }
 
-        if (userProfileService != null) {
-            try {
-                Map<String, Object> userProfileMap = userProfileService.lookup(userId);
-                if (userProfileMap == null) {
-                    logger.info("We were unable to get a user profile map from the UserProfileService.");
-                } else if (UserProfileUtils.isValidUserProfileMap(userProfileMap)) {
-                    userProfile = UserProfileUtils.convertMapToUserProfile(userProfileMap);
-                } else {
-                    logger.warn("The UserProfileService returned an invalid map.");
-                }
-            } catch (Exception exception) {
-                logger.error(exception.getMessage());
-                errorHandler.handleError(new OptimizelyRuntimeException(exception));
-            }
+        DecisionCache.Key cacheKey = new DecisionCache.Key(experiment, userId,
+            getBucketingId(userId, filteredAttributes, userContext), filteredAttributes, projectConfig);
+        DecisionCache.Entry cachedDecision = decisionCache.get(cacheKey);
+        if (cachedDecision != null) {
+            return (Variation) cachedDecision.getDecision();
         }
 
+        variation = getStoredOrBucketedVariation(experiment, userId, filteredAttributes, projectConfig, userContext);
+        decisionCache.put(cacheKey, variation);
+        return variation;
+    }
+
+    @Nullable
+    private Variation getStoredOrBucketedVariation(@Nonnull Experiment experiment,
+                                                   @Nonnull String userId,
+                                                   @Nonnull Map<String, ?> filteredAttributes,
+                                                   @Nonnull ProjectConfig projectConfig,
+                                                   @Nullable UserDecisionContext userContext) {
+        Variation variation;
+
+        // fetch the user profile map from the user profile service
+        UserProfile userProfile = getUserProfile(userId, userContext);
+
         // check if user exists in user profile
         if (userProfile != null) {
-            variation = getStoredVariation(experiment, userProfile, projectConfig);
+            // the profile of a user context is shared by the flags decided for it in parallel
+            synchronized (userProfile) {
+                variation = getStoredVariation(experiment, userProfile, projectConfig);
+            }
             // return the stored variation if it exists
             if (variation != null) {
                 return variation;
@@ -133,12 +254,15 @@ public class DecisionService {
             userProfile = new UserProfile(userId, new HashMap<String, Decision>());
         }
 
-        if (ExperimentUtils.isUserInExperiment(projectConfig, experiment, filteredAttributes)) {
-            String bucketingId = getBucketingId(userId, filteredAttributes);
+        CompiledProjectConfig.Rule rule = getCompiledProjectConfig(projectConfig, userContext).getRule(experiment);
+        if (isUserInRule(rule, projectConfig, filteredAttributes, userContext)) {
+            String bucketingId = getBucketingId(userId, filteredAttributes, userContext);
             variation = bucketer.bucket(experiment, bucketingId, projectConfig);
 
             if (variation != null) {
-                if (userProfileService != null) {
+                if (userProfileService != null && userContext != null) {
+                    recordVariation(experiment, variation, userProfile, userContext);
+                } else if (userProfileService != null) {
                     saveVariation(experiment, variation, userProfile);
                 } else {
                     logger.debug("This decision will not be saved since the UserProfileService is null.");
@@ -154,6 +278,8 @@ public class DecisionService {
 
     /**
      * Get the variation the user is bucketed into for the FeatureFlag
+     * When a {@link UserProfileService} is set, the user profile is looked up once for all the experiments of the
+     * feature flag.
      *
      * @param featureFlag        The feature flag the user wants to access.
      * @param userId             User Identifier
@@ -165,10 +291,95 @@ public class DecisionService {
                                                   @Nonnull String userId,
                                                   @Nonnull Map<String, ?> filteredAttributes,
                                                   @Nonnull ProjectConfig projectConfig) {
-        if (!featureFlag.getExperimentIds().isEmpty()) {
-            for (String experimentId : featureFlag.getExperimentIds()) {
-                Experiment experiment = projectConfig.getExperimentIdMapping().get(experimentId);
-                Variation variation = getVariation(experiment, userId, filteredAttributes, projectConfig);
+        if (userProfileService != null) {
+            return getVariationForFeature(featureFlag, new UserDecisionContext(userId, filteredAttributes, projectConfig));
+        }
+        return getVariationForFeature(featureFlag, userId, filteredAttributes, projectConfig, null);
+    }
+
+    /**
+     * Get the variation the user of a {@link UserDecisionContext} is bucketed into for the FeatureFlag.
+     * The decision is made once per feature flag and context, later calls return the same {@link FeatureDecision}.
+     *
+     * @param featureFlag The feature flag the user wants to access.
+     * @param userContext The user and the config the decision is made against.
+     * @return {@link FeatureDecision}
+     */
+    @Nonnull
+    public FeatureDecision getVariationForFeature(@Nonnull FeatureFlag featureFlag,
+                                                  @Nonnull UserDecisionContext userContext) {
+        FeatureDecision featureDecision = userContext.getFeatureDecision(featureFlag);
+        if (featureDecision == null) {
+            userContext.openDecision();
+            try {
+                featureDecision = getVariationForFeature(featureFlag, userContext.getUserId(), userContext.getAttributes(),
+                    userContext.getProjectConfig(), userContext);
+            } finally {
+                closeDecision(userContext);
+            }
+            userContext.putFeatureDecision(featureFlag, featureDecision);
+        }
+        return featureDecision;
+    }
+
+    /**
+     * Get the variations the user of a {@link UserDecisionContext} is bucketed into for several feature flags.
+     * The user profile is looked up once and the decisions stored in it are saved together once all the feature
+     * flags are decided.
+     *
+     * @param featureFlags          The feature flags to decide.
+     * @param userContext           The user and the config the decisions are made against.
+     * @param featureEvaluationPool Pool used to decide the feature flags in parallel, they are decided on the calling
+     *                              thread when null.
+     * @return the {@link FeatureDecision} of each feature flag, in the order of the feature flags.
+     */
+    @Nonnull
+    public List<FeatureDecision> getVariationsForFeatures(@Nonnull List<FeatureFlag> featureFlags,
+                                                          @Nonnull UserDecisionContext userContext,
+                                                          @Nullable ForkJoinPool featureEvaluationPool) {
+        FeatureDecision[] featureDecisions = new FeatureDecision[featureFlags.size()];
+        userContext.openDecision();
+        try {
+            if (featureEvaluationPool != null && featureDecisions.length > 1) {
+                try {
+                    featureEvaluationPool.submit(() -> IntStream.range(0, featureDecisions.length).parallel().forEach(i ->
+                        featureDecisions[i] = getVariationForFeature(featureFlags.get(i), userContext)
+                    )).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrupted while deciding features in parallel, deciding the remaining features serially.");
+                } catch (ExecutionException e) {
+                    logger.error("Failed to decide features in parallel, deciding the remaining features serially.", e.getCause());
+                }
+            }
+
+            // decisions are memoized by the user context, so features already decided are not bucketed again
+            for (int i = 0; i < featureDecisions.length; i++) {
+                if (featureDecisions[i] == null) {
+                    featureDecisions[i] = getVariationForFeature(featureFlags.get(i), userContext);
+                }
+            }
+        } finally {
+            closeDecision(userContext);
+        }
+
+        return Arrays.asList(featureDecisions);
+    }
+
+    @Nonnull
+    private FeatureDecision getVariationForFeature(@Nonnull FeatureFlag featureFlag,
+                                                   @Nonnull String userId,
+                                                   @Nonnull Map<String, ?> filteredAttributes,
+                                                   @Nonnull ProjectConfig projectConfig,
+                                                   @Nullable UserDecisionContext userContext) {
+        CompiledProjectConfig.FeaturePlan featurePlan = getCompiledProjectConfig(projectConfig, userContext).getFeaturePlan(featureFlag);
+        CompiledProjectConfig.Rule[] featureTestRules = featurePlan.getFeatureTestRules();
+        if (featureTestRules.length > 0) {
+            for (CompiledProjectConfig.Rule featureTestRule : featureTestRules) {
+                Experiment experiment = featureTestRule.getExperiment();
+                Variation variation = userContext == null ?
+                    getVariation(experiment, userId, filteredAttributes, projectConfig) :
+                    getVariation(experiment, userId, filteredAttributes, projectConfig, userContext);
                 if (variation != null) {
                     return new FeatureDecision(experiment, variation, FeatureDecision.DecisionSource.FEATURE_TEST);
                 }
@@ -177,7 +388,9 @@ public class DecisionService {
             logger.info("The feature flag \"{}\" is not used in any experiments.", featureFlag.getKey());
         }
 
-        FeatureDecision featureDecision = getVariationForFeatureInRollout(featureFlag, userId, filteredAttributes, projectConfig);
+        FeatureDecision featureDecision = userContext == null ?
+            getVariationForFeatureInRollout(featureFlag, userId, filteredAttributes, projectConfig) :
+            getVariationForFeatureInRollout(featureFlag, userId, filteredAttributes, projectConfig, userContext);
         if (featureDecision.variation == null) {
             logger.info("The user \"{}\" was not bucketed into a rollout for feature flag \"{}\".",
                 userId, featureFlag.getKey());
@@ -203,26 +416,57 @@ public class DecisionService {
                                                     @Nonnull String userId,
                                                     @Nonnull Map<String, ?> filteredAttributes,
                                                     @Nonnull ProjectConfig projectConfig) {
+        return getVariationForFeatureInRollout(featureFlag, userId, filteredAttributes, projectConfig, null);
+    }
+
+    @Nonnull
+    private FeatureDecision getVariationForFeatureInRollout(@Nonnull FeatureFlag featureFlag,
+                                                            @Nonnull String userId,
+                                                            @Nonnull Map<String, ?> filteredAttributes,
+                                                            @Nonnull ProjectConfig projectConfig,
+                                                            @Nullable UserDecisionContext userContext) {
+        CompiledProjectConfig.FeaturePlan featurePlan = getCompiledProjectConfig(projectConfig, userContext).getFeaturePlan(featureFlag);
+
         // use rollout to get variation for feature
-        if (featureFlag.getRolloutId().isEmpty()) {
+        if (!featurePlan.isUsedInRollout()) {
             logger.info("The feature flag \"{}\" is not used in a rollout.", featureFlag.getKey());
             return new FeatureDecision(null, null, null);
         }
-        Rollout rollout = projectConfig.getRolloutIdMapping().get(featureFlag.getRolloutId());
-        if (rollout == null) {
+        if (featurePlan.getRollout() == null) {
             logger.error("The rollout with id \"{}\" was not found in the datafile for feature flag \"{}\".",
                 featureFlag.getRolloutId(), featureFlag.getKey());
             return new FeatureDecision(null, null, null);
         }
 
+        String bucketingId = getBucketingId(userId, filteredAttributes, userContext);
+        if (decisionCache == null) {
+            return bucketIntoRollout(featurePlan, userId, bucketingId, filteredAttributes, projectConfig, userContext);
+        }
+
+        DecisionCache.Key cacheKey = new DecisionCache.Key(featureFlag, userId, bucketingId, filteredAttributes, projectConfig);
+        DecisionCache.Entry cachedDecision = decisionCache.get(cacheKey);
+        if (cachedDecision != null) {
+            return (FeatureDecision) cachedDecision.getDecision();
+        }
+
+        FeatureDecision featureDecision = bucketIntoRollout(featurePlan, userId, bucketingId, filteredAttributes,
+            projectConfig, userContext);
+        decisionCache.put(cacheKey, featureDecision);
+        return featureDecision;
+    }
+
+    @Nonnull
+    private FeatureDecision bucketIntoRollout(@Nonnull CompiledProjectConfig.FeaturePlan featurePlan,
+                                              @Nonnull String userId,
+                                              @Nonnull String bucketingId,
+                                              @Nonnull Map<String, ?> filteredAttributes,
+                                              @Nonnull ProjectConfig projectConfig,
+                                              @Nullable UserDecisionContext userContext) {
         // for all rules before the everyone else rule
-        int rolloutRulesLength = rollout.getExperiments().size();
-        String bucketingId = getBucketingId(userId, filteredAttributes);
         Variation variation;
-        for (int i = 0; i < rolloutRulesLength - 1; i++) {
-            Experiment rolloutRule = rollout.getExperiments().get(i);
-            Audience audience = projectConfig.getAudienceIdMapping().get(rolloutRule.getAudienceIds().get(0));
-            if (ExperimentUtils.isUserInExperiment(projectConfig, rolloutRule, filteredAttributes)) {
+        for (CompiledProjectConfig.Rule rule : featurePlan.getRolloutRules()) {
+            Experiment rolloutRule = rule.getExperiment();
+            if (isUserInRule(rule, projectConfig, filteredAttributes, userContext)) {
                 variation = bucketer.bucket(rolloutRule, bucketingId, projectConfig);
                 if (variation == null) {
                     break;
@@ -231,13 +475,14 @@ public class DecisionService {
                     FeatureDecision.DecisionSource.ROLLOUT);
             } else {
                 logger.debug("User \"{}\" did not meet the conditions to be in rollout rule for audience \"{}\".",
-                    userId, audience.getName());
+                    userId, rule.getAudienceName());
             }
         }
 
         // get last rule which is the fall back rule
-        Experiment finalRule = rollout.getExperiments().get(rolloutRulesLength - 1);
-        if (ExperimentUtils.isUserInExperiment(projectConfig, finalRule, filteredAttributes)) {
+        CompiledProjectConfig.Rule everyoneElseRule = featurePlan.getEveryoneElseRule();
+        if (everyoneElseRule != null && isUserInRule(everyoneElseRule, projectConfig, filteredAttributes, userContext)) {
+            Experiment finalRule = everyoneElseRule.getExperiment();
             variation = bucketer.bucket(finalRule, bucketingId, projectConfig);
             if (variation != null) {
                 return new FeatureDecision(finalRule, variation,
@@ -331,17 +576,11 @@ public class DecisionService {
         if (userProfileService != null) {
             String experimentId = experiment.getId();
             String variationId = variation.getId();
-            Decision decision;
-            if (userProfile.experimentBucketMap.containsKey(experimentId)) {
-                decision = userProfile.experimentBucketMap.get(experimentId);
-                decision.variationId = variationId;
-            } else {
-                decision = new Decision(variationId);
-            }
-            userProfile.experimentBucketMap.put(experimentId, decision);
-
             try {
-                userProfileService.save(userProfile.toMap());
+                synchronized (userProfile) {
+                    Decision decision = putDecision(userProfile, experimentId, variationId);
+                    userProfileService.saveDecisions(userProfile, Collections.singletonMap(experimentId, decision));
+                }
                 logger.info("Saved variation \"{}\" of experiment \"{}\" for user \"{}\".",
                     variationId, experimentId, userProfile.userId);
             } catch (Exception exception) {
@@ -352,6 +591,270 @@ public class DecisionService {
         }
     }
 
+    /**
+     * Add a {@link Variation} to the user profile of a {@link UserDecisionContext}. The profile is saved once the
+     * outermost decision of the context is closed.
+     */
+    private void recordVariation(@Nonnull Experiment experiment,
+                                 @Nonnull Variation variation,
+                                 @Nonnull UserProfile userProfile,
+                                 @Nonnull UserDecisionContext userContext) {
+        Decision decision;
+        synchronized (userProfile) {
+            decision = putDecision(userProfile, experiment.getId(), variation.getId());
+        }
+        userContext.recordChangedDecision(experiment.getId(), decision);
+        logger.debug("Recorded variation \"{}\" of experiment \"{}\" for user \"{}\".",
+            variation.getId(), experiment.getId(), userProfile.userId);
+    }
+
+    private static Decision putDecision(@Nonnull UserProfile userProfile,
+                                        @Nonnull String experimentId,
+                                        @Nonnull String variationId) {
+        Decision decision = userProfile.experimentBucketMap.get(experimentId);
+        if (decision != null) {
+            decision.variationId = variationId;
+        } else {
+            decision = new Decision(variationId);
+            userProfile.experimentBucketMap.put(experimentId, decision);
+        }
+        return decision;
+    }
+
+    private void closeDecision(@Nonnull UserDecisionContext userContext) {
+        Map<String, Decision> changedDecisions = userContext.closeDecision();
+        if (changedDecisions != null) {
+            saveUserProfile(userContext.getUserProfile(), changedDecisions);
+        }
+    }
+
+    private void saveUserProfile(@Nonnull UserProfile userProfile, @Nonnull Map<String, Decision> changedDecisions) {
+        try {
+            // the service reads the profile while saving, so it is not changed by parallel decisions meanwhile
+            synchronized (userProfile) {
+                userProfileService.saveDecisions(userProfile, changedDecisions);
+            }
+            logger.info("Saved user profile of user \"{}\".", userProfile.userId);
+        } catch (Exception exception) {
+            logger.warn("Failed to save user profile of user \"{}\".", userProfile.userId);
+            errorHandler.handleError(new OptimizelyRuntimeException(exception));
+        }
+    }
+
+    private void closeDecisions(@Nonnull List<UserDecisionContext> userContexts) {
+        List<UserProfile> userProfiles = new ArrayList<UserProfile>();
+        for (UserDecisionContext userContext : userContexts) {
+            Map<String, Decision> changedDecisions = userContext.closeDecision();
+            if (changedDecisions == null) {
+                continue;
+            }
+
+            if (batchUserProfileService == null) {
+                saveUserProfile(userContext.getUserProfile(), changedDecisions);
+            } else {
+                userProfiles.add(userContext.getUserProfile());
+            }
+        }
+
+        if (userProfiles.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> userProfileMaps = new ArrayList<Map<String, Object>>(userProfiles.size());
+        for (UserProfile userProfile : userProfiles) {
+            synchronized (userProfile) {
+                userProfileMaps.add(userProfile.toMap());
+            }
+        }
+
+        try {
+            batchUserProfileService.saveAll(userProfileMaps);
+            logger.info("Saved user profiles of {} users.", userProfileMaps.size());
+        } catch (Exception exception) {
+            logger.warn("Failed to save user profiles of {} users.", userProfileMaps.size());
+            errorHandler.handleError(new OptimizelyRuntimeException(exception));
+        }
+    }
+
+    /**
+     * Get the typed values of all the variables of a feature flag for the variation decided for it.
+     * The values are parsed once per config revision, together with the rest of the decision plan.
+     *
+     * @param featureFlag   The feature flag the variables belong to.
+     * @param variation     The variation of the {@link FeatureDecision}, or null if the user was not bucketed.
+     * @param projectConfig The current projectConfig.
+     * @return an unmodifiable map from variable key to typed value.
+     */
+    @Nonnull
+    public Map<String, ?> getFeatureVariableValues(@Nonnull FeatureFlag featureFlag,
+                                                   @Nullable Variation variation,
+                                                   @Nonnull ProjectConfig projectConfig) {
+        return getCompiledProjectConfig(projectConfig).getFeaturePlan(featureFlag).getVariableValues(variation);
+    }
+
+    /**
+     * Get the typed values of all the variables of a feature flag for the variation decided for it, using the
+     * decision plan of the {@link UserDecisionContext}.
+     *
+     * @param featureFlag The feature flag the variables belong to.
+     * @param variation   The variation of the {@link FeatureDecision}, or null if the user was not bucketed.
+     * @param userContext The user and the config the decision was made against.
+     * @return an unmodifiable map from variable key to typed value.
+     */
+    @Nonnull
+    public Map<String, ?> getFeatureVariableValues(@Nonnull FeatureFlag featureFlag,
+                                                   @Nullable Variation variation,
+                                                   @Nonnull UserDecisionContext userContext) {
+        return getCompiledProjectConfig(userContext.getProjectConfig(), userContext)
+            .getFeaturePlan(featureFlag)
+            .getVariableValues(variation);
+    }
+
+    /**
+     * Get the {@link UserProfile} of a user from the {@link UserProfileService}.
+     * With a {@link UserDecisionContext} the profile is looked up once and the same instance, including any
+     * decisions saved to it since, is returned for the rest of the context's lifetime.
+     *
+     * @param userId      The userId of the user.
+     * @param userContext The context of the user, or null to always look the profile up.
+     * @return the user's profile, or null if there is no service or it has no valid profile for the user.
+     */
+    @Nullable
+    private UserProfile getUserProfile(@Nonnull String userId, @Nullable UserDecisionContext userContext) {
+        if (userProfileService == null) {
+            return null;
+        }
+        if (userContext == null) {
+            return lookupUserProfile(userId);
+        }
+
+        synchronized (userContext) {
+            if (!userContext.isUserProfileLoaded()) {
+                UserProfile userProfile = lookupUserProfile(userId);
+                if (userProfile == null) {
+                    userProfile = new UserProfile(userId, new HashMap<String, Decision>());
+                }
+                userContext.setUserProfile(userProfile);
+            }
+            return userContext.getUserProfile();
+        }
+    }
+
+    /**
+     * Load the profiles of the users of several contexts with a single lookup, when the {@link UserProfileService}
+     * supports it. Otherwise they are looked up one at a time when first needed.
+     */
+    private void lookupUserProfiles(@Nonnull List<UserDecisionContext> userContexts) {
+        if (batchUserProfileService == null) {
+            return;
+        }
+
+        Set<String> userIds = new HashSet<String>();
+        for (UserDecisionContext userContext : userContexts) {
+            if (!userContext.isUserProfileLoaded()) {
+                userIds.add(userContext.getUserId());
+            }
+        }
+        if (userIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<String, Object>> userProfileMaps;
+        try {
+            userProfileMaps = batchUserProfileService.lookupAll(userIds);
+        } catch (Exception exception) {
+            logger.error(exception.getMessage());
+            errorHandler.handleError(new OptimizelyRuntimeException(exception));
+            return;
+        }
+
+        for (UserDecisionContext userContext : userContexts) {
+            String userId = userContext.getUserId();
+            synchronized (userContext) {
+                if (!userContext.isUserProfileLoaded()) {
+                    UserProfile userProfile = UserProfileServiceAdapter.convertUserProfileMap(userProfileMaps.get(userId));
+                    userContext.setUserProfile(userProfile != null ? userProfile : new UserProfile(userId, new HashMap<String, Decision>()));
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private UserProfile lookupUserProfile(@Nonnull String userId) {
+        try {
+            return userProfileService.lookupProfile(userId);
+        } catch (Exception exception) {
+            logger.error(exception.getMessage());
+            errorHandler.handleError(new OptimizelyRuntimeException(exception));
+        }
+        return null;
+    }
+
+    private boolean isUserInRule(@Nonnull CompiledProjectConfig.Rule rule,
+                                 @Nonnull ProjectConfig projectConfig,
+                                 @Nonnull Map<String, ?> filteredAttributes,
+                                 @Nullable UserDecisionContext userContext) {
+        if (userContext == null) {
+            return rule.isUserInRule(projectConfig, filteredAttributes);
+        }
+
+        Boolean isUserInRule = userContext.getAudienceResult(rule.getExperiment());
+        if (isUserInRule == null) {
+            isUserInRule = rule.isUserInRule(projectConfig, filteredAttributes);
+            userContext.putAudienceResult(rule.getExperiment(), isUserInRule);
+        }
+        return isUserInRule;
+    }
+
+    private String getBucketingId(@Nonnull String userId,
+                                  @Nonnull Map<String, ?> filteredAttributes,
+                                  @Nullable UserDecisionContext userContext) {
+        if (userContext == null) {
+            return getBucketingId(userId, filteredAttributes);
+        }
+
+        String bucketingId = userContext.getBucketingId();
+        if (bucketingId == null) {
+            bucketingId = getBucketingId(userId, filteredAttributes);
+            userContext.setBucketingId(bucketingId);
+        }
+        return bucketingId;
+    }
+
+    @Nonnull
+    private CompiledProjectConfig getCompiledProjectConfig(@Nonnull ProjectConfig projectConfig,
+                                                           @Nullable UserDecisionContext userContext) {
+        if (userContext == null) {
+            return getCompiledProjectConfig(projectConfig);
+        }
+
+        // a context keeps the plan of its own config, so that contexts created before a config update do not
+        // make the service recompile back and forth between revisions
+        CompiledProjectConfig compiled = userContext.getCompiledProjectConfig();
+        if (compiled == null) {
+            compiled = getCompiledProjectConfig(projectConfig);
+            userContext.setCompiledProjectConfig(compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Get the {@link CompiledProjectConfig} decision plan of a {@link ProjectConfig}.
+     * The plan is compiled once per config revision and reused until a different config is passed in.
+     *
+     * @param projectConfig The current projectConfig.
+     * @return the {@link CompiledProjectConfig} of the given projectConfig.
+     */
+    @Nonnull
+    CompiledProjectConfig getCompiledProjectConfig(@Nonnull ProjectConfig projectConfig) {
+        CompiledProjectConfig compiled = compiledProjectConfig;
+        if (compiled == null || compiled.getProjectConfig() != projectConfig) {
+            compiled = new CompiledProjectConfig(projectConfig);
+            compiledProjectConfig = compiled;
+        }
+        return compiled;
+    }
+
     /**
      * Get the bucketingId of a user if a bucketingId exists in attributes, or else default to userId.
      *
@@ -0,0 +1,651 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.bucketing.internal.MurmurHash3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * MappedFileUserProfileService is a {@link UserProfileService} storing the user profiles in a local memory-mapped
+ * file, for sticky bucketing that survives restarts without a remote store.
+ *
+ * The file is an append-only log of binary records, one per saved profile, holding the user id and the
+ * experimentId to variationId decisions. Numeric ids, which is what Optimizely generates, are stored as varints.
+ * Each record starts with its length and the CRC32 of its payload, the length being written last. When the file
+ * is opened the log is scanned to rebuild the index, and a record torn by a crash fails its checksum and is
+ * discarded together with everything after it.
+ *
+ * The index is an open-addressed hash table off the Java heap, each slot holding the hash of a user id and the
+ * offset of the user's latest record, so millions of users add no objects for the garbage collector to trace.
+ * Lookups run concurrently and saves are serialized. Once the file is full the latest record of each user is copied
+ * to a new file which then replaces the original one, and the file grows when that does not free enough space.
+ *
+ * Profiles are read and written as {@link UserProfile}s without going through the map representation.
+ * A file can only be opened by a single instance, it is locked until {@link #close()}.
+ */
+@ThreadSafe
+public class MappedFileUserProfileService implements TypedUserProfileService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileUserProfileService.class);
+
+    public static final long DEFAULT_INITIAL_FILE_SIZE = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024;
+    // a single mapping is limited to the int range
+    public static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte NUMERIC_ID = 0;
+    private static final byte STRING_ID = 1;
+    private static final int HASH_SEED = 1;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    // the largest index whose buffer of 8 bytes per slot stays in the int range
+    private static final int MAX_INDEX_CAPACITY = 1 << 27;
+
+    private final Path path;
+    private final long maxFileSize;
+    private final boolean syncWrites;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    // bytes of the latest record of each user, the rest of the log is garbage left by updates
+    private long liveBytes;
+
+    // slot: hash of the user id in the high 32 bits, record offset + 1 in the low 32 bits, 0 when empty
+    private LongBuffer index;
+    private int indexSize;
+
+    private MappedFileUserProfileService(Path path, long initialFileSize, long maxFileSize, boolean syncWrites) throws IOException {
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.syncWrites = syncWrites;
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileLock = lockFile(channel, path);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(maxFileSize, Math.max(initialFileSize, channel.size())));
+        index = allocateIndex(INITIAL_INDEX_CAPACITY);
+        recover();
+    }
+
+    @Override
+    @Nullable
+    public UserProfile lookupProfile(@Nonnull String userId) throws IOException {
+        byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            // hashed as the saved user id bytes, which differ from the chars of a user id with unpaired surrogates
+            long slot = index.get(findSlot(userIdBytes, MurmurHash3.murmurhash3_x86_32(userIdBytes, 0, userIdBytes.length, HASH_SEED)));
+            return slot == 0 ? null : readRecord(recordOffset(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Save the whole profile, records always hold all the decisions of a user.
+     */
+    @Override
+    public void saveDecisions(@Nonnull UserProfile userProfile, @Nonnull Map<String, Decision> changedDecisions) throws IOException {
+        byte[] userIdBytes = userProfile.userId.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = encodeRecord(userIdBytes, userProfile.experimentBucketMap);
+        int hash = MurmurHash3.murmurhash3_x86_32(userIdBytes, 0, userIdBytes.length, HASH_SEED);
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long slot = index.get(findSlot(userIdBytes, hash));
+            int replacedSize = 0;
+            if (slot != 0) {
+                int offset = recordOffset(slot);
+                if (hasPayload(offset, payload)) {
+                    return;
+                }
+                replacedSize = RECORD_HEADER_SIZE + buffer.getInt(offset);
+            }
+
+            // appending can compact the log, which moves the records, so the slot is looked up again
+            int offset = append(payload);
+            int slotIndex = findSlot(userIdBytes, hash);
+            if (index.get(slotIndex) == 0) {
+                indexSize++;
+            }
+            index.put(slotIndex, slot(hash, offset));
+            liveBytes += RECORD_HEADER_SIZE + payload.length - replacedSize;
+            growIndexIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of users with a stored profile.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (buffer == null) {
+                return;
+            }
+
+            buffer.force();
+            buffer = null;
+            index = null;
+            fileLock.release();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("User profile file " + path + " is closed.");
+        }
+    }
+
+    //======== log ========//
+
+    private void recover() {
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+
+            if (length < 0 || (long) position + RECORD_HEADER_SIZE + length > buffer.capacity() ||
+                checksum(position + RECORD_HEADER_SIZE, length) != buffer.getInt(position + 4)) {
+                logger.warn("Discarding the incomplete user profile records at offset {} of {}.", position, path);
+                for (int i = position; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+
+            RecordReader reader = new RecordReader(buffer, position + RECORD_HEADER_SIZE);
+            int userIdLength = reader.readVarInt();
+            int userIdOffset = reader.position;
+            int hash = hash(userIdOffset, userIdLength);
+            int slotIndex = findSlot(buffer, userIdOffset, userIdLength, hash);
+            long slot = index.get(slotIndex);
+            if (slot == 0) {
+                indexSize++;
+            } else {
+                liveBytes -= RECORD_HEADER_SIZE + buffer.getInt(recordOffset(slot));
+            }
+            index.put(slotIndex, slot(hash, position));
+            liveBytes += RECORD_HEADER_SIZE + length;
+            growIndexIfNeeded();
+
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        writePosition = position;
+        logger.info("Loaded the user profiles of {} users from {}.", indexSize, path);
+    }
+
+    private int append(byte[] payload) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if ((long) writePosition + recordSize > buffer.capacity()) {
+            makeRoom(recordSize);
+        }
+
+        int offset = writePosition;
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        // the length marks the record as written, so it goes last
+        buffer.putInt(offset, payload.length);
+        if (syncWrites) {
+            buffer.force();
+        }
+
+        writePosition += recordSize;
+        return offset;
+    }
+
+    private void makeRoom(int recordSize) throws IOException {
+        long capacity = buffer.capacity();
+        long garbage = writePosition - liveBytes;
+        if (garbage >= capacity / 2 || capacity >= maxFileSize) {
+            compact(capacity);
+        }
+
+        if ((long) writePosition + recordSize <= buffer.capacity()) {
+            return;
+        }
+
+        long required = (long) writePosition + recordSize;
+        if (required > maxFileSize) {
+            throw new IOException("User profile file " + path + " is full, its maximum size is " + maxFileSize + " bytes.");
+        }
+
+        long newCapacity = Math.min(maxFileSize, Math.max(capacity * 2, required));
+        logger.info("Growing user profile file {} to {} bytes.", path, newCapacity);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+    }
+
+    /**
+     * Copy the latest record of each user to a new file, which then replaces the current one.
+     */
+    private void compact(long capacity) throws IOException {
+        Path compactPath = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock compactLock = lockFile(compactChannel, compactPath);
+            MappedByteBuffer compactBuffer = compactChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            LongBuffer compactIndex = allocateIndex(index.capacity());
+
+            int position = 0;
+            for (int i = 0; i < index.capacity(); i++) {
+                long slot = index.get(i);
+                if (slot == 0) {
+                    continue;
+                }
+
+                int offset = recordOffset(slot);
+                int recordSize = RECORD_HEADER_SIZE + buffer.getInt(offset);
+                ByteBuffer record = buffer.duplicate();
+                record.limit(offset + recordSize).position(offset);
+                compactBuffer.position(position);
+                compactBuffer.put(record);
+                compactIndex.put(i, slot((int) (slot >>> 32), position));
+                position += recordSize;
+            }
+            compactBuffer.force();
+
+            Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Compacted user profile file {} from {} to {} bytes.", path, writePosition, position);
+
+            fileLock.release();
+            channel.close();
+            channel = compactChannel;
+            fileLock = compactLock;
+            buffer = compactBuffer;
+            index = compactIndex;
+            writePosition = position;
+            liveBytes = position;
+        } catch (IOException | RuntimeException e) {
+            compactChannel.close();
+            Files.deleteIfExists(compactPath);
+            throw e;
+        }
+    }
+
+    private int checksum(int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private boolean hasPayload(int offset, byte[] payload) {
+        if (buffer.getInt(offset) != payload.length) {
+            return false;
+        }
+
+        int payloadOffset = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < payload.length; i++) {
+            if (buffer.get(payloadOffset + i) != payload[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //======== index ========//
+
+    private int findSlot(byte[] userIdBytes, int hash) {
+        int mask = index.capacity() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = index.get(i);
+            if (slot == 0 || ((int) (slot >>> 32) == hash && hasUserId(recordOffset(slot), userIdBytes))) {
+                return i;
+            }
+        }
+    }
+
+    private int findSlot(ByteBuffer source, int userIdOffset, int userIdLength, int hash) {
+        byte[] userIdBytes = new byte[userIdLength];
+        for (int i = 0; i < userIdLength; i++) {
+            userIdBytes[i] = source.get(userIdOffset + i);
+        }
+        return findSlot(userIdBytes, hash);
+    }
+
+    private boolean hasUserId(int offset, byte[] userIdBytes) {
+        RecordReader reader = new RecordReader(buffer, offset + RECORD_HEADER_SIZE);
+        if (reader.readVarInt() != userIdBytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < userIdBytes.length; i++) {
+            if (buffer.get(reader.position + i) != userIdBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return MurmurHash3.murmurhash3_x86_32(bytes, 0, length, HASH_SEED);
+    }
+
+    private void growIndexIfNeeded() throws IllegalStateException {
+        // keep the load factor under one half so probe sequences stay short
+        if (indexSize * 2L <= index.capacity()) {
+            return;
+        }
+        if (index.capacity() >= MAX_INDEX_CAPACITY) {
+            throw new IllegalStateException("User profile index of " + path + " is full.");
+        }
+
+        LongBuffer grownIndex = allocateIndex(index.capacity() * 2);
+        int mask = grownIndex.capacity() - 1;
+        for (int i = 0; i < index.capacity(); i++) {
+            long slot = index.get(i);
+            if (slot == 0) {
+                continue;
+            }
+
+            int j = (int) (slot >>> 32) & mask;
+            while (grownIndex.get(j) != 0) {
+                j = (j + 1) & mask;
+            }
+            grownIndex.put(j, slot);
+        }
+        index = grownIndex;
+    }
+
+    private static LongBuffer allocateIndex(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+    }
+
+    private static long slot(int hash, int offset) {
+        return ((long) hash << 32) | ((offset + 1L) & 0xFFFFFFFFL);
+    }
+
+    private static int recordOffset(long slot) {
+        return (int) ((slot & 0xFFFFFFFFL) - 1);
+    }
+
+    private static FileLock lockFile(FileChannel channel, Path path) throws IOException {
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another instance in this process
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("User profile file " + path + " is used by another instance.");
+        }
+        return fileLock;
+    }
+
+    //======== records ========//
+
+    private static byte[] encodeRecord(byte[] userIdBytes, Map<String, Decision> experimentBucketMap) {
+        RecordWriter writer = new RecordWriter(userIdBytes.length + 5 + experimentBucketMap.size() * 12);
+        writer.writeVarInt(userIdBytes.length);
+        writer.writeBytes(userIdBytes);
+        writer.writeVarInt(experimentBucketMap.size());
+        for (Map.Entry<String, Decision> decision : experimentBucketMap.entrySet()) {
+            writer.writeId(decision.getKey());
+            writer.writeId(decision.getValue().variationId);
+        }
+        return writer.toByteArray();
+    }
+
+    private UserProfile readRecord(int offset) {
+        RecordReader reader = new RecordReader(buffer, offset + RECORD_HEADER_SIZE);
+        String userId = reader.readString(reader.readVarInt());
+        int decisionCount = reader.readVarInt();
+        Map<String, Decision> experimentBucketMap = new HashMap<>(decisionCount * 2);
+        for (int i = 0; i < decisionCount; i++) {
+            String experimentId = reader.readId();
+            experimentBucketMap.put(experimentId, new Decision(reader.readId()));
+        }
+        return new UserProfile(userId, experimentBucketMap);
+    }
+
+    private static final class RecordWriter {
+        private byte[] bytes;
+        private int size;
+
+        private RecordWriter(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private void writeId(String id) {
+            if (isNumericId(id)) {
+                writeByte(NUMERIC_ID);
+                writeVarLong(Long.parseLong(id));
+            } else {
+                byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+                writeByte(STRING_ID);
+                writeVarInt(idBytes.length);
+                writeBytes(idBytes);
+            }
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+        private void writeByte(byte value) {
+            ensureCapacity(1);
+            bytes[size++] = value;
+        }
+
+        private void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+        }
+
+        /**
+         * Ids written as numbers must read back as the same String, so leading zeros and signs are excluded.
+         */
+        private static boolean isNumericId(String id) {
+            int length = id.length();
+            if (length == 0 || length > 18 || (length > 1 && id.charAt(0) == '0')) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = id.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads a record with absolute gets, so concurrent lookups can share the mapped buffer.
+     */
+    private static final class RecordReader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        private RecordReader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private String readId() {
+            if (buffer.get(position++) == NUMERIC_ID) {
+                return Long.toString(readVarLong());
+            }
+            return readString(readVarInt());
+        }
+
+        private String readString(int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position++);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path path;
+        private long initialFileSize = DEFAULT_INITIAL_FILE_SIZE;
+        private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+        private boolean syncWrites;
+
+        /**
+         * Path of the file the user profiles are stored in, it is created when missing.
+         */
+        public Builder withPath(@Nonnull Path path) {
+            this.path = path;
+            return this;
+        }
+
+        public Builder withPath(@Nonnull String path) {
+            return withPath(Paths.get(path));
+        }
+
+        /**
+         * InitialFileSize is the size the file is mapped with when it is created.
+         */
+        public Builder withInitialFileSize(long initialFileSize) {
+            this.initialFileSize = initialFileSize;
+            return this;
+        }
+
+        /**
+         * MaxFileSize is the size the file does not grow past, saves fail once it is reached.
+         */
+        public Builder withMaxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        /**
+         * SyncWrites forces each save to the storage device before returning. Without it, saves survive a crash
+         * of the process but can be lost when the host itself fails.
+         */
+        public Builder withSyncWrites(boolean syncWrites) {
+            this.syncWrites = syncWrites;
+            return this;
+        }
+
+        public MappedFileUserProfileService build() throws IOException {
+            if (path == null) {
+                throw new IllegalArgumentException("Path was not configured");
+            }
+
+            if (maxFileSize <= RECORD_HEADER_SIZE || maxFileSize > MAX_FILE_SIZE) {
+                logger.warn("Invalid maxFileSize of {}, Defaulting to {}", maxFileSize, DEFAULT_MAX_FILE_SIZE);
+                maxFileSize = DEFAULT_MAX_FILE_SIZE;
+            }
+
+            if (initialFileSize <= 0 || initialFileSize > maxFileSize) {
+                long defaultInitialFileSize = Math.min(DEFAULT_INITIAL_FILE_SIZE, maxFileSize);
+                logger.warn("Invalid initialFileSize of {}, Defaulting to {}", initialFileSize, defaultInitialFileSize);
+                initialFileSize = defaultInitialFileSize;
+            }
+
+            return new MappedFileUserProfileService(path, initialFileSize, maxFileSize, syncWrites);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * A {@link UserProfileService} exchanging typed {@link UserProfile}s instead of nested maps.
+ *
+ * The {@link DecisionService} prefers these methods when a service implements them: profiles are not validated and
+ * converted from maps on every lookup, and saves receive the decisions that changed so an implementation can write
+ * only those. The map based methods are implemented on top of the typed ones, so existing callers keep working.
+ * Map based services are used through a {@link UserProfileServiceAdapter}.
+ */
+public interface TypedUserProfileService extends UserProfileService {
+
+    /**
+     * Fetch the user profile of the user ID.
+     *
+     * The {@link DecisionService} adds new decisions to the returned profile, so it must not be shared with other
+     * callers.
+     *
+     * @param userId The ID of the user whose profile will be retrieved.
+     * @return the user's profile, or null if none is stored.
+     * @throws Exception Passes on whatever exceptions the implementation may throw.
+     */
+    @Nullable
+    UserProfile lookupProfile(@Nonnull String userId) throws Exception;
+
+    /**
+     * Save the decisions of a user that changed since the profile was looked up.
+     *
+     * @param userProfile      The user's profile, including the changed decisions.
+     * @param changedDecisions The decisions that were added or changed, keyed by experiment ID.
+     * @throws Exception Can throw an exception if the decisions were not saved properly.
+     */
+    void saveDecisions(@Nonnull UserProfile userProfile, @Nonnull Map<String, Decision> changedDecisions) throws Exception;
+
+    @Override
+    @Nullable
+    default Map<String, Object> lookup(String userId) throws Exception {
+        UserProfile userProfile = lookupProfile(userId);
+        return userProfile == null ? null : userProfile.toMap();
+    }
+
+    @Override
+    default void save(Map<String, Object> userProfile) throws Exception {
+        if (!UserProfileUtils.isValidUserProfileMap(userProfile)) {
+            throw new IllegalArgumentException("Invalid user profile map " + userProfile);
+        }
+
+        UserProfile typedUserProfile = UserProfileUtils.convertMapToUserProfile(userProfile);
+        saveDecisions(typedUserProfile, typedUserProfile.experimentBucketMap);
+    }
+}
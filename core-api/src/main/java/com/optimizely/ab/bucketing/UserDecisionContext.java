@@ -0,0 +1,177 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.ProjectConfig;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-user inputs and results of decisions made against a single {@link ProjectConfig}.
+ * <p>
+ * A context is meant to live for the duration of one unit of work for a user, such as a request. The
+ * {@link DecisionService} uses it to avoid repeating work that does not change within that window: the bucketing
+ * id, the {@link UserProfile} loaded from the {@link UserProfileService}, audience evaluations per experiment and
+ * the {@link FeatureDecision} per feature flag are each computed at most once. New sticky decisions are added to
+ * the loaded profile and saved in a single {@link TypedUserProfileService#saveDecisions(UserProfile, Map)} at the
+ * end of each top-level decision.
+ * <p>
+ * Because decisions are memoized, forced variations set or a user profile changed after a decision was made are
+ * not reflected in that decision for the rest of the context's lifetime. Create a new context to pick them up.
+ */
+@ThreadSafe
+public class UserDecisionContext {
+
+    private final String userId;
+    private final Map<String, ?> attributes;
+    private final ProjectConfig projectConfig;
+
+    private volatile CompiledProjectConfig compiledProjectConfig;
+    private volatile String bucketingId;
+    private UserProfile userProfile;
+    private boolean userProfileLoaded;
+    private Map<String, Decision> changedDecisions;
+    private int openDecisions;
+
+    // keyed by experiment id and feature flag key, which are unique within the context's config
+    private final Map<String, Boolean> audienceResults = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, FeatureDecision> featureDecisions = new ConcurrentHashMap<String, FeatureDecision>();
+
+    /**
+     * @param userId        The userId of the user.
+     * @param attributes    The user's attributes. A snapshot is taken, later changes to the map are not seen.
+     * @param projectConfig The config all decisions of this context are made against.
+     */
+    public UserDecisionContext(@Nonnull String userId,
+                               @Nullable Map<String, ?> attributes,
+                               @Nonnull ProjectConfig projectConfig) {
+        this.userId = userId;
+        this.attributes = attributes == null ? Collections.<String, Object>emptyMap() :
+            Collections.unmodifiableMap(new HashMap<String, Object>(attributes));
+        this.projectConfig = projectConfig;
+    }
+
+    @Nonnull
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return an unmodifiable snapshot of the user's attributes
+     */
+    @Nonnull
+    public Map<String, ?> getAttributes() {
+        return attributes;
+    }
+
+    @Nonnull
+    public ProjectConfig getProjectConfig() {
+        return projectConfig;
+    }
+
+    @Nullable
+    CompiledProjectConfig getCompiledProjectConfig() {
+        return compiledProjectConfig;
+    }
+
+    void setCompiledProjectConfig(@Nonnull CompiledProjectConfig compiledProjectConfig) {
+        this.compiledProjectConfig = compiledProjectConfig;
+    }
+
+    @Nullable
+    String getBucketingId() {
+        return bucketingId;
+    }
+
+    void setBucketingId(@Nonnull String bucketingId) {
+        this.bucketingId = bucketingId;
+    }
+
+    synchronized boolean isUserProfileLoaded() {
+        return userProfileLoaded;
+    }
+
+    @Nullable
+    synchronized UserProfile getUserProfile() {
+        return userProfile;
+    }
+
+    synchronized void setUserProfile(@Nonnull UserProfile userProfile) {
+        this.userProfile = userProfile;
+        this.userProfileLoaded = true;
+    }
+
+    /**
+     * Record a decision added to the user profile that was not saved yet.
+     */
+    synchronized void recordChangedDecision(@Nonnull String experimentId, @Nonnull Decision decision) {
+        if (changedDecisions == null) {
+            changedDecisions = new HashMap<String, Decision>();
+        }
+        changedDecisions.put(experimentId, decision);
+    }
+
+    /**
+     * Open a decision. Decisions can nest, the profile changes made while any is open are saved once the outermost
+     * one is closed.
+     */
+    synchronized void openDecision() {
+        openDecisions++;
+    }
+
+    /**
+     * Close a decision.
+     *
+     * @return the unsaved decisions when the outermost decision was closed, which the caller is then responsible for
+     * saving, else null.
+     */
+    @Nullable
+    synchronized Map<String, Decision> closeDecision() {
+        if (--openDecisions > 0 || changedDecisions == null) {
+            return null;
+        }
+
+        Map<String, Decision> closedDecisions = changedDecisions;
+        changedDecisions = null;
+        return closedDecisions;
+    }
+
+    @Nullable
+    Boolean getAudienceResult(@Nonnull Experiment experiment) {
+        return audienceResults.get(experiment.getId());
+    }
+
+    void putAudienceResult(@Nonnull Experiment experiment, boolean isUserInExperiment) {
+        audienceResults.put(experiment.getId(), isUserInExperiment);
+    }
+
+    @Nullable
+    FeatureDecision getFeatureDecision(@Nonnull FeatureFlag featureFlag) {
+        return featureDecisions.get(featureFlag.getKey());
+    }
+
+    void putFeatureDecision(@Nonnull FeatureFlag featureFlag, @Nonnull FeatureDecision featureDecision) {
+        featureDecisions.put(featureFlag.getKey(), featureDecision);
+    }
+}
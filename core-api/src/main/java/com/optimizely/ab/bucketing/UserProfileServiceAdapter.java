@@ -0,0 +1,94 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * UserProfileServiceAdapter exposes a map based {@link UserProfileService} as a {@link TypedUserProfileService}.
+ * Lookups are validated and converted to a {@link UserProfile}, and saves write the whole profile as a map.
+ */
+public class UserProfileServiceAdapter implements TypedUserProfileService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserProfileServiceAdapter.class);
+
+    private final UserProfileService userProfileService;
+
+    public UserProfileServiceAdapter(@Nonnull UserProfileService userProfileService) {
+        this.userProfileService = userProfileService;
+    }
+
+    /**
+     * @return the service itself when it already is a {@link TypedUserProfileService}, else an adapter of it.
+     */
+    @Nonnull
+    public static TypedUserProfileService adapt(@Nonnull UserProfileService userProfileService) {
+        if (userProfileService instanceof TypedUserProfileService) {
+            return (TypedUserProfileService) userProfileService;
+        }
+        return new UserProfileServiceAdapter(userProfileService);
+    }
+
+    @Nonnull
+    public UserProfileService getUserProfileService() {
+        return userProfileService;
+    }
+
+    @Override
+    @Nullable
+    public UserProfile lookupProfile(@Nonnull String userId) throws Exception {
+        return convertUserProfileMap(userProfileService.lookup(userId));
+    }
+
+    /**
+     * Convert a user profile map returned by a {@link UserProfileService}.
+     *
+     * @return the user profile, or null if the map is null or invalid.
+     */
+    @Nullable
+    static UserProfile convertUserProfileMap(@Nullable Map<String, Object> userProfileMap) {
+        if (userProfileMap == null) {
+            logger.info("We were unable to get a user profile map from the UserProfileService.");
+            return null;
+        }
+        if (!UserProfileUtils.isValidUserProfileMap(userProfileMap)) {
+            logger.warn("The UserProfileService returned an invalid map.");
+            return null;
+        }
+        return UserProfileUtils.convertMapToUserProfile(userProfileMap);
+    }
+
+    @Override
+    public void saveDecisions(@Nonnull UserProfile userProfile, @Nonnull Map<String, Decision> changedDecisions) throws Exception {
+        userProfileService.save(userProfile.toMap());
+    }
+
+    @Override
+    @Nullable
+    public Map<String, Object> lookup(String userId) throws Exception {
+        return userProfileService.lookup(userId);
+    }
+
+    @Override
+    public void save(Map<String, Object> userProfile) throws Exception {
+        userProfileService.save(userProfile);
+    }
+}
@@ -0,0 +1,277 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.optimizely.ab.internal.SafetyUtils.tryClose;
+
+/**
+ * WriteBehindUserProfileService is a {@link UserProfileService} decorator taking the saves off the decision path.
+ *
+ * Saved profiles are buffered per user, a later save of the same user replacing the earlier one, and written to the
+ * wrapped service in batches on a background thread. Wrapped services implementing {@link BatchUserProfileService}
+ * receive each batch in a single call. Lookups return the buffered profile of a user when there is one, so
+ * decisions stay sticky before the profile is written.
+ *
+ * Once the buffer holds maxSize users, saves of other users are written synchronously. Buffered profiles are written
+ * on {@link #close()}, which {@link com.optimizely.ab.Optimizely#close()} calls. Profiles whose write failed are
+ * buffered again and retried on the next flush, unless a newer save of the user replaced them meanwhile.
+ */
+@ThreadSafe
+public class WriteBehindUserProfileService implements UserProfileService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindUserProfileService.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    private final UserProfileService userProfileService;
+    private final int batchSize;
+    private final int maxSize;
+    private final ScheduledExecutorService executor;
+    // an executor created by the builder is shut down on close, a configured one is left to its owner
+    private final boolean ownsExecutor;
+    private final ScheduledFuture<?> scheduledFlush;
+
+    private final Map<String, Map<String, Object>> pendingProfiles = new ConcurrentHashMap<>();
+    // profiles taken from the buffer that are being written, still returned by lookups until the write completes
+    private final Map<String, Map<String, Object>> savingProfiles = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private WriteBehindUserProfileService(UserProfileService userProfileService,
+                                          int batchSize,
+                                          int maxSize,
+                                          long flushInterval,
+                                          ScheduledExecutorService executor,
+                                          boolean ownsExecutor) {
+        this.userProfileService = userProfileService;
+        this.batchSize = batchSize;
+        this.maxSize = maxSize;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+
+        this.scheduledFlush = executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Map<String, Object> lookup(String userId) throws Exception {
+        Map<String, Object> userProfile = pendingProfiles.get(userId);
+        if (userProfile == null) {
+            userProfile = savingProfiles.get(userId);
+        }
+        return userProfile != null ? userProfile : userProfileService.lookup(userId);
+    }
+
+    @Override
+    public void save(Map<String, Object> userProfile) throws Exception {
+        Object userId = userProfile.get(userIdKey);
+        if (closed || !(userId instanceof String)) {
+            userProfileService.save(userProfile);
+            return;
+        }
+
+        if (pendingProfiles.size() >= maxSize && !pendingProfiles.containsKey(userId)) {
+            logger.debug("Write-behind buffer is full, saving the user profile of \"{}\" synchronously.", userId);
+            userProfileService.save(userProfile);
+            return;
+        }
+
+        pendingProfiles.put((String) userId, userProfile);
+
+        if (closed) {
+            // closed while buffering, the final flush may have already run
+            flush();
+        } else if (pendingProfiles.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Write all the buffered user profiles to the wrapped {@link UserProfileService}.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+
+        List<Map<String, Object>> batch = new ArrayList<>(Math.min(batchSize, pendingProfiles.size()));
+        // iterate over a copy, so that profiles buffered again after a failed write wait for the next flush
+        Iterator<Map.Entry<String, Map<String, Object>>> iterator = new ArrayList<>(pendingProfiles.entrySet()).iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Map<String, Object>> entry = iterator.next();
+            savingProfiles.put(entry.getKey(), entry.getValue());
+            // a newer save of the user stays in the buffer for the next flush
+            pendingProfiles.remove(entry.getKey(), entry.getValue());
+            batch.add(entry.getValue());
+
+            if (batch.size() >= batchSize || !iterator.hasNext()) {
+                saveBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private void saveBatch(List<Map<String, Object>> batch) {
+        int savedCount = 0;
+        try {
+            if (userProfileService instanceof BatchUserProfileService) {
+                ((BatchUserProfileService) userProfileService).saveAll(batch);
+                savedCount = batch.size();
+            } else {
+                for (Map<String, Object> userProfile : batch) {
+                    userProfileService.save(userProfile);
+                    savedCount++;
+                }
+            }
+            logger.debug("Saved {} user profiles.", batch.size());
+        } catch (Exception e) {
+            logger.error("Failed to save {} user profiles, retrying on the next flush.", batch.size() - savedCount, e);
+            // buffered again before leaving savingProfiles so lookups keep seeing them, a newer save of a user wins
+            for (Map<String, Object> userProfile : batch.subList(savedCount, batch.size())) {
+                pendingProfiles.putIfAbsent((String) userProfile.get(userIdKey), userProfile);
+            }
+        } finally {
+            for (Map<String, Object> userProfile : batch) {
+                savingProfiles.remove(userProfile.get(userIdKey), userProfile);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        scheduledFlush.cancel(false);
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+
+        // waits for a flush in progress, flushes being synchronized
+        flush();
+        if (!pendingProfiles.isEmpty()) {
+            logger.warn("Failed to save {} user profiles before closing.", pendingProfiles.size());
+        }
+        tryClose(userProfileService);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private UserProfileService userProfileService;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+        private ScheduledExecutorService executor;
+
+        /**
+         * {@link UserProfileService} the buffered user profiles are written to.
+         */
+        public Builder withUserProfileService(@Nonnull UserProfileService userProfileService) {
+            this.userProfileService = userProfileService;
+            return this;
+        }
+
+        /**
+         * BatchSize is the maximum number of user profiles written in a single batch.
+         */
+        public Builder withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * MaxSize is the maximum number of users whose profile is buffered.
+         */
+        public Builder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * FlushInterval is the maximum duration a saved user profile is buffered before being written.
+         */
+        public Builder withFlushInterval(long duration, TimeUnit timeUnit) {
+            this.flushInterval = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * ScheduledExecutorService used to write the buffered user profiles. It is not shut down by
+         * {@link WriteBehindUserProfileService#close()}, only the executor created when none is configured is.
+         */
+        public Builder withExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public WriteBehindUserProfileService build() {
+            if (userProfileService == null) {
+                throw new IllegalArgumentException("UserProfileService was not configured");
+            }
+
+            if (batchSize <= 0) {
+                logger.warn("Invalid batchSize of {}, Defaulting to {}", batchSize, DEFAULT_BATCH_SIZE);
+                batchSize = DEFAULT_BATCH_SIZE;
+            }
+
+            if (maxSize <= 0) {
+                logger.warn("Invalid maxSize of {}, Defaulting to {}", maxSize, DEFAULT_MAX_SIZE);
+                maxSize = DEFAULT_MAX_SIZE;
+            }
+
+            if (flushInterval <= 0) {
+                logger.warn("Invalid flushInterval of {}, Defaulting to {}", flushInterval, DEFAULT_FLUSH_INTERVAL);
+                flushInterval = DEFAULT_FLUSH_INTERVAL;
+            }
+
+            ScheduledExecutorService flushExecutor = executor;
+            if (flushExecutor == null) {
+                final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+                flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = threadFactory.newThread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+
+            return new WriteBehindUserProfileService(userProfileService, batchSize, maxSize, flushInterval, flushExecutor, executor == null);
+        }
+    }
+}
@@ -96,14 +96,35 @@ public final class MurmurHash3 {
      * the string to a temporary buffer
      */
     public static int murmurhash3_x86_32(CharSequence data, int offset, int len, int seed) {
+        return murmurhash3_x86_32(data, offset, len, "", 0, seed);
+    }
+
+    /**
+     * Hashes two character sequences as if they were concatenated, without building the concatenated String.
+     * The result is identical to hashing {@code first.toString() + second.toString()}, including surrogate pairs
+     * that are split across the two sequences.
+     *
+     * @param first  the leading segment
+     * @param second the trailing segment
+     * @param seed   the murmur hash seed
+     * @return the MurmurHash3_x86_32 hash of the UTF-8 bytes of both segments
+     */
+    public static int murmurhash3_x86_32(CharSequence first, CharSequence second, int seed) {
+        return murmurhash3_x86_32(first, 0, first.length(), second, second.length(), seed);
+    }
+
+    private static int murmurhash3_x86_32(CharSequence first, int offset, int len,
+                                          CharSequence second, int secondLen, int seed) {
 
         final int c1 = 0xcc9e2d51;
         final int c2 = 0x1b873593;
 
         int h1 = seed;
 
+        // positions in [offset, firstEnd) read from the first segment, positions in [firstEnd, end) from the second
         int pos = offset;
-        int end = offset + len;
+        int firstEnd = offset + len;
+        int end = firstEnd + secondLen;
         int k1 = 0;
         int k2;
         int shift = 0;
@@ -112,7 +133,8 @@ public final class MurmurHash3 {
 
 
         while (pos < end) {
-            int code = data.charAt(pos++);
+            int code = pos < firstEnd ? first.charAt(pos) : second.charAt(pos - firstEnd);
+            pos++;
             if (code < 0x80) {
                 k2 = code;
                 bits = 8;
@@ -153,7 +175,8 @@ public final class MurmurHash3 {
             } else {
                 // surrogate pair
                 // int utf32 = pos < end ? (int) data.charAt(pos++) : 0;
-                int utf32 = (int) data.charAt(pos++);
+                int utf32 = pos < firstEnd ? first.charAt(pos) : second.charAt(pos - firstEnd);
+                pos++;
                 utf32 = ((code - 0xD7C0) << 10) + (utf32 & 0x3FF);
                 k2 = (0xff & (0xF0 | (utf32 >> 18)))
                     | ((0x80 | ((utf32 >> 12) & 0x3F))) << 8
@@ -196,6 +196,43 @@ public class DatafileProjectConfig implements ProjectConfig {
 
         // Generate experiment to featureFlag list mapping to identify if experiment is AB-Test experiment or Feature-Test Experiment.
         this.experimentFeatureKeyMapping = ProjectConfigUtils.generateExperimentFeatureMapping(this.featureFlags);
+
+        // parse the feature variable values once, so that variable accessors do not parse them on every call
+        for (FeatureFlag featureFlag : this.featureFlags) {
+            parseFeatureVariableValues(featureFlag);
+        }
+    }
+
+    private void parseFeatureVariableValues(FeatureFlag featureFlag) {
+        Map<String, FeatureVariable> variableIdMapping = ProjectConfigUtils.generateIdMapping(featureFlag.getVariables());
+        for (FeatureVariable variable : featureFlag.getVariables()) {
+            variable.getTypedDefaultValue();
+        }
+
+        for (String experimentId : featureFlag.getExperimentIds()) {
+            Experiment experiment = experimentIdMapping.get(experimentId);
+            if (experiment != null) {
+                parseFeatureVariableValues(experiment, variableIdMapping);
+            }
+        }
+
+        Rollout rollout = rolloutIdMapping.get(featureFlag.getRolloutId());
+        if (rollout != null) {
+            for (Experiment rolloutRule : rollout.getExperiments()) {
+                parseFeatureVariableValues(rolloutRule, variableIdMapping);
+            }
+        }
+    }
+
+    private static void parseFeatureVariableValues(Experiment experiment, Map<String, FeatureVariable> variableIdMapping) {
+        for (Variation variation : experiment.getVariations()) {
+            for (FeatureVariableUsageInstance usageInstance : variation.getFeatureVariableUsageInstances()) {
+                FeatureVariable variable = variableIdMapping.get(usageInstance.getId());
+                if (variable != null) {
+                    usageInstance.getTypedValue(variable.getType());
+                }
+            }
+        }
     }
 
     /**
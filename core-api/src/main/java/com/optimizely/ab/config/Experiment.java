@@ -51,6 +51,7 @@ public class Experiment implements IdKeyMapped {
     private final Map<String, Variation> variationKeyToVariationMap;
     private final Map<String, Variation> variationIdToVariationMap;
     private final Map<String, String> userIdToVariationKeyMap;
+    private final TrafficAllocationTable<Variation> trafficAllocationTable;
 
     public enum ExperimentStatus {
         RUNNING("Running"),
@@ -110,6 +111,7 @@ public class Experiment implements IdKeyMapped {
         this.userIdToVariationKeyMap = userIdToVariationKeyMap;
         this.variationKeyToVariationMap = ProjectConfigUtils.generateNameMapping(variations);
         this.variationIdToVariationMap = ProjectConfigUtils.generateIdMapping(variations);
+        this.trafficAllocationTable = TrafficAllocationTable.create(this.trafficAllocation, variationIdToVariationMap);
     }
 
     public String getId() {
@@ -156,6 +158,13 @@ public class Experiment implements IdKeyMapped {
         return trafficAllocation;
     }
 
+    /**
+     * @return the traffic allocation resolved to this experiment's {@link Variation}s, for bucketing
+     */
+    public TrafficAllocationTable<Variation> getTrafficAllocationTable() {
+        return trafficAllocationTable;
+    }
+
     public String getGroupId() {
         return groupId;
     }
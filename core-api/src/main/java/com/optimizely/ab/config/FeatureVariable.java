@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.gson.annotations.SerializedName;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
@@ -109,6 +110,8 @@ public class FeatureVariable implements IdKeyMapped {
     private final VariableType type;
     @Nullable
     private final VariableStatus status;
+    @Nullable
+    private transient FeatureVariableValue typedDefaultValue;
 
     @JsonCreator
     public FeatureVariable(@JsonProperty("id") String id,
@@ -144,6 +147,20 @@ public class FeatureVariable implements IdKeyMapped {
         return type;
     }
 
+    /**
+     * @return the default value parsed as the type of the variable. It is parsed when the
+     * {@link DatafileProjectConfig} is built, or on first use for variables created outside of one.
+     */
+    @Nonnull
+    public FeatureVariableValue getTypedDefaultValue() {
+        FeatureVariableValue typedDefaultValue = this.typedDefaultValue;
+        if (typedDefaultValue == null) {
+            typedDefaultValue = FeatureVariableValue.parse(defaultValue, type);
+            this.typedDefaultValue = typedDefaultValue;
+        }
+        return typedDefaultValue;
+    }
+
     @Override
     public String toString() {
         return "FeatureVariable{" +
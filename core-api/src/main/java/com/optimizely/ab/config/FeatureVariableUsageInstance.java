@@ -20,6 +20,9 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * Represents the value of a feature variable for a variation
  */
@@ -28,6 +31,8 @@ public class FeatureVariableUsageInstance implements IdMapped {
 
     private final String id;
     private final String value;
+    @Nullable
+    private transient FeatureVariableValue typedValue;
 
     @JsonCreator
     public FeatureVariableUsageInstance(@JsonProperty("id") String id,
@@ -44,6 +49,23 @@ public class FeatureVariableUsageInstance implements IdMapped {
         return value;
     }
 
+    /**
+     * Get the value parsed as the type of the variable it belongs to. It is parsed when the
+     * {@link DatafileProjectConfig} is built, or on first use for instances created outside of one.
+     *
+     * @param type The type of the {@link FeatureVariable} with the same id.
+     * @return the parsed value.
+     */
+    @Nonnull
+    public FeatureVariableValue getTypedValue(@Nullable FeatureVariable.VariableType type) {
+        FeatureVariableValue typedValue = this.typedValue;
+        if (typedValue == null || typedValue.getType() != type) {
+            typedValue = FeatureVariableValue.parse(value, type);
+            this.typedValue = typedValue;
+        }
+        return typedValue;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
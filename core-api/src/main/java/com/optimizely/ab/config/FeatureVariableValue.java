@@ -0,0 +1,150 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.config;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The value of a feature variable parsed as its {@link FeatureVariable.VariableType}.
+ *
+ * Values are parsed once when the {@link DatafileProjectConfig} is built and kept in primitive form, so the
+ * primitive accessors never parse or box. {@link #getValue()} returns the boxed value, which is also created once.
+ */
+@Immutable
+public final class FeatureVariableValue {
+
+    private final FeatureVariable.VariableType type;
+    @Nullable
+    private final String stringValue;
+    @Nullable
+    private final Object value;
+    private final int intValue;
+    private final double doubleValue;
+    private final boolean booleanValue;
+
+    private FeatureVariableValue(@Nullable FeatureVariable.VariableType type,
+                                 @Nullable String stringValue,
+                                 @Nullable Object value,
+                                 int intValue,
+                                 double doubleValue,
+                                 boolean booleanValue) {
+        this.type = type;
+        this.stringValue = stringValue;
+        this.value = value;
+        this.intValue = intValue;
+        this.doubleValue = doubleValue;
+        this.booleanValue = booleanValue;
+    }
+
+    /**
+     * Parse the raw value of a feature variable.
+     *
+     * @param stringValue The value as it appears in the datafile.
+     * @param type        The declared type of the variable.
+     * @return the parsed value, which is not {@link #isValid() valid} if the value cannot be parsed as the type.
+     */
+    @Nonnull
+    public static FeatureVariableValue parse(@Nullable String stringValue, @Nullable FeatureVariable.VariableType type) {
+        if (stringValue == null || type == null) {
+            return new FeatureVariableValue(type, stringValue, null, 0, 0, false);
+        }
+
+        switch (type) {
+            case INTEGER:
+                try {
+                    int intValue = Integer.parseInt(stringValue);
+                    return new FeatureVariableValue(type, stringValue, intValue, intValue, 0, false);
+                } catch (NumberFormatException exception) {
+                    return new FeatureVariableValue(type, stringValue, null, 0, 0, false);
+                }
+            case DOUBLE:
+                try {
+                    double doubleValue = Double.parseDouble(stringValue);
+                    return new FeatureVariableValue(type, stringValue, doubleValue, 0, doubleValue, false);
+                } catch (NumberFormatException exception) {
+                    return new FeatureVariableValue(type, stringValue, null, 0, 0, false);
+                }
+            case BOOLEAN:
+                boolean booleanValue = Boolean.parseBoolean(stringValue);
+                return new FeatureVariableValue(type, stringValue, booleanValue, 0, 0, booleanValue);
+            default:
+                return new FeatureVariableValue(type, stringValue, stringValue, 0, 0, false);
+        }
+    }
+
+    @Nullable
+    public FeatureVariable.VariableType getType() {
+        return type;
+    }
+
+    /**
+     * @return the value as it appears in the datafile.
+     */
+    @Nullable
+    public String getStringValue() {
+        return stringValue;
+    }
+
+    /**
+     * @return true if the value was parsed as its declared type.
+     */
+    public boolean isValid() {
+        return value != null;
+    }
+
+    /**
+     * @return the typed value, a {@link Integer}, {@link Double}, {@link Boolean} or {@link String}, or null if the
+     * value is not {@link #isValid() valid}.
+     */
+    @Nullable
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @param fallbackValue The value to return if this is not a valid integer.
+     * @return the integer value.
+     */
+    public int getIntValue(int fallbackValue) {
+        return type == FeatureVariable.VariableType.INTEGER && value != null ? intValue : fallbackValue;
+    }
+
+    /**
+     * @param fallbackValue The value to return if this is not a valid double.
+     * @return the double value.
+     */
+    public double getDoubleValue(double fallbackValue) {
+        return type == FeatureVariable.VariableType.DOUBLE && value != null ? doubleValue : fallbackValue;
+    }
+
+    /**
+     * @param fallbackValue The value to return if this is not a valid boolean.
+     * @return the boolean value.
+     */
+    public boolean getBooleanValue(boolean fallbackValue) {
+        return type == FeatureVariable.VariableType.BOOLEAN && value != null ? booleanValue : fallbackValue;
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureVariableValue{" +
+            "type=" + type +
+            ", value=" + stringValue +
+            '}';
+    }
+}
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.annotation.concurrent.Immutable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -37,6 +38,7 @@ public class Group implements IdMapped {
     private final String policy;
     private final List<TrafficAllocation> trafficAllocation;
     private final List<Experiment> experiments;
+    private final TrafficAllocationTable<Experiment> trafficAllocationTable;
 
     public static final String RANDOM_POLICY = "random";
 
@@ -67,6 +69,9 @@ public class Group implements IdMapped {
             }
             this.experiments.add(experiment);
         }
+        this.trafficAllocationTable = TrafficAllocationTable.create(
+            trafficAllocation != null ? trafficAllocation : Collections.<TrafficAllocation>emptyList(),
+            ProjectConfigUtils.generateIdMapping(this.experiments));
     }
 
     public String getId() {
@@ -85,6 +90,13 @@ public class Group implements IdMapped {
         return experiments;
     }
 
+    /**
+     * @return the traffic allocation resolved to this group's {@link Experiment}s, for mutually exclusive bucketing
+     */
+    public TrafficAllocationTable<Experiment> getTrafficAllocationTable() {
+        return trafficAllocationTable;
+    }
+
     @Override
     public String toString() {
         return "Group{" +
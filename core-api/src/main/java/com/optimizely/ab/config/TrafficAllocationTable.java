@@ -0,0 +1,95 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.config;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed lookup from a bucket value to the entity a {@link TrafficAllocation} list assigns it to.
+ * <p>
+ * The end of each range is kept in a sorted {@code int[]} next to the already resolved entity, so bucketing is a
+ * binary search over a handful of ints with no String comparisons or map lookups. A bucket value resolves to the
+ * entity of the first allocation whose end of range is greater than it, which is what a linear scan of the
+ * allocations yields. De-allocated space (an empty entity id) and entity ids that cannot be resolved map to
+ * {@code null}.
+ *
+ * @param <T> the type of the allocated entity, {@link Variation} for experiments and {@link Experiment} for groups
+ */
+@Immutable
+public final class TrafficAllocationTable<T> {
+
+    private final int[] endOfRanges;
+    private final Object[] entities;
+
+    private TrafficAllocationTable(int[] endOfRanges, Object[] entities) {
+        this.endOfRanges = endOfRanges;
+        this.entities = entities;
+    }
+
+    /**
+     * Builds a table for the given allocations, resolving each entity id through {@code idMapping}.
+     */
+    @Nonnull
+    public static <T> TrafficAllocationTable<T> create(@Nonnull List<TrafficAllocation> trafficAllocations,
+                                                       @Nonnull Map<String, T> idMapping) {
+        int size = trafficAllocations.size();
+        int[] endOfRanges = new int[size];
+        Object[] entities = new Object[size];
+
+        int maxEndOfRange = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            TrafficAllocation trafficAllocation = trafficAllocations.get(i);
+            // a running maximum keeps the boundaries sorted without changing which allocation a linear scan would
+            // pick first, even for a datafile whose ranges are out of order
+            maxEndOfRange = Math.max(maxEndOfRange, trafficAllocation.getEndOfRange());
+            endOfRanges[i] = maxEndOfRange;
+
+            String entityId = trafficAllocation.getEntityId();
+            entities[i] = entityId == null || entityId.isEmpty() ? null : idMapping.get(entityId);
+        }
+
+        return new TrafficAllocationTable<T>(endOfRanges, entities);
+    }
+
+    /**
+     * @param bucketValue a bucket value in the range [0, 10000)
+     * @return the entity allocated to the bucket value, or {@code null} if the bucket value is not allocated
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(int bucketValue) {
+        int low = 0;
+        int high = endOfRanges.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (endOfRanges[mid] <= bucketValue) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low < entities.length ? (T) entities[low] : null;
+    }
+
+    public int size() {
+        return entities.length;
+    }
+}
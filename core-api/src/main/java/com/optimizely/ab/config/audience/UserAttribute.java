@@ -46,6 +46,11 @@ public class UserAttribute<T> implements Condition<T> {
     private final String match;
     private final Object value;
 
+    // The matcher only depends on the condition's match type and value, so it is resolved once here instead of on
+    // every evaluation. If resolution fails the exception is kept so evaluate() can report it as before.
+    private final Match matcher;
+    private final Exception matcherException;
+
     @JsonCreator
     public UserAttribute(@JsonProperty("name") @Nonnull String name,
                          @JsonProperty("type") @Nonnull String type,
@@ -55,6 +60,16 @@ public class UserAttribute<T> implements Condition<T> {
         this.type = type;
         this.match = match;
         this.value = value;
+
+        Match resolvedMatcher = null;
+        Exception resolutionException = null;
+        try {
+            resolvedMatcher = MatchType.getMatchType(match, value).getMatcher();
+        } catch (UnknownMatchTypeException | UnexpectedValueTypeException ex) {
+            resolutionException = ex;
+        }
+        this.matcher = resolvedMatcher;
+        this.matcherException = resolutionException;
     }
 
     public String getName() {
@@ -85,10 +100,14 @@ public class UserAttribute<T> implements Condition<T> {
             logger.warn("Audience condition \"{}\" has an unknown condition type. You may need to upgrade to a newer release of the Optimizely SDK", this);
             return null; // unknown type
         }
+        if (matcher == null) {
+            logger.warn("Audience condition \"{}\" " + matcherException.getMessage(),
+                this);
+            return null;
+        }
         // check user attribute value is equal
         try {
-            Match matchType = MatchType.getMatchType(match, value).getMatcher();
-            Boolean result = matchType.eval(userAttributeValue);
+            Boolean result = matcher.eval(userAttributeValue);
 
             if (result == null) {
                 if (!attributes.containsKey(name)) {
@@ -111,9 +130,6 @@ public class UserAttribute<T> implements Condition<T> {
                 }
             }
             return result;
-        } catch (UnknownMatchTypeException | UnexpectedValueTypeException ex) {
-            logger.warn("Audience condition \"{}\" " + ex.getMessage(),
-                this);
         } catch (NullPointerException np) {
             logger.error("attribute or value null for match {}", match != null ? match : "legacy condition", np);
         }
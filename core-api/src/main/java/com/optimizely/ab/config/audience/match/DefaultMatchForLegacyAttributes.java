@@ -24,7 +24,7 @@ import javax.annotation.Nullable;
  * @param <T>
  */
 class DefaultMatchForLegacyAttributes<T> extends AttributeMatch<T> {
-    T value;
+    final T value;
 
     protected DefaultMatchForLegacyAttributes(T value) {
         this.value = value;
@@ -22,7 +22,7 @@ import javax.annotation.Nullable;
 
 class ExistsMatch implements Match {
     @SuppressFBWarnings("URF_UNREAD_FIELD")
-    Object value;
+    final Object value;
 
     protected ExistsMatch(Object value) {
         this.value = value;
@@ -21,17 +21,17 @@ import javax.annotation.Nullable;
 import static com.optimizely.ab.internal.AttributesUtil.isValidNumber;
 
 class GTMatch extends AttributeMatch<Number> {
-    Number value;
+    final double value;
 
     protected GTMatch(Number value) {
-        this.value = value;
+        this.value = value.doubleValue();
     }
 
     @Nullable
     public Boolean eval(Object attributeValue) {
         try {
             if(isValidNumber(attributeValue)) {
-                return castToValueType(attributeValue, value).doubleValue() > value.doubleValue();
+                return ((Number) attributeValue).doubleValue() > value;
             }
         } catch (Exception e) {
             return null;
@@ -19,7 +19,7 @@ package com.optimizely.ab.config.audience.match;
 import javax.annotation.Nullable;
 
 class SubstringMatch extends AttributeMatch<String> {
-    String value;
+    final String value;
 
     protected SubstringMatch(String value) {
         this.value = value;
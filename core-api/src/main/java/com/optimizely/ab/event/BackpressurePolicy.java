@@ -0,0 +1,206 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BackpressurePolicy decides what the {@link BatchEventProcessor} does with events processed while its queue is
+ * full, and counts the events affected so that losses during traffic spikes can be monitored.
+ *
+ * <ul>
+ *   <li>{@link #dropNewest()}: drop the events being processed, the default.</li>
+ *   <li>{@link #dropOldest()}: evict the oldest queued events to make room.</li>
+ *   <li>{@link #block(long, TimeUnit)}: wait for room, dropping the events after a timeout.</li>
+ *   <li>{@link #sample(double, double)}: once the queue is filled past a high-water mark, keep only a sample of
+ *   the events, dropping the rest when the queue is full.</li>
+ *   <li>{@link #callerRuns()}: dispatch the events on the calling thread, ahead of the queued ones.</li>
+ * </ul>
+ *
+ * A policy instance holds the counters of the processor it is configured on and should not be shared.
+ */
+@ThreadSafe
+public final class BackpressurePolicy {
+
+    public enum Type {
+        DROP_NEWEST,
+        DROP_OLDEST,
+        BLOCK,
+        SAMPLE,
+        CALLER_RUNS
+    }
+
+    private final Type type;
+    private final long timeoutMillis;
+    private final double highWaterMark;
+    private final double sampleRate;
+
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder timedOutCount = new LongAdder();
+    private final LongAdder sampledOutCount = new LongAdder();
+    private final LongAdder callerRunCount = new LongAdder();
+
+    private BackpressurePolicy(Type type, long timeoutMillis, double highWaterMark, double sampleRate) {
+        this.type = type;
+        this.timeoutMillis = timeoutMillis;
+        this.highWaterMark = highWaterMark;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Drop the events processed while the queue is full.
+     */
+    public static BackpressurePolicy dropNewest() {
+        return new BackpressurePolicy(Type.DROP_NEWEST, 0, 1, 1);
+    }
+
+    /**
+     * Evict the oldest queued events to make room for the events processed while the queue is full.
+     * It is not supported by a {@link RingBufferQueue}, which only its consumer may remove events from, building a
+     * {@link BatchEventProcessor} with both fails.
+     */
+    public static BackpressurePolicy dropOldest() {
+        return new BackpressurePolicy(Type.DROP_OLDEST, 0, 1, 1);
+    }
+
+    /**
+     * Block the calling thread until the queue has room, dropping the events after the timeout.
+     */
+    public static BackpressurePolicy block(long timeout, @Nonnull TimeUnit timeUnit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout of " + timeout);
+        }
+        return new BackpressurePolicy(Type.BLOCK, timeUnit.toMillis(timeout), 1, 1);
+    }
+
+    /**
+     * Keep a random sample of the events processed once the queue is filled past a high-water mark.
+     *
+     * @param highWaterMark The fraction of the queue capacity past which events are sampled, in (0, 1].
+     * @param sampleRate    The fraction of the events kept past the high-water mark, in [0, 1].
+     */
+    public static BackpressurePolicy sample(double highWaterMark, double sampleRate) {
+        if (!(highWaterMark > 0 && highWaterMark <= 1)) {
+            throw new IllegalArgumentException("Invalid highWaterMark of " + highWaterMark);
+        }
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Invalid sampleRate of " + sampleRate);
+        }
+        return new BackpressurePolicy(Type.SAMPLE, 0, highWaterMark, sampleRate);
+    }
+
+    /**
+     * Dispatch the events processed while the queue is full on the calling thread. They are then sent ahead of the
+     * events already queued.
+     */
+    public static BackpressurePolicy callerRuns() {
+        return new BackpressurePolicy(Type.CALLER_RUNS, 0, 1, 1);
+    }
+
+    @Nonnull
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public double getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return the number of queued events evicted to make room for newer ones.
+     */
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * @return the number of events dropped because the queue had no room before the timeout or the calling thread
+     * was interrupted.
+     */
+    public long getTimedOutCount() {
+        return timedOutCount.sum();
+    }
+
+    /**
+     * @return the number of events left out of the sample past the high-water mark.
+     */
+    public long getSampledOutCount() {
+        return sampledOutCount.sum();
+    }
+
+    /**
+     * @return the number of events dispatched on the calling thread.
+     */
+    public long getCallerRunCount() {
+        return callerRunCount.sum();
+    }
+
+    /**
+     * @return the number of events lost for any reason.
+     */
+    public long getLostCount() {
+        return getDroppedCount() + getEvictedCount() + getTimedOutCount() + getSampledOutCount();
+    }
+
+    void recordDropped(int eventCount) {
+        droppedCount.add(eventCount);
+    }
+
+    void recordEvicted(int eventCount) {
+        evictedCount.add(eventCount);
+    }
+
+    void recordTimedOut(int eventCount) {
+        timedOutCount.add(eventCount);
+    }
+
+    void recordSampledOut(int eventCount) {
+        sampledOutCount.add(eventCount);
+    }
+
+    void recordCallerRun(int eventCount) {
+        callerRunCount.add(eventCount);
+    }
+
+    @Override
+    public String toString() {
+        return "BackpressurePolicy{" +
+            "type=" + type +
+            ", timeoutMillis=" + timeoutMillis +
+            ", highWaterMark=" + highWaterMark +
+            ", sampleRate=" + sampleRate +
+            '}';
+    }
+}
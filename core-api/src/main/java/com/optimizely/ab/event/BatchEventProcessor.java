@@ -24,20 +24,34 @@ import com.optimizely.ab.notification.NotificationCenter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 import static com.optimizely.ab.internal.SafetyUtils.tryClose;
 
 /**
  * BatchEventProcessor is a batched implementation of the {@link EventProcessor}
  *
- * Events passed to the BatchEventProcessor are immediately added to a BlockingQueue.
+ * Events passed to the BatchEventProcessor are immediately added to a BlockingQueue, by default an
+ * {@link ArrayBlockingQueue} or a lock-free {@link RingBufferQueue} when configured with
+ * {@link Builder#withRingBuffer(int, RingBufferQueue.WaitStrategy)}.
  *
  * The BatchEventProcessor maintains a single consumer thread that pulls events off of
  * the BlockingQueue and buffers them for either a configured batch size or for a
  * maximum duration before the resulting LogEvent is sent to the EventHandler
  * and NotificationCenter.
+ *
+ * In sharded mode, configured with {@link Builder#withShards(int)}, events are partitioned by user ID among several
+ * shards, each with its own queue, consumer thread and batch. The events of a user keep their order, and the
+ * EventHandler and NotificationCenter are called from the consumer threads concurrently.
+ *
+ * Batches can also be bounded in bytes. With {@link Builder#withMaxBatchBytes(int)} a batch is flushed once the
+ * estimated serialized size of its events reaches the budget, and with {@link Builder#withMaxRequestBytes(int)} a
+ * LogEvent whose body exceeds the maximum is split into several requests.
  */
 public class BatchEventProcessor implements EventProcessor, AutoCloseable {
 
@@ -46,36 +60,48 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
     public static final String CONFIG_BATCH_SIZE     = "event.processor.batch.size";
     public static final String CONFIG_BATCH_INTERVAL = "event.processor.batch.interval";
     public static final String CONFIG_CLOSE_TIMEOUT  = "event.processor.close.timeout";
+    public static final String CONFIG_MAX_BATCH_BYTES   = "event.processor.batch.max.bytes";
+    public static final String CONFIG_MAX_REQUEST_BYTES = "event.processor.request.max.bytes";
 
     public static final int DEFAULT_QUEUE_CAPACITY    = 1000;
     public static final int DEFAULT_EMPTY_COUNT = 2;
     public static final int DEFAULT_BATCH_SIZE        = 10;
     public static final long DEFAULT_BATCH_INTERVAL   = TimeUnit.SECONDS.toMillis(30);
     public static final long DEFAULT_TIMEOUT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    // no limit
+    public static final int DEFAULT_MAX_BATCH_BYTES   = 0;
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 0;
 
     private static final Object SHUTDOWN_SIGNAL = new Object();
     private static final Object FLUSH_SIGNAL    = new Object();
 
-    private final BlockingQueue<Object> eventQueue;
+    // one queue per shard, each consumed by its own EventConsumer
+    private final BlockingQueue<Object>[] eventQueues;
     private final EventHandler eventHandler;
 
     final int batchSize;
     final long flushInterval;
     final long timeoutMillis;
+    final int maxBatchBytes;
+    final int maxRequestBytes;
     private final ExecutorService executor;
     private final NotificationCenter notificationCenter;
+    private final BackpressurePolicy backpressurePolicy;
 
-    private Future<?> future;
+    private Future<?>[] futures;
     private boolean isStarted = false;
 
-    private BatchEventProcessor(BlockingQueue<Object> eventQueue, EventHandler eventHandler, Integer batchSize, Long flushInterval, Long timeoutMillis, ExecutorService executor, NotificationCenter notificationCenter) {
+    private BatchEventProcessor(BlockingQueue<Object>[] eventQueues, EventHandler eventHandler, Integer batchSize, Long flushInterval, Long timeoutMillis, Integer maxBatchBytes, Integer maxRequestBytes, ExecutorService executor, NotificationCenter notificationCenter, BackpressurePolicy backpressurePolicy) {
         this.eventHandler = eventHandler;
-        this.eventQueue = eventQueue;
+        this.eventQueues = eventQueues;
         this.batchSize = batchSize;
         this.flushInterval = flushInterval;
         this.timeoutMillis = timeoutMillis;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxRequestBytes = maxRequestBytes;
         this.notificationCenter = notificationCenter;
         this.executor = executor;
+        this.backpressurePolicy = backpressurePolicy;
     }
 
     public synchronized void start() {
@@ -85,16 +111,24 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
         }
 
         isStarted = true;
-        EventConsumer runnable = new EventConsumer();
-        future = executor.submit(runnable);
+        futures = new Future<?>[eventQueues.length];
+        for (int i = 0; i < eventQueues.length; i++) {
+            futures[i] = executor.submit(new EventConsumer(eventQueues[i]));
+        }
     }
 
     @Override
     public void close() throws Exception {
         logger.info("Start close");
-        eventQueue.put(SHUTDOWN_SIGNAL);
+        for (BlockingQueue<Object> eventQueue : eventQueues) {
+            eventQueue.put(SHUTDOWN_SIGNAL);
+        }
         try {
-            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            // the shards shut down concurrently, within a single timeout
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            for (Future<?> future : futures) {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
         } catch (InterruptedException e) {
             logger.warn("Interrupted while awaiting termination.");
             Thread.currentThread().interrupt();
@@ -114,19 +148,174 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
             return;
         }
 
-        if (!eventQueue.offer(userEvent)) {
+        enqueue(eventQueues[getShard(userEvent)], userEvent);
+    }
+
+    /**
+     * Add the events to the queue as a single entry, so that the events of one call take one slot of the queue and
+     * wake the consumer thread once. The events are then batched as if they had been processed one by one.
+     */
+    @Override
+    public void process(List<UserEvent> userEvents) {
+        logger.debug("Received {} userEvents", userEvents.size());
+
+        if (userEvents.isEmpty()) {
+            return;
+        }
+
+        if (executor.isShutdown()) {
+            logger.warn("Executor shutdown, not accepting tasks.");
+            return;
+        }
+
+        int shard = getShard(userEvents.get(0));
+        for (int i = 1; i < userEvents.size(); i++) {
+            if (getShard(userEvents.get(i)) != shard) {
+                processByShard(userEvents);
+                return;
+            }
+        }
+
+        enqueue(eventQueues[shard], new UserEvents(userEvents));
+    }
+
+    private void processByShard(List<UserEvent> userEvents) {
+        List<List<UserEvent>> shardEvents = new ArrayList<>(eventQueues.length);
+        for (int i = 0; i < eventQueues.length; i++) {
+            shardEvents.add(new ArrayList<>());
+        }
+        for (UserEvent userEvent : userEvents) {
+            shardEvents.get(getShard(userEvent)).add(userEvent);
+        }
+
+        for (int i = 0; i < eventQueues.length; i++) {
+            if (!shardEvents.get(i).isEmpty()) {
+                enqueue(eventQueues[i], new UserEvents(shardEvents.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Add a {@link UserEvent} or {@link UserEvents} to a queue, applying the {@link BackpressurePolicy} when the
+     * queue is full.
+     */
+    private void enqueue(BlockingQueue<Object> eventQueue, Object item) {
+        switch (backpressurePolicy.getType()) {
+            case SAMPLE:
+                if (isPastHighWaterMark(eventQueue) && ThreadLocalRandom.current().nextDouble() >= backpressurePolicy.getSampleRate()) {
+                    backpressurePolicy.recordSampledOut(getEventCount(item));
+                    return;
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!eventQueue.offer(item, backpressurePolicy.getTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                        logger.warn("Payload not accepted by the queue before the timeout. Current size: {}", eventQueue.size());
+                        backpressurePolicy.recordTimedOut(getEventCount(item));
+                    }
+                } catch (InterruptedException e) {
+                    logger.warn("Interrupted while waiting for room in the queue.");
+                    Thread.currentThread().interrupt();
+                    backpressurePolicy.recordTimedOut(getEventCount(item));
+                }
+                return;
+            case DROP_OLDEST:
+                while (!eventQueue.offer(item)) {
+                    if (!evictOldest(eventQueue)) {
+                        // the queue only holds signals
+                        logger.warn("Payload not accepted by the queue. Current size: {}", eventQueue.size());
+                        backpressurePolicy.recordDropped(getEventCount(item));
+                        return;
+                    }
+                }
+                return;
+            case CALLER_RUNS:
+                if (!eventQueue.offer(item)) {
+                    logger.debug("Payload not accepted by the queue, dispatching it on the calling thread.");
+                    backpressurePolicy.recordCallerRun(getEventCount(item));
+                    dispatch(item instanceof UserEvents ? ((UserEvents) item).userEvents : Collections.singletonList((UserEvent) item));
+                }
+                return;
+            default:
+                break;
+        }
+
+        if (!eventQueue.offer(item)) {
             logger.warn("Payload not accepted by the queue. Current size: {}", eventQueue.size());
+            backpressurePolicy.recordDropped(getEventCount(item));
         }
     }
 
+    private boolean isPastHighWaterMark(BlockingQueue<Object> eventQueue) {
+        int size = eventQueue.size();
+        return size >= backpressurePolicy.getHighWaterMark() * (size + eventQueue.remainingCapacity());
+    }
+
+    /**
+     * Remove the oldest events from a queue, leaving the flush and shutdown signals in place.
+     *
+     * @return false if the queue holds no events.
+     */
+    private boolean evictOldest(BlockingQueue<Object> eventQueue) {
+        Iterator<Object> iterator = eventQueue.iterator();
+        while (iterator.hasNext()) {
+            Object item = iterator.next();
+            if (item instanceof UserEvent || item instanceof UserEvents) {
+                // the consumer may have taken the item meanwhile, which made room as well
+                if (eventQueue.remove(item)) {
+                    backpressurePolicy.recordEvicted(getEventCount(item));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getEventCount(Object item) {
+        return item instanceof UserEvents ? ((UserEvents) item).userEvents.size() : 1;
+    }
+
+    private int getShard(UserEvent userEvent) {
+        if (eventQueues.length == 1) {
+            return 0;
+        }
+
+        String userId = userEvent.getUserContext().getUserId();
+        return userId == null ? 0 : (userId.hashCode() & Integer.MAX_VALUE) % eventQueues.length;
+    }
+
+    /**
+     * @return the {@link BackpressurePolicy} applied when the queue is full, with its counters.
+     */
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Flush the current batch of every shard.
+     */
     public void flush() throws InterruptedException {
-        eventQueue.put(FLUSH_SIGNAL);
+        for (BlockingQueue<Object> eventQueue : eventQueues) {
+            eventQueue.put(FLUSH_SIGNAL);
+        }
     }
 
     public class EventConsumer implements Runnable {
-        private LinkedList<UserEvent> currentBatch = new LinkedList<>();
+        private final BlockingQueue<Object> eventQueue;
+        // reused for every batch, the LogEvent does not keep a reference to it
+        private final ArrayList<UserEvent> currentBatch = new ArrayList<>(batchSize);
+        // estimated serialized size of the current batch, only tracked with a maxBatchBytes
+        private int currentBatchBytes;
         private long deadline = System.currentTimeMillis() + flushInterval;
 
+        public EventConsumer() {
+            this(eventQueues[0]);
+        }
+
+        private EventConsumer(BlockingQueue<Object> eventQueue) {
+            this.eventQueue = eventQueue;
+        }
+
         @Override
         public void run() {
             try {
@@ -161,6 +350,13 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
                         continue;
                     }
 
+                    if (item instanceof UserEvents) {
+                        for (UserEvent userEvent : ((UserEvents) item).userEvents) {
+                            addToBatch(userEvent);
+                        }
+                        continue;
+                    }
+
                     addToBatch((UserEvent) item);
                 }
             } catch (InterruptedException e) {
@@ -174,9 +370,9 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
         }
 
         private void addToBatch(UserEvent userEvent) {
-            if (shouldSplit(userEvent)) {
+            int eventBytes = maxBatchBytes > 0 ? EventFactory.estimateSize(userEvent) : 0;
+            if (shouldSplit(userEvent, eventBytes)) {
                 flush();
-                currentBatch = new LinkedList<>();
             }
 
             // Reset the deadline if starting a new batch.
@@ -185,17 +381,23 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
             }
 
             currentBatch.add(userEvent);
-            if (currentBatch.size() >= batchSize) {
+            currentBatchBytes += eventBytes;
+            if (currentBatch.size() >= batchSize || (maxBatchBytes > 0 && currentBatchBytes >= maxBatchBytes)) {
                 flush();
             }
         }
 
-        private boolean shouldSplit(UserEvent userEvent) {
+        private boolean shouldSplit(UserEvent userEvent, int eventBytes) {
             if (currentBatch.isEmpty()) {
                 return false;
             }
 
-            ProjectConfig currentConfig = currentBatch.peekLast().getUserContext().getProjectConfig();
+            // The event should fit in the byte budget
+            if (maxBatchBytes > 0 && currentBatchBytes + eventBytes > maxBatchBytes) {
+                return true;
+            }
+
+            ProjectConfig currentConfig = currentBatch.get(currentBatch.size() - 1).getUserContext().getProjectConfig();
             ProjectConfig newConfig = userEvent.getUserContext().getProjectConfig();
 
             // Projects should match
@@ -216,18 +418,58 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
                 return;
             }
 
-            LogEvent logEvent = EventFactory.createLogEvent(currentBatch);
+            dispatch(currentBatch);
+            currentBatch.clear();
+            currentBatchBytes = 0;
+        }
+    }
 
-            if (notificationCenter != null) {
-                notificationCenter.send(logEvent);
+    private void dispatch(List<UserEvent> userEvents) {
+        LogEvent logEvent = EventFactory.createLogEvent(userEvents);
+
+        if (maxRequestBytes > 0 && logEvent != null) {
+            // the body is cached by the LogEvent, measuring it here does not serialize it twice
+            int bodyBytes = logEvent.getBodyBytes().length;
+            if (bodyBytes > maxRequestBytes) {
+                if (userEvents.size() > 1) {
+                    logger.debug("Splitting a LogEvent of {} bytes, larger than the maxRequestBytes of {}.", bodyBytes, maxRequestBytes);
+                    dispatchSplit(userEvents, bodyBytes);
+                    return;
+                }
+                logger.warn("Dispatching a single event of {} bytes, larger than the maxRequestBytes of {}.", bodyBytes, maxRequestBytes);
             }
+        }
 
-            try {
-                eventHandler.dispatchEvent(logEvent);
-            } catch (Exception e) {
-                logger.error("Error dispatching event: {}", logEvent, e);
-            }
-            currentBatch = new LinkedList<>();
+        if (notificationCenter != null) {
+            notificationCenter.send(logEvent);
+        }
+
+        try {
+            eventHandler.dispatchEvent(logEvent);
+        } catch (Exception e) {
+            logger.error("Error dispatching event: {}", logEvent, e);
+        }
+    }
+
+    /**
+     * Dispatch the events in as many parts as their average size calls for, a part still too large is split again.
+     */
+    private void dispatchSplit(List<UserEvent> userEvents, int bodyBytes) {
+        int partCount = Math.min(userEvents.size(), Math.max(2, (bodyBytes + maxRequestBytes - 1) / maxRequestBytes));
+        int partSize = (userEvents.size() + partCount - 1) / partCount;
+        for (int from = 0; from < userEvents.size(); from += partSize) {
+            dispatch(userEvents.subList(from, Math.min(userEvents.size(), from + partSize)));
+        }
+    }
+
+    /**
+     * Queue entry holding the events of a single {@link #process(List)} call.
+     */
+    private static final class UserEvents {
+        private final List<UserEvent> userEvents;
+
+        private UserEvents(List<UserEvent> userEvents) {
+            this.userEvents = new ArrayList<>(userEvents);
         }
     }
 
@@ -236,13 +478,18 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
     }
 
     public static class Builder {
-        private BlockingQueue<Object> eventQueue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+        private BlockingQueue<Object> eventQueue = null;
+        private Supplier<BlockingQueue<Object>> eventQueueFactory = () -> new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+        private int shardCount = 1;
         private EventHandler eventHandler = null;
         private Integer batchSize = PropertyUtils.getInteger(CONFIG_BATCH_SIZE, DEFAULT_BATCH_SIZE);
         private Long flushInterval = PropertyUtils.getLong(CONFIG_BATCH_INTERVAL, DEFAULT_BATCH_INTERVAL);
         private Long timeoutMillis = PropertyUtils.getLong(CONFIG_CLOSE_TIMEOUT, DEFAULT_TIMEOUT_INTERVAL);
+        private Integer maxBatchBytes = PropertyUtils.getInteger(CONFIG_MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_BYTES);
+        private Integer maxRequestBytes = PropertyUtils.getInteger(CONFIG_MAX_REQUEST_BYTES, DEFAULT_MAX_REQUEST_BYTES);
         private ExecutorService executor = null;
         private NotificationCenter notificationCenter = null;
+        private BackpressurePolicy backpressurePolicy = null;
 
         /**
          * {@link EventHandler} implementation used to dispatch events to Optimizely.
@@ -260,6 +507,29 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
             return this;
         }
 
+        /**
+         * Buffer events in a {@link RingBufferQueue} instead of the default {@link ArrayBlockingQueue}, so that
+         * threads processing events concurrently do not contend on a lock.
+         *
+         * @param capacity     The number of events the queue holds, rounded up to the next power of two.
+         * @param waitStrategy How the consumer thread waits for events.
+         */
+        public Builder withRingBuffer(int capacity, RingBufferQueue.WaitStrategy waitStrategy) {
+            this.eventQueue = null;
+            this.eventQueueFactory = () -> new RingBufferQueue<>(capacity, waitStrategy);
+            return this;
+        }
+
+        /**
+         * ShardCount is the number of consumer threads the events are partitioned among by user ID, each with its own
+         * queue and batch. Every shard has the configured queue capacity. A shared executor must be able to run as
+         * many tasks at once, and a queue set with {@link #withEventQueue(BlockingQueue)} cannot be sharded.
+         */
+        public Builder withShards(int shardCount) {
+            this.shardCount = shardCount;
+            return this;
+        }
+
         /**
          * BatchSize is the maximum number of events contained within a single event batch.
          */
@@ -277,6 +547,24 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
             return this;
         }
 
+        /**
+         * MaxBatchBytes is the estimated serialized size, in bytes, at which a batch is flushed before reaching the
+         * batchSize. 0 means no limit.
+         */
+        public Builder withMaxBatchBytes(Integer maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        /**
+         * MaxRequestBytes is the body size, in bytes, above which a LogEvent is split into several requests. A single
+         * event larger than it is still dispatched. 0 means no limit.
+         */
+        public Builder withMaxRequestBytes(Integer maxRequestBytes) {
+            this.maxRequestBytes = maxRequestBytes;
+            return this;
+        }
+
         /**
          * ExecutorService used to execute the {@link EventConsumer} thread.
          */
@@ -301,6 +589,15 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
             return this;
         }
 
+        /**
+         * BackpressurePolicy decides what happens to the events processed while the queue is full, by default they
+         * are dropped.
+         */
+        public Builder withBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
         public BatchEventProcessor build() {
             return build(true);
         }
@@ -321,20 +618,55 @@ public class BatchEventProcessor implements EventProcessor, AutoCloseable {
                 timeoutMillis = DEFAULT_TIMEOUT_INTERVAL;
             }
 
+            if (maxBatchBytes < 0) {
+                logger.warn("Invalid maxBatchBytes of {}, Defaulting to {}", maxBatchBytes, DEFAULT_MAX_BATCH_BYTES);
+                maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+            }
+
+            if (maxRequestBytes < 0) {
+                logger.warn("Invalid maxRequestBytes of {}, Defaulting to {}", maxRequestBytes, DEFAULT_MAX_REQUEST_BYTES);
+                maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+            }
+
             if (eventHandler == null) {
                 throw new IllegalArgumentException("EventHandler was not configured");
             }
 
+            if (shardCount < 1) {
+                logger.warn("Invalid shardCount of {}, Defaulting to {}", shardCount, 1);
+                shardCount = 1;
+            }
+
+            if (eventQueue != null && shardCount > 1) {
+                logger.warn("Invalid shardCount of {} with a configured eventQueue, Defaulting to {}", shardCount, 1);
+                shardCount = 1;
+            }
+
+            @SuppressWarnings("unchecked")
+            BlockingQueue<Object>[] eventQueues = new BlockingQueue[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                eventQueues[i] = eventQueue != null ? eventQueue : eventQueueFactory.get();
+            }
+
+            if (backpressurePolicy == null) {
+                backpressurePolicy = BackpressurePolicy.dropNewest();
+            }
+
+            // rejected rather than replaced, the configured policy holds the counters the caller monitors
+            if (backpressurePolicy.getType() == BackpressurePolicy.Type.DROP_OLDEST && eventQueues[0] instanceof RingBufferQueue) {
+                throw new IllegalArgumentException("BackpressurePolicy " + backpressurePolicy.getType() + " is not supported by a RingBufferQueue");
+            }
+
             if (executor == null) {
                 final ThreadFactory threadFactory = Executors.defaultThreadFactory();
-                executor = Executors.newSingleThreadExecutor(runnable -> {
+                executor = Executors.newFixedThreadPool(shardCount, runnable -> {
                     Thread thread = threadFactory.newThread(runnable);
                     thread.setDaemon(true);
                     return thread;
                 });
             }
 
-            BatchEventProcessor batchEventProcessor = new BatchEventProcessor(eventQueue, eventHandler, batchSize, flushInterval, timeoutMillis, executor, notificationCenter);
+            BatchEventProcessor batchEventProcessor = new BatchEventProcessor(eventQueues, eventHandler, batchSize, flushInterval, timeoutMillis, maxBatchBytes, maxRequestBytes, executor, notificationCenter, backpressurePolicy);
 
             if (shouldStart) {
                 batchEventProcessor.start();
@@ -0,0 +1,221 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import com.optimizely.ab.event.internal.ImpressionEvent;
+import com.optimizely.ab.event.internal.UserContext;
+import com.optimizely.ab.event.internal.UserEvent;
+import com.optimizely.ab.internal.ExpiringLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.optimizely.ab.internal.SafetyUtils.tryClose;
+
+/**
+ * DeduplicatingEventProcessor is an {@link EventProcessor} decorator dropping repeated impressions, such as those of
+ * repeated {@link com.optimizely.ab.Optimizely#activate} or {@link com.optimizely.ab.Optimizely#isFeatureEnabled}
+ * calls for the same user.
+ *
+ * An impression is dropped when an impression of the same user, experiment, variation and config revision was
+ * processed within the window. The attributes are not part of the key, a repeated impression sent with different
+ * attributes is dropped as well. Conversions are always processed.
+ *
+ * The window is bounded, the least recently seen impressions being forgotten once it holds maxSize of them, after
+ * which their repeats are processed again. Notifications sent by {@link com.optimizely.ab.Optimizely} are not
+ * affected.
+ */
+@ThreadSafe
+public class DeduplicatingEventProcessor implements EventProcessor, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeduplicatingEventProcessor.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final EventProcessor eventProcessor;
+    private final ExpiringLruCache<Key, Boolean> impressions;
+
+    private final LongAdder suppressedCount = new LongAdder();
+
+    private DeduplicatingEventProcessor(EventProcessor eventProcessor, int maxSize, long windowMs) {
+        this.eventProcessor = eventProcessor;
+        this.impressions = new ExpiringLruCache<>(maxSize, windowMs);
+    }
+
+    @Override
+    public void process(UserEvent userEvent) {
+        if (isFirst(userEvent)) {
+            eventProcessor.process(userEvent);
+        }
+    }
+
+    @Override
+    public void process(List<UserEvent> userEvents) {
+        List<UserEvent> firstEvents = new ArrayList<>(userEvents.size());
+        for (UserEvent userEvent : userEvents) {
+            if (isFirst(userEvent)) {
+                firstEvents.add(userEvent);
+            }
+        }
+
+        if (!firstEvents.isEmpty()) {
+            eventProcessor.process(firstEvents);
+        }
+    }
+
+    private boolean isFirst(UserEvent userEvent) {
+        if (!(userEvent instanceof ImpressionEvent)) {
+            return true;
+        }
+
+        if (impressions.putIfAbsent(new Key((ImpressionEvent) userEvent), Boolean.TRUE)) {
+            return true;
+        }
+
+        logger.debug("Dropping a repeated impression: {}", userEvent);
+        suppressedCount.increment();
+        return false;
+    }
+
+    /**
+     * Forget the impressions seen, so that their next repeat is processed.
+     */
+    public void reset() {
+        impressions.clear();
+    }
+
+    /**
+     * @return the number of impressions dropped as repeats.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.sum();
+    }
+
+    /**
+     * @return the number of impressions forgotten because the window was full or they expired.
+     */
+    public long getEvictionCount() {
+        return impressions.getEvictionCount();
+    }
+
+    public int size() {
+        return impressions.size();
+    }
+
+    @Override
+    public void close() {
+        tryClose(eventProcessor);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private EventProcessor eventProcessor;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private long windowMs = DEFAULT_WINDOW_MS;
+
+        /**
+         * {@link EventProcessor} the events that are not repeats are handed to.
+         */
+        public Builder withEventProcessor(@Nonnull EventProcessor eventProcessor) {
+            this.eventProcessor = eventProcessor;
+            return this;
+        }
+
+        /**
+         * MaxSize is the maximum number of impressions remembered.
+         */
+        public Builder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Window is how long the repeats of an impression are dropped after it was processed.
+         */
+        public Builder withWindow(long duration, TimeUnit timeUnit) {
+            this.windowMs = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        public DeduplicatingEventProcessor build() {
+            if (eventProcessor == null) {
+                throw new IllegalArgumentException("EventProcessor was not configured");
+            }
+
+            if (maxSize <= 0) {
+                logger.warn("Invalid maxSize of {}, Defaulting to {}", maxSize, DEFAULT_MAX_SIZE);
+                maxSize = DEFAULT_MAX_SIZE;
+            }
+
+            if (windowMs <= 0) {
+                logger.warn("Invalid window of {}, Defaulting to {}", windowMs, DEFAULT_WINDOW_MS);
+                windowMs = DEFAULT_WINDOW_MS;
+            }
+
+            return new DeduplicatingEventProcessor(eventProcessor, maxSize, windowMs);
+        }
+    }
+
+    private static final class Key {
+        private final String userId;
+        private final String experimentId;
+        private final String variationId;
+        private final String revision;
+        private final int hash;
+
+        private Key(ImpressionEvent impressionEvent) {
+            UserContext userContext = impressionEvent.getUserContext();
+            this.userId = userContext.getUserId();
+            this.experimentId = impressionEvent.getExperimentId();
+            this.variationId = impressionEvent.getVariationId();
+            this.revision = userContext.getProjectConfig().getRevision();
+            this.hash = Objects.hash(userId, experimentId, variationId, revision);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) obj;
+            return hash == key.hash &&
+                Objects.equals(userId, key.userId) &&
+                Objects.equals(experimentId, key.experimentId) &&
+                Objects.equals(variationId, key.variationId) &&
+                Objects.equals(revision, key.revision);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -20,6 +20,8 @@ import com.optimizely.ab.event.internal.UserEvent;
 import com.optimizely.ab.event.internal.payload.EventBatch;
 import com.optimizely.ab.notification.NotificationHandler;
 
+import java.util.List;
+
 /**
  * EventProcessor interface is used to provide an intermediary processing stage within
  * event production. It's assumed that the EventProcessor dispatches events via a provided
@@ -27,4 +29,16 @@ import com.optimizely.ab.notification.NotificationHandler;
  */
 public interface EventProcessor {
     void process(UserEvent userEvent);
+
+    /**
+     * Process the events produced together by a single call, such as the impressions of a bulk feature evaluation.
+     * Implementations can override this to hand the events over at once, by default they are processed one by one.
+     *
+     * @param userEvents The events to process, in order.
+     */
+    default void process(List<UserEvent> userEvents) {
+        for (UserEvent userEvent : userEvents) {
+            process(userEvent);
+        }
+    }
 }
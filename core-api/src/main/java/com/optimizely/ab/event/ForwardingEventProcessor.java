@@ -22,6 +22,8 @@ import com.optimizely.ab.notification.NotificationCenter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * ForwardingEventProcessor is a basic transformation stage for converting
  * the event batch into a LogEvent to be dispatched.
@@ -40,8 +42,23 @@ public class ForwardingEventProcessor implements EventProcessor {
 
     @Override
     public void process(UserEvent userEvent) {
-        LogEvent logEvent = EventFactory.createLogEvent(userEvent);
+        dispatch(EventFactory.createLogEvent(userEvent));
+    }
+
+    /**
+     * Dispatch the events as a single {@link LogEvent}. All the events are expected to come from the same
+     * {@link com.optimizely.ab.config.ProjectConfig}.
+     */
+    @Override
+    public void process(List<UserEvent> userEvents) {
+        if (userEvents.isEmpty()) {
+            return;
+        }
+
+        dispatch(EventFactory.createLogEvent(userEvents));
+    }
 
+    private void dispatch(LogEvent logEvent) {
         if (notificationCenter != null) {
             notificationCenter.send(logEvent);
         }
@@ -20,6 +20,7 @@ import com.optimizely.ab.event.internal.payload.EventBatch;
 import com.optimizely.ab.event.internal.serializer.DefaultJsonSerializer;
 import com.optimizely.ab.event.internal.serializer.Serializer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Objects;
 
@@ -28,6 +29,9 @@ import javax.annotation.concurrent.Immutable;
 
 /**
  * Represents Optimizely tracking and activation events.
+ * <p>
+ * The body is serialized lazily, once, to UTF-8 encoded JSON. The bytes are cached and shared by everything that
+ * reads the event, such as the {@link EventHandler} and the notification listeners.
  */
 @Immutable
 public class LogEvent {
@@ -37,6 +41,8 @@ public class LogEvent {
     private final Map<String, String> requestParams;
     private final EventBatch eventBatch;
 
+    private volatile byte[] body;
+
     public LogEvent(@Nonnull RequestMethod requestMethod,
                     @Nonnull String endpointUrl,
                     @Nonnull Map<String, String> requestParams,
@@ -62,12 +68,33 @@ public class LogEvent {
     }
 
     public String getBody() {
+        return new String(getBodyBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the UTF-8 encoded body. The array is shared by all the callers and must not be modified.
+     */
+    public byte[] getBodyBytes() {
+        byte[] body = this.body;
+        if (body == null) {
+            synchronized (this) {
+                body = this.body;
+                if (body == null) {
+                    body = serializeBody();
+                    this.body = body;
+                }
+            }
+        }
+        return body;
+    }
+
+    private byte[] serializeBody() {
         if (eventBatch == null) {
-            return "";
+            return new byte[0];
         }
 
         Serializer serializer = DefaultJsonSerializer.getInstance();
-        return serializer.serialize(eventBatch);
+        return serializer.serializeToBytes(eventBatch);
     }
 
     public EventBatch getEventBatch() {
@@ -0,0 +1,371 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RingBufferQueue is a bounded multi-producer, single-consumer {@link BlockingQueue} backed by a preallocated ring
+ * of slots, for the event queue of the {@link BatchEventProcessor}.
+ *
+ * Producers claim a slot with a compare-and-set of the tail sequence and publish the element through the sequence
+ * of that slot, so they neither take a lock nor allocate a node. The head and tail sequences are padded to sit on
+ * cache lines of their own. How the consumer waits for an element is set by the {@link WaitStrategy}.
+ *
+ * Only a single thread may take elements from the queue, through {@link #poll()}, {@link #take()},
+ * {@link #poll(long, TimeUnit)}, {@link #peek()} or {@link #drainTo(Collection)}. Producers finding the queue full
+ * are parked until there is room.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+@ThreadSafe
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * How the consumer waits for elements, trading latency against the CPU used while the queue is empty.
+     */
+    public enum WaitStrategy {
+        /**
+         * Wait on a condition signaled by producers. Uses no CPU while waiting, producers take a lock to wake the
+         * consumer.
+         */
+        BLOCKING,
+        /**
+         * Spin, then yield, then park for short periods. Uses little CPU and producers never take a lock.
+         */
+        SLEEPING,
+        /**
+         * Spin, then yield the thread. Low latency at the cost of a busy core while waiting.
+         */
+        YIELDING,
+        /**
+         * Spin. Lowest latency at the cost of a busy core while waiting.
+         */
+        BUSY_SPIN
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Object[] slots;
+    // sequence a slot expects next: its position while free, its position + 1 once published
+    private final AtomicLongArray slotSequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final Sequence head = new Sequence(0);
+    private final Sequence tail = new Sequence(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile boolean consumerWaiting;
+
+    /**
+     * @param capacity     The number of slots, rounded up to the next power of two.
+     * @param waitStrategy How the consumer waits for elements.
+     */
+    public RingBufferQueue(int capacity, @Nonnull WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity of " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new Object[size];
+        this.slotSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slotSequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @Nonnull
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    //======== producers ========//
+
+    @Override
+    public boolean offer(@Nonnull E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long slotSequence = slotSequences.get(index);
+            if (slotSequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = e;
+                    slotSequences.set(index, position + 1);
+                    signalConsumer();
+                    return true;
+                }
+            } else if (slotSequence < position) {
+                // the slot still holds the element of the previous lap
+                return false;
+            }
+            // another producer claimed the slot, try the next one
+        }
+    }
+
+    @Override
+    public void put(@Nonnull E e) throws InterruptedException {
+        while (!offer(e)) {
+            waitForRoom();
+        }
+    }
+
+    @Override
+    public boolean offer(@Nonnull E e, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitForRoom();
+        }
+        return true;
+    }
+
+    private void signalConsumer() {
+        if (consumerWaiting) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void waitForRoom() throws InterruptedException {
+        LockSupport.parkNanos(PARK_NANOS);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    //======== consumer ========//
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        int index = (int) position & mask;
+        if (slotSequences.get(index) != position + 1) {
+            return null;
+        }
+
+        E e = (E) slots[index];
+        slots[index] = null;
+        slotSequences.lazySet(index, position + slots.length);
+        head.lazySet(position + 1);
+        return e;
+    }
+
+    @Override
+    @Nonnull
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            waitForElement(attempt, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            if (remaining <= 0) {
+                return null;
+            }
+            waitForElement(attempt, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return e;
+    }
+
+    private void waitForElement(int attempt, long remainingNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        switch (waitStrategy) {
+            case BLOCKING:
+                lock.lockInterruptibly();
+                try {
+                    consumerWaiting = true;
+                    // producers check consumerWaiting after publishing, so an element published meanwhile is seen here
+                    if (isEmpty()) {
+                        notEmpty.awaitNanos(remainingNanos);
+                    }
+                } finally {
+                    consumerWaiting = false;
+                    lock.unlock();
+                }
+                break;
+            case SLEEPING:
+                if (attempt >= SPIN_TRIES + YIELD_TRIES) {
+                    LockSupport.parkNanos(Math.min(PARK_NANOS, remainingNanos));
+                } else if (attempt >= SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case YIELDING:
+                if (attempt >= SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case BUSY_SPIN:
+            default:
+                break;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long position = head.get();
+        int index = (int) position & mask;
+        return slotSequences.get(index) == position + 1 ? (E) slots[index] : null;
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    //======== state ========//
+
+    @Override
+    public int size() {
+        // read head first, so a concurrent poll cannot make the size negative
+        long position = head.get();
+        long size = tail.get() - position;
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long position = head.get();
+        return slotSequences.get((int) position & mask) != position + 1;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return slots.length - size();
+    }
+
+    /**
+     * Iterates over a snapshot of the published elements, it does not support removal.
+     */
+    @Override
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> elements = new ArrayList<>();
+        for (long position = head.get(); ; position++) {
+            int index = (int) position & mask;
+            Object e = slots[index];
+            if (slotSequences.get(index) != position + 1 || e == null) {
+                break;
+            }
+            elements.add((E) e);
+        }
+        return Collections.unmodifiableList(elements).iterator();
+    }
+
+    //======== sequences ========//
+
+    // the padding keeps the value on its own cache line, subclass fields being laid out after superclass ones
+
+    @SuppressWarnings("unused")
+    private static class LeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class SequenceValue extends LeftPadding {
+        protected volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Sequence extends SequenceValue {
+        private static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        private Sequence(long initialValue) {
+            VALUE.set(this, initialValue);
+        }
+
+        private long get() {
+            return value;
+        }
+
+        private void lazySet(long newValue) {
+            VALUE.lazySet(this, newValue);
+        }
+
+        private boolean compareAndSet(long expected, long newValue) {
+            return VALUE.compareAndSet(this, expected, newValue);
+        }
+    }
+}
@@ -28,7 +28,9 @@ import com.optimizely.ab.internal.ControlAttribute;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -45,13 +47,24 @@ public class EventFactory {
     public static final String EVENT_ENDPOINT = "https://logx.optimizely.com/v1/events";  // Should be part of the datafile
     private static final String ACTIVATE_EVENT_KEY = "campaign_activated";
 
+    // serialized sizes of the parts of a visitor with empty strings, for estimating the size of a batch
+    private static final int IMPRESSION_VISITOR_SIZE = 304;
+    private static final int CONVERSION_VISITOR_SIZE = 169;
+    // with an entity id of the usual 11 digits
+    private static final int ATTRIBUTE_SIZE = 62;
+    private static final int MAP_ENTRY_SIZE = 4;
+
     public static LogEvent createLogEvent(UserEvent userEvent) {
         return createLogEvent(Collections.singletonList(userEvent));
     }
 
+    /**
+     * Create a {@link LogEvent} for the events of a batch. Events of the same user with the same attributes are sent
+     * as the snapshots of a single {@link Visitor}, in the order they were given.
+     */
     public static LogEvent createLogEvent(List<UserEvent> userEvents) {
         EventBatch.Builder builder = new EventBatch.Builder();
-        List<Visitor> visitors = new ArrayList<>(userEvents.size());
+        Map<VisitorKey, List<Snapshot>> snapshotsByVisitor = new LinkedHashMap<>();
 
         for (UserEvent userEvent: userEvents) {
 
@@ -59,18 +72,25 @@ public class EventFactory {
                 continue;
             }
 
+            Snapshot snapshot = null;
             if (userEvent instanceof ImpressionEvent) {
-                visitors.add(createVisitor((ImpressionEvent) userEvent));
+                snapshot = createSnapshot((ImpressionEvent) userEvent);
             }
 
             if (userEvent instanceof ConversionEvent) {
-                visitors.add(createVisitor((ConversionEvent) userEvent));
+                snapshot = createSnapshot((ConversionEvent) userEvent);
             }
 
             // This needs an interface.
             UserContext userContext = userEvent.getUserContext();
             ProjectConfig projectConfig = userContext.getProjectConfig();
 
+            if (snapshot != null) {
+                VisitorKey visitorKey = new VisitorKey(userContext.getUserId(),
+                    buildAttributeList(projectConfig, userContext.getAttributes()));
+                snapshotsByVisitor.computeIfAbsent(visitorKey, key -> new ArrayList<>(1)).add(snapshot);
+            }
+
             builder
                 .setClientName(ClientEngineInfo.getClientEngine().getClientEngineValue())
                 .setClientVersion(BuildVersionInfo.VERSION)
@@ -80,21 +100,100 @@ public class EventFactory {
                 .setRevision(projectConfig.getRevision());
         }
 
-        if (visitors.isEmpty()) {
+        if (snapshotsByVisitor.isEmpty()) {
             return null;
         }
 
+        List<Visitor> visitors = new ArrayList<>(snapshotsByVisitor.size());
+        for (Map.Entry<VisitorKey, List<Snapshot>> entry : snapshotsByVisitor.entrySet()) {
+            visitors.add(new Visitor.Builder()
+                .setVisitorId(entry.getKey().visitorId)
+                .setAttributes(entry.getKey().attributes)
+                .setSnapshots(entry.getValue())
+                .build());
+        }
+
         builder.setVisitors(visitors);
         return new LogEvent(LogEvent.RequestMethod.POST, EVENT_ENDPOINT, Collections.emptyMap(), builder.build());
     }
 
-    private static Visitor createVisitor(ImpressionEvent impressionEvent) {
-        if (impressionEvent == null) {
-            return null;
+    /**
+     * Estimate the number of bytes a {@link UserEvent} adds to the serialized {@link EventBatch}, without building
+     * its {@link Visitor}. Strings are counted by their length, so the estimate is low for text that is not ASCII,
+     * and attributes that are filtered out when the visitor is built are counted. An event sharing the visitor of an
+     * earlier event in the batch adds less.
+     */
+    public static int estimateSize(UserEvent userEvent) {
+        UserContext userContext = userEvent.getUserContext();
+        int size = length(userContext.getUserId());
+
+        if (userEvent instanceof ImpressionEvent) {
+            ImpressionEvent impressionEvent = (ImpressionEvent) userEvent;
+            size += IMPRESSION_VISITOR_SIZE + 2 * length(impressionEvent.getLayerId()) +
+                length(impressionEvent.getExperimentId()) + length(impressionEvent.getVariationId());
+        } else if (userEvent instanceof ConversionEvent) {
+            ConversionEvent conversionEvent = (ConversionEvent) userEvent;
+            size += CONVERSION_VISITOR_SIZE + 2 * length(conversionEvent.getEventKey()) + length(conversionEvent.getEventId());
+            if (conversionEvent.getRevenue() != null) {
+                size += ",\"revenue\":".length() + estimateValueSize(conversionEvent.getRevenue());
+            }
+            if (conversionEvent.getValue() != null) {
+                size += ",\"value\":".length() + estimateValueSize(conversionEvent.getValue());
+            }
+            if (conversionEvent.getTags() != null) {
+                size += ",\"tags\":".length() + estimateValueSize(conversionEvent.getTags());
+            }
         }
 
-        UserContext userContext = impressionEvent.getUserContext();
+        Map<String, ?> attributes = userContext.getAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, ?> entry : attributes.entrySet()) {
+                if (entry.getValue() != null) {
+                    size += ATTRIBUTE_SIZE + length(entry.getKey()) + estimateValueSize(entry.getValue());
+                }
+            }
+        }
+
+        Boolean botFiltering = userContext.getProjectConfig().getBotFiltering();
+        if (botFiltering != null) {
+            size += ATTRIBUTE_SIZE + 2 * ControlAttribute.BOT_FILTERING_ATTRIBUTE.toString().length() +
+                botFiltering.toString().length();
+        }
+
+        return size;
+    }
+
+    private static int estimateValueSize(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length() + 2;
+        }
+
+        if (value instanceof Map) {
+            int size = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() != null) {
+                    size += MAP_ENTRY_SIZE + String.valueOf(entry.getKey()).length() + estimateValueSize(entry.getValue());
+                }
+            }
+            return size;
+        }
 
+        if (value instanceof Collection) {
+            int size = 2;
+            for (Object element : (Collection<?>) value) {
+                size += 1 + estimateValueSize(element);
+            }
+            return size;
+        }
+
+        return String.valueOf(value).length();
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static Snapshot createSnapshot(ImpressionEvent impressionEvent) {
         Decision decision = new Decision.Builder()
             .setCampaignId(impressionEvent.getLayerId())
             .setExperimentId(impressionEvent.getExperimentId())
@@ -110,25 +209,13 @@ public class EventFactory {
             .setType(ACTIVATE_EVENT_KEY)
             .build();
 
-        Snapshot snapshot = new Snapshot.Builder()
+        return new Snapshot.Builder()
             .setDecisions(Collections.singletonList(decision))
             .setEvents(Collections.singletonList(event))
             .build();
-
-        return new Visitor.Builder()
-            .setVisitorId(userContext.getUserId())
-            .setAttributes(buildAttributeList(userContext.getProjectConfig(), userContext.getAttributes()))
-            .setSnapshots(Collections.singletonList((snapshot)))
-            .build();
     }
 
-    private static Visitor createVisitor(ConversionEvent conversionEvent) {
-        if (conversionEvent == null) {
-            return null;
-        }
-
-        UserContext userContext = conversionEvent.getUserContext();
-
+    private static Snapshot createSnapshot(ConversionEvent conversionEvent) {
         Event event = new Event.Builder()
             .setTimestamp(conversionEvent.getTimestamp())
             .setUuid(conversionEvent.getUUID())
@@ -140,15 +227,9 @@ public class EventFactory {
             .setValue(conversionEvent.getValue())
             .build();
 
-        Snapshot snapshot = new Snapshot.Builder()
+        return new Snapshot.Builder()
             .setEvents(Collections.singletonList(event))
             .build();
-
-        return new Visitor.Builder()
-            .setVisitorId(userContext.getUserId())
-            .setAttributes(buildAttributeList(userContext.getProjectConfig(), userContext.getAttributes()))
-            .setSnapshots(Collections.singletonList(snapshot))
-            .build();
     }
 
     private static List<Attribute> buildAttributeList(ProjectConfig projectConfig, Map<String, ?> attributes) {
@@ -204,4 +285,35 @@ public class EventFactory {
 
         return attributesList;
     }
+
+    /**
+     * Identity of a {@link Visitor} within a batch, the user and the attributes sent for it.
+     */
+    private static final class VisitorKey {
+        private final String visitorId;
+        private final List<Attribute> attributes;
+
+        private VisitorKey(String visitorId, List<Attribute> attributes) {
+            this.visitorId = visitorId;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            VisitorKey visitorKey = (VisitorKey) o;
+
+            if (visitorId != null ? !visitorId.equals(visitorKey.visitorId) : visitorKey.visitorId != null) return false;
+            return attributes.equals(visitorKey.attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = visitorId != null ? visitorId.hashCode() : 0;
+            result = 31 * result + attributes.hashCode();
+            return result;
+        }
+    }
 }
@@ -24,7 +24,10 @@ import com.optimizely.ab.config.parser.MissingJsonParserException;
 import javax.annotation.Nonnull;
 
 /**
- * Factory for generating {@link Serializer} instances, based on the json library available on the classpath.
+ * Factory for generating {@link Serializer} instances.
+ * <p>
+ * Event batches are written by the {@link EventBatchSerializer}, which needs no json library. Other payloads, and
+ * batches holding values it cannot write, are serialized with the json library available on the classpath.
  */
 public final class DefaultJsonSerializer {
 
@@ -37,6 +40,14 @@ public final class DefaultJsonSerializer {
         return LazyHolder.INSTANCE;
     }
 
+    /**
+     * @return the serializer using the json library available on the classpath
+     * @throws MissingJsonParserException if there are no supported json libraries available on the classpath
+     */
+    static Serializer getLibraryInstance() {
+        return LibraryLazyHolder.INSTANCE;
+    }
+
     //======== Helper methods ========//
 
     /**
@@ -78,6 +89,10 @@ public final class DefaultJsonSerializer {
     //======== Lazy-init Holder ========//
 
     private static class LazyHolder {
+        private static final Serializer INSTANCE = new EventBatchSerializer(DefaultJsonSerializer::getLibraryInstance);
+    }
+
+    private static class LibraryLazyHolder {
         private static final Serializer INSTANCE = create();
     }
 }
@@ -0,0 +1,537 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event.internal.serializer;
+
+import com.optimizely.ab.event.internal.payload.Attribute;
+import com.optimizely.ab.event.internal.payload.Decision;
+import com.optimizely.ab.event.internal.payload.Event;
+import com.optimizely.ab.event.internal.payload.EventBatch;
+import com.optimizely.ab.event.internal.payload.Snapshot;
+import com.optimizely.ab.event.internal.payload.Visitor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an {@link EventBatch} as UTF-8 encoded JSON without reflection or an intermediate tree, each payload class
+ * having a method writing its fields in order. The output is byte-identical to the UTF-8 output of the
+ * {@link JacksonSerializer}: same field names and order, null fields and null map values left out, strings escaped
+ * and numbers formatted the same way.
+ * <p>
+ * Tag and attribute values can be of any type. Strings, booleans, the boxed primitive numbers, big numbers, maps
+ * with String keys and collections of those are written, for anything else {@link UnsupportedValueException} is thrown so the caller can
+ * fall back to a reflective serializer.
+ * <p>
+ * Each thread reuses a writer, the bytes are written to a buffer kept across batches and copied out once.
+ */
+final class EventBatchJsonWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // buffers grown by an unusually large batch are not kept
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] HEX_DIGITS = ascii("0123456789ABCDEF");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    // for each ASCII character: 0 when written as is, 'u' when written as a unicode escape, else the escape
+    // character following the backslash
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\r'] = 'r';
+    }
+
+    private static final byte[] VISITORS = fieldName("visitors");
+    private static final byte[] REVISION = fieldName("revision");
+    private static final byte[] ACCOUNT_ID = fieldName("account_id");
+    private static final byte[] ENRICH_DECISIONS = fieldName("enrich_decisions");
+    private static final byte[] ANONYMIZE_IP = fieldName("anonymize_ip");
+    private static final byte[] CLIENT_NAME = fieldName("client_name");
+    private static final byte[] CLIENT_VERSION = fieldName("client_version");
+    private static final byte[] PROJECT_ID = fieldName("project_id");
+
+    private static final byte[] ATTRIBUTES = fieldName("attributes");
+    private static final byte[] SNAPSHOTS = fieldName("snapshots");
+    private static final byte[] VISITOR_ID = fieldName("visitor_id");
+    private static final byte[] SESSION_ID = fieldName("session_id");
+
+    private static final byte[] KEY = fieldName("key");
+    private static final byte[] TYPE = fieldName("type");
+    private static final byte[] VALUE = fieldName("value");
+    private static final byte[] ENTITY_ID = fieldName("entity_id");
+
+    private static final byte[] DECISIONS = fieldName("decisions");
+    private static final byte[] EVENTS = fieldName("events");
+    private static final byte[] ACTIVATION_TIMESTAMP = fieldName("activation_timestamp");
+
+    private static final byte[] CAMPAIGN_ID = fieldName("campaign_id");
+    private static final byte[] EXPERIMENT_ID = fieldName("experiment_id");
+    private static final byte[] VARIATION_ID = fieldName("variation_id");
+    private static final byte[] IS_CAMPAIGN_HOLDBACK = fieldName("is_campaign_holdback");
+
+    private static final byte[] TIMESTAMP = fieldName("timestamp");
+    private static final byte[] UUID = fieldName("uuid");
+    private static final byte[] QUANTITY = fieldName("quantity");
+    private static final byte[] REVENUE = fieldName("revenue");
+    private static final byte[] TAGS = fieldName("tags");
+
+    private static final ThreadLocal<EventBatchJsonWriter> WRITERS = ThreadLocal.withInitial(EventBatchJsonWriter::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    // whether a comma goes before the next field or element
+    private boolean separate;
+
+    private EventBatchJsonWriter() {
+    }
+
+    /**
+     * @throws UnsupportedValueException when a tag or attribute value cannot be written.
+     */
+    static byte[] toBytes(EventBatch eventBatch) {
+        EventBatchJsonWriter writer = WRITERS.get();
+        try {
+            writer.writeEventBatch(eventBatch);
+            return Arrays.copyOf(writer.buffer, writer.size);
+        } finally {
+            writer.reset();
+        }
+    }
+
+    private void reset() {
+        size = 0;
+        separate = false;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    //======== payload ========//
+
+    private void writeEventBatch(EventBatch eventBatch) {
+        if (eventBatch == null) {
+            writeNull();
+            return;
+        }
+
+        startObject();
+        if (eventBatch.getVisitors() != null) {
+            writeFieldName(VISITORS);
+            writeVisitors(eventBatch.getVisitors());
+        }
+        writeStringField(REVISION, eventBatch.getRevision());
+        writeStringField(ACCOUNT_ID, eventBatch.getAccountId());
+        writeBooleanField(ENRICH_DECISIONS, eventBatch.getEnrichDecisions());
+        writeBooleanField(ANONYMIZE_IP, eventBatch.getAnonymizeIp());
+        writeStringField(CLIENT_NAME, eventBatch.getClientName());
+        writeStringField(CLIENT_VERSION, eventBatch.getClientVersion());
+        writeStringField(PROJECT_ID, eventBatch.getProjectId());
+        endObject();
+    }
+
+    private void writeVisitors(List<Visitor> visitors) {
+        startArray();
+        for (Visitor visitor : visitors) {
+            if (visitor == null) {
+                writeNull();
+                continue;
+            }
+
+            startObject();
+            if (visitor.getAttributes() != null) {
+                writeFieldName(ATTRIBUTES);
+                writeAttributes(visitor.getAttributes());
+            }
+            if (visitor.getSnapshots() != null) {
+                writeFieldName(SNAPSHOTS);
+                writeSnapshots(visitor.getSnapshots());
+            }
+            writeStringField(VISITOR_ID, visitor.getVisitorId());
+            writeStringField(SESSION_ID, visitor.getSessionId());
+            endObject();
+        }
+        endArray();
+    }
+
+    private void writeAttributes(List<Attribute> attributes) {
+        startArray();
+        for (Attribute attribute : attributes) {
+            if (attribute == null) {
+                writeNull();
+                continue;
+            }
+
+            startObject();
+            writeStringField(KEY, attribute.getKey());
+            writeStringField(TYPE, attribute.getType());
+            if (attribute.getValue() != null) {
+                writeFieldName(VALUE);
+                writeValue(attribute.getValue());
+            }
+            writeStringField(ENTITY_ID, attribute.getEntityId());
+            endObject();
+        }
+        endArray();
+    }
+
+    private void writeSnapshots(List<Snapshot> snapshots) {
+        startArray();
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot == null) {
+                writeNull();
+                continue;
+            }
+
+            startObject();
+            if (snapshot.getDecisions() != null) {
+                writeFieldName(DECISIONS);
+                writeDecisions(snapshot.getDecisions());
+            }
+            if (snapshot.getEvents() != null) {
+                writeFieldName(EVENTS);
+                writeEvents(snapshot.getEvents());
+            }
+            if (snapshot.getActivationTimestamp() != null) {
+                writeFieldName(ACTIVATION_TIMESTAMP);
+                writeLong(snapshot.getActivationTimestamp());
+            }
+            endObject();
+        }
+        endArray();
+    }
+
+    private void writeDecisions(List<Decision> decisions) {
+        startArray();
+        for (Decision decision : decisions) {
+            if (decision == null) {
+                writeNull();
+                continue;
+            }
+
+            startObject();
+            writeStringField(CAMPAIGN_ID, decision.getCampaignId());
+            writeStringField(EXPERIMENT_ID, decision.getExperimentId());
+            writeStringField(VARIATION_ID, decision.getVariationId());
+            writeBooleanField(IS_CAMPAIGN_HOLDBACK, decision.getIsCampaignHoldback());
+            endObject();
+        }
+        endArray();
+    }
+
+    private void writeEvents(List<Event> events) {
+        startArray();
+        for (Event event : events) {
+            if (event == null) {
+                writeNull();
+                continue;
+            }
+
+            startObject();
+            writeFieldName(TIMESTAMP);
+            writeLong(event.getTimestamp());
+            writeStringField(UUID, event.getUuid());
+            writeStringField(KEY, event.getKey());
+            writeNumberField(QUANTITY, event.getQuantity());
+            writeNumberField(REVENUE, event.getRevenue());
+            if (event.getTags() != null) {
+                writeFieldName(TAGS);
+                writeMap(event.getTags());
+            }
+            writeStringField(TYPE, event.getType());
+            writeNumberField(VALUE, event.getValue());
+            writeStringField(ENTITY_ID, event.getEntityId());
+            endObject();
+        }
+        endArray();
+    }
+
+    //======== values ========//
+
+    private void writeStringField(byte[] fieldName, String value) {
+        if (value != null) {
+            writeFieldName(fieldName);
+            writeString(value);
+        }
+    }
+
+    private void writeBooleanField(byte[] fieldName, Boolean value) {
+        if (value != null) {
+            writeFieldName(fieldName);
+            writeBoolean(value);
+        }
+    }
+
+    private void writeNumberField(byte[] fieldName, Number value) {
+        if (value != null) {
+            writeFieldName(fieldName);
+            writeNumber(value);
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeNull();
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            writeBoolean((Boolean) value);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value);
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            startArray();
+            for (Object element : (Collection<?>) value) {
+                writeValue(element);
+            }
+            endArray();
+        } else {
+            throw new UnsupportedValueException(value.getClass());
+        }
+    }
+
+    /**
+     * Entries with a null value are left out.
+     */
+    private void writeMap(Map<?, ?> map) {
+        startObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                throw new UnsupportedValueException(entry.getKey() == null ? null : entry.getKey().getClass());
+            }
+            if (entry.getValue() == null) {
+                continue;
+            }
+
+            separate();
+            separate = false;
+            writeString((String) entry.getKey());
+            writeByte(':');
+            separate = false;
+            writeValue(entry.getValue());
+        }
+        endObject();
+    }
+
+    private void writeNumber(Number value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(value.longValue());
+        } else if (value instanceof Double) {
+            double doubleValue = value.doubleValue();
+            writeDecimal(Double.toString(doubleValue), Double.isNaN(doubleValue) || Double.isInfinite(doubleValue));
+        } else if (value instanceof Float) {
+            float floatValue = value.floatValue();
+            writeDecimal(Float.toString(floatValue), Float.isNaN(floatValue) || Float.isInfinite(floatValue));
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            writeDecimal(value.toString(), false);
+        } else {
+            throw new UnsupportedValueException(value.getClass());
+        }
+    }
+
+    /**
+     * Non-finite numbers are not valid JSON, they are written as strings.
+     */
+    private void writeDecimal(String value, boolean quoted) {
+        separate();
+        ensureCapacity(value.length() + 2);
+        if (quoted) {
+            buffer[size++] = '"';
+        }
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+        if (quoted) {
+            buffer[size++] = '"';
+        }
+        separate = true;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeDecimal(Long.toString(value), false);
+            return;
+        }
+
+        separate();
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        size += digits;
+        for (int i = size - 1; i >= size - digits; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        separate = true;
+    }
+
+    private void writeBoolean(boolean value) {
+        writeLiteral(value ? TRUE : FALSE);
+    }
+
+    private void writeNull() {
+        writeLiteral(NULL);
+    }
+
+    private void writeLiteral(byte[] literal) {
+        separate();
+        writeBytes(literal);
+        separate = true;
+    }
+
+    private void writeString(String value) {
+        separate();
+        int length = value.length();
+        // an escaped character takes up to 6 bytes
+        ensureCapacity(length * 6 + 2);
+        byte[] buffer = this.buffer;
+        int size = this.size;
+
+        buffer[size++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte escape = ESCAPES[c];
+                if (escape == 0) {
+                    buffer[size++] = (byte) c;
+                } else if (escape == 'u') {
+                    buffer[size++] = '\\';
+                    buffer[size++] = 'u';
+                    buffer[size++] = '0';
+                    buffer[size++] = '0';
+                    buffer[size++] = HEX_DIGITS[c >> 4];
+                    buffer[size++] = HEX_DIGITS[c & 0xF];
+                } else {
+                    buffer[size++] = '\\';
+                    buffer[size++] = escape;
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                // as Jackson does, surrogates are escaped one by one rather than combined into a code point
+                buffer[size++] = '\\';
+                buffer[size++] = 'u';
+                buffer[size++] = HEX_DIGITS[c >> 12];
+                buffer[size++] = HEX_DIGITS[(c >> 8) & 0xF];
+                buffer[size++] = HEX_DIGITS[(c >> 4) & 0xF];
+                buffer[size++] = HEX_DIGITS[c & 0xF];
+            }
+        }
+        buffer[size++] = '"';
+
+        this.size = size;
+        separate = true;
+    }
+
+    //======== structure ========//
+
+    private void startObject() {
+        separate();
+        writeByte('{');
+        separate = false;
+    }
+
+    private void endObject() {
+        writeByte('}');
+        separate = true;
+    }
+
+    private void startArray() {
+        separate();
+        writeByte('[');
+        separate = false;
+    }
+
+    private void endArray() {
+        writeByte(']');
+        separate = true;
+    }
+
+    private void writeFieldName(byte[] fieldName) {
+        separate();
+        writeBytes(fieldName);
+        separate = false;
+    }
+
+    private void separate() {
+        if (separate) {
+            writeByte(',');
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+
+    private static byte[] fieldName(String name) {
+        return ascii("\"" + name + "\":");
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Thrown for a value the writer cannot write the way {@link JacksonSerializer} would.
+     */
+    static final class UnsupportedValueException extends RuntimeException {
+        UnsupportedValueException(Class<?> valueClass) {
+            // thrown to fall back, a stack trace is not needed
+            super("unsupported value of " + valueClass, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event.internal.serializer;
+
+import com.optimizely.ab.event.internal.payload.EventBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Serializer writing {@link EventBatch}es with the {@link EventBatchJsonWriter}, and delegating other payloads and
+ * batches with values the writer does not support to a reflective serializer.
+ */
+class EventBatchSerializer implements Serializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBatchSerializer.class);
+
+    private final Supplier<Serializer> fallbackSerializer;
+
+    /**
+     * @param fallbackSerializer supplies the reflective serializer, only called when it is needed
+     */
+    EventBatchSerializer(Supplier<Serializer> fallbackSerializer) {
+        this.fallbackSerializer = fallbackSerializer;
+    }
+
+    public <T> String serialize(T payload) {
+        if (!(payload instanceof EventBatch)) {
+            return fallbackSerializer.get().serialize(payload);
+        }
+
+        return new String(serializeToBytes(payload), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> byte[] serializeToBytes(T payload) {
+        if (!(payload instanceof EventBatch)) {
+            return fallbackSerializer.get().serializeToBytes(payload);
+        }
+
+        try {
+            return EventBatchJsonWriter.toBytes((EventBatch) payload);
+        } catch (EventBatchJsonWriter.UnsupportedValueException e) {
+            logger.debug("Serializing event batch with the fallback serializer: {}", e.getMessage());
+            return fallbackSerializer.get().serializeToBytes(payload);
+        }
+    }
+}
@@ -19,6 +19,13 @@ package com.optimizely.ab.event.internal.serializer;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 class GsonSerializer implements Serializer {
 
@@ -29,4 +36,17 @@ class GsonSerializer implements Serializer {
     public <T> String serialize(T payload) {
         return gson.toJson(payload);
     }
+
+    @Override
+    public <T> byte[] serializeToBytes(T payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        try {
+            gson.toJson(payload, writer);
+            writer.flush();
+        } catch (JsonIOException | IOException e) {
+            throw new SerializationException("Unable to serialize payload", e);
+        }
+        return bytes.toByteArray();
+    }
 }
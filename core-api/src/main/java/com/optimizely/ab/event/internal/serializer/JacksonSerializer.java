@@ -25,14 +25,23 @@ class JacksonSerializer implements Serializer {
 
     private ObjectMapper mapper =
         new ObjectMapper().setPropertyNamingStrategy(
-            PropertyNamingStrategy.SNAKE_CASE);
+            PropertyNamingStrategy.SNAKE_CASE)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
     public <T> String serialize(T payload) {
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         try {
             return mapper.writeValueAsString(payload);
         } catch (JsonProcessingException e) {
             throw new SerializationException("Unable to serialize payload", e);
         }
     }
+
+    @Override
+    public <T> byte[] serializeToBytes(T payload) {
+        try {
+            return mapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Unable to serialize payload", e);
+        }
+    }
 }
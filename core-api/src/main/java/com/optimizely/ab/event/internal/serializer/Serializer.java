@@ -16,6 +16,16 @@
  */
 package com.optimizely.ab.event.internal.serializer;
 
+import java.nio.charset.StandardCharsets;
+
 public interface Serializer {
     <T> String serialize(T payload) throws SerializationException;
+
+    /**
+     * Serialize the payload to UTF-8 encoded JSON. Implementations able to do so write the bytes directly instead of
+     * encoding the result of {@link #serialize(Object)}.
+     */
+    default <T> byte[] serializeToBytes(T payload) throws SerializationException {
+        return serialize(payload).getBytes(StandardCharsets.UTF_8);
+    }
 }
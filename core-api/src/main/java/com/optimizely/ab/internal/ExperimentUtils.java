@@ -73,6 +73,63 @@ public final class ExperimentUtils {
         }
     }
 
+    /**
+     * Determines whether a user satisfies an audience condition that was resolved ahead of time for the experiment
+     * with {@link #getAudienceCondition(Experiment)}.
+     *
+     * @param projectConfig     the current projectConfig
+     * @param experiment        the experiment we are evaluating audiences for
+     * @param audienceCondition the resolved audience condition, or null if the experiment has no audiences
+     * @param attributes        the attributes of the user
+     * @return whether the user meets the criteria for the experiment
+     */
+    public static boolean isUserInExperiment(@Nonnull ProjectConfig projectConfig,
+                                             @Nonnull Experiment experiment,
+                                             @Nullable Condition audienceCondition,
+                                             @Nonnull Map<String, ?> attributes) {
+        // if there are no audiences, ALL users should be part of the experiment
+        if (audienceCondition == null) {
+            logger.debug("There is no Audience associated with experiment {}", experiment.getKey());
+            return true;
+        }
+
+        logger.debug("Evaluating audiences for experiment \"{}\": \"{}\"", experiment.getKey(), audienceCondition);
+        try {
+            Boolean result = audienceCondition.evaluate(projectConfig, attributes);
+            logger.info("Audiences for experiment {} collectively evaluated to {}", experiment.getKey(), result);
+            return Boolean.TRUE.equals(result);
+        } catch (Exception e) {
+            logger.error("Condition invalid", e);
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the single audience condition used to target the experiment, combining the legacy audience ids
+     * with an implicit 'or' when the experiment does not define audience conditions.
+     *
+     * @param experiment the experiment to resolve the audience condition for
+     * @return the audience condition, or null if ALL users should be part of the experiment
+     */
+    @Nullable
+    public static Condition getAudienceCondition(@Nonnull Experiment experiment) {
+        if (experiment.getAudienceConditions() != null) {
+            return experiment.getAudienceConditions();
+        }
+
+        List<String> experimentAudienceIds = experiment.getAudienceIds();
+        if (experimentAudienceIds.isEmpty()) {
+            return null;
+        }
+
+        List<Condition> conditions = new ArrayList<>(experimentAudienceIds.size());
+        for (String audienceId : experimentAudienceIds) {
+            conditions.add(new AudienceIdCondition(audienceId));
+        }
+
+        return new OrCondition(conditions);
+    }
+
     @Nullable
     public static Boolean evaluateAudience(@Nonnull ProjectConfig projectConfig,
                                            @Nonnull Experiment experiment,
@@ -0,0 +1,190 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.internal;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded map whose entries expire after a time to live, the least recently used entries being evicted once it is
+ * full. It is split in stripes, each an access ordered {@link LinkedHashMap} guarded by its own lock, so threads
+ * using different keys rarely contend.
+ */
+@ThreadSafe
+public final class ExpiringLruCache<K, V> {
+
+    private static final int MAX_STRIPES = 16;
+
+    private final Stripe<K, V>[] stripes;
+    private final long timeToLiveNanos;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public ExpiringLruCache(int maxSize, long timeToLiveMs) {
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && stripeCount * 2 <= maxSize) {
+            stripeCount *= 2;
+        }
+
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>(Math.max(1, maxSize / stripeCount), evictionCount);
+        }
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMs);
+    }
+
+    /**
+     * @return the value of the key, or null when the key is missing or its entry expired.
+     */
+    @Nullable
+    public V get(@Nonnull K key) {
+        V value = stripeFor(key).get(key, System.nanoTime());
+        if (value == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value;
+    }
+
+    public void put(@Nonnull K key, @Nonnull V value) {
+        stripeFor(key).put(key, value, System.nanoTime() + timeToLiveNanos);
+    }
+
+    /**
+     * Put the value unless the key has an entry that did not expire, as a single atomic step.
+     *
+     * @return true if the value was put.
+     */
+    public boolean putIfAbsent(@Nonnull K key, @Nonnull V value) {
+        long nowNanos = System.nanoTime();
+        return stripeFor(key).putIfAbsent(key, value, nowNanos, nowNanos + timeToLiveNanos);
+    }
+
+    public void remove(@Nonnull K key) {
+        stripeFor(key).remove(key);
+    }
+
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of entries evicted because the cache was full or they expired.
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private final long expiresAtNanos;
+
+        private Node(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private static final class Stripe<K, V> {
+        private final Map<K, Node<V>> entries;
+        private final LongAdder evictionCount;
+
+        private Stripe(final int capacity, final LongAdder evictionCount) {
+            this.evictionCount = evictionCount;
+            this.entries = new LinkedHashMap<K, Node<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Node<V>> eldest) {
+                    if (size() > capacity) {
+                        evictionCount.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized V get(K key, long nowNanos) {
+            Node<V> node = entries.get(key);
+            if (node == null) {
+                return null;
+            }
+
+            if (nowNanos - node.expiresAtNanos >= 0) {
+                entries.remove(key);
+                evictionCount.increment();
+                return null;
+            }
+            return node.value;
+        }
+
+        private synchronized void put(K key, V value, long expiresAtNanos) {
+            entries.put(key, new Node<>(value, expiresAtNanos));
+        }
+
+        private synchronized boolean putIfAbsent(K key, V value, long nowNanos, long expiresAtNanos) {
+            if (get(key, nowNanos) != null) {
+                return false;
+            }
+
+            entries.put(key, new Node<>(value, expiresAtNanos));
+            return true;
+        }
+
+        private synchronized void remove(K key) {
+            entries.remove(key);
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
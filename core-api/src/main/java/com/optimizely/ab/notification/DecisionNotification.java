@@ -25,6 +25,7 @@ import com.optimizely.ab.config.Variation;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +33,7 @@ import java.util.Map;
  *
  * activate {@link com.optimizely.ab.Optimizely#activate}
  * getEnabledFeatures {@link com.optimizely.ab.Optimizely#getEnabledFeatures}
+ * getAllFeatureVariables {@link com.optimizely.ab.Optimizely#getAllFeatureVariables}
  * getFeatureVariableBoolean {@link com.optimizely.ab.Optimizely#getFeatureVariableBoolean}
  * getFeatureVariableDouble {@link com.optimizely.ab.Optimizely#getFeatureVariableDouble}
  * getFeatureVariableInteger {@link com.optimizely.ab.Optimizely#getFeatureVariableInteger}
@@ -239,6 +241,7 @@ public final class DecisionNotification {
         public static final String VARIABLE_KEY = "variableKey";
         public static final String VARIABLE_TYPE = "variableType";
         public static final String VARIABLE_VALUE = "variableValue";
+        public static final String VARIABLE_VALUES = "variableValues";
 
         private String featureKey;
         private Boolean featureEnabled;
@@ -246,6 +249,7 @@ public final class DecisionNotification {
         private String variableKey;
         private FeatureVariable.VariableType variableType;
         private Object variableValue;
+        private Map<String, ?> variableValues;
         private String userId;
         private Map<String, ?> attributes;
         private Map<String, Object> decisionInfo;
@@ -293,6 +297,15 @@ public final class DecisionNotification {
             return this;
         }
 
+        /**
+         * Set the values of all the variables of the feature, which makes this an
+         * {@link NotificationCenter.DecisionNotificationType#ALL_FEATURE_VARIABLES} notification.
+         */
+        public FeatureVariableDecisionNotificationBuilder withVariableValues(Map<String, ?> variableValues) {
+            this.variableValues = variableValues;
+            return this;
+        }
+
         public DecisionNotification build() {
             if (featureKey == null) {
                 throw new OptimizelyRuntimeException("featureKey not set");
@@ -302,20 +315,25 @@ public final class DecisionNotification {
                 throw new OptimizelyRuntimeException("featureEnabled not set");
             }
 
-            if (variableKey == null) {
+            boolean allVariables = variableValues != null;
+            if (!allVariables && variableKey == null) {
                 throw new OptimizelyRuntimeException("variableKey not set");
             }
 
-            if (variableType == null) {
+            if (!allVariables && variableType == null) {
                 throw new OptimizelyRuntimeException("variableType not set");
             }
 
             decisionInfo = new HashMap<>();
             decisionInfo.put(FEATURE_KEY, featureKey);
             decisionInfo.put(FEATURE_ENABLED, featureEnabled);
-            decisionInfo.put(VARIABLE_KEY, variableKey);
-            decisionInfo.put(VARIABLE_TYPE, variableType.toString());
-            decisionInfo.put(VARIABLE_VALUE, variableValue);
+            if (allVariables) {
+                decisionInfo.put(VARIABLE_VALUES, variableValues);
+            } else {
+                decisionInfo.put(VARIABLE_KEY, variableKey);
+                decisionInfo.put(VARIABLE_TYPE, variableType.toString());
+                decisionInfo.put(VARIABLE_VALUE, variableValue);
+            }
             SourceInfo sourceInfo = new RolloutSourceInfo();
 
             if (featureDecision != null && FeatureDecision.DecisionSource.FEATURE_TEST.equals(featureDecision.decisionSource)) {
@@ -326,8 +344,59 @@ public final class DecisionNotification {
             }
             decisionInfo.put(SOURCE_INFO, sourceInfo.get());
 
+            NotificationCenter.DecisionNotificationType type = allVariables ?
+                NotificationCenter.DecisionNotificationType.ALL_FEATURE_VARIABLES :
+                NotificationCenter.DecisionNotificationType.FEATURE_VARIABLE;
+
+            return new DecisionNotification(
+                type.toString(),
+                userId,
+                attributes,
+                decisionInfo);
+        }
+    }
+
+    public static EnabledFeaturesDecisionNotificationBuilder newEnabledFeaturesDecisionNotificationBuilder() {
+        return new EnabledFeaturesDecisionNotificationBuilder();
+    }
+
+    /**
+     * Builds the single {@link NotificationCenter.DecisionNotificationType#ENABLED_FEATURES} notification sent by a
+     * bulk {@link com.optimizely.ab.Optimizely#getEnabledFeatures} call in place of one notification per feature.
+     */
+    public static class EnabledFeaturesDecisionNotificationBuilder {
+        public final static String ENABLED_FEATURES = "enabledFeatures";
+
+        private List<String> enabledFeatures;
+        private String userId;
+        private Map<String, ?> attributes;
+        private Map<String, Object> decisionInfo;
+
+        public EnabledFeaturesDecisionNotificationBuilder withUserId(String userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        public EnabledFeaturesDecisionNotificationBuilder withAttributes(Map<String, ?> attributes) {
+            this.attributes = attributes;
+            return this;
+        }
+
+        public EnabledFeaturesDecisionNotificationBuilder withEnabledFeatures(List<String> enabledFeatures) {
+            this.enabledFeatures = enabledFeatures;
+            return this;
+        }
+
+        public DecisionNotification build() {
+            if (enabledFeatures == null) {
+                throw new OptimizelyRuntimeException("enabledFeatures not set");
+            }
+
+            decisionInfo = new HashMap<>();
+            decisionInfo.put(ENABLED_FEATURES, enabledFeatures);
+
             return new DecisionNotification(
-                NotificationCenter.DecisionNotificationType.FEATURE_VARIABLE.toString(),
+                NotificationCenter.DecisionNotificationType.ENABLED_FEATURES.toString(),
                 userId,
                 attributes,
                 decisionInfo);
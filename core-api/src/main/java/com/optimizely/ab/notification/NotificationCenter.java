@@ -54,7 +54,9 @@ public class NotificationCenter {
         AB_TEST("ab-test"),
         FEATURE("feature"),
         FEATURE_TEST("feature-test"),
-        FEATURE_VARIABLE("feature-variable");
+        FEATURE_VARIABLE("feature-variable"),
+        ALL_FEATURE_VARIABLES("all-feature-variables"),
+        ENABLED_FEATURES("enabled-features");
 
         private final String key;
 
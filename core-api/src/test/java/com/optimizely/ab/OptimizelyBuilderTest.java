@@ -16,11 +16,15 @@
  */
 package com.optimizely.ab;
 
+import com.optimizely.ab.bucketing.DecisionCache;
+import com.optimizely.ab.bucketing.DecisionService;
 import com.optimizely.ab.bucketing.UserProfileService;
 import com.optimizely.ab.config.*;
 import com.optimizely.ab.error.ErrorHandler;
 import com.optimizely.ab.error.NoOpErrorHandler;
 import com.optimizely.ab.event.EventHandler;
+import com.optimizely.ab.notification.NotificationCenter;
+import com.optimizely.ab.notification.UpdateConfigNotification;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.junit.Rule;
 import org.junit.Test;
@@ -80,6 +84,32 @@ public class OptimizelyBuilderTest {
         DatafileProjectConfigTestUtils.verifyProjectConfig(optimizelyClient.getProjectConfig(), validProjectConfigV3());
     }
 
+    @Test
+    public void withDecisionCache() throws Exception {
+        NotificationCenter notificationCenter = new NotificationCenter();
+        Optimizely.builder(validConfigJsonV2(), mockEventHandler)
+            .withDecisionCache(DecisionCache.builder().build())
+            .withNotificationCenter(notificationCenter)
+            .build();
+
+        assertEquals(1, notificationCenter.getNotificationManager(UpdateConfigNotification.class).size());
+    }
+
+    @Test
+    public void withDecisionCacheAndDecisionService() throws Exception {
+        NotificationCenter notificationCenter = new NotificationCenter();
+        DecisionService decisionService = mock(DecisionService.class);
+        Optimizely optimizelyClient = Optimizely.builder(validConfigJsonV2(), mockEventHandler)
+            .withDecisionCache(DecisionCache.builder().build())
+            .withDecisionService(decisionService)
+            .withNotificationCenter(notificationCenter)
+            .build();
+
+        assertSame(decisionService, optimizelyClient.decisionService);
+        // the cache is not used by the configured DecisionService, so it is not registered either
+        assertEquals(0, notificationCenter.getNotificationManager(UpdateConfigNotification.class).size());
+    }
+
     @Test
     public void withErrorHandler() throws Exception {
         Optimizely optimizelyClient = Optimizely.builder(validConfigJsonV2(), mockEventHandler)
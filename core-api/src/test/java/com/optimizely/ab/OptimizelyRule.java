@@ -24,6 +24,8 @@ import com.optimizely.ab.event.EventHandler;
 import com.optimizely.ab.event.EventProcessor;
 import org.junit.rules.ExternalResource;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Factory class for building and maintaining an Optimizely instance. The methods mirror the
  * {@link Optimizely.Builder} methods so test can can use either class interchangeably.
@@ -76,6 +78,16 @@ public class OptimizelyRule extends ExternalResource {
         return this;
     }
 
+    public OptimizelyRule withBulkFeatureEvaluation(boolean bulkFeatureEvaluation) {
+        builder.withBulkFeatureEvaluation(bulkFeatureEvaluation);
+        return this;
+    }
+
+    public OptimizelyRule withFeatureEvaluationPool(ForkJoinPool featureEvaluationPool) {
+        builder.withFeatureEvaluationPool(featureEvaluationPool);
+        return this;
+    }
+
     public Optimizely build() {
         optimizely = builder.build();
         return optimizely;
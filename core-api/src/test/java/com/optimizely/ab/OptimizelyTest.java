@@ -45,12 +45,15 @@ import org.mockito.junit.MockitoRule;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 
 import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.*;
@@ -1303,6 +1306,39 @@ public class OptimizelyTest {
         verify(mockEventHandler, never()).dispatchEvent(any(LogEvent.class));
     }
 
+    /**
+     * Verify that {@link Optimizely#getVariations(String, Map)} decides the experiment for each user, in order, and
+     * sends a decision notification for each of them.
+     */
+    @Test
+    public void getVariations() throws Exception {
+        Experiment activatedExperiment = noAudienceProjectConfig.getExperiments().get(0);
+        Variation bucketedVariation = activatedExperiment.getVariations().get(0);
+
+        Optimizely optimizely = optimizelyBuilder
+            .withBucketing(mockBucketer)
+            .withConfig(noAudienceProjectConfig)
+            .build();
+
+        when(mockBucketer.bucket(activatedExperiment, "user1", noAudienceProjectConfig)).thenReturn(bucketedVariation);
+
+        List<String> notifiedUserIds = new ArrayList<>();
+        optimizely.notificationCenter.addNotificationHandler(DecisionNotification.class,
+            decisionNotification -> notifiedUserIds.add(decisionNotification.getUserId()));
+
+        Map<String, Map<String, String>> usersAttributes = new LinkedHashMap<>();
+        usersAttributes.put("user2", Collections.<String, String>emptyMap());
+        usersAttributes.put("user1", Collections.singletonMap("browser_type", "chrome"));
+
+        Map<String, Variation> variations = optimizely.getVariations(activatedExperiment.getKey(), usersAttributes);
+
+        assertEquals(Arrays.asList("user2", "user1"), new ArrayList<>(variations.keySet()));
+        assertNull(variations.get("user2"));
+        assertThat(variations.get("user1"), is(bucketedVariation));
+        assertEquals(Arrays.asList("user2", "user1"), notifiedUserIds);
+        verify(mockEventHandler, never()).dispatchEvent(any(LogEvent.class));
+    }
+
     /**
      * Verify that {@link Optimizely#getVariation(String, String)} returns null variation when null or empty
      * experimentKey is sent
@@ -1728,6 +1764,63 @@ public class OptimizelyTest {
         assertTrue(optimizely.notificationCenter.removeNotificationListener(notificationId));
     }
 
+    /**
+     * Verify that a bulk {@link Optimizely#getEnabledFeatures(String, Map)} returns the same features as the
+     * per feature evaluation and sends a single {@link NotificationCenter.DecisionNotificationType#ENABLED_FEATURES}
+     * notification in place of one notification per feature.
+     */
+    @Test
+    public void getEnabledFeaturesBulkSendsSingleNotification() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        Optimizely optimizely = optimizelyBuilder.withBulkFeatureEvaluation(true).build();
+
+        List<DecisionNotification> decisionNotifications = new ArrayList<>();
+        int notificationId = optimizely.addDecisionNotificationHandler(decisionNotifications::add);
+
+        List<String> featureFlags = optimizely.getEnabledFeatures(testUserId, Collections.emptyMap());
+        assertEquals(2, featureFlags.size());
+        eventHandler.expectImpression("1786133852", "1619235542", testUserId);
+
+        assertEquals(1, decisionNotifications.size());
+        DecisionNotification decisionNotification = decisionNotifications.get(0);
+        assertEquals(NotificationCenter.DecisionNotificationType.ENABLED_FEATURES.toString(), decisionNotification.getType());
+        assertEquals(testUserId, decisionNotification.getUserId());
+        assertEquals(featureFlags, decisionNotification.getDecisionInfo()
+            .get(DecisionNotification.EnabledFeaturesDecisionNotificationBuilder.ENABLED_FEATURES));
+        assertTrue(optimizely.notificationCenter.removeNotificationListener(notificationId));
+
+        try (Optimizely serial = Optimizely.builder().withConfig(validProjectConfig).build()) {
+            assertEquals(serial.getEnabledFeatures(testUserId, Collections.emptyMap()), featureFlags);
+        }
+    }
+
+    /**
+     * Verify that deciding the features of a bulk {@link Optimizely#getEnabledFeatures(String, Map)} on a
+     * {@link ForkJoinPool} keeps the order of the features and dispatches the impressions once.
+     */
+    @Test
+    public void getEnabledFeaturesBulkWithFeatureEvaluationPool() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        ForkJoinPool featureEvaluationPool = new ForkJoinPool(4);
+        try {
+            Optimizely optimizely = optimizelyBuilder
+                .withBulkFeatureEvaluation(true)
+                .withFeatureEvaluationPool(featureEvaluationPool)
+                .build();
+
+            List<String> featureFlags = optimizely.getEnabledFeatures(testUserId, Collections.emptyMap());
+            eventHandler.expectImpression("1786133852", "1619235542", testUserId);
+
+            try (Optimizely serial = Optimizely.builder().withConfig(validProjectConfig).build()) {
+                assertEquals(serial.getEnabledFeatures(testUserId, Collections.emptyMap()), featureFlags);
+            }
+        } finally {
+            featureEvaluationPool.shutdown();
+        }
+    }
+
     //======IsFeatureEnabled Notification TESTS======//
 
     /**
@@ -2499,6 +2592,58 @@ public class OptimizelyTest {
         optimizely.notificationCenter.removeNotificationListener(notificationId);
     }
 
+    /**
+     * Verify that {@link Optimizely#getAllFeatureVariables(String, String, Map)} sends a single
+     * all-feature-variables notification with the values of every variable of the feature.
+     */
+    @Test
+    public void getAllFeatureVariablesWithListenerUserInExperimentFeatureOn() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+        isListenerCalled = false;
+        final String validFeatureKey = FEATURE_MULTI_VARIATE_FEATURE_KEY;
+
+        Optimizely optimizely = optimizelyBuilder.build();
+
+        final Map<String, String> testUserAttributes = new HashMap<>();
+        testUserAttributes.put(ATTRIBUTE_HOUSE_KEY, AUDIENCE_GRYFFINDOR_VALUE);
+
+        final Map<String, String> testSourceInfo = new HashMap<>();
+        testSourceInfo.put(EXPERIMENT_KEY, "multivariate_experiment");
+        testSourceInfo.put(VARIATION_KEY, "Fred");
+
+        final Map<String, Object> expectedValues = new HashMap<>();
+        expectedValues.put(VARIABLE_FIRST_LETTER_KEY, "F");
+        expectedValues.put("rest_of_name", "red");
+
+        final Map<String, Object> testDecisionInfoMap = new HashMap<>();
+        testDecisionInfoMap.put(FEATURE_KEY, validFeatureKey);
+        testDecisionInfoMap.put(FEATURE_ENABLED, true);
+        testDecisionInfoMap.put(VARIABLE_VALUES, expectedValues);
+        testDecisionInfoMap.put(SOURCE, FeatureDecision.DecisionSource.FEATURE_TEST.toString());
+        testDecisionInfoMap.put(SOURCE_INFO, testSourceInfo);
+
+        int notificationId = optimizely.addDecisionNotificationHandler(
+            getDecisionListener(NotificationCenter.DecisionNotificationType.ALL_FEATURE_VARIABLES.toString(),
+                testUserId,
+                testUserAttributes,
+                testDecisionInfoMap));
+
+        OptimizelyFeatureVariables variables = optimizely.getAllFeatureVariables(
+            validFeatureKey,
+            testUserId,
+            Collections.singletonMap(ATTRIBUTE_HOUSE_KEY, AUDIENCE_GRYFFINDOR_VALUE));
+
+        assertNotNull(variables);
+        assertTrue(variables.isFeatureEnabled());
+        assertEquals(expectedValues, variables.toMap());
+        assertEquals("F", variables.getString(VARIABLE_FIRST_LETTER_KEY));
+        assertNull(variables.getInteger(VARIABLE_FIRST_LETTER_KEY));
+
+        // Verify that listener being called
+        assertTrue(isListenerCalled);
+        assertTrue(optimizely.notificationCenter.removeNotificationListener(notificationId));
+    }
+
     //======== Feature Accessor Tests ========//
 
     /**
@@ -2850,6 +2995,55 @@ public class OptimizelyTest {
             Math.PI, 2);
     }
 
+    /**
+     * Verify that the primitive {@link Optimizely#getFeatureVariableInteger(String, String, String, Map, int)},
+     * {@link Optimizely#getFeatureVariableDouble(String, String, String, Map, double)} and
+     * {@link Optimizely#getFeatureVariableBoolean(String, String, String, Map, boolean)}
+     * return the same values as the boxed accessors.
+     */
+    @Test
+    public void getFeatureVariablePrimitiveMatchesBoxedAccessors() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        Optimizely optimizely = optimizelyBuilder.build();
+        Map<String, String> attributes = Collections.singletonMap(ATTRIBUTE_HOUSE_KEY, AUDIENCE_SLYTHERIN_VALUE);
+
+        assertEquals((long) optimizely.getFeatureVariableInteger(
+            FEATURE_SINGLE_VARIABLE_INTEGER_KEY, VARIABLE_INTEGER_VARIABLE_KEY, genericUserId, attributes),
+            optimizely.getFeatureVariableInteger(
+                FEATURE_SINGLE_VARIABLE_INTEGER_KEY, VARIABLE_INTEGER_VARIABLE_KEY, genericUserId, attributes, -1));
+        assertEquals(optimizely.getFeatureVariableDouble(
+            FEATURE_SINGLE_VARIABLE_DOUBLE_KEY, VARIABLE_DOUBLE_VARIABLE_KEY, genericUserId, attributes),
+            optimizely.getFeatureVariableDouble(
+                FEATURE_SINGLE_VARIABLE_DOUBLE_KEY, VARIABLE_DOUBLE_VARIABLE_KEY, genericUserId, attributes, -1.0),
+            0);
+        assertEquals(optimizely.getFeatureVariableBoolean(
+            FEATURE_SINGLE_VARIABLE_BOOLEAN_KEY, VARIABLE_BOOLEAN_VARIABLE_KEY, genericUserId, attributes),
+            optimizely.getFeatureVariableBoolean(
+                FEATURE_SINGLE_VARIABLE_BOOLEAN_KEY, VARIABLE_BOOLEAN_VARIABLE_KEY, genericUserId, attributes, false));
+    }
+
+    /**
+     * Verify that the primitive {@link Optimizely#getFeatureVariableInteger(String, String, String, Map, int)}
+     * returns the fallback value when the feature, the variable or the type do not match.
+     */
+    @Test
+    public void getFeatureVariablePrimitiveReturnsFallbackValue() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        Optimizely optimizely = optimizelyBuilder.build();
+        Map<String, String> attributes = Collections.emptyMap();
+
+        assertEquals(-1, optimizely.getFeatureVariableInteger(
+            "invalid_feature", VARIABLE_INTEGER_VARIABLE_KEY, genericUserId, attributes, -1));
+        assertEquals(-1, optimizely.getFeatureVariableInteger(
+            FEATURE_SINGLE_VARIABLE_INTEGER_KEY, "invalid_variable", genericUserId, attributes, -1));
+        assertEquals(-1, optimizely.getFeatureVariableInteger(
+            FEATURE_SINGLE_VARIABLE_DOUBLE_KEY, VARIABLE_DOUBLE_VARIABLE_KEY, genericUserId, attributes, -1));
+        assertTrue(optimizely.getFeatureVariableBoolean(
+            FEATURE_SINGLE_VARIABLE_INTEGER_KEY, VARIABLE_INTEGER_VARIABLE_KEY, genericUserId, attributes, true));
+    }
+
     /**
      * Verify {@link Optimizely#getFeatureVariableValueForType(String, String, String, Map, FeatureVariable.VariableType)}
      * returns the default value for the feature variable
@@ -4073,6 +4267,67 @@ public class OptimizelyTest {
         assertTrue(optimizely.notificationCenter.removeNotificationListener(notificationId));
     }
 
+    /**
+     * Verify {@link Optimizely#getAllFeatureVariables(String, String, Map)} returns the same typed values
+     * as the single variable accessors, while deciding the feature and notifying only once.
+     */
+    @Test
+    public void getAllFeatureVariablesMatchesSingleVariableAccessors() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        Optimizely optimizely = optimizelyBuilder.build();
+        Map<String, String> attributes = Collections.singletonMap(ATTRIBUTE_HOUSE_KEY, AUDIENCE_GRYFFINDOR_VALUE);
+
+        for (FeatureFlag featureFlag : validProjectConfig.getFeatureFlags()) {
+            for (String userId : asList(testUserId, genericUserId)) {
+                final int[] notifications = {0};
+                int notificationId = optimizely.addDecisionNotificationHandler(decisionNotification -> notifications[0]++);
+                OptimizelyFeatureVariables variables = optimizely.getAllFeatureVariables(featureFlag.getKey(), userId, attributes);
+                assertEquals(1, notifications[0]);
+                optimizely.notificationCenter.removeNotificationListener(notificationId);
+
+                assertNotNull(variables);
+                assertEquals(featureFlag.getVariables().size(), variables.getVariableKeys().size());
+                for (FeatureVariable variable : featureFlag.getVariables()) {
+                    Object expected = optimizely.getFeatureVariableValueForType(
+                        featureFlag.getKey(), variable.getKey(), userId, attributes, variable.getType());
+                    assertEquals(expected, variables.toMap().get(variable.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify {@link Optimizely#getAllFeatureVariables(String, String)} returns null for an unknown feature.
+     */
+    @Test
+    public void getAllFeatureVariablesReturnsNullWhenFeatureKeyIsInvalid() throws Exception {
+        Optimizely optimizely = optimizelyBuilder.build();
+
+        logbackVerifier.expectMessage(Level.INFO, "No feature flag was found for key \"invalid_feature\".");
+        assertNull(optimizely.getAllFeatureVariables("invalid_feature", genericUserId));
+    }
+
+    /**
+     * Verify {@link Optimizely#getAllFeatureVariables(String, String, Map)} returns the default values
+     * when the feature is not enabled for the user.
+     */
+    @Test
+    public void getAllFeatureVariablesReturnsDefaultValuesWhenFeatureIsNotEnabled() throws Exception {
+        assumeTrue(datafileVersion >= Integer.parseInt(ProjectConfig.Version.V4.toString()));
+
+        Optimizely optimizely = optimizelyBuilder.build();
+
+        OptimizelyFeatureVariables variables = optimizely.getAllFeatureVariables(
+            FEATURE_MULTI_VARIATE_FEATURE_KEY,
+            "Gred",
+            Collections.<String, String>emptyMap());
+
+        assertNotNull(variables);
+        assertFalse(variables.isFeatureEnabled());
+        assertEquals(VARIABLE_FIRST_LETTER_DEFAULT_VALUE, variables.getString(VARIABLE_FIRST_LETTER_KEY));
+    }
+
     //======== isValid calls  ========//
 
     /**
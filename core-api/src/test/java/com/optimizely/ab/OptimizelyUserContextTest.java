@@ -0,0 +1,177 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab;
+
+import com.google.common.collect.ImmutableMap;
+import com.optimizely.ab.bucketing.UserProfileService;
+import com.optimizely.ab.config.Variation;
+import com.optimizely.ab.event.EventHandler;
+import com.optimizely.ab.event.LogEvent;
+import com.optimizely.ab.notification.DecisionNotification;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validConfigJsonV4;
+import static com.optimizely.ab.config.ValidProjectConfigV4.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class OptimizelyUserContextTest {
+
+    private static final String USER_ID = "userId";
+
+    private UserProfileService userProfileService;
+    private EventHandler eventHandler;
+    private Optimizely optimizely;
+    private List<DecisionNotification> decisions;
+
+    @Before
+    public void setUp() throws Exception {
+        userProfileService = mock(UserProfileService.class);
+        eventHandler = mock(EventHandler.class);
+        optimizely = Optimizely.builder()
+            .withDatafile(validConfigJsonV4())
+            .withEventHandler(eventHandler)
+            .withUserProfileService(userProfileService)
+            .build();
+
+        decisions = new ArrayList<>();
+        optimizely.addDecisionNotificationHandler(decisions::add);
+    }
+
+    @After
+    public void tearDown() {
+        optimizely.close();
+    }
+
+    @Test
+    public void userProfileIsLookedUpOncePerContext() throws Exception {
+        OptimizelyUserContext userContext = optimizely.createUserContext(USER_ID, attributes());
+        assertNotNull(userContext);
+
+        userContext.getVariation(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        userContext.activate(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        userContext.isFeatureEnabled(FEATURE_MULTI_VARIATE_FEATURE_KEY);
+        userContext.getFeatureVariableString(FEATURE_MULTI_VARIATE_FEATURE_KEY, VARIABLE_FIRST_LETTER_KEY);
+        userContext.getEnabledFeatures();
+
+        verify(userProfileService, times(1)).lookup(USER_ID);
+    }
+
+    @Test
+    public void decisionsMatchTheStatelessApi() throws Exception {
+        Map<String, ?> attributes = attributes();
+        OptimizelyUserContext userContext = optimizely.createUserContext(USER_ID, attributes);
+        assertNotNull(userContext);
+
+        Variation expected = optimizely.getVariation(EXPERIMENT_MULTIVARIATE_EXPERIMENT_KEY, USER_ID, attributes);
+        assertEquals(expected, userContext.getVariation(EXPERIMENT_MULTIVARIATE_EXPERIMENT_KEY));
+
+        assertEquals(
+            optimizely.isFeatureEnabled(FEATURE_MULTI_VARIATE_FEATURE_KEY, USER_ID, attributes),
+            userContext.isFeatureEnabled(FEATURE_MULTI_VARIATE_FEATURE_KEY));
+        assertEquals(
+            optimizely.getFeatureVariableString(FEATURE_MULTI_VARIATE_FEATURE_KEY, VARIABLE_FIRST_LETTER_KEY, USER_ID, attributes),
+            userContext.getFeatureVariableString(FEATURE_MULTI_VARIATE_FEATURE_KEY, VARIABLE_FIRST_LETTER_KEY));
+        assertEquals(
+            optimizely.getFeatureVariableInteger(FEATURE_SINGLE_VARIABLE_INTEGER_KEY, VARIABLE_INTEGER_VARIABLE_KEY, USER_ID, attributes),
+            userContext.getFeatureVariableInteger(FEATURE_SINGLE_VARIABLE_INTEGER_KEY, VARIABLE_INTEGER_VARIABLE_KEY));
+        assertEquals(
+            optimizely.getFeatureVariableDouble(FEATURE_SINGLE_VARIABLE_DOUBLE_KEY, VARIABLE_DOUBLE_VARIABLE_KEY, USER_ID, attributes),
+            userContext.getFeatureVariableDouble(FEATURE_SINGLE_VARIABLE_DOUBLE_KEY, VARIABLE_DOUBLE_VARIABLE_KEY));
+        assertEquals(
+            optimizely.getFeatureVariableBoolean(FEATURE_SINGLE_VARIABLE_BOOLEAN_KEY, VARIABLE_BOOLEAN_VARIABLE_KEY, USER_ID, attributes),
+            userContext.getFeatureVariableBoolean(FEATURE_SINGLE_VARIABLE_BOOLEAN_KEY, VARIABLE_BOOLEAN_VARIABLE_KEY));
+        assertEquals(optimizely.getEnabledFeatures(USER_ID, attributes), userContext.getEnabledFeatures());
+    }
+
+    @Test
+    public void notificationsAndEventsAreSentForEveryCall() throws Exception {
+        OptimizelyUserContext userContext = optimizely.createUserContext(USER_ID, attributes());
+        assertNotNull(userContext);
+
+        userContext.isFeatureEnabled(FEATURE_MULTI_VARIATE_FEATURE_KEY);
+        userContext.isFeatureEnabled(FEATURE_MULTI_VARIATE_FEATURE_KEY);
+        assertEquals(2, decisions.size());
+
+        userContext.activate(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        userContext.activate(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        userContext.track(EVENT_BASIC_EVENT_KEY);
+        assertEquals(4, decisions.size());
+
+        // two feature test impressions, two activate impressions and one conversion
+        verify(eventHandler, times(5)).dispatchEvent(any(LogEvent.class));
+    }
+
+    @Test
+    public void userProfileLookupFailureIsNotRetried() throws Exception {
+        UserProfileService failingService = mock(UserProfileService.class);
+        org.mockito.Mockito.when(failingService.lookup(anyString())).thenThrow(new RuntimeException("lookup failed"));
+        Optimizely failing = Optimizely.builder()
+            .withDatafile(validConfigJsonV4())
+            .withEventHandler(eventHandler)
+            .withUserProfileService(failingService)
+            .build();
+
+        OptimizelyUserContext userContext = failing.createUserContext(USER_ID, attributes());
+        assertNotNull(userContext);
+        userContext.getVariation(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        userContext.getVariation(EXPERIMENT_MULTIVARIATE_EXPERIMENT_KEY);
+
+        verify(failingService, times(1)).lookup(USER_ID);
+        verify(failingService, times(2)).save(anyMap());
+        failing.close();
+    }
+
+    @Test
+    public void attributesAreSnapshotted() throws Exception {
+        Map<String, Object> attributes = new HashMap<>(attributes());
+        OptimizelyUserContext userContext = optimizely.createUserContext(USER_ID, attributes);
+        assertNotNull(userContext);
+
+        attributes.clear();
+        assertEquals(attributes(), userContext.getAttributes());
+    }
+
+    @Test
+    public void createUserContextWithNullUserId() {
+        assertNull(optimizely.createUserContext(null));
+    }
+
+    @Test
+    public void createUserContextWithInvalidOptimizely() {
+        Optimizely invalid = Optimizely.builder().build();
+        assertNull(invalid.createUserContext(USER_ID));
+        invalid.close();
+    }
+
+    private static Map<String, ?> attributes() {
+        return ImmutableMap.of(ATTRIBUTE_HOUSE_KEY, AUDIENCE_GRYFFINDOR_VALUE);
+    }
+}
@@ -35,6 +35,8 @@ import org.junit.rules.ExpectedException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV2;
@@ -104,6 +106,77 @@ public class BucketerTest {
         assertThat(Math.round(((double) lowerHalfCount / totalCount) * 100), is(50L));
     }
 
+    /**
+     * Verify that the integer mapping in {@link Bucketer#generateBucketValue(int)} matches the floating point
+     * mapping it replaced for boundary and random hashCodes.
+     */
+    @Test
+    public void generateBucketValueMatchesFloatingPointMapping() throws Exception {
+        int[] boundaries = {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1};
+        for (int hashCode : boundaries) {
+            assertThat(algorithm.generateBucketValue(hashCode), is(floatingPointBucketValue(hashCode)));
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 2000000; i++) {
+            int hashCode = random.nextInt();
+            assertThat(algorithm.generateBucketValue(hashCode), is(floatingPointBucketValue(hashCode)));
+        }
+    }
+
+    /**
+     * Verify that the integer mapping in {@link Bucketer#generateBucketValue(int)} matches the floating point
+     * mapping it replaced across the entire 32-bit hashCode space.
+     */
+    @Test
+    @Category(ExhaustiveTest.class)
+    public void generateBucketValueMatchesFloatingPointMappingExhaustive() throws Exception {
+        Assume.assumeTrue(Boolean.valueOf(System.getenv("CI")));
+        int mismatchCount = 0;
+
+        for (int i = Integer.MIN_VALUE; i < Integer.MAX_VALUE; i++) {
+            if (algorithm.generateBucketValue(i) != floatingPointBucketValue(i)) {
+                mismatchCount++;
+            }
+        }
+
+        assertThat(mismatchCount, is(0));
+    }
+
+    /**
+     * Verify that hashing the bucketing id and the salt as two segments produces the same bucket values as hashing
+     * the concatenated bucket key, for random ASCII and non-ASCII bucketing ids.
+     */
+    @Test
+    public void segmentedBucketKeyMatchesConcatenatedBucketKey() throws Exception {
+        int MURMUR_HASH_SEED = 1;
+        String[] salts = {"1886780721", "3139017", ""};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(40);
+
+        for (int i = 0; i < 1000000; i++) {
+            String bucketingId;
+            if ((i & 1) == 0) {
+                bucketingId = new UUID(random.nextLong(), random.nextLong()).toString();
+            } else {
+                sb.setLength(0);
+                int len = random.nextInt(12);
+                for (int j = 0; j < len; j++) {
+                    sb.appendCodePoint(random.nextInt(Character.MAX_CODE_POINT + 1));
+                }
+                bucketingId = sb.toString();
+            }
+            String salt = salts[i % salts.length];
+
+            String combinedBucketId = bucketingId + salt;
+            int expected = MurmurHash3.murmurhash3_x86_32(combinedBucketId, 0, combinedBucketId.length(), MURMUR_HASH_SEED);
+            int actual = MurmurHash3.murmurhash3_x86_32(bucketingId, salt, MURMUR_HASH_SEED);
+
+            assertThat(actual, is(expected));
+            assertThat(algorithm.generateBucketValue(actual), is(floatingPointBucketValue(expected)));
+        }
+    }
+
     /**
      * Verify that generated bucket values match expected output.
      */
@@ -374,6 +447,15 @@ public class BucketerTest {
 
     //======== Helper methods ========//
 
+    /**
+     * The floating point mapping of a hashCode into [0, {@link Bucketer#MAX_TRAFFIC_VALUE}) used before bucket
+     * values were computed in integer arithmetic.
+     */
+    private static int floatingPointBucketValue(int hashCode) {
+        double ratio = (double) (hashCode & 0xFFFFFFFFL) / Math.pow(2, 32);
+        return (int) Math.floor(Bucketer.MAX_TRAFFIC_VALUE * ratio);
+    }
+
     /**
      * Sets up a mock algorithm that returns an expected bucket value.
      *
@@ -0,0 +1,169 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingUserProfileServiceTest {
+
+    private UserProfileService userProfileService;
+    private CachingUserProfileService cachingUserProfileService;
+
+    @Before
+    public void setUp() throws Exception {
+        userProfileService = mock(UserProfileService.class);
+        when(userProfileService.lookup(anyString())).thenReturn(null);
+        cachingUserProfileService = CachingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .build();
+    }
+
+    @Test
+    public void lookupIsCached() throws Exception {
+        Map<String, Object> profile = userProfile("user");
+        when(userProfileService.lookup("user")).thenReturn(profile);
+
+        assertSame(profile, cachingUserProfileService.lookup("user"));
+        assertSame(profile, cachingUserProfileService.lookup("user"));
+
+        verify(userProfileService, times(1)).lookup("user");
+        assertEquals(1, cachingUserProfileService.getHitCount());
+        assertEquals(1, cachingUserProfileService.getMissCount());
+    }
+
+    @Test
+    public void missingProfileIsCached() throws Exception {
+        assertNull(cachingUserProfileService.lookup("user"));
+        assertNull(cachingUserProfileService.lookup("user"));
+
+        verify(userProfileService, times(1)).lookup("user");
+    }
+
+    @Test
+    public void missingProfileIsNotCachedWithoutNegativeCaching() throws Exception {
+        cachingUserProfileService = CachingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withNegativeCaching(false)
+            .build();
+
+        assertNull(cachingUserProfileService.lookup("user"));
+        assertNull(cachingUserProfileService.lookup("user"));
+
+        verify(userProfileService, times(2)).lookup("user");
+    }
+
+    @Test
+    public void saveIsWrittenThrough() throws Exception {
+        assertNull(cachingUserProfileService.lookup("user"));
+
+        Map<String, Object> profile = userProfile("user");
+        cachingUserProfileService.save(profile);
+
+        verify(userProfileService).save(profile);
+        assertSame(profile, cachingUserProfileService.lookup("user"));
+        verify(userProfileService, times(1)).lookup("user");
+    }
+
+    @Test
+    public void lookupDoesNotReplaceConcurrentSave() throws Exception {
+        Map<String, Object> savedProfile = userProfile("user");
+        // the profile is saved while the lookup reads the wrapped service, which returns what it held before
+        when(userProfileService.lookup("user")).thenAnswer(invocation -> {
+            cachingUserProfileService.save(savedProfile);
+            return null;
+        });
+
+        assertNull(cachingUserProfileService.lookup("user"));
+
+        assertSame(savedProfile, cachingUserProfileService.lookup("user"));
+        verify(userProfileService, times(1)).lookup("user");
+    }
+
+    @Test
+    public void failedSaveInvalidatesProfile() throws Exception {
+        Map<String, Object> profile = userProfile("user");
+        when(userProfileService.lookup("user")).thenReturn(profile);
+        doThrow(new Exception("unavailable")).when(userProfileService).save(anyMapOf(String.class, Object.class));
+        cachingUserProfileService.lookup("user");
+
+        try {
+            cachingUserProfileService.save(userProfile("user"));
+            fail("The exception of the wrapped service is expected to be thrown.");
+        } catch (Exception e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+
+        assertEquals(0, cachingUserProfileService.size());
+        cachingUserProfileService.lookup("user");
+        verify(userProfileService, times(2)).lookup("user");
+    }
+
+    @Test
+    public void leastRecentlyUsedProfileIsEvicted() throws Exception {
+        cachingUserProfileService = CachingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withMaxSize(1)
+            .build();
+
+        cachingUserProfileService.lookup("user1");
+        cachingUserProfileService.lookup("user2");
+        cachingUserProfileService.lookup("user1");
+
+        verify(userProfileService, times(2)).lookup("user1");
+        assertEquals(1, cachingUserProfileService.size());
+        assertEquals(2, cachingUserProfileService.getEvictionCount());
+    }
+
+    @Test
+    public void expiredProfileIsLookedUpAgain() throws Exception {
+        cachingUserProfileService = CachingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withTimeToLive(1, TimeUnit.MILLISECONDS)
+            .build();
+
+        cachingUserProfileService.lookup("user");
+        Thread.sleep(5);
+        cachingUserProfileService.lookup("user");
+
+        verify(userProfileService, times(2)).lookup("user");
+        assertEquals(1, cachingUserProfileService.getEvictionCount());
+    }
+
+    private static Map<String, Object> userProfile(String userId) {
+        Map<String, Object> userProfile = new HashMap<>();
+        userProfile.put(UserProfileService.userIdKey, userId);
+        userProfile.put(UserProfileService.experimentBucketMapKey, Collections.emptyMap());
+        return userProfile;
+    }
+}
@@ -0,0 +1,237 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoalescingUserProfileServiceTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private UserProfileService userProfileService;
+    private CoalescingUserProfileService coalescingUserProfileService;
+    private ExecutorService executor;
+
+    private final CountDownLatch called = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        userProfileService = mock(UserProfileService.class);
+        coalescingUserProfileService = CoalescingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withMaxWait(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLookupsShareOneLookup() throws Exception {
+        Map<String, Object> profile = userProfile("user", "1", "2");
+        when(userProfileService.lookup("user")).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return profile;
+        });
+
+        Future<Map<String, Object>> first = executor.submit(() -> coalescingUserProfileService.lookup("user"));
+        assertTrue(called.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Future<Map<String, Object>> second = executor.submit(() -> coalescingUserProfileService.lookup("user"));
+        awaitCount(() -> coalescingUserProfileService.getCoalescedLookupCount(), 1);
+        release.countDown();
+
+        assertSame(profile, first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertSame(profile, second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        verify(userProfileService, times(1)).lookup("user");
+
+        // the lookup is no longer in flight
+        coalescingUserProfileService.lookup("user");
+        verify(userProfileService, times(2)).lookup("user");
+    }
+
+    @Test
+    public void failedLookupIsSharedWithWaitingLookups() throws Exception {
+        when(userProfileService.lookup("user")).thenAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            throw new IllegalStateException("lookup failed");
+        });
+
+        Future<Map<String, Object>> first = executor.submit(() -> coalescingUserProfileService.lookup("user"));
+        assertTrue(called.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Future<Map<String, Object>> second = executor.submit(() -> coalescingUserProfileService.lookup("user"));
+        awaitCount(() -> coalescingUserProfileService.getCoalescedLookupCount(), 1);
+        release.countDown();
+
+        for (Future<Map<String, Object>> lookup : new Future[]{first, second}) {
+            try {
+                lookup.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        verify(userProfileService, times(1)).lookup("user");
+    }
+
+    @Test
+    public void lookupIsMadeAgainAfterMaxWait() throws Exception {
+        coalescingUserProfileService = CoalescingUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withMaxWait(10, TimeUnit.MILLISECONDS)
+            .build();
+
+        Map<String, Object> profile = userProfile("user", "1", "2");
+        when(userProfileService.lookup("user"))
+            .thenAnswer(invocation -> {
+                called.countDown();
+                release.await();
+                return null;
+            })
+            .thenReturn(profile);
+
+        executor.submit(() -> coalescingUserProfileService.lookup("user"));
+        assertTrue(called.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        assertSame(profile, coalescingUserProfileService.lookup("user"));
+        verify(userProfileService, times(2)).lookup("user");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void concurrentSavesAreMerged() throws Exception {
+        doAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return null;
+        }).doNothing().when(userProfileService).save(anyMapOf(String.class, Object.class));
+
+        Future<?> first = executor.submit(() -> {
+            coalescingUserProfileService.save(userProfile("user", "1", "2"));
+            return null;
+        });
+        assertTrue(called.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Future<?> second = executor.submit(() -> {
+            coalescingUserProfileService.save(userProfile("user", "1", "2", "3", "4"));
+            return null;
+        });
+        Future<?> third = executor.submit(() -> {
+            coalescingUserProfileService.save(userProfile("user", "1", "2", "5", "6"));
+            return null;
+        });
+        awaitCount(() -> coalescingUserProfileService.getCoalescedSaveCount(), 2);
+        release.countDown();
+
+        first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        third.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<Map> savedProfiles = ArgumentCaptor.forClass(Map.class);
+        verify(userProfileService, times(2)).save(savedProfiles.capture());
+        assertEquals(userProfile("user", "1", "2"), savedProfiles.getAllValues().get(0));
+        assertEquals(userProfile("user", "1", "2", "3", "4", "5", "6"), savedProfiles.getAllValues().get(1));
+    }
+
+    @Test
+    public void mergedSaveKeepsInFlightDecisions() throws Exception {
+        doAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return null;
+        }).doNothing().when(userProfileService).save(anyMapOf(String.class, Object.class));
+
+        Future<?> first = executor.submit(() -> {
+            coalescingUserProfileService.save(userProfile("user", "1", "2"));
+            return null;
+        });
+        assertTrue(called.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // looked up before the first save was written, so it does not hold its decision
+        Future<?> second = executor.submit(() -> {
+            coalescingUserProfileService.save(userProfile("user", "3", "4"));
+            return null;
+        });
+        awaitCount(() -> coalescingUserProfileService.getCoalescedSaveCount(), 1);
+        release.countDown();
+
+        first.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        second.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<Map> savedProfiles = ArgumentCaptor.forClass(Map.class);
+        verify(userProfileService, times(2)).save(savedProfiles.capture());
+        assertEquals(userProfile("user", "1", "2", "3", "4"), savedProfiles.getAllValues().get(1));
+    }
+
+    @Test
+    public void savesOfDifferentUsersAreNotMerged() throws Exception {
+        coalescingUserProfileService.save(userProfile("user1", "1", "2"));
+        coalescingUserProfileService.save(userProfile("user2", "1", "2"));
+
+        verify(userProfileService).save(userProfile("user1", "1", "2"));
+        verify(userProfileService).save(userProfile("user2", "1", "2"));
+        assertEquals(0, coalescingUserProfileService.getCoalescedSaveCount());
+    }
+
+    private static void awaitCount(LongSupplier count, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (count.getAsLong() < expected) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static Map<String, Object> userProfile(String userId, String... decisions) {
+        Map<String, Map<String, String>> experimentBucketMap = new HashMap<>();
+        for (int i = 0; i < decisions.length; i += 2) {
+            experimentBucketMap.put(decisions[i], Collections.singletonMap(UserProfileService.variationIdKey, decisions[i + 1]));
+        }
+
+        Map<String, Object> userProfile = new HashMap<>();
+        userProfile.put(UserProfileService.userIdKey, userId);
+        userProfile.put(UserProfileService.experimentBucketMapKey, experimentBucketMap);
+        return userProfile;
+    }
+}
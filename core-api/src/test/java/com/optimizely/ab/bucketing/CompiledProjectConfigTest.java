@@ -0,0 +1,163 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.audience.OrCondition;
+import com.optimizely.ab.error.ErrorHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV3;
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static com.optimizely.ab.config.ValidProjectConfigV4.AUDIENCE_GRYFFINDOR_VALUE;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_FLAG_MULTI_VARIATE_FEATURE;
+import static com.optimizely.ab.config.ValidProjectConfigV4.ROLLOUT_2;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link CompiledProjectConfig}.
+ */
+public class CompiledProjectConfigTest {
+
+    private ProjectConfig projectConfig;
+    private CompiledProjectConfig compiledProjectConfig;
+
+    @Before
+    public void setUp() {
+        projectConfig = validProjectConfigV4();
+        compiledProjectConfig = new CompiledProjectConfig(projectConfig);
+    }
+
+    /**
+     * Verify that the feature test experiments of a feature flag are resolved in priority order.
+     */
+    @Test
+    public void featurePlanResolvesFeatureTestExperiments() {
+        CompiledProjectConfig.FeaturePlan featurePlan = compiledProjectConfig.getFeaturePlan(FEATURE_FLAG_MULTI_VARIATE_FEATURE);
+
+        CompiledProjectConfig.Rule[] featureTestRules = featurePlan.getFeatureTestRules();
+        assertEquals(FEATURE_FLAG_MULTI_VARIATE_FEATURE.getExperimentIds().size(), featureTestRules.length);
+        for (int i = 0; i < featureTestRules.length; i++) {
+            Experiment expected = projectConfig.getExperimentIdMapping().get(FEATURE_FLAG_MULTI_VARIATE_FEATURE.getExperimentIds().get(i));
+            assertSame(expected, featureTestRules[i].getExperiment());
+        }
+    }
+
+    /**
+     * Verify that the rollout of a feature flag is split into its targeted rules and the "everyone else" rule.
+     */
+    @Test
+    public void featurePlanSplitsRolloutRules() {
+        CompiledProjectConfig.FeaturePlan featurePlan = compiledProjectConfig.getFeaturePlan(FEATURE_FLAG_MULTI_VARIATE_FEATURE);
+
+        assertTrue(featurePlan.isUsedInRollout());
+        assertSame(ROLLOUT_2, featurePlan.getRollout());
+
+        CompiledProjectConfig.Rule[] rolloutRules = featurePlan.getRolloutRules();
+        assertEquals(ROLLOUT_2.getExperiments().size() - 1, rolloutRules.length);
+        for (int i = 0; i < rolloutRules.length; i++) {
+            assertSame(ROLLOUT_2.getExperiments().get(i), rolloutRules[i].getExperiment());
+        }
+        assertSame(ROLLOUT_2.getExperiments().get(ROLLOUT_2.getExperiments().size() - 1),
+            featurePlan.getEveryoneElseRule().getExperiment());
+    }
+
+    /**
+     * Verify that rules resolve the audience condition and the audience name of their experiment.
+     */
+    @Test
+    public void ruleResolvesAudienceCondition() {
+        Experiment rolloutRule = ROLLOUT_2.getExperiments().get(0);
+        CompiledProjectConfig.Rule rule = compiledProjectConfig.getRule(rolloutRule);
+
+        assertTrue(rule.getAudienceCondition() instanceof OrCondition);
+        assertEquals(projectConfig.getAudienceIdMapping().get(rolloutRule.getAudienceIds().get(0)).getName(),
+            rule.getAudienceName());
+        assertTrue(rule.isUserInRule(projectConfig, Collections.singletonMap("house", AUDIENCE_GRYFFINDOR_VALUE)));
+        assertFalse(rule.isUserInRule(projectConfig, Collections.<String, Object>emptyMap()));
+    }
+
+    /**
+     * Verify that the same rule instance is shared between lookups and feature plans.
+     */
+    @Test
+    public void rulesAreSharedAcrossLookups() {
+        Experiment rolloutRule = ROLLOUT_2.getExperiments().get(0);
+
+        assertSame(compiledProjectConfig.getRule(rolloutRule), compiledProjectConfig.getRule(rolloutRule));
+        assertSame(compiledProjectConfig.getRule(rolloutRule),
+            compiledProjectConfig.getFeaturePlan(FEATURE_FLAG_MULTI_VARIATE_FEATURE).getRolloutRules()[0]);
+    }
+
+    /**
+     * Verify that feature flags which are not part of the compiled config are compiled on demand.
+     */
+    @Test
+    public void featurePlanForUnknownFeatureFlag() {
+        FeatureFlag featureFlag = new FeatureFlag("id", "key", "", Collections.<String>emptyList(),
+            FEATURE_FLAG_MULTI_VARIATE_FEATURE.getVariables());
+        CompiledProjectConfig.FeaturePlan featurePlan = compiledProjectConfig.getFeaturePlan(featureFlag);
+
+        assertSame(featureFlag, featurePlan.getFeatureFlag());
+        assertEquals(0, featurePlan.getFeatureTestRules().length);
+        assertFalse(featurePlan.isUsedInRollout());
+        assertNull(featurePlan.getRollout());
+        assertNull(featurePlan.getEveryoneElseRule());
+    }
+
+    /**
+     * Verify that a rollout which is not in the datafile leaves the feature plan without rollout rules.
+     */
+    @Test
+    public void featurePlanForMissingRollout() {
+        FeatureFlag featureFlag = new FeatureFlag("id", "key", "missingRolloutId", Collections.<String>emptyList(),
+            Collections.emptyList());
+        CompiledProjectConfig.FeaturePlan featurePlan = compiledProjectConfig.getFeaturePlan(featureFlag);
+
+        assertTrue(featurePlan.isUsedInRollout());
+        assertNull(featurePlan.getRollout());
+        assertEquals(0, featurePlan.getRolloutRules().length);
+        assertNull(featurePlan.getEveryoneElseRule());
+    }
+
+    /**
+     * Verify that the {@link DecisionService} compiles a plan once per {@link ProjectConfig} instance.
+     */
+    @Test
+    public void decisionServiceCompilesOncePerProjectConfig() {
+        DecisionService decisionService = new DecisionService(new Bucketer(), mock(ErrorHandler.class), null);
+
+        CompiledProjectConfig compiled = decisionService.getCompiledProjectConfig(projectConfig);
+        assertSame(projectConfig, compiled.getProjectConfig());
+        assertSame(compiled, decisionService.getCompiledProjectConfig(projectConfig));
+
+        ProjectConfig otherProjectConfig = validProjectConfigV3();
+        CompiledProjectConfig otherCompiled = decisionService.getCompiledProjectConfig(otherProjectConfig);
+        assertNotSame(compiled, otherCompiled);
+        assertSame(otherProjectConfig, otherCompiled.getProjectConfig());
+    }
+}
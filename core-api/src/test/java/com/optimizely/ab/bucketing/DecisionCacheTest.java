@@ -0,0 +1,168 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.FeatureFlag;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.config.Variation;
+import com.optimizely.ab.error.NoOpErrorHandler;
+import com.optimizely.ab.notification.UpdateConfigNotification;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static com.optimizely.ab.config.ValidProjectConfigV4.EXPERIMENT_BASIC_EXPERIMENT_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_SINGLE_VARIABLE_INTEGER_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DecisionCacheTest {
+
+    private static final String USER_ID = "genericUserId";
+
+    private ProjectConfig projectConfig;
+    private Experiment experiment;
+    private Bucketer bucketer;
+    private DecisionCache decisionCache;
+    private DecisionService decisionService;
+
+    @Before
+    public void setUp() throws Exception {
+        projectConfig = validProjectConfigV4();
+        experiment = projectConfig.getExperimentKeyMapping().get(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+        bucketer = spy(new Bucketer());
+        decisionCache = DecisionCache.builder().build();
+        decisionService = new DecisionService(bucketer, new NoOpErrorHandler(), null, decisionCache);
+    }
+
+    @Test
+    public void getVariationIsCached() {
+        Variation variation = decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        assertNotNull(variation);
+        assertEquals(variation, decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig));
+
+        verify(bucketer, times(1)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+        assertEquals(1, decisionCache.getHitCount());
+        assertEquals(1, decisionCache.getMissCount());
+        assertEquals(1, decisionCache.size());
+    }
+
+    @Test
+    public void getVariationIsCachedPerAttributes() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("house", "Gryffindor");
+
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        decisionService.getVariation(experiment, USER_ID, attributes, projectConfig);
+        decisionService.getVariation(experiment, USER_ID, new HashMap<>(attributes), projectConfig);
+
+        verify(bucketer, times(2)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+        assertEquals(1, decisionCache.getHitCount());
+        assertEquals(2, decisionCache.getMissCount());
+    }
+
+    @Test
+    public void getVariationForFeatureInRolloutIsCached() {
+        FeatureFlag featureFlag = projectConfig.getFeatureKeyMapping().get(FEATURE_SINGLE_VARIABLE_INTEGER_KEY);
+
+        FeatureDecision featureDecision = decisionService.getVariationForFeature(featureFlag, USER_ID, Collections.emptyMap(), projectConfig);
+        assertNotNull(featureDecision.variation);
+        assertEquals(featureDecision, decisionService.getVariationForFeature(featureFlag, USER_ID, Collections.emptyMap(), projectConfig));
+
+        verify(bucketer, times(1)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+        assertEquals(1, decisionCache.getHitCount());
+    }
+
+    @Test
+    public void forcedVariationTakesPrecedence() {
+        Variation variation = decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        String forcedVariationKey = "A".equals(variation.getKey()) ? "B" : "A";
+
+        assertTrue(decisionService.setForcedVariation(experiment, USER_ID, forcedVariationKey));
+        assertEquals(forcedVariationKey, decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig).getKey());
+
+        assertTrue(decisionService.setForcedVariation(experiment, USER_ID, null));
+        assertEquals(variation, decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig));
+        verify(bucketer, times(1)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+    }
+
+    @Test
+    public void newRevisionInvalidatesCache() throws Exception {
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        assertEquals(1, decisionCache.size());
+
+        ProjectConfig newProjectConfig = spy(validProjectConfigV4());
+        when(newProjectConfig.getRevision()).thenReturn("new-revision");
+        assertNotEquals(projectConfig.getRevision(), newProjectConfig.getRevision());
+        Experiment newExperiment = newProjectConfig.getExperimentKeyMapping().get(EXPERIMENT_BASIC_EXPERIMENT_KEY);
+
+        decisionService.getVariation(newExperiment, USER_ID, Collections.emptyMap(), newProjectConfig);
+        assertEquals(1, decisionCache.size());
+        assertEquals(0, decisionCache.getHitCount());
+        assertEquals(2, decisionCache.getMissCount());
+    }
+
+    @Test
+    public void updateConfigNotificationInvalidatesCache() {
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        assertEquals(1, decisionCache.size());
+
+        decisionCache.handle(new UpdateConfigNotification());
+        assertEquals(0, decisionCache.size());
+
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        verify(bucketer, times(2)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+    }
+
+    @Test
+    public void expiredDecisionsAreNotReused() throws Exception {
+        decisionCache = DecisionCache.builder().withTimeToLive(1, TimeUnit.MILLISECONDS).build();
+        decisionService = new DecisionService(bucketer, new NoOpErrorHandler(), null, decisionCache);
+
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+        Thread.sleep(5);
+        decisionService.getVariation(experiment, USER_ID, Collections.emptyMap(), projectConfig);
+
+        verify(bucketer, times(2)).bucket(any(Experiment.class), anyString(), any(ProjectConfig.class));
+        assertEquals(0, decisionCache.getHitCount());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        decisionCache = DecisionCache.builder().withMaxSize(4).build();
+        decisionService = new DecisionService(bucketer, new NoOpErrorHandler(), null, decisionCache);
+
+        for (int i = 0; i < 100; i++) {
+            decisionService.getVariation(experiment, USER_ID + i, Collections.emptyMap(), projectConfig);
+        }
+
+        assertTrue(decisionCache.size() <= 4);
+    }
+}
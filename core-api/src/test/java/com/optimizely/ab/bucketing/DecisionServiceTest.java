@@ -30,10 +30,13 @@ import com.optimizely.ab.internal.ControlAttribute;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -52,6 +55,7 @@ import static com.optimizely.ab.config.ValidProjectConfigV4.AUDIENCE_GRYFFINDOR_
 import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_FLAG_MULTI_VARIATE_FEATURE;
 import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_FLAG_SINGLE_VARIABLE_INTEGER;
 import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_MULTI_VARIATE_FEATURE_KEY;
+import static com.optimizely.ab.config.ValidProjectConfigV4.FEATURE_MUTEX_GROUP_FEATURE_KEY;
 import static com.optimizely.ab.config.ValidProjectConfigV4.ROLLOUT_2;
 import static com.optimizely.ab.config.ValidProjectConfigV4.ROLLOUT_3_EVERYONE_ELSE_RULE;
 import static com.optimizely.ab.config.ValidProjectConfigV4.ROLLOUT_3_EVERYONE_ELSE_RULE_ENABLED_VARIATION;
@@ -303,8 +307,9 @@ public class DecisionServiceTest {
         assertNull(featureDecision.variation);
         assertNull(featureDecision.decisionSource);
 
-        verify(emptyFeatureFlag, times(1)).getExperimentIds();
-        verify(emptyFeatureFlag, times(1)).getRolloutId();
+        // the feature flag is not part of the project config, so its plan is compiled for each of the two lookups
+        verify(emptyFeatureFlag, times(2)).getExperimentIds();
+        verify(emptyFeatureFlag, times(2)).getRolloutId();
         verify(emptyFeatureFlag, times(3)).getKey();
     }
 
@@ -337,7 +342,7 @@ public class DecisionServiceTest {
             spyFeatureFlag,
             genericUserId,
             Collections.<String, String>emptyMap(),
-            validProjectConfig
+            v4ProjectConfig
         );
         assertNull(featureDecision.variation);
         assertNull(featureDecision.decisionSource);
@@ -346,7 +351,7 @@ public class DecisionServiceTest {
             "The user \"" + genericUserId + "\" was not bucketed into a rollout for feature flag \"" +
                 FEATURE_MULTI_VARIATE_FEATURE_KEY + "\".");
 
-        verify(spyFeatureFlag, times(2)).getExperimentIds();
+        verify(spyFeatureFlag, times(1)).getExperimentIds();
         verify(spyFeatureFlag, times(1)).getKey();
     }
 
@@ -382,7 +387,7 @@ public class DecisionServiceTest {
         assertEquals(ValidProjectConfigV4.VARIATION_MUTEX_GROUP_EXP_2_VAR_1, featureDecision.variation);
         assertEquals(FeatureDecision.DecisionSource.FEATURE_TEST, featureDecision.decisionSource);
 
-        verify(spyFeatureFlag, times(2)).getExperimentIds();
+        verify(spyFeatureFlag, times(1)).getExperimentIds();
         verify(spyFeatureFlag, never()).getKey();
     }
 
@@ -829,6 +834,134 @@ public class DecisionServiceTest {
         verify(userProfileService).lookup(userProfileId);
     }
 
+    /**
+     * Verify that {@link DecisionService#getVariationForFeature(FeatureFlag, String, Map, ProjectConfig)} looks up
+     * the {@link UserProfileService} once for all the experiments of the feature flag.
+     */
+    @Test
+    public void getVariationForFeatureLooksUpUserProfileOnce() throws Exception {
+        FeatureFlag featureFlag = v4ProjectConfig.getFeatureKeyMapping().get(FEATURE_MUTEX_GROUP_FEATURE_KEY);
+        assertEquals(2, featureFlag.getExperimentIds().size());
+
+        UserProfileService userProfileService = mock(UserProfileService.class);
+        DecisionService decisionService = new DecisionService(new Bucketer(), mockErrorHandler, userProfileService);
+
+        FeatureDecision featureDecision = decisionService.getVariationForFeature(featureFlag, "userId",
+            Collections.<String, String>emptyMap(), v4ProjectConfig);
+        assertEquals(featureFlag.getExperimentIds().get(1), featureDecision.experiment.getId());
+
+        verify(userProfileService, times(1)).lookup("userId");
+        verify(userProfileService, times(1)).save(anyMapOf(String.class, Object.class));
+    }
+
+    /**
+     * Verify that {@link DecisionService#getVariationsForFeatures(List, UserDecisionContext, java.util.concurrent.ForkJoinPool)} looks up
+     * the {@link UserProfileService} once and saves all the new decisions in a single save.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getVariationsForFeaturesSavesUserProfileOnce() throws Exception {
+        UserProfileService userProfileService = mock(UserProfileService.class);
+        DecisionService decisionService = new DecisionService(new Bucketer(), mockErrorHandler, userProfileService);
+        UserDecisionContext userContext = new UserDecisionContext("userId", Collections.<String, String>emptyMap(), v4ProjectConfig);
+
+        List<FeatureDecision> featureDecisions = decisionService.getVariationsForFeatures(
+            v4ProjectConfig.getFeatureFlags(), userContext, null);
+        assertEquals(v4ProjectConfig.getFeatureFlags().size(), featureDecisions.size());
+
+        ArgumentCaptor<Map> userProfileMap = ArgumentCaptor.forClass(Map.class);
+        verify(userProfileService, times(1)).lookup("userId");
+        verify(userProfileService, times(1)).save(userProfileMap.capture());
+
+        UserProfile savedUserProfile = UserProfileUtils.convertMapToUserProfile(userProfileMap.getValue());
+        for (FeatureDecision featureDecision : featureDecisions) {
+            if (featureDecision.decisionSource == FeatureDecision.DecisionSource.FEATURE_TEST) {
+                assertEquals(featureDecision.variation.getId(),
+                    savedUserProfile.experimentBucketMap.get(featureDecision.experiment.getId()).variationId);
+            }
+        }
+
+        // the decisions are memoized, so deciding again does not save again
+        decisionService.getVariationsForFeatures(v4ProjectConfig.getFeatureFlags(), userContext, null);
+        verify(userProfileService, times(1)).save(anyMapOf(String.class, Object.class));
+    }
+
+    /**
+     * Verify that a {@link TypedUserProfileService} is used through its typed methods and is only passed the
+     * decisions that changed.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getVariationsForFeaturesUsesTypedUserProfileService() throws Exception {
+        TypedUserProfileService userProfileService = mock(TypedUserProfileService.class);
+        DecisionService decisionService = new DecisionService(new Bucketer(), mockErrorHandler, userProfileService);
+
+        List<FeatureDecision> featureDecisions = decisionService.getVariationsForFeatures(v4ProjectConfig.getFeatureFlags(),
+            new UserDecisionContext("userId", Collections.<String, String>emptyMap(), v4ProjectConfig), null);
+
+        ArgumentCaptor<Map> changedDecisions = ArgumentCaptor.forClass(Map.class);
+        verify(userProfileService, times(1)).lookupProfile("userId");
+        verify(userProfileService, times(1)).saveDecisions(any(UserProfile.class), changedDecisions.capture());
+        verify(userProfileService, never()).lookup(anyString());
+        verify(userProfileService, never()).save(anyMapOf(String.class, Object.class));
+
+        Map<String, Decision> storedDecisions = new HashMap<String, Decision>();
+        for (FeatureDecision featureDecision : featureDecisions) {
+            if (featureDecision.decisionSource == FeatureDecision.DecisionSource.FEATURE_TEST) {
+                storedDecisions.put(featureDecision.experiment.getId(), new Decision(featureDecision.variation.getId()));
+            }
+        }
+        assertFalse(storedDecisions.isEmpty());
+        assertEquals(storedDecisions, changedDecisions.getValue());
+
+        // with all the decisions already stored, nothing changes and nothing is saved
+        when(userProfileService.lookupProfile("userId")).thenReturn(new UserProfile("userId", storedDecisions));
+        decisionService.getVariationsForFeatures(v4ProjectConfig.getFeatureFlags(),
+            new UserDecisionContext("userId", Collections.<String, String>emptyMap(), v4ProjectConfig), null);
+        verify(userProfileService, times(1)).saveDecisions(any(UserProfile.class), anyMapOf(String.class, Decision.class));
+    }
+
+    /**
+     * Verify that {@link DecisionService#getVariations(Experiment, List, int)} looks up and saves the profiles of each
+     * batch of users with a single call to the {@link BatchUserProfileService}.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getVariationsLooksUpAndSavesUserProfilesInBatches() throws Exception {
+        final Experiment experiment = noAudienceProjectConfig.getExperiments().get(0);
+        final Variation variation = experiment.getVariations().get(0);
+
+        Bucketer bucketer = mock(Bucketer.class);
+        when(bucketer.bucket(eq(experiment), anyString(), eq(noAudienceProjectConfig))).thenReturn(variation);
+
+        Map<String, Decision> storedDecisions = Collections.singletonMap(experiment.getId(), new Decision(variation.getId()));
+        BatchUserProfileService userProfileService = mock(BatchUserProfileService.class);
+        when(userProfileService.lookupAll(any(Collection.class)))
+            .thenReturn(Collections.singletonMap("user1", new UserProfile("user1", storedDecisions).toMap()))
+            .thenReturn(Collections.emptyMap());
+        DecisionService decisionService = new DecisionService(bucketer, mockErrorHandler, userProfileService);
+
+        List<UserDecisionContext> userContexts = new ArrayList<UserDecisionContext>();
+        for (int i = 0; i < 250; i++) {
+            userContexts.add(new UserDecisionContext("user" + i, Collections.<String, String>emptyMap(), noAudienceProjectConfig));
+        }
+
+        List<Variation> variations = decisionService.getVariations(experiment, userContexts, 100);
+        assertEquals(Collections.nCopies(250, variation), variations);
+
+        ArgumentCaptor<Collection> savedUserProfiles = ArgumentCaptor.forClass(Collection.class);
+        verify(userProfileService, times(3)).lookupAll(any(Collection.class));
+        verify(userProfileService, times(3)).saveAll(savedUserProfiles.capture());
+        verify(userProfileService, never()).lookup(anyString());
+        verify(userProfileService, never()).save(anyMapOf(String.class, Object.class));
+        verify(bucketer, never()).bucket(experiment, "user1", noAudienceProjectConfig);
+
+        // the stored decision of user1 did not change, so it is not saved again
+        assertEquals(99, savedUserProfiles.getAllValues().get(0).size());
+        assertEquals(100, savedUserProfiles.getAllValues().get(1).size());
+        assertEquals(50, savedUserProfiles.getAllValues().get(2).size());
+    }
+
     /**
      * Verify that {@link DecisionService#getStoredVariation(Experiment, UserProfile, ProjectConfig)} returns null and logs properly
      * when there is no stored variation for that user in that {@link Experiment} in the {@link UserProfileService}.
@@ -0,0 +1,209 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MappedFileUserProfileServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path path;
+    private MappedFileUserProfileService userProfileService;
+
+    @Before
+    public void setUp() throws Exception {
+        path = temporaryFolder.getRoot().toPath().resolve("user-profiles.bin");
+        userProfileService = open(64 * 1024, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        userProfileService.close();
+    }
+
+    @Test
+    public void lookupReturnsSavedProfile() throws Exception {
+        Map<String, Object> profile = userProfile("user", "1234", "5678", "9012", "3456");
+        userProfileService.save(profile);
+
+        assertEquals(profile, userProfileService.lookup("user"));
+        assertNull(userProfileService.lookup("other"));
+    }
+
+    @Test
+    public void nonNumericIdsAreStored() throws Exception {
+        Map<String, Object> profile = userProfile("üser ☃", "experiment_key", "0123", "-1", "99999999999999999999");
+        userProfileService.save(profile);
+
+        assertEquals(profile, userProfileService.lookup("üser ☃"));
+    }
+
+    @Test
+    public void userIdWithUnpairedSurrogateIsFound() throws Exception {
+        String userId = "user\uD800";
+        Map<String, Object> profile = userProfile(userId, "1234", "5678");
+        userProfileService.save(profile);
+
+        Map<String, Object> savedProfile = userProfileService.lookup(userId);
+        assertNotNull(savedProfile);
+        assertEquals(profile.get(UserProfileService.experimentBucketMapKey), savedProfile.get(UserProfileService.experimentBucketMapKey));
+    }
+
+    @Test
+    public void saveReplacesProfile() throws Exception {
+        userProfileService.save(userProfile("user", "1234", "5678"));
+        Map<String, Object> profile = userProfile("user", "1234", "5678", "9012", "3456");
+        userProfileService.save(profile);
+
+        assertEquals(profile, userProfileService.lookup("user"));
+        assertEquals(1, userProfileService.size());
+    }
+
+    @Test
+    public void profilesArePersisted() throws Exception {
+        userProfileService.save(userProfile("user1", "1234", "5678"));
+        userProfileService.save(userProfile("user2", "1234", "5679"));
+        userProfileService.save(userProfile("user1", "1234", "5680"));
+        userProfileService.close();
+
+        userProfileService = open(64 * 1024, 1024 * 1024);
+        assertEquals(2, userProfileService.size());
+        assertEquals(userProfile("user1", "1234", "5680"), userProfileService.lookup("user1"));
+        assertEquals(userProfile("user2", "1234", "5679"), userProfileService.lookup("user2"));
+    }
+
+    @Test
+    public void corruptRecordIsDiscarded() throws Exception {
+        userProfileService.save(userProfile("user1", "1234", "5678"));
+        userProfileService.save(userProfile("user2", "1234", "5679"));
+        userProfileService.close();
+
+        // flip the last payload byte of the second record, as a write torn by a crash would leave it
+        long length;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            int firstRecordSize = 8 + file.readInt();
+            file.seek(firstRecordSize);
+            int secondRecordSize = 8 + file.readInt();
+            length = firstRecordSize + secondRecordSize - 1;
+            file.seek(length);
+            byte last = file.readByte();
+            file.seek(length);
+            file.writeByte(last ^ 0xFF);
+        }
+
+        userProfileService = open(64 * 1024, 1024 * 1024);
+        assertEquals(userProfile("user1", "1234", "5678"), userProfileService.lookup("user1"));
+        assertNull(userProfileService.lookup("user2"));
+
+        userProfileService.save(userProfile("user3", "1234", "5680"));
+        assertEquals(userProfile("user3", "1234", "5680"), userProfileService.lookup("user3"));
+    }
+
+    @Test
+    public void fileIsCompactedAndGrown() throws Exception {
+        userProfileService.close();
+        userProfileService = open(1024, 64 * 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            userProfileService.save(userProfile("user" + (i % 10), "1234", String.valueOf(i)));
+        }
+        for (int i = 0; i < 200; i++) {
+            userProfileService.save(userProfile("other" + i, "1234", "5678"));
+        }
+
+        assertEquals(210, userProfileService.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(userProfile("user" + i, "1234", String.valueOf(990 + i)), userProfileService.lookup("user" + i));
+        }
+        userProfileService.close();
+
+        userProfileService = open(1024, 64 * 1024);
+        assertEquals(210, userProfileService.size());
+        assertEquals(userProfile("other199", "1234", "5678"), userProfileService.lookup("other199"));
+    }
+
+    @Test
+    public void saveFailsWhenFileIsFull() throws Exception {
+        userProfileService.close();
+        userProfileService = open(1024, 2048);
+
+        try {
+            for (int i = 0; i < 1000; i++) {
+                userProfileService.save(userProfile("user" + i, "1234", "5678"));
+            }
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(userProfile("user0", "1234", "5678"), userProfileService.lookup("user0"));
+    }
+
+    @Test
+    public void manyUsersAreIndexed() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            userProfileService.save(userProfile(String.valueOf(i), "1234", String.valueOf(i)));
+        }
+
+        assertEquals(10000, userProfileService.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(userProfile(String.valueOf(i), "1234", String.valueOf(i)), userProfileService.lookup(String.valueOf(i)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void fileCannotBeOpenedTwice() throws Exception {
+        open(64 * 1024, 1024 * 1024);
+    }
+
+    private MappedFileUserProfileService open(long initialFileSize, long maxFileSize) throws IOException {
+        return MappedFileUserProfileService.builder()
+            .withPath(path)
+            .withInitialFileSize(initialFileSize)
+            .withMaxFileSize(maxFileSize)
+            .build();
+    }
+
+    private static Map<String, Object> userProfile(String userId, String... decisions) {
+        Map<String, Map<String, String>> experimentBucketMap = new HashMap<>();
+        for (int i = 0; i < decisions.length; i += 2) {
+            Map<String, String> decision = new HashMap<>();
+            decision.put(UserProfileService.variationIdKey, decisions[i + 1]);
+            experimentBucketMap.put(decisions[i], decision);
+        }
+
+        Map<String, Object> userProfile = new HashMap<>();
+        userProfile.put(UserProfileService.userIdKey, userId);
+        userProfile.put(UserProfileService.experimentBucketMapKey, experimentBucketMap);
+        return userProfile;
+    }
+}
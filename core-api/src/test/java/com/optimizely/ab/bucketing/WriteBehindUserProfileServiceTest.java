@@ -0,0 +1,197 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.bucketing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+public class WriteBehindUserProfileServiceTest {
+
+    private UserProfileService userProfileService;
+    private WriteBehindUserProfileService writeBehindUserProfileService;
+
+    @Before
+    public void setUp() {
+        userProfileService = mock(UserProfileService.class, withSettings().extraInterfaces(AutoCloseable.class));
+        writeBehindUserProfileService = WriteBehindUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withBatchSize(2)
+            .withMaxSize(3)
+            .withFlushInterval(1, TimeUnit.HOURS)
+            .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writeBehindUserProfileService.close();
+    }
+
+    @Test
+    public void saveIsBufferedAndCoalesced() throws Exception {
+        Map<String, Object> firstProfile = userProfile("user", "experiment1", "variation1");
+        Map<String, Object> secondProfile = userProfile("user", "experiment2", "variation2");
+
+        writeBehindUserProfileService.save(firstProfile);
+        writeBehindUserProfileService.save(secondProfile);
+        verify(userProfileService, never()).save(anyMapOf(String.class, Object.class));
+        assertSame(secondProfile, writeBehindUserProfileService.lookup("user"));
+
+        writeBehindUserProfileService.flush();
+        verify(userProfileService, times(1)).save(anyMapOf(String.class, Object.class));
+        verify(userProfileService).save(secondProfile);
+        verify(userProfileService, never()).lookup("user");
+
+        writeBehindUserProfileService.lookup("user");
+        verify(userProfileService).lookup("user");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushUsesBatchSave() throws Exception {
+        BatchUserProfileService batchUserProfileService = mock(BatchUserProfileService.class);
+        writeBehindUserProfileService.close();
+        writeBehindUserProfileService = WriteBehindUserProfileService.builder()
+            .withUserProfileService(batchUserProfileService)
+            .withBatchSize(2)
+            .withFlushInterval(1, TimeUnit.HOURS)
+            .build();
+
+        // the batch size triggers a flush on the background thread
+        writeBehindUserProfileService.save(userProfile("user1", "experiment", "variation"));
+        writeBehindUserProfileService.save(userProfile("user2", "experiment", "variation"));
+
+        ArgumentCaptor<Collection> batch = ArgumentCaptor.forClass(Collection.class);
+        verify(batchUserProfileService, timeout(1000)).saveAll(batch.capture());
+        assertEquals(2, batch.getValue().size());
+        verify(batchUserProfileService, never()).save(anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void saveIsSynchronousWhenBufferIsFull() throws Exception {
+        writeBehindUserProfileService.close();
+        writeBehindUserProfileService = WriteBehindUserProfileService.builder()
+            .withUserProfileService(userProfileService)
+            .withBatchSize(10)
+            .withMaxSize(1)
+            .withFlushInterval(1, TimeUnit.HOURS)
+            .build();
+
+        writeBehindUserProfileService.save(userProfile("user1", "experiment", "variation"));
+        Map<String, Object> overflowProfile = userProfile("user2", "experiment", "variation");
+        writeBehindUserProfileService.save(overflowProfile);
+
+        verify(userProfileService, times(1)).save(anyMapOf(String.class, Object.class));
+        verify(userProfileService).save(overflowProfile);
+    }
+
+    @Test
+    public void closeFlushesBufferedProfiles() throws Exception {
+        Map<String, Object> profile = userProfile("user", "experiment", "variation");
+        writeBehindUserProfileService.save(profile);
+
+        writeBehindUserProfileService.close();
+
+        verify(userProfileService).save(profile);
+        verify((AutoCloseable) userProfileService).close();
+    }
+
+    @Test
+    public void closeDoesNotShutDownConfiguredExecutor() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        try {
+            writeBehindUserProfileService.close();
+            writeBehindUserProfileService = WriteBehindUserProfileService.builder()
+                .withUserProfileService(userProfileService)
+                .withExecutor(executor)
+                .build();
+            Map<String, Object> profile = userProfile("user", "experiment", "variation");
+            writeBehindUserProfileService.save(profile);
+
+            writeBehindUserProfileService.close();
+
+            verify(userProfileService).save(profile);
+            assertFalse(executor.isShutdown());
+            // the scheduled flush was cancelled
+            assertTrue(executor.getQueue().isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedSaveIsRetried() throws Exception {
+        Map<String, Object> profile = userProfile("user", "experiment", "variation");
+        doThrow(new Exception("unavailable")).doNothing().when(userProfileService).save(profile);
+
+        writeBehindUserProfileService.save(profile);
+        writeBehindUserProfileService.flush();
+
+        // buffered again, so decisions stay sticky until the retry
+        assertSame(profile, writeBehindUserProfileService.lookup("user"));
+
+        writeBehindUserProfileService.flush();
+
+        verify(userProfileService, times(2)).save(profile);
+        verify(userProfileService, never()).lookup("user");
+    }
+
+    @Test
+    public void newerSaveWinsOverFailedSave() throws Exception {
+        Map<String, Object> failedProfile = userProfile("user", "experiment1", "variation1");
+        Map<String, Object> newerProfile = userProfile("user", "experiment2", "variation2");
+        doAnswer(invocation -> {
+            writeBehindUserProfileService.save(newerProfile);
+            throw new Exception("unavailable");
+        }).when(userProfileService).save(failedProfile);
+
+        writeBehindUserProfileService.save(failedProfile);
+        writeBehindUserProfileService.flush();
+
+        assertSame(newerProfile, writeBehindUserProfileService.lookup("user"));
+    }
+
+    private static Map<String, Object> userProfile(String userId, String experimentId, String variationId) {
+        Map<String, Object> userProfile = new HashMap<>();
+        userProfile.put(UserProfileService.userIdKey, userId);
+        userProfile.put(UserProfileService.experimentBucketMapKey, Collections.singletonMap(experimentId,
+            Collections.singletonMap(UserProfileService.variationIdKey, variationId)));
+        return userProfile;
+    }
+}
@@ -123,6 +123,39 @@ public class MurmurHash3Test {
         }
 
     }
+
+    private void doSegments(String s, int split) {
+        String first = s.substring(0, split);
+        String second = s.substring(split);
+        int hash1 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), 123456789);
+        int hash2 = MurmurHash3.murmurhash3_x86_32(first, second, 123456789);
+        assertEquals(hash1, hash2);
+    }
+
+    @Test
+    public void testSegmentedStringHash() {
+        doSegments("", 0);
+        doSegments("hello!", 0);
+        doSegments("hello!", 3);
+        doSegments("hello!", 6);
+        // surrogate pair split across the two segments
+        doSegments("ab\uD83D\uDE00cd", 3);
+        // unpaired high surrogate at the end of the second segment
+        doSegments("ab\uD83D", 1);
+
+        Random r = new Random();
+        StringBuilder sb = new StringBuilder(40);
+        for (int i = 0; i < 100000; i++) {
+            sb.setLength(0);
+            int len = r.nextInt(16);
+            for (int j = 0; j < len; j++) {
+                sb.appendCodePoint(r.nextInt(Character.MAX_CODE_POINT + 1));
+            }
+
+            String s = sb.toString();
+            doSegments(s, r.nextInt(s.length() + 1));
+        }
+    }
 }
 
 
@@ -0,0 +1,109 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.config;
+
+import org.junit.Test;
+
+import static com.optimizely.ab.config.FeatureVariable.VariableType.BOOLEAN;
+import static com.optimizely.ab.config.FeatureVariable.VariableType.DOUBLE;
+import static com.optimizely.ab.config.FeatureVariable.VariableType.INTEGER;
+import static com.optimizely.ab.config.FeatureVariable.VariableType.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FeatureVariableValue}.
+ */
+public class FeatureVariableValueTest {
+
+    @Test
+    public void parseInteger() {
+        FeatureVariableValue value = FeatureVariableValue.parse("42", INTEGER);
+
+        assertTrue(value.isValid());
+        assertEquals(42, value.getValue());
+        assertEquals(42, value.getIntValue(-1));
+        assertEquals(-1.0, value.getDoubleValue(-1.0), 0);
+        assertTrue(value.getBooleanValue(true));
+    }
+
+    @Test
+    public void parseDouble() {
+        FeatureVariableValue value = FeatureVariableValue.parse("14.99", DOUBLE);
+
+        assertTrue(value.isValid());
+        assertEquals(14.99, value.getValue());
+        assertEquals(14.99, value.getDoubleValue(-1.0), 0);
+        assertEquals(-1, value.getIntValue(-1));
+    }
+
+    @Test
+    public void parseBoolean() {
+        assertTrue(FeatureVariableValue.parse("true", BOOLEAN).getBooleanValue(false));
+        assertFalse(FeatureVariableValue.parse("TRUE_ISH", BOOLEAN).getBooleanValue(true));
+        assertEquals(Boolean.FALSE, FeatureVariableValue.parse("false", BOOLEAN).getValue());
+    }
+
+    @Test
+    public void parseString() {
+        FeatureVariableValue value = FeatureVariableValue.parse("42", STRING);
+
+        assertTrue(value.isValid());
+        assertEquals("42", value.getValue());
+        assertEquals("42", value.getStringValue());
+        assertEquals(-1, value.getIntValue(-1));
+    }
+
+    @Test
+    public void unparsableValuesAreNotValid() {
+        FeatureVariableValue integerValue = FeatureVariableValue.parse("1.5", INTEGER);
+        assertFalse(integerValue.isValid());
+        assertNull(integerValue.getValue());
+        assertEquals("1.5", integerValue.getStringValue());
+        assertEquals(-1, integerValue.getIntValue(-1));
+
+        FeatureVariableValue doubleValue = FeatureVariableValue.parse("not a number", DOUBLE);
+        assertFalse(doubleValue.isValid());
+        assertEquals(-1.0, doubleValue.getDoubleValue(-1.0), 0);
+
+        assertFalse(FeatureVariableValue.parse(null, STRING).isValid());
+        assertFalse(FeatureVariableValue.parse("42", null).isValid());
+    }
+
+    @Test
+    public void usageInstanceReusesTheParsedValueOfTheSameType() {
+        FeatureVariableUsageInstance usageInstance = new FeatureVariableUsageInstance("id", "42");
+
+        FeatureVariableValue integerValue = usageInstance.getTypedValue(INTEGER);
+        assertSame(integerValue, usageInstance.getTypedValue(INTEGER));
+
+        FeatureVariableValue stringValue = usageInstance.getTypedValue(STRING);
+        assertNotSame(integerValue, stringValue);
+        assertEquals("42", stringValue.getValue());
+    }
+
+    @Test
+    public void featureVariableReusesTheParsedDefaultValue() {
+        FeatureVariable variable = new FeatureVariable("id", "key", "7", null, INTEGER);
+
+        assertSame(variable.getTypedDefaultValue(), variable.getTypedDefaultValue());
+        assertEquals(7, variable.getTypedDefaultValue().getIntValue(-1));
+    }
+}
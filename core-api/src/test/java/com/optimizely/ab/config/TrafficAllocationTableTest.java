@@ -0,0 +1,133 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.config;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link TrafficAllocationTable}.
+ */
+public class TrafficAllocationTableTest {
+
+    private static final Map<String, String> ENTITIES = new HashMap<String, String>();
+
+    static {
+        ENTITIES.put("a", "A");
+        ENTITIES.put("b", "B");
+        ENTITIES.put("c", "C");
+    }
+
+    @Test
+    public void getResolvesBucketValuesAtRangeBoundaries() {
+        TrafficAllocationTable<String> table = TrafficAllocationTable.create(Arrays.asList(
+            new TrafficAllocation("a", 2500),
+            new TrafficAllocation("b", 5000),
+            new TrafficAllocation("c", 10000)
+        ), ENTITIES);
+
+        assertEquals(3, table.size());
+        assertEquals("A", table.get(0));
+        assertEquals("A", table.get(2499));
+        assertEquals("B", table.get(2500));
+        assertEquals("B", table.get(4999));
+        assertEquals("C", table.get(5000));
+        assertEquals("C", table.get(9999));
+        assertNull(table.get(10000));
+    }
+
+    @Test
+    public void getReturnsNullForUnallocatedTraffic() {
+        TrafficAllocationTable<String> table = TrafficAllocationTable.create(Arrays.asList(
+            new TrafficAllocation("a", 1000),
+            new TrafficAllocation("", 2000),
+            new TrafficAllocation("unknown", 3000)
+        ), ENTITIES);
+
+        assertEquals("A", table.get(999));
+        assertNull(table.get(1000));
+        assertNull(table.get(2000));
+        assertNull(table.get(3000));
+        assertNull(TrafficAllocationTable.create(Collections.<TrafficAllocation>emptyList(), ENTITIES).get(0));
+    }
+
+    /**
+     * Verify that the table picks the same entity as a linear scan for the first matching range, including for
+     * ranges that are out of order or zero width, across every bucket value.
+     */
+    @Test
+    public void getMatchesLinearScanOfAllocations() {
+        Random random = new Random(42);
+        String[] entityIds = {"a", "b", "c", ""};
+
+        for (int i = 0; i < 100; i++) {
+            List<TrafficAllocation> trafficAllocations = new ArrayList<TrafficAllocation>();
+            int allocationCount = random.nextInt(8);
+            for (int j = 0; j < allocationCount; j++) {
+                trafficAllocations.add(new TrafficAllocation(entityIds[random.nextInt(entityIds.length)],
+                    random.nextInt(10001)));
+            }
+            if (random.nextBoolean()) {
+                Collections.sort(trafficAllocations, (a, b) -> a.getEndOfRange() - b.getEndOfRange());
+            }
+
+            TrafficAllocationTable<String> table = TrafficAllocationTable.create(trafficAllocations, ENTITIES);
+            for (int bucketValue = 0; bucketValue < 10000; bucketValue++) {
+                assertEquals(linearScan(trafficAllocations, bucketValue), table.get(bucketValue));
+            }
+        }
+    }
+
+    @Test
+    public void experimentAndGroupTablesResolveConfigEntities() {
+        ProjectConfig projectConfig = validProjectConfigV4();
+
+        for (Experiment experiment : projectConfig.getExperiments()) {
+            for (TrafficAllocation trafficAllocation : experiment.getTrafficAllocation()) {
+                assertSame(experiment.getVariationIdToVariationMap().get(trafficAllocation.getEntityId()),
+                    experiment.getTrafficAllocationTable().get(trafficAllocation.getEndOfRange() - 1));
+            }
+        }
+
+        for (Group group : projectConfig.getGroups()) {
+            for (TrafficAllocation trafficAllocation : group.getTrafficAllocation()) {
+                assertSame(projectConfig.getExperimentIdMapping().get(trafficAllocation.getEntityId()),
+                    group.getTrafficAllocationTable().get(trafficAllocation.getEndOfRange() - 1));
+            }
+        }
+    }
+
+    private static String linearScan(List<TrafficAllocation> trafficAllocations, int bucketValue) {
+        for (TrafficAllocation trafficAllocation : trafficAllocations) {
+            if (bucketValue < trafficAllocation.getEndOfRange()) {
+                return ENTITIES.get(trafficAllocation.getEntityId());
+            }
+        }
+        return null;
+    }
+}
@@ -174,6 +174,41 @@ public class AudienceConditionEvaluationTest {
             "Audience condition \"{name='browser_type', type='blah', match='exists', value='firefox'}\" has an unknown condition type. You may need to upgrade to a newer release of the Optimizely SDK");
     }
 
+    /**
+     * Verify that a match type that could not be resolved when the condition was created is reported
+     * on every evaluation.
+     */
+    @Test
+    public void unknownMatchTypeIsReportedOnEachEvaluation() throws Exception {
+        UserAttribute testInstance = new UserAttribute("browser_type", "custom_attribute", "blah", "firefox");
+        assertNull(testInstance.evaluate(null, testUserAttributes));
+        assertNull(testInstance.evaluate(null, testUserAttributes));
+        logbackVerifier.expectMessage(Level.WARN,
+            "Audience condition \"{name='browser_type', type='custom_attribute', match='blah', value='firefox'}\" uses an unknown match type. You may need to upgrade to a newer release of the Optimizely SDK",
+            2);
+    }
+
+    /**
+     * Verify that a resolved numeric condition gives the same result when it is evaluated repeatedly
+     * against attribute values of different number types.
+     */
+    @Test
+    public void numericMatchConditionsAreReusableAcrossNumberTypes() throws Exception {
+        UserAttribute testInstanceExact = new UserAttribute("num_size", "custom_attribute", "exact", 3);
+        UserAttribute testInstanceGT = new UserAttribute("num_size", "custom_attribute", "gt", 2.5);
+        UserAttribute testInstanceLT = new UserAttribute("num_size", "custom_attribute", "lt", (float) 3.5);
+
+        for (Number attributeValue : new Number[]{3, 3L, 3.0, (float) 3}) {
+            Map<String, Object> attributes = Collections.<String, Object>singletonMap("num_size", attributeValue);
+            assertTrue(testInstanceExact.evaluate(null, attributes));
+            assertTrue(testInstanceGT.evaluate(null, attributes));
+            assertTrue(testInstanceLT.evaluate(null, attributes));
+        }
+        assertFalse(testInstanceExact.evaluate(null, Collections.singletonMap("num_size", 4L)));
+        assertFalse(testInstanceGT.evaluate(null, Collections.singletonMap("num_size", 2)));
+        assertFalse(testInstanceLT.evaluate(null, Collections.singletonMap("num_size", 3.5)));
+    }
+
     /**
      * Verify that UserAttribute.evaluate for EXIST match type returns true for known visitor
      * attributes with non-null instances and empty string.
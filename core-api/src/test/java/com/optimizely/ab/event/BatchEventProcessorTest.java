@@ -19,6 +19,9 @@ package com.optimizely.ab.event;
 import com.optimizely.ab.EventHandlerRule;
 import com.optimizely.ab.config.ProjectConfig;
 import com.optimizely.ab.event.internal.*;
+import com.optimizely.ab.event.internal.payload.Event;
+import com.optimizely.ab.event.internal.payload.Snapshot;
+import com.optimizely.ab.event.internal.payload.Visitor;
 import com.optimizely.ab.notification.NotificationCenter;
 import org.junit.After;
 import org.junit.Before;
@@ -28,7 +31,12 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -87,7 +95,7 @@ public class BatchEventProcessorTest {
     public void testFlushMaxBatchSize() throws Exception {
         CountDownLatch countDownLatch = new CountDownLatch(1);
         setEventProcessor(logEvent -> {
-            assertEquals(MAX_BATCH_SIZE, logEvent.getEventBatch().getVisitors().size());
+            assertEquals(MAX_BATCH_SIZE, countSnapshots(logEvent));
             eventHandlerRule.dispatchEvent(logEvent);
             countDownLatch.countDown();
         });
@@ -107,6 +115,268 @@ public class BatchEventProcessorTest {
         eventHandlerRule.expectCalls(1);
     }
 
+    @Test
+    public void testFlushMaxBatchSizeWithRingBuffer() throws Exception {
+        eventQueue = new RingBufferQueue<>(100, RingBufferQueue.WaitStrategy.BLOCKING);
+        CountDownLatch countDownLatch = new CountDownLatch(2);
+        setEventProcessor(logEvent -> {
+            assertEquals(MAX_BATCH_SIZE, countSnapshots(logEvent));
+            eventHandlerRule.dispatchEvent(logEvent);
+            countDownLatch.countDown();
+        });
+
+        for (int i = 0; i < MAX_BATCH_SIZE * 2; i++) {
+            String eventName = EVENT_NAME + i;
+            eventProcessor.process(buildConversionEvent(eventName));
+            eventHandlerRule.expectConversion(eventName, USER_ID);
+        }
+
+        if (!countDownLatch.await(MAX_DURATION_MS * 3, TimeUnit.MILLISECONDS)) {
+            fail("Exceeded timeout waiting for events to flush.");
+        }
+
+        assertEquals(0, eventQueue.size());
+        eventHandlerRule.expectCalls(2);
+    }
+
+    @Test
+    public void testFlushMaxBatchBytes() throws Exception {
+        int eventBytes = EventFactory.estimateSize(buildConversionEvent(EVENT_NAME + 0));
+        CountDownLatch countDownLatch = new CountDownLatch(2);
+        eventProcessor = BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withBatchSize(MAX_BATCH_SIZE)
+            .withFlushInterval(MAX_DURATION_MS)
+            .withMaxBatchBytes(eventBytes * 3)
+            .withEventHandler(logEvent -> {
+                assertEquals(3, countSnapshots(logEvent));
+                eventHandlerRule.dispatchEvent(logEvent);
+                countDownLatch.countDown();
+            })
+            .withTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+
+        for (int i = 0; i < 6; i++) {
+            String eventName = EVENT_NAME + i;
+            eventProcessor.process(buildConversionEvent(eventName));
+            eventHandlerRule.expectConversion(eventName, USER_ID);
+        }
+
+        if (!countDownLatch.await(MAX_DURATION_MS / 2, TimeUnit.MILLISECONDS)) {
+            fail("Exceeded timeout waiting for events to flush.");
+        }
+
+        eventHandlerRule.expectCalls(2);
+    }
+
+    @Test
+    public void testSplitOversizedLogEvent() throws Exception {
+        List<UserEvent> userEvents = new ArrayList<>();
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            userEvents.add(buildConversionEvent(EVENT_NAME + i));
+        }
+        int maxRequestBytes = EventFactory.createLogEvent(userEvents).getBodyBytes().length / 3;
+
+        List<LogEvent> logEvents = new CopyOnWriteArrayList<>();
+        eventProcessor = BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withBatchSize(MAX_BATCH_SIZE)
+            .withFlushInterval(MAX_DURATION_MS)
+            .withMaxRequestBytes(maxRequestBytes)
+            .withEventHandler(logEvent -> {
+                logEvents.add(logEvent);
+                eventHandlerRule.dispatchEvent(logEvent);
+            })
+            .withTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+
+        eventProcessor.process(userEvents);
+        eventProcessor.close();
+
+        assertTrue(logEvents.size() > 1);
+        for (LogEvent logEvent : logEvents) {
+            assertTrue(logEvent.getBodyBytes().length <= maxRequestBytes);
+        }
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            eventHandlerRule.expectConversion(EVENT_NAME + i, USER_ID);
+        }
+    }
+
+    @Test
+    public void testInvalidMaxBytesUseDefault() {
+        eventProcessor = BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withEventHandler(new NoopEventHandler())
+            .withMaxBatchBytes(-1)
+            .withMaxRequestBytes(-1)
+            .build();
+
+        assertEquals(BatchEventProcessor.DEFAULT_MAX_BATCH_BYTES, eventProcessor.maxBatchBytes);
+        assertEquals(BatchEventProcessor.DEFAULT_MAX_REQUEST_BYTES, eventProcessor.maxRequestBytes);
+    }
+
+    @Test
+    public void testShardedProcessing() throws Exception {
+        Map<String, List<String>> eventNamesByUser = new ConcurrentHashMap<>();
+        Set<Thread> consumerThreads = ConcurrentHashMap.newKeySet();
+        eventProcessor = BatchEventProcessor.builder()
+            .withShards(4)
+            .withBatchSize(MAX_BATCH_SIZE)
+            .withFlushInterval(MAX_DURATION_MS)
+            .withEventHandler(logEvent -> {
+                consumerThreads.add(Thread.currentThread());
+                for (Visitor visitor : logEvent.getEventBatch().getVisitors()) {
+                    for (Snapshot snapshot : visitor.getSnapshots()) {
+                        for (Event event : snapshot.getEvents()) {
+                            eventNamesByUser.computeIfAbsent(visitor.getVisitorId(), userId -> new CopyOnWriteArrayList<>())
+                                .add(event.getKey());
+                        }
+                    }
+                }
+            })
+            .withTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .build();
+
+        for (int i = 0; i < 5; i++) {
+            for (int user = 0; user < 20; user++) {
+                eventProcessor.process(UserEventFactory.createConversionEvent(projectConfig, USER_ID + user, EVENT_ID,
+                    EVENT_NAME + i, Collections.emptyMap(), Collections.emptyMap()));
+            }
+        }
+        eventProcessor.close();
+        eventProcessor = null;
+
+        // the events of each user are dispatched in order, by the consumer of the user's shard
+        assertEquals(20, eventNamesByUser.size());
+        for (List<String> eventNames : eventNamesByUser.values()) {
+            assertEquals(Arrays.asList(EVENT_NAME + 0, EVENT_NAME + 1, EVENT_NAME + 2, EVENT_NAME + 3, EVENT_NAME + 4), eventNames);
+        }
+        assertTrue(consumerThreads.size() > 1);
+    }
+
+    @Test
+    public void testShardedProcessingWithConfiguredQueue() throws Exception {
+        eventProcessor = BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withShards(4)
+            .withEventHandler(eventHandlerRule)
+            .build();
+
+        eventProcessor.process(buildConversionEvent(EVENT_NAME));
+        eventProcessor.close();
+
+        assertEquals(0, eventQueue.size());
+        eventHandlerRule.expectConversion(EVENT_NAME, USER_ID);
+    }
+
+    @Test
+    public void testDropNewestBackpressure() throws Exception {
+        eventQueue = new ArrayBlockingQueue<>(2);
+        BatchEventProcessor unstartedEventProcessor = buildUnstartedEventProcessor(BackpressurePolicy.dropNewest());
+
+        UserEvent userEvent1 = buildConversionEvent(EVENT_NAME + 1);
+        UserEvent userEvent2 = buildConversionEvent(EVENT_NAME + 2);
+        unstartedEventProcessor.process(userEvent1);
+        unstartedEventProcessor.process(userEvent2);
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 3));
+
+        assertEquals(Arrays.asList(userEvent1, userEvent2), Arrays.asList(eventQueue.toArray()));
+        assertEquals(1, unstartedEventProcessor.getBackpressurePolicy().getDroppedCount());
+        assertEquals(1, unstartedEventProcessor.getBackpressurePolicy().getLostCount());
+    }
+
+    @Test
+    public void testDropOldestBackpressure() throws Exception {
+        eventQueue = new ArrayBlockingQueue<>(2);
+        BatchEventProcessor unstartedEventProcessor = buildUnstartedEventProcessor(BackpressurePolicy.dropOldest());
+
+        UserEvent userEvent2 = buildConversionEvent(EVENT_NAME + 2);
+        UserEvent userEvent3 = buildConversionEvent(EVENT_NAME + 3);
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 1));
+        unstartedEventProcessor.flush();
+        unstartedEventProcessor.process(userEvent2);
+        unstartedEventProcessor.process(userEvent3);
+
+        // the flush signal is kept
+        assertEquals(2, eventQueue.size());
+        assertEquals(userEvent3, Arrays.asList(eventQueue.toArray()).get(1));
+        assertEquals(2, unstartedEventProcessor.getBackpressurePolicy().getEvictedCount());
+    }
+
+    @Test
+    public void testDropOldestBackpressureWhenConsumerTakesEvent() throws Exception {
+        // the consumer takes the oldest event between the producer finding it and removing it
+        eventQueue = new ArrayBlockingQueue<Object>(1) {
+            @Override
+            public boolean remove(Object o) {
+                poll();
+                return super.remove(o);
+            }
+        };
+        BatchEventProcessor unstartedEventProcessor = buildUnstartedEventProcessor(BackpressurePolicy.dropOldest());
+
+        UserEvent userEvent2 = buildConversionEvent(EVENT_NAME + 2);
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 1));
+        unstartedEventProcessor.process(userEvent2);
+
+        assertEquals(Collections.singletonList(userEvent2), Arrays.asList(eventQueue.toArray()));
+        assertEquals(0, unstartedEventProcessor.getBackpressurePolicy().getEvictedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDropOldestBackpressureWithRingBuffer() throws Exception {
+        eventProcessor = BatchEventProcessor.builder()
+            .withRingBuffer(16, RingBufferQueue.WaitStrategy.BLOCKING)
+            .withBackpressurePolicy(BackpressurePolicy.dropOldest())
+            .withEventHandler(eventHandlerRule)
+            .build();
+    }
+
+    @Test
+    public void testBlockBackpressure() throws Exception {
+        eventQueue = new ArrayBlockingQueue<>(1);
+        BatchEventProcessor unstartedEventProcessor =
+            buildUnstartedEventProcessor(BackpressurePolicy.block(10, TimeUnit.MILLISECONDS));
+
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 1));
+        unstartedEventProcessor.process(Arrays.asList(buildConversionEvent(EVENT_NAME + 2), buildConversionEvent(EVENT_NAME + 3)));
+
+        assertEquals(1, eventQueue.size());
+        assertEquals(2, unstartedEventProcessor.getBackpressurePolicy().getTimedOutCount());
+    }
+
+    @Test
+    public void testSampleBackpressure() throws Exception {
+        eventQueue = new ArrayBlockingQueue<>(10);
+        BatchEventProcessor unstartedEventProcessor = buildUnstartedEventProcessor(BackpressurePolicy.sample(0.5, 0));
+
+        for (int i = 0; i < 10; i++) {
+            unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + i));
+        }
+
+        assertEquals(5, eventQueue.size());
+        assertEquals(5, unstartedEventProcessor.getBackpressurePolicy().getSampledOutCount());
+    }
+
+    @Test
+    public void testCallerRunsBackpressure() throws Exception {
+        eventQueue = new ArrayBlockingQueue<>(1);
+        AtomicInteger dispatchCount = new AtomicInteger();
+        BatchEventProcessor unstartedEventProcessor = BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withBackpressurePolicy(BackpressurePolicy.callerRuns())
+            .withEventHandler(logEvent -> dispatchCount.incrementAndGet())
+            .build(false);
+
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 1));
+        unstartedEventProcessor.process(buildConversionEvent(EVENT_NAME + 2));
+
+        assertEquals(1, eventQueue.size());
+        assertEquals(1, dispatchCount.get());
+        assertEquals(1, unstartedEventProcessor.getBackpressurePolicy().getCallerRunCount());
+        assertEquals(0, unstartedEventProcessor.getBackpressurePolicy().getLostCount());
+    }
+
     @Test
     public void testFlushOnMaxTimeout() throws Exception {
         UserEvent userEvent = buildConversionEvent(EVENT_NAME);
@@ -146,6 +416,21 @@ public class BatchEventProcessorTest {
         eventHandlerRule.expectCalls(2);
     }
 
+    @Test
+    public void testProcessList() throws Exception {
+        setEventProcessor(logEvent -> {
+            assertEquals(2, countSnapshots(logEvent));
+            eventHandlerRule.dispatchEvent(logEvent);
+        });
+
+        eventProcessor.process(Arrays.asList(buildConversionEvent(EVENT_NAME + 1), buildConversionEvent(EVENT_NAME + 2)));
+        eventProcessor.flush();
+        eventHandlerRule.expectConversion(EVENT_NAME + 1, USER_ID);
+        eventHandlerRule.expectConversion(EVENT_NAME + 2, USER_ID);
+
+        eventHandlerRule.expectCalls(1);
+    }
+
     @Test
     public void testFlushOnMismatchRevision() throws Exception {
         setEventProcessor(logEvent -> eventHandlerRule.dispatchEvent(logEvent));
@@ -297,6 +582,14 @@ public class BatchEventProcessorTest {
         eventProcessor = BatchEventProcessor.builder().build();
     }
 
+    private BatchEventProcessor buildUnstartedEventProcessor(BackpressurePolicy backpressurePolicy) {
+        return BatchEventProcessor.builder()
+            .withEventQueue(eventQueue)
+            .withBackpressurePolicy(backpressurePolicy)
+            .withEventHandler(eventHandlerRule)
+            .build(false);
+    }
+
     private void setEventProcessor(EventHandler eventHandler) {
         eventProcessor = BatchEventProcessor.builder()
             .withEventQueue(eventQueue)
@@ -308,6 +601,11 @@ public class BatchEventProcessorTest {
             .build();
     }
 
+    // the events of a user are sent as the snapshots of a single visitor
+    private static int countSnapshots(LogEvent logEvent) {
+        return logEvent.getEventBatch().getVisitors().stream().mapToInt(visitor -> visitor.getSnapshots().size()).sum();
+    }
+
     private ConversionEvent buildConversionEvent(String eventName) {
         return buildConversionEvent(eventName, projectConfig);
     }
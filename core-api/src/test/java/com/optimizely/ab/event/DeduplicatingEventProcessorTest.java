@@ -0,0 +1,128 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import com.optimizely.ab.config.Experiment;
+import com.optimizely.ab.config.ProjectConfig;
+import com.optimizely.ab.event.internal.UserEvent;
+import com.optimizely.ab.event.internal.UserEventFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.optimizely.ab.config.DatafileProjectConfigTestUtils.validProjectConfigV4;
+import static org.junit.Assert.*;
+
+public class DeduplicatingEventProcessorTest {
+
+    private static final String USER_ID = "userId";
+
+    private final List<UserEvent> processedEvents = new CopyOnWriteArrayList<>();
+    private ProjectConfig projectConfig;
+    private Experiment experiment;
+    private DeduplicatingEventProcessor eventProcessor;
+
+    @Before
+    public void setUp() throws Exception {
+        projectConfig = validProjectConfigV4();
+        experiment = projectConfig.getExperiments().get(0);
+        eventProcessor = DeduplicatingEventProcessor.builder()
+            .withEventProcessor(processedEvents::add)
+            .build();
+    }
+
+    @Test
+    public void testRepeatedImpressionIsSuppressed() {
+        UserEvent impression = buildImpressionEvent(USER_ID, 0);
+        eventProcessor.process(impression);
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+
+        assertEquals(Collections.singletonList(impression), processedEvents);
+        assertEquals(1, eventProcessor.getSuppressedCount());
+    }
+
+    @Test
+    public void testDistinctImpressionsAreProcessed() {
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+        eventProcessor.process(buildImpressionEvent("otherUserId", 0));
+        eventProcessor.process(buildImpressionEvent(USER_ID, 1));
+
+        assertEquals(3, processedEvents.size());
+        assertEquals(0, eventProcessor.getSuppressedCount());
+    }
+
+    @Test
+    public void testConversionsAreProcessed() {
+        UserEvent conversion = UserEventFactory.createConversionEvent(projectConfig, USER_ID, "eventId", "eventName",
+            Collections.emptyMap(), Collections.emptyMap());
+        eventProcessor.process(conversion);
+        eventProcessor.process(conversion);
+
+        assertEquals(2, processedEvents.size());
+        assertEquals(0, eventProcessor.getSuppressedCount());
+    }
+
+    @Test
+    public void testProcessListFiltersRepeats() {
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+        UserEvent impression = buildImpressionEvent(USER_ID, 1);
+        eventProcessor.process(Arrays.asList(buildImpressionEvent(USER_ID, 0), impression, buildImpressionEvent(USER_ID, 1)));
+
+        assertEquals(2, processedEvents.size());
+        assertEquals(impression, processedEvents.get(1));
+        assertEquals(2, eventProcessor.getSuppressedCount());
+    }
+
+    @Test
+    public void testImpressionIsProcessedAfterWindow() throws Exception {
+        eventProcessor = DeduplicatingEventProcessor.builder()
+            .withEventProcessor(processedEvents::add)
+            .withWindow(10, TimeUnit.MILLISECONDS)
+            .build();
+
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+        Thread.sleep(20);
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+
+        assertEquals(2, processedEvents.size());
+        assertEquals(0, eventProcessor.getSuppressedCount());
+    }
+
+    @Test
+    public void testReset() {
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+        eventProcessor.reset();
+        eventProcessor.process(buildImpressionEvent(USER_ID, 0));
+
+        assertEquals(2, processedEvents.size());
+        assertEquals(1, eventProcessor.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDefaultEventProcessor() {
+        DeduplicatingEventProcessor.builder().build();
+    }
+
+    private UserEvent buildImpressionEvent(String userId, int variationIndex) {
+        return UserEventFactory.createImpressionEvent(projectConfig, experiment,
+            experiment.getVariations().get(variationIndex), userId, Collections.emptyMap());
+    }
+}
@@ -20,6 +20,7 @@ import com.optimizely.ab.event.internal.payload.EventBatch;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 
@@ -59,6 +60,20 @@ public class LogEventTest {
         assertEquals("{}", logEvent.getBody());
     }
 
+    @Test
+    public void testGetBodyBytesIsSerializedOnce() {
+        byte[] body = logEvent.getBodyBytes();
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), body);
+        assertSame(body, logEvent.getBodyBytes());
+    }
+
+    @Test
+    public void testGetBodyWithoutEventBatch() {
+        LogEvent emptyLogEvent = new LogEvent(REQUEST_METHOD, ENDPOINT_URL, REQUEST_PARAMS, null);
+        assertEquals("", emptyLogEvent.getBody());
+        assertEquals(0, emptyLogEvent.getBodyBytes().length);
+    }
+
     @Test
     public void testGetEventBatch() {
         assertEquals(EVENT_BATCH, logEvent.getEventBatch());
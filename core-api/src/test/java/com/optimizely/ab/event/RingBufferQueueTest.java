@@ -0,0 +1,126 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int ELEMENTS_PER_PRODUCER = 20000;
+
+    @Test
+    public void elementsAreTakenInOrder() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, RingBufferQueue.WaitStrategy.BLOCKING);
+        // the positions wrap around the ring several times
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i));
+            assertTrue(queue.offer(i + 100));
+            assertEquals(2, queue.size());
+            assertEquals(Integer.valueOf(i), queue.peek());
+            assertEquals(Arrays.asList(i, i + 100), new ArrayList<>(queue));
+            assertEquals(Integer.valueOf(i), queue.poll());
+            assertEquals(Integer.valueOf(i + 100), queue.take());
+            assertTrue(queue.isEmpty());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new RingBufferQueue<>(1, RingBufferQueue.WaitStrategy.BLOCKING).capacity());
+        assertEquals(8, new RingBufferQueue<>(5, RingBufferQueue.WaitStrategy.BLOCKING).capacity());
+        assertEquals(1024, new RingBufferQueue<>(1000, RingBufferQueue.WaitStrategy.BLOCKING).capacity());
+    }
+
+    @Test
+    public void offerFailsWhenFull() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(2, RingBufferQueue.WaitStrategy.BLOCKING);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertFalse(queue.offer(3, 1, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertTrue(queue.offer(3));
+    }
+
+    @Test
+    public void pollTimesOutWhenEmpty() throws Exception {
+        for (RingBufferQueue.WaitStrategy waitStrategy : RingBufferQueue.WaitStrategy.values()) {
+            RingBufferQueue<Integer> queue = new RingBufferQueue<>(2, waitStrategy);
+            assertNull(queue.poll(5, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void takeIsInterrupted() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(2, RingBufferQueue.WaitStrategy.BLOCKING);
+        Thread.currentThread().interrupt();
+        queue.take();
+    }
+
+    @Test
+    public void concurrentProducersWithEachWaitStrategy() throws Exception {
+        for (RingBufferQueue.WaitStrategy waitStrategy : RingBufferQueue.WaitStrategy.values()) {
+            assertAllElementsTaken(new RingBufferQueue<>(64, waitStrategy));
+        }
+    }
+
+    private static void assertAllElementsTaken(RingBufferQueue<int[]> queue) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                final int producer = p;
+                producers.add(executor.submit(() -> {
+                    for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                        queue.put(new int[]{producer, i});
+                    }
+                    return null;
+                }));
+            }
+
+            // each producer's elements are taken in the order it put them
+            int[] next = new int[PRODUCERS];
+            for (int i = 0; i < PRODUCERS * ELEMENTS_PER_PRODUCER; i++) {
+                int[] element = queue.poll(5, TimeUnit.SECONDS);
+                assertEquals(next[element[0]]++, element[1]);
+            }
+
+            for (Future<?> producer : producers) {
+                producer.get(5, TimeUnit.SECONDS);
+            }
+            assertTrue(queue.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
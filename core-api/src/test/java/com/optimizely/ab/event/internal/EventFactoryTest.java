@@ -24,6 +24,7 @@ import com.optimizely.ab.config.*;
 import com.optimizely.ab.event.LogEvent;
 import com.optimizely.ab.event.internal.payload.Decision;
 import com.optimizely.ab.event.internal.payload.EventBatch;
+import com.optimizely.ab.event.internal.payload.Visitor;
 import com.optimizely.ab.internal.ControlAttribute;
 import com.optimizely.ab.internal.ReservedEventKey;
 import org.junit.After;
@@ -1026,6 +1027,72 @@ public class EventFactoryTest {
         assertEquals(conversion.getClientVersion(), BuildVersionInfo.VERSION);
     }
 
+    /**
+     * Verify that {@link EventFactory#estimateSize(UserEvent)} is close to the size a visitor adds to the payload.
+     */
+    @Test
+    public void estimateSize() throws Exception {
+        Experiment activatedExperiment = validProjectConfig.getExperiments().get(0);
+        Attribute attribute = validProjectConfig.getAttributes().get(0);
+        Map<String, Object> attributeMap = Collections.singletonMap(attribute.getKey(), "value");
+        Map<String, Object> eventTagMap = new HashMap<String, Object>();
+        eventTagMap.put(ReservedEventKey.REVENUE.toString(), 100L);
+        eventTagMap.put("boolean_param", false);
+
+        // a user id of the same length, so that both visitors have the same size
+        String otherUserId = "userIx";
+        UserEvent[][] userEvents = new UserEvent[2][2];
+        for (int i = 0; i < 2; i++) {
+            String visitorId = i == 0 ? userId : otherUserId;
+            userEvents[0][i] = UserEventFactory.createImpressionEvent(validProjectConfig, activatedExperiment,
+                activatedExperiment.getVariations().get(0), visitorId, attributeMap);
+            userEvents[1][i] = UserEventFactory.createConversionEvent(validProjectConfig, visitorId,
+                validProjectConfig.getEventTypes().get(0).getId(), validProjectConfig.getEventTypes().get(0).getKey(),
+                attributeMap, eventTagMap);
+        }
+
+        for (UserEvent[] visitorEvents : userEvents) {
+            UserEvent userEvent = visitorEvents[0];
+            int batchSize = EventFactory.createLogEvent(userEvent).getBodyBytes().length;
+            int visitorSize = EventFactory.createLogEvent(Arrays.asList(visitorEvents)).getBodyBytes().length - batchSize - 1;
+            int estimate = EventFactory.estimateSize(userEvent);
+            assertTrue("estimate of " + estimate + " for a visitor of " + visitorSize,
+                Math.abs(estimate - visitorSize) <= visitorSize / 10);
+        }
+    }
+
+    /**
+     * Verify that the events of a user with the same attributes are sent as the snapshots of a single visitor.
+     */
+    @Test
+    public void createLogEventCoalescesVisitors() throws Exception {
+        Experiment activatedExperiment = validProjectConfig.getExperiments().get(0);
+        Variation bucketedVariation = activatedExperiment.getVariations().get(0);
+        Attribute attribute = validProjectConfig.getAttributes().get(0);
+        Map<String, Object> attributeMap = Collections.singletonMap(attribute.getKey(), "value");
+        EventType eventType = validProjectConfig.getEventTypes().get(0);
+
+        List<UserEvent> userEvents = Arrays.asList(
+            UserEventFactory.createImpressionEvent(validProjectConfig, activatedExperiment, bucketedVariation, userId, attributeMap),
+            UserEventFactory.createImpressionEvent(validProjectConfig, activatedExperiment, bucketedVariation, "otherUserId", attributeMap),
+            UserEventFactory.createConversionEvent(validProjectConfig, userId, eventType.getId(), eventType.getKey(),
+                new HashMap<String, Object>(attributeMap), Collections.emptyMap()),
+            UserEventFactory.createConversionEvent(validProjectConfig, userId, eventType.getId(), eventType.getKey(),
+                Collections.singletonMap(attribute.getKey(), "otherValue"), Collections.emptyMap()));
+
+        List<Visitor> visitors = EventFactory.createLogEvent(userEvents).getEventBatch().getVisitors();
+
+        assertEquals(3, visitors.size());
+        assertEquals(userId, visitors.get(0).getVisitorId());
+        assertEquals(2, visitors.get(0).getSnapshots().size());
+        assertEquals(activatedExperiment.getId(), visitors.get(0).getSnapshots().get(0).getDecisions().get(0).getExperimentId());
+        assertEquals(eventType.getKey(), visitors.get(0).getSnapshots().get(1).getEvents().get(0).getKey());
+        assertEquals("otherUserId", visitors.get(1).getVisitorId());
+        assertEquals(1, visitors.get(1).getSnapshots().size());
+        // different attributes are sent in another visitor
+        assertEquals(userId, visitors.get(2).getVisitorId());
+        assertEquals("otherValue", visitors.get(2).getAttributes().get(0).getValue());
+    }
 
     private com.optimizely.ab.event.internal.payload.Attribute getBotFilteringAttribute() {
         return new com.optimizely.ab.event.internal.payload.Attribute.Builder()
@@ -0,0 +1,165 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event.internal.serializer;
+
+import com.optimizely.ab.event.internal.payload.Attribute;
+import com.optimizely.ab.event.internal.payload.Decision;
+import com.optimizely.ab.event.internal.payload.Event;
+import com.optimizely.ab.event.internal.payload.EventBatch;
+import com.optimizely.ab.event.internal.payload.Snapshot;
+import com.optimizely.ab.event.internal.payload.Visitor;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateConversion;
+import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateConversionWithSessionId;
+import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateImpression;
+import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateImpressionWithSessionId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link EventBatchSerializer} output is compared byte for byte to the UTF-8 output of the
+ * {@link JacksonSerializer}. Jackson escapes surrogates when writing bytes but not when writing a String, so only the
+ * bytes are expected to be identical.
+ */
+public class EventBatchSerializerTest {
+
+    private JacksonSerializer jacksonSerializer = new JacksonSerializer();
+    private EventBatchSerializer serializer = new EventBatchSerializer(() -> jacksonSerializer);
+
+    @Test
+    public void serializeMatchesJackson() {
+        assertSameAsJackson(generateImpression());
+        assertSameAsJackson(generateImpressionWithSessionId());
+        assertSameAsJackson(generateConversion());
+        assertSameAsJackson(generateConversionWithSessionId());
+        assertSameAsJackson(new EventBatch());
+        assertSameAsJackson(new EventBatch.Builder().build());
+
+        EventBatch impression = generateImpression();
+        assertEquals(jacksonSerializer.serialize(impression), serializer.serialize(impression));
+    }
+
+    @Test
+    public void serializeAllFieldsMatchesJackson() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("absent", null);
+        nested.put("present", 1);
+
+        Map<String, Object> tags = new LinkedHashMap<>();
+        tags.put("revenue", 42);
+        tags.put("long", Long.MIN_VALUE);
+        tags.put("short", (short) -3);
+        tags.put("byte", (byte) 4);
+        tags.put("double", 1.5);
+        tags.put("exponent", 1e-5);
+        tags.put("float", 1.1f);
+        tags.put("nan", Double.NaN);
+        tags.put("infinity", Float.NEGATIVE_INFINITY);
+        tags.put("bigDecimal", new BigDecimal("1E+3"));
+        tags.put("bigInteger", new BigInteger("123456789012345678901234567890"));
+        tags.put("boolean", true);
+        tags.put("null", null);
+        tags.put("map", nested);
+        tags.put("list", Arrays.asList(null, 1, "a", Collections.singletonMap("absent", null)));
+        tags.put("set", new LinkedHashSet<>(Arrays.asList("a", "b")));
+
+        Event event = new Event(1L, "uuid", "entityId", "key", 2, 3L, tags, "custom", 4.5);
+        Snapshot snapshot = new Snapshot(Arrays.asList(new Decision("campaign", "experiment", "variation", true), null),
+            Arrays.asList(event, new Event()));
+        snapshot.setActivationTimestamp(7L);
+        Attribute attribute = new Attribute.Builder()
+            .setEntityId("id")
+            .setKey("key")
+            .setType("custom")
+            .setValue(3.25)
+            .build();
+        Visitor visitor = new Visitor.Builder()
+            .setVisitorId("visitor")
+            .setSessionId("session")
+            .setAttributes(Arrays.asList(attribute, new Attribute()))
+            .setSnapshots(Arrays.asList(snapshot, new Snapshot()))
+            .build();
+        EventBatch eventBatch = new EventBatch.Builder()
+            .setAccountId("account")
+            .setVisitors(Arrays.asList(visitor, new Visitor()))
+            .setAnonymizeIp(false)
+            .setProjectId("project")
+            .setRevision("revision")
+            .build();
+
+        assertSameAsJackson(eventBatch);
+    }
+
+    @Test
+    public void serializeStringsMatchesJackson() {
+        StringBuilder allCharacters = new StringBuilder();
+        for (char c = 0; c < 0x800; c++) {
+            allCharacters.append(c);
+        }
+        allCharacters.append("￿😀/ ");
+        assertSameAsJackson(batchWithAttributeValue(allCharacters.toString()));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            char[] chars = new char[random.nextInt(50)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) random.nextInt(0x10000);
+            }
+            assertSameAsJackson(batchWithAttributeValue(new String(chars)));
+        }
+    }
+
+    @Test
+    public void serializeUnsupportedValueFallsBack() {
+        assertSameAsJackson(batchWithAttributeValue(new Decision("campaign", "experiment", "variation", false)));
+        assertSameAsJackson(batchWithAttributeValue(Collections.singletonMap(1, "integer key")));
+        assertSameAsJackson(batchWithAttributeValue(new java.util.concurrent.atomic.AtomicLong(5)));
+    }
+
+    @Test
+    public void serializeOtherPayloadFallsBack() {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("key", "value");
+        assertEquals(jacksonSerializer.serialize(payload), serializer.serialize(payload));
+    }
+
+    @Test
+    public void defaultSerializerWritesEventBatches() {
+        assertTrue(DefaultJsonSerializer.getInstance() instanceof EventBatchSerializer);
+    }
+
+    private void assertSameAsJackson(EventBatch eventBatch) {
+        assertArrayEquals(jacksonSerializer.serializeToBytes(eventBatch), serializer.serializeToBytes(eventBatch));
+    }
+
+    private static EventBatch batchWithAttributeValue(Object value) {
+        Attribute attribute = new Attribute.Builder().setKey("key").setValue(value).build();
+        Visitor visitor = new Visitor.Builder().setVisitorId("visitor").setAttributes(Collections.singletonList(attribute)).build();
+        return new EventBatch.Builder().setAccountId("account").setVisitors(Collections.singletonList(visitor)).build();
+    }
+}
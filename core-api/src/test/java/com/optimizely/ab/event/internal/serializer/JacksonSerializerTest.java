@@ -24,6 +24,7 @@ import com.optimizely.ab.event.internal.payload.EventBatch;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateConversion;
 import static com.optimizely.ab.event.internal.serializer.SerializerTestUtils.generateConversionJson;
@@ -84,4 +85,13 @@ public class JacksonSerializerTest {
 
         assertThat(actual, is(expected));
     }
+
+    @Test
+    public void serializeImpressionToBytes() throws IOException {
+        EventBatch impression = generateImpression();
+        EventBatch actual = mapper.readValue(new String(serializer.serializeToBytes(impression), StandardCharsets.UTF_8), EventBatch.class);
+        EventBatch expected = mapper.readValue(generateImpressionJson(), EventBatch.class);
+
+        assertThat(actual, is(expected));
+    }
 }
@@ -126,6 +126,24 @@ public class DecisionNotificationTest {
         assertEquals(rolloutSourceInfo.get(), actualFeatureVariableDecisionInfo.get(DecisionNotification.FeatureVariableDecisionNotificationBuilder.SOURCE_INFO));
     }
 
+    @Test
+    public void testAllFeatureVariablesDecisionInfo() {
+        Map<String, ?> variableValues = Collections.singletonMap(FEATURE_VARIABLE_KEY, 42);
+        DecisionNotification allFeatureVariablesDecisionNotification = DecisionNotification.newFeatureVariableDecisionNotificationBuilder()
+            .withUserId(USER_ID)
+            .withFeatureKey(FEATURE_KEY)
+            .withFeatureEnabled(Boolean.TRUE)
+            .withVariableValues(variableValues)
+            .withAttributes(USER_ATTRIBUTES)
+            .build();
+
+        assertEquals(NotificationCenter.DecisionNotificationType.ALL_FEATURE_VARIABLES.toString(), allFeatureVariablesDecisionNotification.getType());
+        Map<String, ?> actualDecisionInfo = allFeatureVariablesDecisionNotification.getDecisionInfo();
+        assertEquals(variableValues, actualDecisionInfo.get(DecisionNotification.FeatureVariableDecisionNotificationBuilder.VARIABLE_VALUES));
+        assertFalse(actualDecisionInfo.containsKey(DecisionNotification.FeatureVariableDecisionNotificationBuilder.VARIABLE_KEY));
+        assertEquals(FeatureDecision.DecisionSource.ROLLOUT.toString(), actualDecisionInfo.get(DecisionNotification.FeatureVariableDecisionNotificationBuilder.SOURCE));
+    }
+
     @Test
     public void testToString() {
         assertEquals("DecisionNotification{type='ab-test', userId='userID', attributes={user=attr}, decisionInfo={experimentKey=experimentKey, variationKey=null}}", experimentDecisionNotification.toString());
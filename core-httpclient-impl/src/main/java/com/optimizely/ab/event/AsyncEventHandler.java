@@ -28,25 +28,34 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 /**
  * {@link EventHandler} implementation that queues events and has a separate pool of threads responsible
  * for the dispatch.
+ * <p>
+ * When an {@link EventSpool} is configured, events that are rejected because the queue is full, that fail to be
+ * dispatched with a retryable error or that are still queued when the handler is shut down are appended to the
+ * spool instead of being dropped. A single thread replays the spool in order, on startup, whenever an event is
+ * spooled or a dispatch succeeds and at a fixed interval. New events keep being dispatched by the workers meanwhile.
  */
 public class AsyncEventHandler implements EventHandler, AutoCloseable {
 
@@ -61,6 +70,7 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
     public static final int DEFAULT_MAX_CONNECTIONS = 200;
     public static final int DEFAULT_MAX_PER_ROUTE = 20;
     public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 5000;
+    public static final long DEFAULT_SPOOL_RETRY_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncEventHandler.class);
     private static final ProjectConfigResponseHandler EVENT_RESPONSE_HANDLER = new ProjectConfigResponseHandler();
@@ -71,6 +81,13 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
     private final long closeTimeout;
     private final TimeUnit closeTimeoutUnit;
 
+    @Nullable
+    private final EventSpool eventSpool;
+    @Nullable
+    private final ScheduledExecutorService spoolExecutor;
+    private final AtomicBoolean replayRequested = new AtomicBoolean();
+    private volatile boolean replayStopped;
+
     /**
      * @deprecated Use the builder {@link Builder}
      */
@@ -99,6 +116,19 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
                              int validateAfter,
                              long closeTimeout,
                              TimeUnit closeTimeoutUnit) {
+        this(queueCapacity, numWorkers, maxConnections, connectionsPerRoute, validateAfter, closeTimeout, closeTimeoutUnit,
+            null, DEFAULT_SPOOL_RETRY_INTERVAL_MS);
+    }
+
+    private AsyncEventHandler(int queueCapacity,
+                              int numWorkers,
+                              int maxConnections,
+                              int connectionsPerRoute,
+                              int validateAfter,
+                              long closeTimeout,
+                              TimeUnit closeTimeoutUnit,
+                              @Nullable EventSpool eventSpool,
+                              long spoolRetryIntervalMillis) {
 
         queueCapacity       = validateInput("queueCapacity", queueCapacity, DEFAULT_QUEUE_CAPACITY);
         numWorkers          = validateInput("numWorkers", numWorkers, DEFAULT_NUM_WORKERS);
@@ -119,24 +149,128 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
 
         this.closeTimeout = closeTimeout;
         this.closeTimeoutUnit = closeTimeoutUnit;
+
+        this.eventSpool = eventSpool;
+        this.spoolExecutor = startSpoolReplay(eventSpool, spoolRetryIntervalMillis);
     }
 
     @VisibleForTesting
     public AsyncEventHandler(OptimizelyHttpClient httpClient, ExecutorService workerExecutor) {
+        this(httpClient, workerExecutor, null, DEFAULT_SPOOL_RETRY_INTERVAL_MS);
+    }
+
+    @VisibleForTesting
+    AsyncEventHandler(OptimizelyHttpClient httpClient,
+                      ExecutorService workerExecutor,
+                      @Nullable EventSpool eventSpool,
+                      long spoolRetryIntervalMillis) {
         this.httpClient = httpClient;
         this.workerExecutor = workerExecutor;
         this.closeTimeout = Long.MAX_VALUE;
         this.closeTimeoutUnit = TimeUnit.MILLISECONDS;
+        this.eventSpool = eventSpool;
+        this.spoolExecutor = startSpoolReplay(eventSpool, spoolRetryIntervalMillis);
     }
 
     @Override
     public void dispatchEvent(LogEvent logEvent) {
+        // new events are dispatched by the workers even while events are spooled, the spool only holds the failed
+        // ones, which the replay catches up on
         try {
             // attempt to enqueue the log event for processing
             workerExecutor.execute(new EventDispatcher(logEvent));
         } catch (RejectedExecutionException e) {
-            logger.error("event dispatch rejected");
+            if (eventSpool == null) {
+                logger.error("event dispatch rejected");
+            } else {
+                spool(logEvent);
+            }
+        }
+    }
+
+    @Nullable
+    private ScheduledExecutorService startSpoolReplay(@Nullable EventSpool eventSpool, long retryIntervalMillis) {
+        if (eventSpool == null) {
+            return null;
         }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("optimizely-event-spool-thread-%s", true));
+        executor.scheduleWithFixedDelay(this::replaySpool, 0, retryIntervalMillis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    private void spool(LogEvent logEvent) {
+        if (!eventSpool.append(logEvent)) {
+            logger.error("event dispatch rejected, unable to spool the event");
+            return;
+        }
+
+        requestReplay();
+    }
+
+    /**
+     * Request an immediate replay of the spool, after an event was spooled or a dispatch succeeded. Does nothing
+     * while a requested replay has not started yet.
+     */
+    private void requestReplay() {
+        if (eventSpool.isEmpty() || !replayRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            spoolExecutor.execute(() -> {
+                replayRequested.set(false);
+                replaySpool();
+            });
+        } catch (RejectedExecutionException e) {
+            replayRequested.set(false);
+        }
+    }
+
+    /**
+     * Dispatch the spooled events in order, until the spool is empty, a dispatch fails with a retryable error or the
+     * handler is shutting down.
+     */
+    private void replaySpool() {
+        try {
+            EventSpool.SpooledEvent spooledEvent;
+            while (!replayStopped && (spooledEvent = eventSpool.peek()) != null) {
+                try {
+                    HttpRequestBase request;
+                    if (spooledEvent.getRequestMethod() == LogEvent.RequestMethod.GET) {
+                        request = generateGetRequest(spooledEvent.getEndpointUrl(), spooledEvent.getRequestParams());
+                    } else {
+                        request = generatePostRequest(spooledEvent.getEndpointUrl(), spooledEvent.getBodyBytes());
+                    }
+                    httpClient.execute(request, EVENT_RESPONSE_HANDLER);
+                } catch (IOException e) {
+                    if (isRetryable(e)) {
+                        logger.warn("spooled event dispatch failed, {} events remain spooled", eventSpool.size(), e);
+                        return;
+                    }
+                    logger.error("spooled event dispatch failed, dropping the event", e);
+                } catch (URISyntaxException e) {
+                    logger.error("unable to parse generated URI", e);
+                }
+                eventSpool.acknowledge(spooledEvent);
+            }
+        } catch (RuntimeException e) {
+            // thrown out of a scheduled task it would cancel the later replays
+            logger.error("unable to replay spooled events", e);
+        }
+    }
+
+    /**
+     * Client errors are not retried, the same request would be rejected again.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (!(e instanceof UnexpectedResponseException)) {
+            return true;
+        }
+
+        int status = ((UnexpectedResponseException) e).status;
+        return status < 400 || status >= 500 || status == 408 || status == 429;
     }
 
     /**
@@ -157,10 +291,10 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
         try {
             // Wait a while for existing tasks to terminate
             if (!workerExecutor.awaitTermination(timeout, unit)) {
-                int unprocessedCount = workerExecutor.shutdownNow().size();
+                int unprocessedCount = spoolUnprocessed(workerExecutor.shutdownNow());
                 logger.warn("timed out waiting for previously submitted events to be dispatched. "
-                    + "{} events were dropped. "
-                    + "Interrupting dispatch worker(s)", unprocessedCount);
+                    + "{} events were {}. "
+                    + "Interrupting dispatch worker(s)", unprocessedCount, eventSpool == null ? "dropped" : "spooled");
                 // Cancel currently executing tasks
                 // Wait a while for tasks to respond to being cancelled
                 if (!workerExecutor.awaitTermination(timeout, unit)) {
@@ -169,10 +303,13 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
             }
         } catch (InterruptedException ie) {
             // (Re-)Cancel if current thread also interrupted
-            workerExecutor.shutdownNow();
+            spoolUnprocessed(workerExecutor.shutdownNow());
             // Preserve interrupt status
             Thread.currentThread().interrupt();
         } finally {
+            if (spoolExecutor != null) {
+                stopSpoolReplay(timeout, unit);
+            }
             try {
                 httpClient.close();
             } catch (IOException e) {
@@ -188,6 +325,68 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
         shutdownAndAwaitTermination(closeTimeout, closeTimeoutUnit);
     }
 
+    /**
+     * Stop replaying the spool and close it once the replay in progress completed, so that an event it dispatched
+     * is acknowledged rather than dispatched again on the next start.
+     */
+    private void stopSpoolReplay(long timeout, TimeUnit unit) {
+        replayStopped = true;
+        spoolExecutor.shutdown();
+        try {
+            if (!spoolExecutor.awaitTermination(timeout, unit)) {
+                logger.warn("timed out waiting for the spool replay to complete, the event being replayed may be dispatched again");
+                spoolExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            spoolExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            eventSpool.close();
+        } catch (IOException e) {
+            logger.error("unable to close event spool", e);
+        }
+    }
+
+    /**
+     * @return the number of unprocessed events
+     */
+    private int spoolUnprocessed(List<Runnable> unprocessed) {
+        if (eventSpool != null) {
+            for (Runnable runnable : unprocessed) {
+                if (runnable instanceof EventDispatcher) {
+                    spool(((EventDispatcher) runnable).logEvent);
+                }
+            }
+        }
+        return unprocessed.size();
+    }
+
+    /**
+     * Helper method that generates the event request for the given URL and params.
+     */
+    private static HttpGet generateGetRequest(String endpointUrl, Map<String, String> requestParams) throws URISyntaxException {
+
+        URIBuilder builder = new URIBuilder(endpointUrl);
+        for (Map.Entry<String, String> param : requestParams.entrySet()) {
+            builder.addParameter(param.getKey(), param.getValue());
+        }
+
+        return new HttpGet(builder.build());
+    }
+
+    /**
+     * Helper method that generates the event request for the given URL and serialized body, which is streamed to
+     * the connection without being copied.
+     */
+    private static HttpPost generatePostRequest(String endpointUrl, byte[] body) {
+        HttpPost post = new HttpPost(endpointUrl);
+        post.setEntity(new ByteArrayEntity(body));
+        post.addHeader("Content-Type", "application/json");
+        return post;
+    }
+
     //======== Helper classes ========//
 
     /**
@@ -211,36 +410,25 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
             try {
                 HttpRequestBase request;
                 if (logEvent.getRequestMethod() == LogEvent.RequestMethod.GET) {
-                    request = generateGetRequest(logEvent);
+                    request = generateGetRequest(logEvent.getEndpointUrl(), logEvent.getRequestParams());
                 } else {
-                    request = generatePostRequest(logEvent);
+                    request = generatePostRequest(logEvent.getEndpointUrl(), logEvent.getBodyBytes());
                 }
                 httpClient.execute(request, EVENT_RESPONSE_HANDLER);
             } catch (IOException e) {
                 logger.error("event dispatch failed", e);
+                if (eventSpool != null && isRetryable(e)) {
+                    spool(logEvent);
+                }
+                return;
             } catch (URISyntaxException e) {
                 logger.error("unable to parse generated URI", e);
+                return;
             }
-        }
-
-        /**
-         * Helper method that generates the event request for the given {@link LogEvent}.
-         */
-        private HttpGet generateGetRequest(LogEvent event) throws URISyntaxException {
 
-            URIBuilder builder = new URIBuilder(event.getEndpointUrl());
-            for (Map.Entry<String, String> param : event.getRequestParams().entrySet()) {
-                builder.addParameter(param.getKey(), param.getValue());
+            if (eventSpool != null) {
+                requestReplay();
             }
-
-            return new HttpGet(builder.build());
-        }
-
-        private HttpPost generatePostRequest(LogEvent event) throws UnsupportedEncodingException {
-            HttpPost post = new HttpPost(event.getEndpointUrl());
-            post.setEntity(new StringEntity(event.getBody()));
-            post.addHeader("Content-Type", "application/json");
-            return post;
         }
     }
 
@@ -258,11 +446,20 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
                 response.getEntity();
                 return null;
             } else {
-                throw new ClientProtocolException("unexpected response from event endpoint, status: " + status);
+                throw new UnexpectedResponseException(status);
             }
         }
     }
 
+    private static final class UnexpectedResponseException extends ClientProtocolException {
+        private final int status;
+
+        UnexpectedResponseException(int status) {
+            super("unexpected response from event endpoint, status: " + status);
+            this.status = status;
+        }
+    }
+
     //======== Builder ========//
 
     public static Builder builder() { return new Builder(); }
@@ -276,6 +473,8 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
         int validateAfterInactivity = PropertyUtils.getInteger(CONFIG_VALIDATE_AFTER_INACTIVITY, DEFAULT_VALIDATE_AFTER_INACTIVITY);
         private long closeTimeout = Long.MAX_VALUE;
         private TimeUnit closeTimeoutUnit = TimeUnit.MILLISECONDS;
+        private EventSpool eventSpool;
+        private long spoolRetryIntervalMillis = DEFAULT_SPOOL_RETRY_INTERVAL_MS;
 
         public Builder withQueueCapacity(int queueCapacity) {
             if (queueCapacity <= 0) {
@@ -318,7 +517,28 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
             return this;
         }
 
+        /**
+         * EventSpool keeps the events that cannot be dispatched on disk, it is closed with the handler.
+         */
+        public Builder withEventSpool(EventSpool eventSpool) {
+            this.eventSpool = eventSpool;
+            return this;
+        }
+
+        /**
+         * SpoolRetryInterval is the delay between attempts to replay the spool while the dispatches fail.
+         */
+        public Builder withSpoolRetryInterval(long spoolRetryInterval, TimeUnit unit) {
+            this.spoolRetryIntervalMillis = unit.toMillis(spoolRetryInterval);
+            return this;
+        }
+
         public AsyncEventHandler build() {
+            if (spoolRetryIntervalMillis <= 0) {
+                logger.warn("Invalid spoolRetryInterval of {}, Defaulting to {}", spoolRetryIntervalMillis, DEFAULT_SPOOL_RETRY_INTERVAL_MS);
+                spoolRetryIntervalMillis = DEFAULT_SPOOL_RETRY_INTERVAL_MS;
+            }
+
             return new AsyncEventHandler(
                 queueCapacity,
                 numWorkers,
@@ -326,7 +546,9 @@ public class AsyncEventHandler implements EventHandler, AutoCloseable {
                 maxPerRoute,
                 validateAfterInactivity,
                 closeTimeout,
-                closeTimeoutUnit
+                closeTimeoutUnit,
+                eventSpool,
+                spoolRetryIntervalMillis
             );
         }
     }
@@ -0,0 +1,546 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * EventSpool is a write-ahead log of {@link LogEvent}s on local disk, holding the events that could not be
+ * dispatched until they can be, including across restarts.
+ *
+ * The log is a directory of memory-mapped segment files of a fixed size. Events are appended to the last segment
+ * as binary records holding the request method, URL, parameters and serialized body, so appending costs a
+ * sequential copy into memory. Each record starts with its length and the CRC32 of its payload, the length being
+ * written last, and a record torn by a crash fails its checksum and is discarded together with everything after
+ * it in its segment. A new segment is started when the last one is full.
+ *
+ * Events are read back in the order they were appended with {@link #peek()} and removed with
+ * {@link #acknowledge(SpooledEvent)}, which negates the record length in place so a restart does not replay them
+ * again. A segment is deleted once all its events are acknowledged. The total size of the segments is bounded,
+ * events appended once it is reached are dropped and counted.
+ *
+ * Records are written through the page cache: they survive a crash of the process but can be lost when the host
+ * itself fails, segments are only forced to the storage device when they are completed and on {@link #close()}.
+ * A directory can only be opened by a single instance, it is locked until {@link #close()}.
+ */
+@ThreadSafe
+public class EventSpool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventSpool.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_SIZE = 256L * 1024 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String LOCK_FILE_NAME = "spool.lock";
+    private static final LogEvent.RequestMethod[] REQUEST_METHODS = LogEvent.RequestMethod.values();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+    // oldest first, events are read from the first segment and appended to the last one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private int readPosition;
+    private int writePosition;
+    private long pendingCount;
+
+    private EventSpool(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        directoryLock = lockDirectory(lockChannel, directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            directoryLock.release();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append an event to the log.
+     *
+     * @return false when the event was dropped, because the spool is full or closed or the event does not fit in a
+     * segment.
+     */
+    public boolean append(@Nonnull LogEvent logEvent) {
+        byte[] payload = encodeRecord(logEvent);
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            logger.warn("Dropping an event of {} bytes, which is larger than the spool segments.", payload.length);
+            droppedCount.increment();
+            return false;
+        }
+
+        synchronized (this) {
+            if (directoryLock == null) {
+                logger.warn("Dropping an event, the event spool {} is closed.", directory);
+                droppedCount.increment();
+                return false;
+            }
+
+            try {
+                if ((long) writePosition + recordSize > segments.getLast().buffer.capacity() && !rotate()) {
+                    droppedCount.increment();
+                    return false;
+                }
+            } catch (IOException e) {
+                logger.error("Dropping an event, unable to create a segment in the event spool {}.", directory, e);
+                droppedCount.increment();
+                return false;
+            }
+
+            MappedByteBuffer buffer = segments.getLast().buffer;
+            int offset = writePosition;
+            buffer.position(offset + RECORD_HEADER_SIZE);
+            buffer.put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            // the length marks the record as written, so it goes last
+            buffer.putInt(offset, payload.length);
+
+            writePosition += recordSize;
+            pendingCount++;
+            return true;
+        }
+    }
+
+    /**
+     * @return the oldest event that was not acknowledged, or null when there is none.
+     */
+    @Nullable
+    public synchronized SpooledEvent peek() {
+        if (directoryLock == null || pendingCount == 0) {
+            return null;
+        }
+
+        Segment segment = segments.getFirst();
+        while (isEndOfSegment(segment, readPosition)) {
+            // the oldest segment is complete and fully read, the writer moved on to a later one
+            deleteFirstSegment();
+            segment = segments.getFirst();
+        }
+
+        return readRecord(segment, readPosition);
+    }
+
+    /**
+     * Remove the event returned by {@link #peek()} from the log.
+     */
+    public synchronized void acknowledge(@Nonnull SpooledEvent spooledEvent) {
+        if (directoryLock == null || segments.peekFirst() != spooledEvent.segment || readPosition != spooledEvent.position) {
+            return;
+        }
+
+        MappedByteBuffer buffer = spooledEvent.segment.buffer;
+        int length = buffer.getInt(readPosition);
+        buffer.putInt(readPosition, -length);
+        readPosition += RECORD_HEADER_SIZE + length;
+        pendingCount--;
+
+        if (segments.size() > 1 && isEndOfSegment(spooledEvent.segment, readPosition)) {
+            deleteFirstSegment();
+        }
+    }
+
+    /**
+     * @return the number of events that were not acknowledged.
+     */
+    public synchronized long size() {
+        return pendingCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingCount == 0;
+    }
+
+    /**
+     * @return the number of events dropped by {@link #append(LogEvent)}.
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (directoryLock == null) {
+            return;
+        }
+
+        segments.getLast().buffer.force();
+        segments.clear();
+        directoryLock.release();
+        directoryLock = null;
+        lockChannel.close();
+    }
+
+    //======== segments ========//
+
+    private void recover() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {} in the event spool {}.", fileName, directory);
+                }
+            }
+        }
+        Collections.sort(sequences);
+
+        if (sequences.isEmpty()) {
+            segments.add(openSegment(0));
+            return;
+        }
+
+        for (int i = 0; i < sequences.size(); i++) {
+            boolean last = i == sequences.size() - 1;
+            Segment segment = openSegment(sequences.get(i));
+            int firstPending = -1;
+            int position = 0;
+            MappedByteBuffer buffer = segment.buffer;
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+
+                int payloadLength = Math.abs(length);
+                if (length == Integer.MIN_VALUE || (long) position + RECORD_HEADER_SIZE + payloadLength > buffer.capacity() ||
+                    checksum(buffer, position + RECORD_HEADER_SIZE, payloadLength) != buffer.getInt(position + 4)) {
+                    logger.warn("Discarding the incomplete event records at offset {} of {}.", position, segment.path);
+                    for (int j = position; j < buffer.capacity(); j++) {
+                        buffer.put(j, (byte) 0);
+                    }
+                    break;
+                }
+
+                if (length > 0) {
+                    pendingCount++;
+                    if (firstPending < 0) {
+                        firstPending = position;
+                    }
+                }
+                position += RECORD_HEADER_SIZE + payloadLength;
+            }
+
+            if (firstPending < 0 && !last) {
+                Files.deleteIfExists(segment.path);
+                continue;
+            }
+
+            if (segments.isEmpty()) {
+                readPosition = firstPending < 0 ? position : firstPending;
+            }
+            segments.add(segment);
+            if (last) {
+                writePosition = position;
+            }
+        }
+
+        logger.info("Loaded {} spooled events from {}.", pendingCount, directory);
+    }
+
+    /**
+     * Start a new segment, unless the spool is full.
+     */
+    private boolean rotate() throws IOException {
+        if (segments.size() >= maxSegments) {
+            logger.warn("Dropping an event, the event spool {} is full.", directory);
+            return false;
+        }
+
+        Segment last = segments.getLast();
+        last.buffer.force();
+        segments.add(openSegment(last.sequence + 1));
+        writePosition = 0;
+        if (pendingCount == 0) {
+            // nothing is left to read in the completed segments
+            while (segments.size() > 1) {
+                deleteFirstSegment();
+            }
+            readPosition = 0;
+        }
+        return true;
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d", sequence) + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // a mapping stays valid after its channel is closed
+            long size = Math.max(segmentSize, Math.min(channel.size(), Integer.MAX_VALUE));
+            return new Segment(sequence, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private void deleteFirstSegment() {
+        Segment segment = segments.removeFirst();
+        readPosition = 0;
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Unable to delete the event spool segment {}.", segment.path, e);
+        }
+    }
+
+    private boolean isEndOfSegment(Segment segment, int position) {
+        if (segment == segments.getLast()) {
+            return false;
+        }
+        return position + RECORD_HEADER_SIZE > segment.buffer.capacity() || segment.buffer.getInt(position) == 0;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static FileLock lockDirectory(FileChannel channel, Path directory) throws IOException {
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another instance in this process
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            channel.close();
+            throw new IOException("Event spool " + directory + " is used by another instance.");
+        }
+        return fileLock;
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    //======== records ========//
+
+    private static byte[] encodeRecord(LogEvent logEvent) {
+        byte[] endpointUrl = logEvent.getEndpointUrl().getBytes(StandardCharsets.UTF_8);
+        byte[] body = logEvent.getBodyBytes();
+        Map<String, String> requestParams = logEvent.getRequestParams();
+        List<byte[]> params = new ArrayList<>(requestParams.size() * 2);
+        int size = 1 + 4 + endpointUrl.length + 4 + 4 + body.length;
+        for (Map.Entry<String, String> param : requestParams.entrySet()) {
+            byte[] key = param.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = param.getValue().getBytes(StandardCharsets.UTF_8);
+            params.add(key);
+            params.add(value);
+            size += 4 + key.length + 4 + value.length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put((byte) logEvent.getRequestMethod().ordinal());
+        putBytes(record, endpointUrl);
+        record.putInt(requestParams.size());
+        for (byte[] param : params) {
+            putBytes(record, param);
+        }
+        putBytes(record, body);
+        return record.array();
+    }
+
+    private static void putBytes(ByteBuffer record, byte[] bytes) {
+        record.putInt(bytes.length);
+        record.put(bytes);
+    }
+
+    private static SpooledEvent readRecord(Segment segment, int position) {
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(position + RECORD_HEADER_SIZE);
+        LogEvent.RequestMethod requestMethod = REQUEST_METHODS[record.get()];
+        String endpointUrl = getString(record);
+        int paramCount = record.getInt();
+        Map<String, String> requestParams = new HashMap<>(paramCount * 2);
+        for (int i = 0; i < paramCount; i++) {
+            String key = getString(record);
+            requestParams.put(key, getString(record));
+        }
+        byte[] body = getBytes(record);
+        return new SpooledEvent(requestMethod, endpointUrl, requestParams, body, segment, position);
+    }
+
+    private static String getString(ByteBuffer record) {
+        return new String(getBytes(record), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getBytes(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * An event read back from the spool, with the body already serialized.
+     */
+    public static final class SpooledEvent {
+        private final LogEvent.RequestMethod requestMethod;
+        private final String endpointUrl;
+        private final Map<String, String> requestParams;
+        private final byte[] body;
+
+        private final Segment segment;
+        private final int position;
+
+        private SpooledEvent(LogEvent.RequestMethod requestMethod,
+                             String endpointUrl,
+                             Map<String, String> requestParams,
+                             byte[] body,
+                             Segment segment,
+                             int position) {
+            this.requestMethod = requestMethod;
+            this.endpointUrl = endpointUrl;
+            this.requestParams = Collections.unmodifiableMap(requestParams);
+            this.body = body;
+            this.segment = segment;
+            this.position = position;
+        }
+
+        public LogEvent.RequestMethod getRequestMethod() {
+            return requestMethod;
+        }
+
+        public String getEndpointUrl() {
+            return endpointUrl;
+        }
+
+        public Map<String, String> getRequestParams() {
+            return requestParams;
+        }
+
+        public String getBody() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the UTF-8 encoded body. The array is shared by all the callers and must not be modified.
+         */
+        public byte[] getBodyBytes() {
+            return body;
+        }
+    }
+
+    //======== Builder ========//
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private long maxTotalSize = DEFAULT_MAX_TOTAL_SIZE;
+
+        /**
+         * Directory the segment files are stored in, it is created when missing.
+         */
+        public Builder withDirectory(@Nonnull Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder withDirectory(@Nonnull String directory) {
+            return withDirectory(Paths.get(directory));
+        }
+
+        /**
+         * SegmentSize is the size of each segment file, events larger than it are dropped.
+         */
+        public Builder withSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * MaxTotalSize is the disk space the segments do not grow past, events are dropped once it is reached.
+         */
+        public Builder withMaxTotalSize(long maxTotalSize) {
+            this.maxTotalSize = maxTotalSize;
+            return this;
+        }
+
+        public EventSpool build() throws IOException {
+            if (directory == null) {
+                throw new IllegalArgumentException("Directory was not configured");
+            }
+
+            if (segmentSize <= RECORD_HEADER_SIZE) {
+                logger.warn("Invalid segmentSize of {}, Defaulting to {}", segmentSize, DEFAULT_SEGMENT_SIZE);
+                segmentSize = DEFAULT_SEGMENT_SIZE;
+            }
+
+            if (maxTotalSize < segmentSize) {
+                long defaultMaxTotalSize = Math.max(DEFAULT_MAX_TOTAL_SIZE, segmentSize);
+                logger.warn("Invalid maxTotalSize of {}, Defaulting to {}", maxTotalSize, defaultMaxTotalSize);
+                maxTotalSize = defaultMaxTotalSize;
+            }
+
+            return new EventSpool(directory, segmentSize, (int) Math.min(Integer.MAX_VALUE, maxTotalSize / segmentSize));
+        }
+    }
+}
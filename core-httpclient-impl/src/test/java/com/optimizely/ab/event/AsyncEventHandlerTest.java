@@ -26,6 +26,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
@@ -34,17 +35,21 @@ import org.mockito.junit.MockitoRule;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import static com.optimizely.ab.event.AsyncEventHandler.builder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -61,6 +66,9 @@ public class AsyncEventHandlerTest {
     @Mock
     ExecutorService mockExecutorService;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testDispatch() throws Exception {
         AsyncEventHandler eventHandler = new AsyncEventHandler(mockHttpClient, MoreExecutors.newDirectExecutorService());
@@ -124,6 +132,133 @@ public class AsyncEventHandlerTest {
         verify(mockHttpClient).close();
     }
 
+    /**
+     * Verify that events failing to be dispatched are spooled and replayed once the endpoint recovers.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailedDispatchesAreSpooledAndReplayed() throws Exception {
+        EventSpool eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        AsyncEventHandler eventHandler = new AsyncEventHandler(mockHttpClient, MoreExecutors.newDirectExecutorService(),
+            eventSpool, TimeUnit.HOURS.toMillis(1));
+
+        when(mockHttpClient.execute(any(HttpGet.class), any(ResponseHandler.class))).thenThrow(IOException.class);
+        eventHandler.dispatchEvent(createLogEvent());
+        eventHandler.dispatchEvent(createLogEvent());
+        assertEquals(2, eventSpool.size());
+
+        eventHandler.close();
+        eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        assertEquals(2, eventSpool.size());
+
+        AtomicInteger dispatchCount = new AtomicInteger();
+        doAnswer(invocation -> {
+            dispatchCount.incrementAndGet();
+            return null;
+        }).when(mockHttpClient).execute(any(HttpGet.class), any(ResponseHandler.class));
+        eventHandler = new AsyncEventHandler(mockHttpClient, MoreExecutors.newDirectExecutorService(),
+            eventSpool, TimeUnit.HOURS.toMillis(1));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!eventSpool.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(eventSpool.isEmpty());
+        assertEquals(2, dispatchCount.get());
+        eventHandler.close();
+    }
+
+    /**
+     * Verify that a single failure is replayed right away instead of holding up the later events until the retry
+     * interval.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSpooledEventIsReplayedBeforeRetryInterval() throws Exception {
+        EventSpool eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        AsyncEventHandler eventHandler = new AsyncEventHandler(mockHttpClient, MoreExecutors.newDirectExecutorService(),
+            eventSpool, TimeUnit.HOURS.toMillis(1));
+
+        AtomicInteger dispatchCount = new AtomicInteger();
+        AtomicInteger callCount = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (callCount.getAndIncrement() == 0) {
+                throw new IOException("503");
+            }
+            dispatchCount.incrementAndGet();
+            return null;
+        }).when(mockHttpClient).execute(any(HttpGet.class), any(ResponseHandler.class));
+
+        for (int i = 0; i < 5; i++) {
+            eventHandler.dispatchEvent(createLogEvent());
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatchCount.get() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(5, dispatchCount.get());
+        assertTrue(eventSpool.isEmpty());
+        eventHandler.close();
+    }
+
+    /**
+     * Verify that shutting down waits for the event being replayed, which is acknowledged rather than dispatched
+     * again on the next start.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testShutdownWaitsForReplay() throws Exception {
+        EventSpool eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        eventSpool.append(createLogEvent());
+        eventSpool.append(createLogEvent());
+
+        CountDownLatch replaying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger dispatchCount = new AtomicInteger();
+        doAnswer(invocation -> {
+            replaying.countDown();
+            release.await();
+            dispatchCount.incrementAndGet();
+            return null;
+        }).when(mockHttpClient).execute(any(HttpGet.class), any(ResponseHandler.class));
+        AsyncEventHandler eventHandler = new AsyncEventHandler(mockHttpClient, MoreExecutors.newDirectExecutorService(),
+            eventSpool, TimeUnit.HOURS.toMillis(1));
+        assertTrue(replaying.await(5, TimeUnit.SECONDS));
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        eventHandler.shutdownAndAwaitTermination(5, TimeUnit.SECONDS);
+
+        // the replayed event was acknowledged and the replay stopped before the next one
+        assertEquals(1, dispatchCount.get());
+        eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        assertEquals(1, eventSpool.size());
+        eventSpool.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRejectedExecutionsAreSpooled() throws Exception {
+        EventSpool eventSpool = EventSpool.builder().withDirectory(temporaryFolder.getRoot().toPath()).build();
+        AsyncEventHandler eventHandler = new AsyncEventHandler(mockHttpClient, mockExecutorService,
+            eventSpool, TimeUnit.HOURS.toMillis(1));
+        doThrow(RejectedExecutionException.class).when(mockExecutorService).execute(any(Runnable.class));
+        // keep the endpoint down, so the spool is not replayed
+        when(mockHttpClient.execute(any(HttpGet.class), any(ResponseHandler.class))).thenThrow(IOException.class);
+
+        eventHandler.dispatchEvent(createLogEvent());
+        assertEquals(1, eventSpool.size());
+        eventHandler.shutdownAndAwaitTermination(1, TimeUnit.MILLISECONDS);
+    }
+
     @Test
     public void testInvalidQueueCapacity() {
         AsyncEventHandler.Builder builder = builder();
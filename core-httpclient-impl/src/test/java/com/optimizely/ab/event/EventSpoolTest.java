@@ -0,0 +1,234 @@
+/****************************************************************************
+ * Copyright 2020, Optimizely, Inc. and contributors                        *
+ *                                                                          *
+ * Licensed under the Apache License, Version 2.0 (the "License");          *
+ * you may not use this file except in compliance with the License.         *
+ * You may obtain a copy of the License at                                  *
+ *                                                                          *
+ *    http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                          *
+ * Unless required by applicable law or agreed to in writing, software      *
+ * distributed under the License is distributed on an "AS IS" BASIS,        *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. *
+ * See the License for the specific language governing permissions and      *
+ * limitations under the License.                                           *
+ ***************************************************************************/
+package com.optimizely.ab.event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventSpoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private EventSpool eventSpool;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.getRoot().toPath().resolve("spool");
+        eventSpool = open(4096, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventSpool.close();
+    }
+
+    @Test
+    public void eventsAreReadInOrder() throws Exception {
+        assertTrue(eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "1")));
+        assertTrue(eventSpool.append(logEvent(LogEvent.RequestMethod.GET, "2")));
+        assertEquals(2, eventSpool.size());
+
+        EventSpool.SpooledEvent first = eventSpool.peek();
+        assertSpooled(logEvent(LogEvent.RequestMethod.POST, "1"), first);
+        eventSpool.acknowledge(first);
+
+        EventSpool.SpooledEvent second = eventSpool.peek();
+        assertSpooled(logEvent(LogEvent.RequestMethod.GET, "2"), second);
+        eventSpool.acknowledge(second);
+
+        assertNull(eventSpool.peek());
+        assertTrue(eventSpool.isEmpty());
+    }
+
+    @Test
+    public void peekWithoutAcknowledgeReturnsSameEvent() throws Exception {
+        eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "1"));
+        eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "2"));
+
+        assertSpooled(logEvent(LogEvent.RequestMethod.POST, "1"), eventSpool.peek());
+        assertSpooled(logEvent(LogEvent.RequestMethod.POST, "1"), eventSpool.peek());
+        assertEquals(2, eventSpool.size());
+    }
+
+    @Test
+    public void unacknowledgedEventsAreReplayedAfterRestart() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            eventSpool.append(logEvent(LogEvent.RequestMethod.POST, Integer.toString(i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            eventSpool.acknowledge(eventSpool.peek());
+        }
+        eventSpool.close();
+
+        eventSpool = open(4096, 1024 * 1024);
+        assertEquals(30, eventSpool.size());
+        for (int i = 20; i < 50; i++) {
+            EventSpool.SpooledEvent spooledEvent = eventSpool.peek();
+            assertSpooled(logEvent(LogEvent.RequestMethod.POST, Integer.toString(i)), spooledEvent);
+            eventSpool.acknowledge(spooledEvent);
+        }
+        assertNull(eventSpool.peek());
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            eventSpool.append(logEvent(LogEvent.RequestMethod.POST, Integer.toString(i)));
+        }
+        assertTrue(segmentCount() > 2);
+
+        EventSpool.SpooledEvent spooledEvent;
+        while ((spooledEvent = eventSpool.peek()) != null) {
+            eventSpool.acknowledge(spooledEvent);
+        }
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void eventsAreDroppedWhenSpoolIsFull() throws Exception {
+        eventSpool.close();
+        eventSpool = open(4096, 3 * 4096);
+
+        int appended = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (eventSpool.append(logEvent(LogEvent.RequestMethod.POST, Integer.toString(i)))) {
+                appended++;
+            }
+        }
+
+        assertEquals(3, segmentCount());
+        assertEquals(appended, eventSpool.size());
+        assertEquals(1000 - appended, eventSpool.getDroppedCount());
+
+        // room is made by acknowledging the oldest segment
+        while (segmentCount() == 3) {
+            eventSpool.acknowledge(eventSpool.peek());
+        }
+        assertTrue(eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "new")));
+    }
+
+    @Test
+    public void eventLargerThanSegmentIsDropped() throws Exception {
+        LogEvent logEvent = new LogEvent(LogEvent.RequestMethod.POST, "http://localhost/events",
+            Collections.<String, String>emptyMap(), null) {
+            @Override
+            public byte[] getBodyBytes() {
+                return new byte[8192];
+            }
+        };
+
+        assertFalse(eventSpool.append(logEvent));
+        assertEquals(1, eventSpool.getDroppedCount());
+        assertTrue(eventSpool.isEmpty());
+    }
+
+    @Test
+    public void incompleteRecordIsDiscarded() throws Exception {
+        eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "1"));
+        eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "2"));
+        eventSpool.close();
+
+        // corrupt the payload of the last record, as a crash in the middle of the append would
+        Path segment = directory.resolve(String.format("%020d", 0) + ".spool");
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int firstLength = file.readInt();
+            file.seek(8 + firstLength + 8 + 3);
+            file.write(0xFF);
+        }
+
+        eventSpool = open(4096, 1024 * 1024);
+        assertEquals(1, eventSpool.size());
+        eventSpool.acknowledge(eventSpool.peek());
+        assertTrue(eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "3")));
+        assertSpooled(logEvent(LogEvent.RequestMethod.POST, "3"), eventSpool.peek());
+    }
+
+    @Test
+    public void directoryCannotBeOpenedTwice() throws Exception {
+        try {
+            open(4096, 1024 * 1024);
+            fail("Expected the spool directory to be locked");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void appendAfterCloseIsDropped() throws Exception {
+        eventSpool.close();
+
+        assertFalse(eventSpool.append(logEvent(LogEvent.RequestMethod.POST, "1")));
+        assertEquals(1, eventSpool.getDroppedCount());
+        assertNull(eventSpool.peek());
+    }
+
+    //======== Helper methods ========//
+
+    private EventSpool open(int segmentSize, long maxTotalSize) throws IOException {
+        return EventSpool.builder()
+            .withDirectory(directory)
+            .withSegmentSize(segmentSize)
+            .withMaxTotalSize(maxTotalSize)
+            .build();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".spool")).count();
+        }
+    }
+
+    private static LogEvent logEvent(LogEvent.RequestMethod requestMethod, String id) {
+        Map<String, String> params = new HashMap<>();
+        params.put("id", id);
+        params.put("üser", "☃");
+        byte[] body = ("{\"id\":\"" + id + "\"}").getBytes(StandardCharsets.UTF_8);
+        return new LogEvent(requestMethod, "http://localhost/events", params, null) {
+            @Override
+            public byte[] getBodyBytes() {
+                return body;
+            }
+        };
+    }
+
+    private static void assertSpooled(LogEvent expected, EventSpool.SpooledEvent actual) {
+        assertEquals(expected.getRequestMethod(), actual.getRequestMethod());
+        assertEquals(expected.getEndpointUrl(), actual.getEndpointUrl());
+        assertEquals(expected.getRequestParams(), actual.getRequestParams());
+        assertEquals(expected.getBody(), actual.getBody());
+    }
+}